@@ -1,15 +1,30 @@
 package com.unifor.br.chat_peer;
 
+import com.unifor.br.chat_peer.p2p.ChatMessage;
 import com.unifor.br.chat_peer.p2p.DiscoveryService;
+import com.unifor.br.chat_peer.p2p.MessageHistory;
+import com.unifor.br.chat_peer.p2p.PeerConfig;
 import com.unifor.br.chat_peer.p2p.PeerNode;
+import com.unifor.br.chat_peer.p2p.TransferStatus;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
 
 public class Chat {
 
+    private static final int SEARCH_LIMIT = 50;
+
     public static void main(String[] args) throws Exception {
         Locale.setDefault(new Locale("pt", "BR"));
 
@@ -20,9 +35,9 @@ public class Chat {
         if (userName.isBlank()) userName = "anon";
 
         int port = 0;
-        boolean forward = false;
+        boolean forward = Boolean.getBoolean("p2p.relay");
 
-        PeerNode node = new PeerNode(userName, port, forward);
+        PeerNode node = new PeerNode(userName, port, forward, PeerConfig.fromSystemProperties());
 
         node.onDisplay = System.out::println;
 
@@ -37,7 +52,13 @@ public class Chat {
         }
 
         System.out.println("\n=== Chat iniciado ===");
-        System.out.println("  /connect host port | /peers | /history | /discover | /exit\n");
+        System.out.println("  /connect host port | /peers | /history [n] | /sync | /stats | /discover | /exit");
+        System.out.println("  /from usuario [n] | /find termos | /between inicio fim  (horários HH:mm ou yyyy-MM-ddTHH:mm)");
+        System.out.println("  /join canal | /leave canal | /channel [canal] (sem canal = conversa geral) | /channels");
+        System.out.println("  /dm usuário|id texto (mensagem direta) | /dms [n] | /id");
+        System.out.println("  /send usuário arquivo | /files | /accept id | /decline id\n");
+
+        String channel = null; // where plain text goes; null = the global conversation
 
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
 
@@ -63,15 +84,162 @@ public class Chat {
                         node.connectTo(host, p);
                     }
                     case "/peers" -> {
-                        var peers = node.connectedPeersSnapshot();
+                        var peers = node.outboundQueueDepths();
+                        var health = node.linkHealth();
                         if (peers.isEmpty()) {
                             System.out.println("Nenhum peer conectado.");
                         } else {
                             System.out.println("Peers conectados:");
-                            for (var peer : peers) System.out.println(" - " + peer);
+                            for (var peer : peers.entrySet()) {
+                                var h = health.get(peer.getKey());
+                                System.out.println(" - " + peer.getKey() + " (fila de saída: " + peer.getValue()
+                                        + (h == null ? "" : ", " + h) + ")");
+                            }
+                        }
+                    }
+                    case "/history" -> {
+                        try {
+                            printHistory(channel == null ? node.history() : node.channelHistory(channel),
+                                    parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Uso: /history [n]");
+                        }
+                    }
+                    case "/join", "/leave" -> {
+                        if (parts.length < 2) {
+                            System.out.println("Uso: " + cmd + " <canal>");
+                            continue;
+                        }
+                        String name = channelName(parts[1]);
+                        try {
+                            boolean join = cmd.equals("/join");
+                            if (!(join ? node.join(name) : node.leave(name))) {
+                                System.out.println((join ? "Já inscrito em #" : "Não inscrito em #") + name);
+                            } else if (join) {
+                                channel = name;
+                                System.out.println("Enviando para #" + name);
+                            } else if (name.equals(channel)) {
+                                channel = null;
+                                System.out.println("Enviando para a conversa geral");
+                            }
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("Nome de canal inválido: use letras, dígitos, '_', '.' ou '-'");
+                        }
+                    }
+                    case "/channel" -> {
+                        if (parts.length < 2) {
+                            channel = null;
+                            System.out.println("Enviando para a conversa geral");
+                        } else if (!node.channels().contains(channelName(parts[1]))) {
+                            System.out.println("Não inscrito em #" + channelName(parts[1]) + "; use /join primeiro");
+                        } else {
+                            channel = channelName(parts[1]);
+                            System.out.println("Enviando para #" + channel);
+                        }
+                    }
+                    case "/channels" -> {
+                        System.out.println("Inscrito em: " + (node.channels().isEmpty() ? "nenhum canal" : "#" + String.join(", #", node.channels())));
+                        for (var peer : node.channelInterest().entrySet()) {
+                            System.out.println(" - " + peer.getKey() + " alcança assinantes " + peer.getValue());
                         }
                     }
-                    case "/history" -> System.out.print(node.history().dump());
+                    case "/dm" -> {
+                        String[] dm = line.split("\\s+", 3);
+                        if (dm.length < 3) {
+                            System.out.println("Uso: /dm <usuário ou id> <texto>");
+                            continue;
+                        }
+                        // a user name first: "abc" could be either
+                        String target = node.originOf(dm[1]);
+                        if (target == null && dm[1].matches("[0-9a-fA-F]{1,16}")) target = dm[1];
+                        if (target == null) {
+                            System.out.println("Id de " + dm[1] + " desconhecido; peça o /id ou espere uma mensagem dele");
+                        } else if (node.sendDirect(target, dm[2]) == null) {
+                            System.out.println("Nenhum peer leva para mais perto de " + target + "; mensagem não enviada");
+                        }
+                    }
+                    case "/dms" -> {
+                        try {
+                            printHistory(node.directHistory(), parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Uso: /dms [n]");
+                        }
+                    }
+                    case "/id" -> System.out.println("Roteamento " + node.routingStats());
+                    case "/send" -> {
+                        String[] send = line.split("\\s+", 3);
+                        if (send.length < 3) {
+                            System.out.println("Uso: /send <usuário> <arquivo>");
+                            continue;
+                        }
+                        try {
+                            if (node.offerFile(send[1], Path.of(send[2])) == null) {
+                                System.out.println(send[1] + " não está conectado ou não recebe arquivos");
+                            } else {
+                                System.out.println("Preparando " + send[2] + " para " + send[1] + "...");
+                            }
+                        } catch (IOException e) {
+                            System.out.println("Não foi possível oferecer " + send[2] + ": " + e);
+                        } catch (IllegalStateException | IllegalArgumentException e) {
+                            System.out.println("Não foi possível oferecer " + send[2] + ": " + e.getMessage());
+                        }
+                    }
+                    case "/files" -> {
+                        List<TransferStatus> transfers = node.fileTransfers();
+                        if (transfers.isEmpty()) System.out.println("Nenhuma transferência de arquivo.");
+                        for (TransferStatus t : transfers) System.out.println(" - " + t);
+                    }
+                    case "/accept", "/decline" -> {
+                        if (parts.length < 2) {
+                            System.out.println("Uso: " + cmd + " <id>");
+                            continue;
+                        }
+                        boolean accept = cmd.equals("/accept");
+                        TransferStatus t = accept ? node.acceptFile(parts[1]) : node.cancelFile(parts[1]);
+                        if (t != null) System.out.println(t);
+                        else System.out.println(accept ? "Nenhuma oferta " + parts[1] + " esperando aceite" : "Nenhuma transferência " + parts[1]);
+                    }
+                    case "/from" -> {
+                        if (parts.length < 2) {
+                            System.out.println("Uso: /from <usuário> [n]");
+                            continue;
+                        }
+                        try {
+                            int n = parts.length > 2 ? Integer.parseInt(parts[2]) : SEARCH_LIMIT;
+                            printMessages(node.history().index().bySender(parts[1], n));
+                        } catch (NumberFormatException e) {
+                            System.out.println("Uso: /from <usuário> [n]");
+                        }
+                    }
+                    case "/find" -> {
+                        String terms = line.substring(cmd.length()).trim();
+                        if (terms.isEmpty()) {
+                            System.out.println("Uso: /find <termos>");
+                            continue;
+                        }
+                        printMessages(node.history().index().search(terms, SEARCH_LIMIT));
+                    }
+                    case "/between" -> {
+                        if (parts.length < 3) {
+                            System.out.println("Uso: /between <início> <fim>");
+                            continue;
+                        }
+                        try {
+                            printMessages(node.history().index().between(parseTime(parts[1]), parseTime(parts[2]), SEARCH_LIMIT));
+                        } catch (DateTimeParseException e) {
+                            System.out.println("Horário inválido: use HH:mm[:ss] ou yyyy-MM-ddTHH:mm[:ss]");
+                        }
+                    }
+                    case "/sync" -> {
+                        node.requestSync();
+                        System.out.println("Sincronização solicitada. " + node.syncStats());
+                    }
+                    case "/stats" -> {
+                        System.out.println(node.metrics());
+                        System.out.println("Encaminhamento " + node.forwardStats());
+                        System.out.println("Sincronização " + node.syncStats());
+                        System.out.println("Roteamento " + node.routingStats());
+                    }
                     case "/discover" -> {
                         if (discovery != null) discovery.announceDiscover();
                         System.out.println("Discovery acionado.");
@@ -84,12 +252,42 @@ public class Chat {
                     }
                     default -> System.out.println("Comando desconhecido: " + cmd);
                 }
-            } else {
+            } else if (channel == null) {
                 node.broadcastUserText(line);
+            } else {
+                node.publish(channel, line);
             }
         }
 
         if (discovery != null) discovery.close();
         node.safeClose();
     }
+
+    /** Channel names are case-insensitive and may be typed with a leading '#'. */
+    private static String channelName(String typed) {
+        return (typed.startsWith("#") ? typed.substring(1) : typed).toLowerCase(Locale.ROOT);
+    }
+
+    private static void printMessages(List<ChatMessage> messages) {
+        if (messages.isEmpty()) System.out.println("Nenhuma mensagem encontrada.");
+        for (ChatMessage m : messages) System.out.println(m.format());
+    }
+
+    /** {@code HH:mm[:ss]} means today; anything else must be a local date-time. */
+    private static Instant parseTime(String s) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (s.contains("T")) return LocalDateTime.parse(s).atZone(zone).toInstant();
+        return LocalDate.now(zone).atTime(LocalTime.parse(s)).atZone(zone).toInstant();
+    }
+
+    /** Prints the last {@code last} messages (all retained ones when 0) one page at a time. */
+    private static void printHistory(MessageHistory history, int last) {
+        long cursor = last > 0 ? history.nextSeq() - last : history.firstSeq();
+        MessageHistory.Page page;
+        do {
+            page = history.page(cursor, 256);
+            for (ChatMessage m : page.messages) System.out.println(m.format());
+            cursor = page.nextCursor;
+        } while (page.hasMore);
+    }
 }
\ No newline at end of file
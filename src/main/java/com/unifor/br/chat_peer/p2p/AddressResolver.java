@@ -0,0 +1,217 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Host name cache with a TTL in front of {@link InetAddress#getByName}.
+ * <p>
+ * IP literals are parsed without touching DNS. Names are looked up on a daemon pool of at most
+ * {@link #MAX_LOOKUPS} threads, with concurrent requests for the same name sharing one lookup; up to
+ * {@link #MAX_QUEUED} more names wait their turn, and beyond that a lookup fails at once. {@link #cached} never blocks: it
+ * returns the last known address (refreshing it in the background once expired) or null.
+ * Failures are remembered for a shorter TTL so an unknown name is not retried on every message.
+ * The cache holds at most {@link #MAX_ENTRIES} answers; past that, expired ones and then those
+ * closest to expiry are dropped.
+ */
+public final class AddressResolver {
+
+    static final int MAX_LOOKUPS = 4;
+    static final int MAX_QUEUED = 1024;
+    static final int MAX_ENTRIES = 4096;
+
+    private static final AddressResolver SHARED = new AddressResolver(
+            Long.getLong("p2p.dns.ttlMs", 60_000L), Long.getLong("p2p.dns.negativeTtlMs", 10_000L));
+
+    /** Process-wide instance used by {@link PeerAddress}; TTLs come from {@code -Dp2p.dns.ttlMs} / {@code -Dp2p.dns.negativeTtlMs}. */
+    public static AddressResolver shared() { return SHARED; }
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<InetAddress>> inFlight = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor lookups;
+    private final LongAdder dnsQueries = new LongAdder();
+
+    public AddressResolver(long ttlMillis, long negativeTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        AtomicInteger seq = new AtomicInteger();
+        this.lookups = new ThreadPoolExecutor(MAX_LOOKUPS, MAX_LOOKUPS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED), r -> {
+            Thread t = new Thread(r, "p2p-dns-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        lookups.allowCoreThreadTimeOut(true);
+    }
+
+    /** Address known for {@code host} right now, or null; never blocks. */
+    public InetAddress cached(String host) {
+        if (host == null || host.isEmpty()) return null;
+        String key = key(host);
+        Entry e = cache.get(key);
+        if (e == null) {
+            if (!isLiteral(key)) return null;
+            return resolveLiteral(key);
+        }
+        if (e.expiresAt < System.currentTimeMillis()) resolveAsync(host); // serve stale, refresh behind
+        return e.address;
+    }
+
+    /** Resolves through the cache, blocking on a miss. */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        InetAddress cached = cached(host);
+        if (cached != null) return cached;
+        try {
+            return resolveAsync(host).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UnknownHostException u) throw u;
+            throw new UnknownHostException(host + ": " + e.getCause());
+        }
+    }
+
+    /** Looks the name up off the caller's thread unless a fresh answer is cached. */
+    public CompletableFuture<InetAddress> resolveAsync(String host) {
+        String key = key(host);
+        Entry e = cache.get(key);
+        if (e != null && e.expiresAt >= System.currentTimeMillis()) {
+            return e.address != null ? CompletableFuture.completedFuture(e.address)
+                    : CompletableFuture.failedFuture(new UnknownHostException(host));
+        }
+        if (isLiteral(key)) {
+            InetAddress literal = resolveLiteral(key);
+            return literal != null ? CompletableFuture.completedFuture(literal)
+                    : CompletableFuture.failedFuture(new UnknownHostException(host));
+        }
+        CompletableFuture<InetAddress> lookup;
+        try {
+            lookup = inFlight.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> lookup(k), lookups));
+        } catch (RejectedExecutionException full) {
+            return CompletableFuture.failedFuture(new UnknownHostException(host + ": too many lookups pending"));
+        }
+        // outside computeIfAbsent: a lookup that already finished would run the removal inside it
+        return lookup.whenComplete((a, err) -> inFlight.remove(key, lookup));
+    }
+
+    /** Same address with its host resolved; fails with {@link UnknownHostException}. */
+    public CompletableFuture<PeerAddress> resolveAsync(PeerAddress addr) {
+        if (addr.isResolved()) return CompletableFuture.completedFuture(addr);
+        return resolveAsync(addr.host).thenApply(a -> new PeerAddress(addr.host, addr.port, a));
+    }
+
+    /** Names currently cached, including negative answers. */
+    public int size() { return cache.size(); }
+
+    /** Lookups that actually went to the system resolver. */
+    public long dnsQueries() { return dnsQueries.sum(); }
+
+    private InetAddress lookup(String key) {
+        dnsQueries.increment();
+        try {
+            InetAddress a = InetAddress.getByName(key);
+            store(key, new Entry(a, System.currentTimeMillis() + ttlMillis));
+            return a;
+        } catch (UnknownHostException e) {
+            store(key, new Entry(null, System.currentTimeMillis() + negativeTtlMillis));
+            throw new CompletionException(e);
+        }
+    }
+
+    private InetAddress resolveLiteral(String key) {
+        InetAddress a = parseLiteral(key);
+        if (a != null) store(key, new Entry(a, System.currentTimeMillis() + ttlMillis));
+        return a;
+    }
+
+    /** The address an IP literal {@link #key} names, or null if it is not one; never goes to DNS. */
+    static InetAddress parseLiteral(String key) {
+        if (!isLiteral(key)) return null;
+        try {
+            // brackets make a malformed IPv6 fail instead of falling back to a name lookup
+            return InetAddress.getByName(key.indexOf(':') >= 0 ? "[" + key + "]" : key);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private void store(String key, Entry e) {
+        cache.put(key, e);
+        if (cache.size() > MAX_ENTRIES) trim();
+    }
+
+    /** Drops expired answers, then the ones closest to expiry, until the cache is back to 7/8 of its cap. */
+    private synchronized void trim() {
+        if (cache.size() <= MAX_ENTRIES) return;
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(e -> e.expiresAt < now);
+        int excess = cache.size() - MAX_ENTRIES / 8 * 7;
+        if (excess <= 0) return;
+        List<Map.Entry<String, Entry>> byExpiry = new ArrayList<>(cache.entrySet());
+        byExpiry.sort(Comparator.comparingLong(en -> en.getValue().expiresAt));
+        for (int i = 0; i < Math.min(excess, byExpiry.size()); i++) {
+            cache.remove(byExpiry.get(i).getKey(), byExpiry.get(i).getValue());
+        }
+    }
+
+    static String key(String host) {
+        String h = host.trim().toLowerCase(Locale.ROOT);
+        if (h.startsWith("[") && h.endsWith("]")) h = h.substring(1, h.length() - 1);
+        return h;
+    }
+
+    /**
+     * Dotted IPv4 with every octet in 0-255, or IPv6 (hex groups, ':' and an optional embedded IPv4
+     * or '%' scope). Anything else could make {@link InetAddress#getByName} go to DNS.
+     */
+    static boolean isLiteral(String host) {
+        if (host.indexOf(':') >= 0) return isIpv6(host);
+        String[] octets = host.split("\\.", -1);
+        if (octets.length != 4) return false;
+        for (String o : octets) {
+            if (o.isEmpty() || o.length() > 3) return false;
+            for (int i = 0; i < o.length(); i++) {
+                if (o.charAt(i) < '0' || o.charAt(i) > '9') return false;
+            }
+            if (Integer.parseInt(o) > 255) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIpv6(String host) {
+        int scope = host.indexOf('%');
+        int end = scope >= 0 ? scope : host.length();
+        if (end == 0 || scope == host.length() - 1) return false;
+        for (int i = 0; i < end; i++) {
+            char c = host.charAt(i);
+            if (c != ':' && c != '.' && Character.digit(c, 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        final InetAddress address; // null: negative answer
+        final long expiresAt;
+
+        Entry(InetAddress address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
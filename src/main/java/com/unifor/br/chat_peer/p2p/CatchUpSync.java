@@ -0,0 +1,242 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * History catch-up between peers.
+ * <p>
+ * After the handshake each side sends SYNC_REQ with its per-origin high-water marks. The other
+ * side walks its history once and streams every message above those marks as SYNC_MSG, a batch
+ * at a time, then SYNC_END. Batches are paced by a node-wide byte token bucket and paused while
+ * the connection's outbound queue holds live traffic, so catch-up only uses spare capacity.
+ * Marks advance as messages are applied, so a stream cut by a disconnect resumes where it stopped.
+ */
+final class CatchUpSync {
+
+    /** Retry delay while a connection's queue is busy with live traffic. */
+    private static final long BUSY_RETRY_MILLIS = 20;
+
+    private final PeerNode node;
+    private final MessageHistory history;
+    private final PeerConfig config;
+    final SequenceTracker tracker = new SequenceTracker();
+    private final TokenBucket bucket;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<PeerConnection, Session> serving = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PeerConnection, Incoming> receiving = new ConcurrentHashMap<>();
+    /** Per origin, the highest seq streams that already ended sent; settled once no stream is left. Guarded by this. */
+    private final Map<String, Long> unsettled = new HashMap<>();
+
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder sessionsServed = new LongAdder();
+
+    CatchUpSync(PeerNode node, MessageHistory history, PeerConfig config) {
+        this.node = node;
+        this.history = history;
+        this.config = config;
+        this.bucket = new TokenBucket(config.syncRateBytesPerSecond(), config.network());
+        this.scheduler = config.sync() ? config.network().newScheduler("p2p-sync") : null;
+        // whatever history was restored from disk counts as already held; its gaps stay open for catch-up
+        MessageHistory.Page page;
+        long cursor = history.firstSeq();
+        do {
+            page = history.page(cursor, 1024);
+            for (ChatMessage m : page.messages) tracker.record(m.origin, m.originSeq);
+            cursor = page.nextCursor;
+        } while (page.hasMore);
+    }
+
+    /** Asks the peer for everything above our marks. */
+    void requestFrom(PeerConnection conn) {
+        receiving.put(conn, new Incoming());
+        conn.send(ProtocolMessage.syncReq(tracker.marksCsv()));
+    }
+
+    void onRequest(PeerConnection conn, ProtocolMessage req) {
+        Session s = new Session(conn, req.id, SequenceTracker.parseMarks(req.syncMarks()),
+                history.firstSeq(), history.nextSeq());
+        Session previous = serving.put(conn, s);
+        if (previous != null) previous.cancelled = true; // newer marks supersede it
+        sessionsServed.increment();
+        schedule(s, 0);
+    }
+
+    /** Applies one streamed message; returns it once stored, or null if it was already held. */
+    ChatMessage onMessage(PeerConnection conn, ProtocolMessage msg) {
+        bytesReceived.add(msg.frame(conn.binaryWire()).length);
+        if (msg.origin == null) return null;
+        Incoming in = receiving.computeIfAbsent(conn, k -> new Incoming());
+        in.streamed(msg.origin, msg.originSeq);
+        if (!tracker.record(msg.origin, msg.originSeq)) return null;
+        if (!node.firstSighting(msg)) return null;
+        messagesReceived.increment();
+        in.added.increment();
+        Instant ts = msg.timestamp > 0 ? Instant.ofEpochMilli(msg.timestamp) : Instant.now();
+        return history.add(new ChatMessage(ts, msg.from, msg.text, ChatMessage.Direction.IN, msg.id, msg.origin, msg.originSeq));
+    }
+
+    /**
+     * Returns how many messages this peer's stream added. Gaps below what it streamed are given
+     * up on only once every other stream in progress has ended too, since another peer may still
+     * be sending exactly those messages.
+     */
+    long onEnd(PeerConnection conn, ProtocolMessage end) {
+        bytesReceived.add(end.frame(conn.binaryWire()).length);
+        Incoming in = receiving.remove(conn);
+        if (in == null) return 0;
+        synchronized (this) {
+            synchronized (in.highest) {
+                in.highest.forEach((origin, seq) -> unsettled.merge(origin, seq, Math::max));
+            }
+        }
+        settleIfIdle();
+        return in.added.sum();
+    }
+
+    void forget(PeerConnection conn) {
+        Session s = serving.remove(conn);
+        if (s != null) s.cancelled = true;
+        if (receiving.remove(conn) != null) settleIfIdle();
+    }
+
+    private synchronized void settleIfIdle() {
+        if (!receiving.isEmpty()) return;
+        unsettled.forEach(tracker::settle);
+        unsettled.clear();
+    }
+
+    SyncStats stats() {
+        return new SyncStats(bytesSent.sum(), bytesReceived.sum(), messagesSent.sum(), messagesReceived.sum(),
+                sessionsServed.sum(), serving.size(), tracker.origins());
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void schedule(Session s, long delayMillis) {
+        try {
+            scheduler.schedule(s::step, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /** One peer's catch-up stream: a cursor over the history as it was when the request came in. */
+    private final class Session {
+        final PeerConnection conn;
+        final String requestId;
+        final Map<String, Long> marks;
+        final long end;
+        long cursor;
+        volatile boolean cancelled;
+
+        Session(PeerConnection conn, String requestId, Map<String, Long> marks, long from, long end) {
+            this.conn = conn;
+            this.requestId = requestId;
+            this.marks = marks;
+            this.cursor = from;
+            this.end = end;
+        }
+
+        /** Sends up to one batch, then reschedules itself; runs on the sync thread only. */
+        void step() {
+            if (cancelled || conn.isClosed()) {
+                serving.remove(conn, this);
+                return;
+            }
+            if (conn.queueDepth() > config.outboundQueueCapacity() / 4) {
+                schedule(this, BUSY_RETRY_MILLIS);
+                return;
+            }
+            int sent = 0;
+            while (cursor < end && sent < config.syncBatchMessages()) {
+                MessageHistory.Page page = history.page(cursor, Math.min(256, (int) Math.min(Integer.MAX_VALUE, end - cursor)));
+                if (page.messages.isEmpty()) {
+                    cursor = Math.max(page.nextCursor, cursor + 1);
+                    continue;
+                }
+                for (ChatMessage m : page.messages) {
+                    if (m.seq >= end) {
+                        cursor = end;
+                        break;
+                    }
+                    cursor = m.seq + 1;
+                    if (m.origin == null || m.id == null || m.originSeq <= marks.getOrDefault(m.origin, 0L)) continue;
+
+                    ProtocolMessage out = ProtocolMessage.syncMsg(m);
+                    int bytes = conn.encode(out).length;
+                    conn.send(out);
+                    bytesSent.add(bytes);
+                    messagesSent.increment();
+                    sent++;
+                    long wait = bucket.consume(bytes);
+                    if (wait > 0 || sent >= config.syncBatchMessages()) {
+                        schedule(this, wait);
+                        return;
+                    }
+                }
+            }
+            if (cursor < end) {
+                schedule(this, 0);
+                return;
+            }
+            ProtocolMessage done = ProtocolMessage.syncEnd(requestId);
+            bytesSent.add(conn.encode(done).length);
+            conn.send(done);
+            serving.remove(conn, this);
+        }
+    }
+
+    /** What one peer's stream to us has carried so far. */
+    private static final class Incoming {
+        final LongAdder added = new LongAdder();
+        /** Highest seq streamed per origin, held already or not; guarded by itself. */
+        final Map<String, Long> highest = new HashMap<>();
+
+        void streamed(String origin, long seq) {
+            synchronized (highest) {
+                highest.merge(origin, seq, Math::max);
+            }
+        }
+    }
+
+    /** Node-wide byte budget: {@code rate} bytes per second with one second of burst. */
+    private static final class TokenBucket {
+        private final double perNano;
+        private final double burst;
+        private final Network clock;
+        private double tokens;
+        private long last;
+
+        TokenBucket(long bytesPerSecond, Network clock) {
+            this.perNano = bytesPerSecond / 1e9;
+            this.burst = bytesPerSecond;
+            this.clock = clock;
+            this.tokens = burst;
+            this.last = clock.nanoTime();
+        }
+
+        /** Takes {@code bytes}, going into debt if needed; returns the millis until the debt is paid. */
+        synchronized long consume(int bytes) {
+            long now = clock.nanoTime();
+            tokens = Math.min(burst, tokens + (now - last) * perNano);
+            last = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / perNano / 1e6);
+        }
+    }
+}
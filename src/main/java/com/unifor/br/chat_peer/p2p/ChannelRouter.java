@@ -0,0 +1,320 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+
+/**
+ * Named channels: which ones this node subscribes to, their history partitions, and which links a
+ * channel message has to go out on.
+ * <p>
+ * Channel traffic runs over one spanning tree of the forwarding nodes. The tree is elected like a
+ * distance vector: every node tells each link which root it knows (the lowest {@link PeerNode#origin()}
+ * it has heard of) and how far away it is, picks as parent the link with the best such offer,
+ * and says so on that link. A link is a tree link when one end is the other's parent. Offers from
+ * our own children are ignored, and offers from {@link #MAX_HOPS} hops away are not taken, which
+ * bounds the counting-up after the root leaves. A node that does not forward never offers itself,
+ * so it can only be a leaf. Nobody offers a root before channels are in use, that is before the
+ * node has subscribed or heard an offer or interest from a link, so a mesh without channels sends
+ * no SUBSCRIBE at all.
+ * <p>
+ * On top of the tree each node tells every tree link which channels have a subscriber on its side
+ * of it: its own subscriptions plus what its other tree links reported. A tree has no cycles, so
+ * that is exact, and a channel message goes out only on the tree links that lead to subscribers,
+ * reaching each subscriber once and never entering branches without one. Other links carry only
+ * the peer's own subscriptions, which a node off the tree (no forwarding neighbours) uses to reach
+ * its direct neighbours. Tree state and interest ride in HELLO and afterwards in SUBSCRIBE; changes
+ * are collected for {@link #UPDATE_DELAY_MILLIS} and sent as one frame per link, so a wave of
+ * updates costs a few frames rather than one per step.
+ * <p>
+ * Channel messages are stored only by subscribers, each channel in its own in-memory
+ * {@link MessageHistory}; they carry no per-origin sequence, so catch-up covers the global
+ * conversation only.
+ */
+final class ChannelRouter {
+
+    /** Root distance at which an offer is no longer taken. */
+    static final int MAX_HOPS = 64;
+    /** How long changes are collected before updates go out. */
+    static final long UPDATE_DELAY_MILLIS = 25;
+
+    private static final Pattern NAME = Pattern.compile("[\\p{L}\\p{N}_.-]{1,64}");
+
+    private final PeerNode node;
+    private final boolean forwarding;
+    private final int historyCapacity;
+    private final Network network;
+    private final ConcurrentMap<String, MessageHistory> joined = new ConcurrentHashMap<>();
+    /** Links a channel's messages go out on, rebuilt after any change. */
+    private final ConcurrentMap<String, List<PeerConnection>> nextHops = new ConcurrentHashMap<>();
+
+    // tree state, guarded by this
+    private PeerConnection parent;
+    private String root = "";
+    private int distance;
+    private boolean flushScheduled;
+    /** Update timer, started by the first change once channels are in use. */
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+    /** Channels are in use somewhere: set on the first subscription, offer or interest seen. */
+    private boolean active;
+
+    private final LongAdder updatesSent = new LongAdder();
+
+    ChannelRouter(PeerNode node, PeerConfig config, boolean forwarding) {
+        this.node = node;
+        this.forwarding = forwarding;
+        this.historyCapacity = config.channelHistoryCapacity();
+        this.network = config.network();
+    }
+
+    /**
+     * Canonical form of a channel name: lower case, without a leading '#'.
+     *
+     * @throws IllegalArgumentException for names that are empty, too long or hold anything but
+     *         letters, digits, '_', '.' and '-'
+     */
+    static String normalize(String name) {
+        String n = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        if (n.startsWith("#")) n = n.substring(1);
+        if (!NAME.matcher(n).matches()) throw new IllegalArgumentException("Invalid channel name: " + name);
+        return n;
+    }
+
+    /** Subscribes to a channel; false if already subscribed. */
+    synchronized boolean join(String channel) {
+        if (joined.putIfAbsent(channel, new MessageHistory(historyCapacity)) != null) return false;
+        active = true;
+        changed();
+        return true;
+    }
+
+    /** Drops a subscription and its history; false if not subscribed. */
+    synchronized boolean leave(String channel) {
+        MessageHistory h = joined.remove(channel);
+        if (h == null) return false;
+        h.close();
+        changed();
+        return true;
+    }
+
+    Set<String> subscriptions() {
+        return Collections.unmodifiableSet(new TreeSet<>(joined.keySet()));
+    }
+
+    /** The channel's history, or null when not subscribed. */
+    MessageHistory history(String channel) {
+        return joined.get(channel);
+    }
+
+    /** The links a message on {@code channel} goes out on; the caller skips the one it came from. */
+    List<PeerConnection> targets(String channel) {
+        List<PeerConnection> t = nextHops.get(channel);
+        if (t != null) return t;
+        synchronized (this) {
+            t = nextHops.get(channel);
+            if (t == null) {
+                t = computeTargets(channel);
+                nextHops.put(channel, t);
+            }
+            return t;
+        }
+    }
+
+    /** Channels with a subscriber behind each channel-capable link. */
+    synchronized Map<PeerConnection, Set<String>> reachable() {
+        Map<PeerConnection, Set<String>> out = new LinkedHashMap<>();
+        for (PeerConnection c : node.links()) {
+            if (c.channelCapable) out.put(c, c.channelInterest);
+        }
+        return out;
+    }
+
+    /** The state for our HELLO on a new link, remembered as already advertised there. */
+    synchronized String helloInterest(PeerConnection conn) {
+        String state = stateFor(conn);
+        conn.channelsAdvertised = state;
+        return state;
+    }
+
+    /** The peer's HELLO arrived: take its tree offer and interest. */
+    synchronized void linkUp(PeerConnection conn, boolean peerOffersChannels, String state) {
+        conn.channelCapable = peerOffersChannels;
+        if (!peerOffersChannels) return;
+        read(conn, state);
+        activate(conn);
+    }
+
+    synchronized void onSubscribe(PeerConnection conn, ProtocolMessage msg) {
+        if (!conn.channelCapable) return;
+        read(conn, msg.interest());
+        activate(conn);
+    }
+
+    /** A link went away, and with it its offer and whatever was behind it. */
+    synchronized void forget(PeerConnection conn) {
+        nextHops.clear();
+        if (!conn.channelCapable) return;
+        conn.channelCapable = false;
+        conn.channelChild = false;
+        conn.channelInterest = Set.of();
+        if (conn == parent) parent = null;
+        changed();
+    }
+
+    /** SUBSCRIBE frames sent since start. */
+    long updatesSent() { return updatesSent.sum(); }
+
+    synchronized void close() {
+        closed = true;
+        if (scheduler != null) scheduler.shutdownNow();
+        for (MessageHistory h : joined.values()) h.close();
+        joined.clear();
+    }
+
+    /** A link's state arrived; from the first offer or interest on, this node takes part in the tree. */
+    private void activate(PeerConnection conn) {
+        if (!conn.channelRoot.isEmpty() || !conn.channelInterest.isEmpty()) active = true;
+        if (active) changed();
+    }
+
+    /**
+     * Something changed: forget cached next hops and, once channels are in use, schedule an update;
+     * before that every link was told the empty state and still holds it. Caller holds the lock.
+     */
+    private void changed() {
+        nextHops.clear();
+        if (!active || flushScheduled || closed) return;
+        if (scheduler == null) scheduler = network.newScheduler("p2p-channels");
+        try {
+            scheduler.schedule(this::flush, UPDATE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /** Re-elects the parent, then sends every link whose state changed its new state. */
+    private synchronized void flush() {
+        flushScheduled = false;
+        elect();
+        nextHops.clear();
+        for (PeerConnection c : node.links()) {
+            if (!c.channelCapable || c.isClosed()) continue;
+            String state = stateFor(c);
+            if (state.equals(c.channelsAdvertised)) continue;
+            c.channelsAdvertised = state;
+            c.send(ProtocolMessage.subscribe(state));
+            updatesSent.increment();
+        }
+    }
+
+    /** Takes the best root offer from a link that is not our child; we are the root if our own id is lower. */
+    private void elect() {
+        PeerConnection best = null;
+        for (PeerConnection c : node.links()) {
+            if (!c.channelCapable || c.isClosed() || c.channelChild || c.channelRoot.isEmpty()) continue;
+            if (c.channelRootDistance + 1 >= MAX_HOPS) continue;
+            if (best == null || better(c.channelRoot, c.channelRootDistance, best.channelRoot, best.channelRootDistance)) {
+                best = c;
+            }
+        }
+        if (forwarding && active && (best == null || node.origin().compareTo(best.channelRoot) <= 0)) {
+            parent = null;
+            root = node.origin();
+            distance = 0;
+        } else if (best != null) {
+            parent = best;
+            root = best.channelRoot;
+            distance = best.channelRootDistance + 1;
+        } else {
+            parent = null;
+            root = "";
+            distance = 0;
+        }
+    }
+
+    private static boolean better(String rootA, int distanceA, String rootB, int distanceB) {
+        int c = rootA.compareTo(rootB);
+        return c != 0 ? c < 0 : distanceA < distanceB;
+    }
+
+    /**
+     * {@code root:distance:parentFlag} followed by the channels behind us as seen from {@code to}:
+     * our own, plus on a tree link those of our other tree links. A node that does not forward
+     * offers no root.
+     */
+    private String stateFor(PeerConnection to) {
+        Set<String> channels = new TreeSet<>(joined.keySet());
+        if (to == parent || to.channelChild) {
+            for (PeerConnection c : node.links()) {
+                if (c != to && c.channelCapable && !c.isClosed() && (c == parent || c.channelChild)) {
+                    channels.addAll(c.channelInterest);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(forwarding ? root : "").append(':').append(distance).append(':').append(to == parent ? 1 : 0);
+        for (String ch : channels) sb.append(',').append(ch);
+        return sb.toString();
+    }
+
+    /** Takes a peer's state; malformed parts are skipped. */
+    private static void read(PeerConnection conn, String state) {
+        String[] parts = state == null || state.isEmpty() ? new String[0] : state.split(",");
+        String peerRoot = "";
+        int peerDistance = MAX_HOPS;
+        boolean child = false;
+        if (parts.length > 0) {
+            String[] head = parts[0].split(":", -1);
+            if (head.length == 3) {
+                try {
+                    peerDistance = Integer.parseInt(head[1]);
+                    peerRoot = head[0];
+                    child = head[2].equals("1");
+                } catch (NumberFormatException ignored) {
+                    // no offer
+                }
+            }
+        }
+        Set<String> interest = new TreeSet<>();
+        for (int i = 1; i < parts.length; i++) {
+            try {
+                interest.add(normalize(parts[i]));
+            } catch (IllegalArgumentException ignored) {
+                // bad name
+            }
+        }
+        conn.channelRoot = peerRoot;
+        conn.channelRootDistance = peerDistance;
+        conn.channelChild = child;
+        conn.channelInterest = Collections.unmodifiableSet(interest);
+    }
+
+    private List<PeerConnection> computeTargets(String channel) {
+        List<PeerConnection> tree = new ArrayList<>();
+        List<PeerConnection> direct = new ArrayList<>();
+        boolean onTree = parent != null;
+        for (PeerConnection c : node.links()) {
+            if (!c.channelCapable || c.isClosed()) continue;
+            boolean treeLink = c == parent || c.channelChild;
+            onTree |= treeLink;
+            if (c.channelInterest.contains(channel)) (treeLink ? tree : direct).add(c);
+        }
+        // off the tree (no forwarding neighbour): reach subscribed neighbours directly
+        return List.copyOf(onTree ? tree : direct);
+    }
+}
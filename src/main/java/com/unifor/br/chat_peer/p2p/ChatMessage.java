@@ -5,18 +5,48 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 public final class ChatMessage {
+    /** Position in the local {@link MessageHistory}; -1 for messages not stored there. */
+    public final long seq;
     public final Instant timestamp;
     public final String from;
     public final String text;
     public final Direction direction;
+    /** Protocol message id; null for local system notices. */
+    public final String id;
+    /** Node run that authored the message and its per-origin sequence, or null/0 when unknown. */
+    public final String origin;
+    public final long originSeq;
 
     public enum Direction { IN, OUT, SYSTEM }
 
     public ChatMessage(Instant timestamp, String from, String text, Direction direction) {
+        this(-1, timestamp, from, text, direction);
+    }
+
+    public ChatMessage(long seq, Instant timestamp, String from, String text, Direction direction) {
+        this(seq, timestamp, from, text, direction, null, null, 0);
+    }
+
+    public ChatMessage(Instant timestamp, String from, String text, Direction direction,
+                       String id, String origin, long originSeq) {
+        this(-1, timestamp, from, text, direction, id, origin, originSeq);
+    }
+
+    public ChatMessage(long seq, Instant timestamp, String from, String text, Direction direction,
+                       String id, String origin, long originSeq) {
+        this.seq = seq;
         this.timestamp = timestamp;
         this.from = from;
         this.text = text;
         this.direction = direction;
+        this.id = id;
+        this.origin = origin;
+        this.originSeq = originSeq;
+    }
+
+    /** Same message at another position of a history. */
+    ChatMessage withSeq(long seq) {
+        return new ChatMessage(seq, timestamp, from, text, direction, id, origin, originSeq);
     }
 
     private static final DateTimeFormatter FMT =
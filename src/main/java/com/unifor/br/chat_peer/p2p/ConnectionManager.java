@@ -0,0 +1,193 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Outbound dialing. Every dial is asynchronous and bounded by {@link PeerConfig#connectTimeoutMillis()};
+ * at most one dial per address is in flight. Automatic dials to known peers only top the node up to
+ * {@link PeerConfig#targetDegree()} connections and skip addresses that recently failed, which are
+ * retried with exponential backoff and jitter. Explicit dials ({@code /connect}) ignore both limits.
+ * Dials for the DM routing table ({@link #fillBuckets}) have their own limit, {@link PeerConfig#dhtLinks()}.
+ */
+final class ConnectionManager {
+
+    private final PeerNode node;
+    private final PeerConfig config;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentMap<PeerAddress, Attempt> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PeerAddress, Backoff> backoff = new ConcurrentHashMap<>();
+
+    ConnectionManager(PeerNode node, PeerConfig config) {
+        this.node = node;
+        this.config = config;
+        this.timer = config.network().newScheduler("p2p-dial");
+    }
+
+    /** Dials known peers until the target degree is reached (counting dials in flight); never blocks. */
+    void fill(Iterable<PeerAddress> known) {
+        if (!config.autoConnect() || !node.isRunning()) return;
+        int slots = config.targetDegree() - node.connectionCount() - inFlight.size();
+        if (slots <= 0) return;
+
+        long now = config.network().nanoTime();
+        List<PeerAddress> candidates = new ArrayList<>();
+        for (PeerAddress p : known) {
+            if (canDial(p, now)) candidates.add(p);
+        }
+        // spread load instead of every node dialing the same first few addresses
+        Collections.shuffle(candidates);
+        for (int i = 0; i < Math.min(slots, candidates.size()); i++) start(candidates.get(i), false);
+    }
+
+    /**
+     * Dials one candidate per routing-table bucket, in the order given, until the node has opened
+     * {@link PeerConfig#dhtLinks()} connections itself; a bucket with a dial already in flight is skipped.
+     * Inbound links do not count: a node many others dial would otherwise never fill its own buckets.
+     */
+    void fillBuckets(List<List<PeerAddress>> perBucket) {
+        if (!config.autoConnect() || !node.isRunning()) return;
+        int slots = config.dhtLinks() - node.dialedCount() - inFlight.size();
+        long now = config.network().nanoTime();
+        for (List<PeerAddress> bucket : perBucket) {
+            if (slots <= 0) return;
+            boolean pending = false;
+            for (PeerAddress p : bucket) pending |= inFlight.containsKey(p);
+            if (pending) continue;
+            for (PeerAddress p : bucket) {
+                if (canDial(p, now)) {
+                    start(p, false);
+                    slots--;
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean canDial(PeerAddress p, long nowNanos) {
+        if (inFlight.containsKey(p) || !node.isDialable(p)) return false;
+        Backoff b = backoff.get(p);
+        return b == null || b.nextAttemptNanos() - nowNanos <= 0;
+    }
+
+    /** Explicit dial to a resolved address. */
+    void dial(PeerAddress addr) {
+        if (node.isDialable(addr)) start(addr, true);
+    }
+
+    int inFlight() { return inFlight.size(); }
+
+    /** An outbound connection to {@code addr} is up. */
+    void connected(PeerAddress addr) {
+        Attempt a = inFlight.remove(addr);
+        if (a != null) a.finish(false);
+        backoff.remove(addr);
+    }
+
+    /** A dial failed; returns whether the failure is worth showing to the user. */
+    boolean failed(PeerAddress addr) {
+        Attempt a = inFlight.remove(addr);
+        if (a == null || !a.finish(false)) return false; // already reported by the timeout
+        return recordFailure(a);
+    }
+
+    void close() {
+        timer.shutdownNow();
+        for (Attempt a : inFlight.values()) {
+            if (a.finish(true)) a.closeHandle();
+        }
+        inFlight.clear();
+    }
+
+    private void start(PeerAddress addr, boolean explicit) {
+        Attempt attempt = new Attempt(addr, explicit);
+        if (inFlight.putIfAbsent(addr, attempt) != null) return;
+        schedule(() -> timeout(attempt), config.connectTimeoutMillis());
+        node.openConnection(addr, attempt);
+    }
+
+    private void timeout(Attempt a) {
+        if (!inFlight.remove(a.addr, a) || !a.finish(true)) return;
+        a.closeHandle();
+        if (recordFailure(a)) {
+            node.history().addSystem("Falha ao conectar em " + a.addr + " (tempo esgotado)");
+        }
+    }
+
+    /**
+     * Pushes the address's next attempt out and schedules a refill for when it is due again.
+     * Deadlines use the network's clock, the same one the refill timer runs on (virtual under simulation).
+     */
+    private boolean recordFailure(Attempt a) {
+        long now = config.network().nanoTime();
+        Backoff b = backoff.compute(a.addr, (k, old) -> {
+            int failures = old == null ? 1 : old.failures + 1;
+            long ceiling = Math.min(config.backoffMaxMillis(), config.backoffBaseMillis() << Math.min(failures - 1, 20));
+            // anywhere in [ceiling/2, ceiling], so peers that failed together do not retry together
+            long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+            return new Backoff(failures, now + TimeUnit.MILLISECONDS.toNanos(delay));
+        });
+        if (config.autoConnect()) {
+            schedule(node::connectKnownPeers, Math.max(0, TimeUnit.NANOSECONDS.toMillis(b.nextAttemptNanos() - now)));
+        }
+        return a.explicit || b.failures() == 1;
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    private record Backoff(int failures, long nextAttemptNanos) {}
+
+    /** One dial; the transport hands over its socket/channel so a timeout can abort it. */
+    static final class Attempt {
+        final PeerAddress addr;
+        final boolean explicit;
+        private Closeable handle;
+        private boolean done;
+        private boolean aborted;
+
+        Attempt(PeerAddress addr, boolean explicit) {
+            this.addr = addr;
+            this.explicit = explicit;
+        }
+
+        /** Registers what to close on timeout; closes it right away if the attempt was already aborted. */
+        synchronized void handle(Closeable h) {
+            if (aborted) closeQuietly(h);
+            else if (!done) handle = h;
+        }
+
+        /** Marks the attempt finished; only the first caller (success, failure or timeout) gets true. */
+        synchronized boolean finish(boolean abort) {
+            if (done) return false;
+            done = true;
+            aborted = abort;
+            return true;
+        }
+
+        synchronized void closeHandle() {
+            closeQuietly(handle);
+            handle = null;
+        }
+
+        private static void closeQuietly(Closeable c) {
+            if (c == null) return;
+            try { c.close(); } catch (IOException ignored) {}
+        }
+    }
+}
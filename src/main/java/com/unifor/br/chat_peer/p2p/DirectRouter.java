@@ -0,0 +1,246 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Direct messages: a Kademlia-style routing table over node ids and greedy routing by XOR distance.
+ * <p>
+ * A node's id is its {@link PeerNode#origin()} read as an unsigned 64-bit number, and the distance
+ * between two ids is their XOR. Contacts learned from HELLO and PEERS_RES go into k-buckets, bucket
+ * {@code i} holding the ids whose highest bit differing from ours is bit {@code i}, at most
+ * {@link PeerConfig#dhtBucketSize()} each; a full bucket drops the contact heard of longest ago,
+ * and a contact is also dropped when dialing it fails. A DM goes out on the linked peer closest to its target, and only
+ * if that peer is closer than this node, so the distance shrinks on every hop and a route cannot
+ * loop. A hop into the target's bucket clears the highest differing bit, so with a link into every
+ * populated bucket a DM arrives in about log2(N) hops.
+ * <p>
+ * Those links are the table's job: automatic dialing takes, for every bucket without a link, a
+ * random contact of it, until the node has opened {@link PeerConfig#dhtLinks()} connections itself
+ * (links others open to us do not count, or well-known nodes could never fill their own buckets).
+ * Buckets near our id are small and only nodes near us know them, so every
+ * {@link PeerConfig#dhtRefreshMillis()} the node asks its closest link for peers (Kademlia's lookup
+ * of its own id, one step per refresh), and every other time a random link. Answers to peers that
+ * route list {@code id@host:port}: the contacts closest to the asker and one per bucket as the asker
+ * sees them. Peers that do not relay DMs are reached only over a direct link.
+ */
+final class DirectRouter {
+
+    private final PeerNode node;
+    private final PeerConfig config;
+    private final long self;
+    private final ScheduledExecutorService scheduler;
+    private final Random rnd;
+
+    // guarded by this
+    private final List<List<Contact>> buckets = new ArrayList<>(64);
+    private final Map<PeerAddress, Contact> byAddress = new HashMap<>();
+    private int refreshes;
+
+    DirectRouter(PeerNode node, PeerConfig config) {
+        this.node = node;
+        this.config = config;
+        this.self = parseId(node.origin());
+        this.rnd = new Random(self);
+        // refreshing only finds links to open, which is automatic dialing's business
+        this.scheduler = config.dht() && config.autoConnect() ? config.network().newScheduler("p2p-dht") : null;
+        for (int i = 0; i < 64; i++) buckets.add(new ArrayList<>());
+    }
+
+    /**
+     * The routing id of an origin.
+     *
+     * @throws NumberFormatException for anything but 1 to 16 hex digits
+     */
+    static long parseId(String origin) {
+        if (origin == null || origin.isEmpty() || origin.length() > 16 || origin.charAt(0) == '+') {
+            throw new NumberFormatException("Invalid node id: " + origin);
+        }
+        return Long.parseUnsignedLong(origin, 16);
+    }
+
+    /** Index of the bucket {@code id} falls in, seen from {@code from}; the two must differ. */
+    static int bucket(long from, long id) {
+        return 63 - Long.numberOfLeadingZeros(from ^ id);
+    }
+
+    void start() {
+        if (scheduler == null) return;
+        long period = config.dhtRefreshMillis();
+        try {
+            scheduler.scheduleAtFixedRate(this::refresh, period / 2 + rnd.nextLong(period / 2 + 1), period, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /** The peer's HELLO arrived: remember its id on the link and, if it routes, as a contact. */
+    void linkUp(PeerConnection link, String nodeId, boolean routes) {
+        if (nodeId == null) return;
+        long id;
+        try {
+            id = parseId(nodeId);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (id == self) return;
+        link.nodeId = id;
+        link.nodeIdKnown = true;
+        link.dhtCapable = routes;
+        if (routes && link.remoteListenPort() > 0) learn(id, new PeerAddress(link.remoteHost(), link.remoteListenPort()));
+    }
+
+    /** A contact from a PEERS_RES entry; bad ids and unresolved addresses are ignored. */
+    void learn(String nodeId, PeerAddress addr) {
+        try {
+            learn(parseId(nodeId), addr);
+        } catch (NumberFormatException ignored) {
+            // not an id
+        }
+    }
+
+    private synchronized void learn(long id, PeerAddress addr) {
+        if (id == self || !addr.isResolved()) return;
+        addr = addr.canonical();
+        Contact known = byAddress.get(addr);
+        if (known != null) {
+            // same address, maybe a new run of the node behind it: drop what we had
+            buckets.get(bucket(self, known.id)).remove(known);
+            byAddress.remove(addr);
+        }
+        List<Contact> bucket = buckets.get(bucket(self, id));
+        bucket.removeIf(c -> c.id == id && byAddress.remove(c.addr) != null);
+        if (bucket.size() >= config.dhtBucketSize()) byAddress.remove(bucket.remove(0).addr);
+        Contact c = new Contact(id, addr);
+        bucket.add(c); // most recently heard of last
+        byAddress.put(addr, c);
+    }
+
+    /** Dialing {@code addr} failed: whoever was there is gone as far as routing is concerned. */
+    synchronized void unreachable(PeerAddress addr) {
+        Contact c = byAddress.remove(addr.canonical());
+        if (c != null) buckets.get(bucket(self, c.id)).remove(c);
+    }
+
+    /**
+     * The link a DM for {@code target} goes out on: the target itself when linked, otherwise the
+     * routing peer closest to it, or null when none is closer than this node.
+     */
+    PeerConnection nextHop(long target) {
+        PeerConnection best = null;
+        long bestDistance = self ^ target;
+        for (PeerConnection c : node.links()) {
+            if (!c.nodeIdKnown || c.isClosed()) continue;
+            if (c.nodeId == target) return c;
+            if (!c.dhtCapable) continue;
+            long d = c.nodeId ^ target;
+            if (Long.compareUnsigned(d, bestDistance) < 0) {
+                best = c;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    long self() { return self; }
+
+    /** For every bucket without a routing link, its contacts in random order; nearest buckets first. */
+    synchronized List<List<PeerAddress>> wanted() {
+        boolean[] linked = linkedBuckets();
+        List<List<PeerAddress>> out = new ArrayList<>();
+        for (int b = 0; b < 64; b++) {
+            List<Contact> bucket = buckets.get(b);
+            if (linked[b] || bucket.isEmpty()) continue;
+            List<PeerAddress> candidates = new ArrayList<>(bucket.size());
+            for (Contact c : bucket) candidates.add(c.addr);
+            // any contact will do; a random one keeps well-known nodes from collecting everyone's links
+            Collections.shuffle(candidates, rnd);
+            out.add(candidates);
+        }
+        return out;
+    }
+
+    /** PEERS_RES entries for a routing peer: ourselves, the contacts closest to it, one per bucket as it sees them. */
+    synchronized List<String> peersFor(long asker) {
+        List<Contact> all = new ArrayList<>();
+        for (List<Contact> b : buckets) {
+            for (Contact c : b) {
+                if (c.id != asker) all.add(c);
+            }
+        }
+        all.sort((a, b) -> Long.compareUnsigned(a.id ^ asker, b.id ^ asker));
+        List<String> out = new ArrayList<>();
+        out.add(node.origin() + "@localhost:" + node.listenPort());
+        int closest = Math.min(config.dhtBucketSize(), all.size());
+        for (Contact c : all.subList(0, closest)) out.add(Long.toHexString(c.id) + "@" + c.addr);
+        // one random contact per further bucket, so no node ends up in everybody's table
+        Contact[] pick = new Contact[64];
+        int[] seen = new int[64];
+        for (Contact c : all.subList(closest, all.size())) {
+            int b = bucket(asker, c.id);
+            if (rnd.nextInt(++seen[b]) == 0) pick[b] = c;
+        }
+        for (Contact c : pick) {
+            if (c != null) out.add(Long.toHexString(c.id) + "@" + c.addr);
+        }
+        return out;
+    }
+
+    synchronized RoutingStats stats() {
+        int contacts = 0, populated = 0, linked = 0, links = 0;
+        boolean[] withLink = linkedBuckets();
+        for (int b = 0; b < 64; b++) {
+            int n = buckets.get(b).size();
+            contacts += n;
+            if (n > 0 || withLink[b]) populated++;
+            if (withLink[b]) linked++;
+        }
+        for (PeerConnection c : node.links()) {
+            if (c.dhtCapable && !c.isClosed()) links++;
+        }
+        return new RoutingStats(node.origin(), contacts, populated, linked, links);
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private boolean[] linkedBuckets() {
+        boolean[] linked = new boolean[64];
+        for (PeerConnection c : node.links()) {
+            if (c.nodeIdKnown && c.dhtCapable && !c.isClosed()) linked[bucket(self, c.nodeId)] = true;
+        }
+        return linked;
+    }
+
+    /** Asks a routing link for peers, alternating the closest and a random one, then dials what is missing. */
+    private void refresh() {
+        try {
+            if (!node.isRunning()) return;
+            List<PeerConnection> routing = new ArrayList<>();
+            PeerConnection closest = null;
+            for (PeerConnection c : node.links()) {
+                if (!c.dhtCapable || c.isClosed()) continue;
+                routing.add(c);
+                if (closest == null || Long.compareUnsigned(c.nodeId ^ self, closest.nodeId ^ self) < 0) closest = c;
+            }
+            if (!routing.isEmpty()) {
+                PeerConnection ask = (refreshes++ & 1) == 0 ? closest : routing.get(rnd.nextInt(routing.size()));
+                ask.send(ProtocolMessage.peersReq());
+            }
+            node.connectKnownPeers();
+        } catch (RuntimeException e) {
+            // keep the schedule alive; the next refresh tries again
+        }
+    }
+
+    private record Contact(long id, PeerAddress addr) {}
+}
@@ -3,115 +3,261 @@ package com.unifor.br.chat_peer.p2p;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 
+/**
+ * LAN discovery over UDP multicast, driven by one thread and a {@link DatagramChannel}.
+ * <p>
+ * Every node multicasts a HERE beacon at a jittered interval that stretches as the segment grows,
+ * so the whole segment stays under {@link #SEGMENT_BEACONS_PER_SECOND} however many nodes it has.
+ * A DISCOVER is answered after a random delay with a multicast HERE, and the answer is dropped if
+ * enough other nodes answered first, so a burst of newcomers gets a handful of replies instead of
+ * one per node. Peers heard from go into a liveness table and expire after
+ * {@link #TTL_INTERVALS} missed beacons. New peers are dialed in batches rather than per packet.
+ * <p>
+ * Wire format is unchanged ({@code DISCOVER|port|user} / {@code HERE|port|user}) plus a trailing
+ * run id used to ignore our own packets; older nodes ignore it.
+ */
 public final class DiscoveryService implements Closeable {
 
     private static final String GROUP = "230.0.0.0";
     private static final int PORT = 4446;
 
+    /** Beacon budget for the whole segment; each node's interval grows with the peers it sees. */
+    private static final int SEGMENT_BEACONS_PER_SECOND = 20;
+    /** Missed beacon intervals after which a peer is dropped. */
+    private static final int TTL_INTERVALS = 3;
+    /** HERE packets heard after a DISCOVER that make our own reply unnecessary. */
+    private static final int SUPPRESS_AFTER = 2;
+    /** Newly learned peers are dialed at most this often. */
+    private static final long CONNECT_BATCH_MILLIS = 250;
+    private static final long SWEEP_MILLIS = 1000;
+
     private final PeerNode node;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final long baseIntervalMillis;
+    private final int maxPeers;
+
+    /** Liveness table: last time each peer was heard from. */
+    private final ConcurrentMap<PeerAddress, Long> lastSeen = new ConcurrentHashMap<>();
+
+    private final LongAdder repliesSuppressed = new LongAdder();
 
-    private MulticastSocket socket;
-    private InetAddress group;
+    private final ExecutorService pool;
+    private DatagramChannel channel;
+    private Selector selector;
+    private InetSocketAddress group;
 
-    private final ExecutorService pool = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r);
-        t.setDaemon(true);
-        t.setName("p2p-discovery");
-        return t;
-    });
+    private volatile boolean discoverRequested;
+
+    // loop thread only
+    private long nextBeaconAt;
+    private long replyAt = -1;
+    private int heardSinceDiscover;
+    private boolean newPeers;
+    private long nextConnectAt;
+    private long nextSweepAt;
 
     public DiscoveryService(PeerNode node) {
         this.node = Objects.requireNonNull(node);
+        this.baseIntervalMillis = node.config().discoveryIntervalMillis();
+        this.maxPeers = node.config().discoveryMaxPeers();
+        this.pool = node.config().newIoExecutor("p2p-discovery-");
     }
 
     public void start() throws IOException {
         if (!running.compareAndSet(false, true)) return;
 
-        group = InetAddress.getByName(GROUP);
-        socket = new MulticastSocket(PORT);
-        socket.setReuseAddress(true);
-        socket.joinGroup(group);
-
-        pool.submit(this::listenLoop);
+        InetAddress groupAddr = InetAddress.getByName(GROUP);
+        NetworkInterface nif = multicastInterface();
+        group = new InetSocketAddress(groupAddr, PORT);
+        selector = Selector.open();
+        channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .bind(new InetSocketAddress(PORT))
+                .setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+        channel.join(groupAddr, nif);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
 
-        // announce ourselves once, then periodically could be added; keep simple
-        announceDiscover();
+        // announce ourselves right away; beacons follow
+        discoverRequested = true;
+        pool.submit(this::loop);
     }
 
-    /** Broadcast a "DISCOVER" packet to the multicast group. */
+    /** Multicasts a DISCOVER from the discovery thread; answers arrive as HERE packets. */
     public void announceDiscover() {
         if (!running.get()) return;
-        String payload = "DISCOVER|" + node.listenPort() + "|" + node.username();
-        send(payload);
+        discoverRequested = true;
+        selector.wakeup();
     }
 
-    private void listenLoop() {
-        byte[] buf = new byte[2048];
-        while (running.get()) {
-            try {
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                socket.receive(packet);
+    /** Peers currently in the liveness table. */
+    public int livePeers() { return lastSeen.size(); }
 
-                String data = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8).trim();
-                String[] parts = data.split("\\|", -1);
-                if (parts.length < 3) continue;
+    public long packetsIn() { return node.metrics().getDiscoveryPacketsIn(); }
 
-                String type = parts[0];
-                int port = Integer.parseInt(parts[1]);
-                String user = parts[2];
+    public long packetsOut() { return node.metrics().getDiscoveryPacketsOut(); }
 
-                String host = packet.getAddress().getHostAddress();
-                PeerAddress peer = new PeerAddress(host, port);
+    public long repliesSuppressed() { return repliesSuppressed.sum(); }
 
-                if (peer.port == node.listenPort() && (host.equals("127.0.0.1") || host.equals("0:0:0:0:0:0:0:1"))) {
-                    continue;
+    private void loop() {
+        ByteBuffer buf = ByteBuffer.allocate(2048);
+        long now = System.currentTimeMillis();
+        nextBeaconAt = now + jittered(interval());
+        nextSweepAt = now + SWEEP_MILLIS;
+        while (running.get()) {
+            try {
+                selector.select(Math.max(1, nextDeadline() - System.currentTimeMillis()));
+                selector.selectedKeys().clear();
+                SocketAddress from;
+                while ((from = channel.receive(buf.clear())) != null) {
+                    buf.flip();
+                    node.metrics().discoveryPacketsIn.increment();
+                    onPacket(((InetSocketAddress) from).getAddress(), StandardCharsets.UTF_8.decode(buf).toString().trim());
                 }
+                runTimers(System.currentTimeMillis());
+            } catch (ClosedChannelException | ClosedSelectorException closed) {
+                break;
+            } catch (Exception ignored) {
+                // a bad packet or send error must not stop discovery
+            }
+        }
+    }
 
-                if ("DISCOVER".equals(type)) {
-                    node.addKnownPeer(peer);
-                    // reply with HERE
-                    sendUnicast(packet.getAddress(), "HERE|" + node.listenPort() + "|" + node.username());
-                } else if ("HERE".equals(type)) {
-                    node.addKnownPeer(peer);
-                }
+    private void onPacket(InetAddress sender, String data) {
+        String[] parts = data.split("\\|", -1);
+        if (parts.length < 3) return;
+        if (parts.length > 3 && parts[3].equals(node.origin())) return; // our own multicast looped back
 
-                // best-effort auto connect
-                node.connectKnownPeers();
+        String type = parts[0];
+        int port;
+        try {
+            port = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String host = sender.getHostAddress();
+        if (port == node.listenPort() && sender.isLoopbackAddress()) return;
+        PeerAddress peer = new PeerAddress(host, port);
 
-            } catch (Exception ignored) {
+        long now = System.currentTimeMillis();
+        heardFrom(peer, now);
+        if ("DISCOVER".equals(type)) {
+            if (replyAt < 0) {
+                replyAt = now + ThreadLocalRandom.current().nextLong(replyWindow() + 1);
+                heardSinceDiscover = 0;
             }
+        } else if ("HERE".equals(type) && replyAt >= 0 && ++heardSinceDiscover >= SUPPRESS_AFTER) {
+            replyAt = -1;
+            repliesSuppressed.increment();
         }
     }
 
-    private void send(String payload) {
-        try {
-            byte[] data = payload.getBytes(StandardCharsets.UTF_8);
-            DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
-            socket.send(packet);
-        } catch (IOException ignored) {}
+    private void heardFrom(PeerAddress peer, long now) {
+        if (lastSeen.replace(peer, now) != null) return;
+        if (lastSeen.size() >= maxPeers) return; // full: keep the peers we already track
+        if (lastSeen.putIfAbsent(peer, now) == null) {
+            node.addKnownPeer(peer);
+            newPeers = true;
+        }
     }
 
-    private void sendUnicast(InetAddress addr, String payload) {
+    private void runTimers(long now) {
+        if (discoverRequested) {
+            discoverRequested = false;
+            send("DISCOVER");
+        }
+        if (now >= nextBeaconAt) {
+            send("HERE");
+            replyAt = -1; // the beacon answers any pending DISCOVER
+            nextBeaconAt = now + jittered(interval());
+        }
+        if (replyAt >= 0 && now >= replyAt) {
+            send("HERE");
+            replyAt = -1;
+        }
+        if (newPeers && now >= nextConnectAt) {
+            newPeers = false;
+            nextConnectAt = now + CONNECT_BATCH_MILLIS;
+            node.connectKnownPeers();
+        }
+        if (now >= nextSweepAt) {
+            nextSweepAt = now + SWEEP_MILLIS;
+            long cutoff = now - TTL_INTERVALS * interval();
+            for (Iterator<Map.Entry<PeerAddress, Long>> it = lastSeen.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<PeerAddress, Long> e = it.next();
+                if (e.getValue() < cutoff) {
+                    it.remove();
+                    node.removeKnownPeer(e.getKey());
+                }
+            }
+        }
+    }
+
+    private long nextDeadline() {
+        long next = Math.min(nextBeaconAt, nextSweepAt);
+        if (replyAt >= 0) next = Math.min(next, replyAt);
+        if (newPeers) next = Math.min(next, nextConnectAt);
+        return next;
+    }
+
+    /** Beacon interval for the segment size we see: never below the configured one. */
+    private long interval() {
+        return Math.max(baseIntervalMillis, lastSeen.size() * 1000L / SEGMENT_BEACONS_PER_SECOND);
+    }
+
+    /** How long a DISCOVER answer may be delayed; wider on busy segments so more answers get suppressed. */
+    private long replyWindow() {
+        return Math.min(2000, 100 + 10L * lastSeen.size());
+    }
+
+    private static long jittered(long interval) {
+        return interval / 2 + ThreadLocalRandom.current().nextLong(interval + 1);
+    }
+
+    private void send(String type) {
+        String payload = type + "|" + node.listenPort() + "|" + node.username() + "|" + node.origin();
         try {
-            byte[] data = payload.getBytes(StandardCharsets.UTF_8);
-            DatagramPacket packet = new DatagramPacket(data, data.length, addr, PORT);
-            socket.send(packet);
+            channel.send(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)), group);
+            node.metrics().discoveryPacketsOut.increment();
         } catch (IOException ignored) {}
     }
 
+    /** First interface that is up and multicast-capable with an IPv4 address; loopback only as a last resort. */
+    private static NetworkInterface multicastInterface() throws SocketException {
+        NetworkInterface fallback = null;
+        for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!nif.isUp() || nif.inetAddresses().noneMatch(a -> a instanceof Inet4Address)) continue;
+            if (nif.supportsMulticast() && !nif.isLoopback()) return nif;
+            if (fallback == null) fallback = nif;
+        }
+        if (fallback == null) throw new SocketException("nenhuma interface de rede IPv4 ativa");
+        return fallback;
+    }
+
     @Override
     public void close() {
         if (!running.compareAndSet(true, false)) return;
-        try { if (socket != null && group != null) socket.leaveGroup(group); } catch (IOException ignored) {}
-        if (socket != null) socket.close();
+        try { if (channel != null) channel.close(); } catch (IOException ignored) {}
+        try { if (selector != null) selector.close(); } catch (IOException ignored) {}
         pool.shutdownNow();
     }
 }
@@ -0,0 +1,667 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+
+/**
+ * File offers and the transfers behind them. Offers and cancels travel on the chat link as
+ * FILE_OFFER / FILE_CANCEL; the bytes go over a TCP connection of their own, to a listener the
+ * sender opens on its first offer, so a file never sits in a chat link's outbound queue and chat
+ * frames never wait behind one.
+ * <p>
+ * The sender checksums the file once when offering it (CRC32C per {@link PeerConfig#fileChunkBytes()}
+ * chunk, read through one direct buffer) and serves every chunk as a 12-byte header (index, length,
+ * checksum) followed by the bytes sent from the file with {@link FileChannel#transferTo}, so they
+ * never pass through the Java heap. The receiver reads a chunk into a direct buffer, checks it and
+ * writes it to {@code name.<id>.part}, which therefore only ever holds verified chunks in order: its
+ * length says where to resume. Every chunk written is acknowledged with the index of the next one
+ * wanted, and the sender keeps at most {@link PeerConfig#fileWindowChunks()} unacknowledged, so a slow
+ * disk slows the sender down. A chunk that fails its checksum is answered with a negative
+ * acknowledgement and the sender goes back to it; the chunks already behind it are read and dropped.
+ * <p>
+ * When the data connection drops or stalls for {@link #IDLE_TIMEOUT_MILLIS}, the receiver reconnects
+ * with backoff up to {@link PeerConfig#fileRetries()} times and asks for the first chunk it lacks;
+ * after that {@code /accept} resumes the same way, for as long as the sender keeps the offer (until
+ * it exits). Files need real sockets, so a node on a {@link SimNetwork} neither offers nor takes them.
+ * A peer may have at most {@link #MAX_PENDING_OFFERS} offers waiting for an answer; further ones are
+ * declined, and an offer its sender withdraws before it was accepted is forgotten.
+ */
+final class FileTransfers {
+
+    static final int MIN_CHUNK_BYTES = 4 * 1024;
+    static final int MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+    /** A data connection without progress for this long is closed, and the receiver reconnects. */
+    static final long IDLE_TIMEOUT_MILLIS = 30_000;
+    /** Unanswered offers kept per peer. */
+    static final int MAX_PENDING_OFFERS = 16;
+
+    /** First bytes of a data request: "FIL1". */
+    private static final int MAGIC = 0x46494C31;
+    private static final int OK = 0, UNKNOWN = 1, CHANGED = 2;
+    private static final long BACKOFF_MAX_MILLIS = 30_000;
+
+    private final PeerNode node;
+    private final PeerConfig config;
+    private final Map<String, Outgoing> outgoing = new ConcurrentHashMap<>();
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+    /** Open data connections and when each last made progress, for the idle check. */
+    private final Map<SocketChannel, Activity> active = new ConcurrentHashMap<>();
+
+    // started on first use, guarded by this
+    private ServerSocketChannel server;
+    private ExecutorService io;
+    private ScheduledExecutorService timer;
+    private volatile boolean closed;
+
+    FileTransfers(PeerNode node, PeerConfig config) {
+        this.node = node;
+        this.config = config;
+    }
+
+    /** Whether this node can offer and accept files at all. */
+    boolean enabled() {
+        return config.network() == Network.TCP;
+    }
+
+    /**
+     * Checksums {@code file} in the background, then offers it on {@code link}.
+     *
+     * @throws IOException if the file cannot be read or the data listener cannot bind
+     */
+    TransferStatus offer(PeerConnection link, Path file) throws IOException {
+        if (!enabled()) throw new IllegalStateException("File transfer needs the TCP network");
+        if (!Files.isRegularFile(file)) throw new NoSuchFileException(file.toString());
+        Path path = file.toAbsolutePath();
+        Outgoing out = new Outgoing(UUID.randomUUID().toString(), link.remoteUser(), path,
+                Files.size(path), Files.getLastModifiedTime(path).toMillis(), config.fileChunkBytes());
+        int port = start();
+        outgoing.put(out.id, out);
+        execute(() -> prepare(out, link, port));
+        return out.status();
+    }
+
+    /** Starts or resumes receiving an offer; null when no offer matches {@code idPrefix} or it cannot be taken now. */
+    TransferStatus accept(String idPrefix) {
+        Incoming in = find(incoming, idPrefix);
+        if (in == null) return null;
+        synchronized (in) {
+            if (in.state != TransferStatus.State.OFFERED && in.state != TransferStatus.State.INTERRUPTED) return null;
+            in.state = TransferStatus.State.RUNNING;
+            in.attempts = 0;
+        }
+        try {
+            start();
+        } catch (IOException e) {
+            in.state = TransferStatus.State.INTERRUPTED;
+            return null;
+        }
+        execute(() -> receive(in));
+        return in.status();
+    }
+
+    /** Declines or aborts a transfer either way and tells the peer; null when no transfer matches. */
+    TransferStatus cancel(String idPrefix) {
+        Outgoing out = find(outgoing, idPrefix);
+        if (out != null) {
+            if (out.finish(TransferStatus.State.CANCELLED)) {
+                closeChannel(out.channel);
+                tell(out.peer, ProtocolMessage.fileCancel(out.id, "cancelled"));
+            }
+            return out.status();
+        }
+        Incoming in = find(incoming, idPrefix);
+        if (in == null) return null;
+        if (in.finish(TransferStatus.State.CANCELLED)) {
+            closeChannel(in.channel);
+            deletePart(in);
+            tell(in.peer, ProtocolMessage.fileCancel(in.id, in.doneBytes == 0 ? "declined" : "cancelled"));
+        }
+        return in.status();
+    }
+
+    /** Every transfer this run, offers to us first. */
+    List<TransferStatus> list() {
+        List<TransferStatus> out = new ArrayList<>();
+        for (Incoming in : incoming.values()) out.add(in.status());
+        for (Outgoing o : outgoing.values()) out.add(o.status());
+        return out;
+    }
+
+    void onOffer(PeerConnection link, ProtocolMessage msg) {
+        ProtocolMessage.FileOffer offer = msg.fileOffer();
+        if (!enabled() || offer == null || offer.size() < 0 || offer.chunkBytes() < MIN_CHUNK_BYTES
+                || offer.chunkBytes() > MAX_CHUNK_BYTES || offer.dataPort() <= 0 || offer.dataPort() > 65535
+                || msg.uuid() == null) {
+            node.metrics().parseFailures.increment();
+            return;
+        }
+        String name = safeName(offer.name());
+        String from = msg.from == null || msg.from.isBlank() ? link.remoteUser() : msg.from;
+        Incoming in = new Incoming(msg.id, link.remoteUser(), link.remoteHost(), offer, name,
+                config.filesDir().resolve(name + "." + shortId(msg.id) + ".part"));
+        if (incoming.containsKey(in.id)) return;
+        if (pendingFrom(in.peer) >= MAX_PENDING_OFFERS) {
+            link.send(ProtocolMessage.fileCancel(msg.id, "declined"));
+            return;
+        }
+        if (incoming.putIfAbsent(in.id, in) != null) return;
+        notice(from + " oferece o arquivo " + name + " (" + TransferStatus.bytes(offer.size()) + "); /accept "
+                + shortId(in.id) + " para receber, /decline " + shortId(in.id) + " para recusar");
+    }
+
+    /** The peer withdrew its offer or declined ours; only the peer a transfer is with may end it. */
+    void onCancel(PeerConnection link, ProtocolMessage msg) {
+        String reason = "declined".equals(msg.text) ? "recusou" : "cancelou";
+        Outgoing out = outgoing.get(msg.id);
+        if (out != null && out.peer.equals(link.remoteUser()) && out.finish(TransferStatus.State.CANCELLED)) {
+            closeChannel(out.channel);
+            notice(link.remoteUser() + " " + reason + " o arquivo " + out.name);
+            return;
+        }
+        Incoming in = incoming.get(msg.id);
+        if (in == null || !in.peer.equals(link.remoteUser())) return;
+        boolean unanswered = in.state == TransferStatus.State.OFFERED;
+        if (in.finish(TransferStatus.State.CANCELLED)) {
+            closeChannel(in.channel);
+            deletePart(in);
+            if (unanswered) incoming.remove(in.id, in); // nothing of it ever reached us
+            notice(link.remoteUser() + " cancelou o envio de " + in.name);
+        }
+    }
+
+    private int pendingFrom(String peer) {
+        int n = 0;
+        for (Incoming in : incoming.values()) {
+            if (in.state == TransferStatus.State.OFFERED && in.peer.equals(peer)) n++;
+        }
+        return n;
+    }
+
+    synchronized void close() {
+        closed = true;
+        if (server != null) {
+            try { server.close(); } catch (IOException ignored) {}
+        }
+        for (SocketChannel ch : active.keySet()) closeChannel(ch);
+        if (io != null) io.shutdownNow();
+        if (timer != null) timer.shutdownNow();
+    }
+
+    /** Opens the data listener and the threads on first use; returns the data port. */
+    private synchronized int start() throws IOException {
+        if (closed) throw new IOException("node closed");
+        if (server == null) {
+            ServerSocketChannel s = ServerSocketChannel.open();
+            try {
+                s.bind(new InetSocketAddress(config.filePort()));
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            server = s;
+            io = config.newIoExecutor("p2p-files-");
+            timer = config.network().newScheduler("p2p-files");
+            io.execute(this::acceptLoop);
+            timer.scheduleAtFixedRate(this::closeIdle, IDLE_TIMEOUT_MILLIS / 4, IDLE_TIMEOUT_MILLIS / 4, TimeUnit.MILLISECONDS);
+        }
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel ch = server.accept();
+                if (!execute(() -> serve(ch))) closeChannel(ch);
+            } catch (IOException e) {
+                if (closed) return;
+            }
+        }
+    }
+
+    private boolean execute(Runnable task) {
+        try {
+            io.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false; // shutting down
+        }
+    }
+
+    /** Checksums every chunk, then sends the offer. */
+    private void prepare(Outgoing out, PeerConnection link, int port) {
+        try (FileChannel file = FileChannel.open(out.path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(Math.min(out.chunkBytes, 64 * 1024));
+            CRC32C crc = new CRC32C();
+            for (int i = 0; i < out.crcs.length; i++) {
+                crc.reset();
+                long pos = (long) i * out.chunkBytes;
+                long end = Math.min(out.size, pos + out.chunkBytes);
+                while (pos < end) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                    int n = file.read(buf, pos);
+                    if (n < 0) throw new EOFException("file shrank while being read");
+                    buf.flip();
+                    crc.update(buf);
+                    pos += n;
+                }
+                out.crcs[i] = (int) crc.getValue();
+                if (out.state != TransferStatus.State.PREPARING) return; // cancelled meanwhile
+            }
+        } catch (IOException e) {
+            if (out.finish(TransferStatus.State.FAILED)) notice("Falha ao ler " + out.path + ": " + e.getMessage());
+            return;
+        }
+        synchronized (out) {
+            if (out.state != TransferStatus.State.PREPARING) return;
+            if (link.isClosed()) {
+                out.state = TransferStatus.State.FAILED;
+                notice(out.peer + " desconectou antes da oferta de " + out.name);
+                return;
+            }
+            out.state = TransferStatus.State.OFFERED;
+        }
+        link.send(ProtocolMessage.fileOffer(out.id, node.username(), out.name, out.size, out.chunkBytes, port));
+        notice("Arquivo " + out.name + " (" + TransferStatus.bytes(out.size) + ") oferecido a " + out.peer
+                + " [" + shortId(out.id) + "]");
+    }
+
+    /** Sender side of one data connection: a go-back-N window of chunks until all are acknowledged. */
+    private void serve(SocketChannel ch) {
+        Outgoing out = null;
+        Activity activity = track(ch);
+        try (ch) {
+            ByteBuffer req = ByteBuffer.allocate(24);
+            readFully(ch, req);
+            if (req.getInt(0) != MAGIC) return;
+            String id = new UUID(req.getLong(4), req.getLong(12)).toString();
+            int first = req.getInt(20);
+            out = outgoing.get(id);
+            if (out == null || first < 0 || first > out.crcs.length || !out.servable()) {
+                writeInt(ch, UNKNOWN);
+                return;
+            }
+            if (Files.size(out.path) != out.size || Files.getLastModifiedTime(out.path).toMillis() != out.modified) {
+                writeInt(ch, CHANGED);
+                if (out.finish(TransferStatus.State.FAILED)) notice(out.name + " mudou desde a oferta; envio a " + out.peer + " cancelado");
+                return;
+            }
+            writeInt(ch, OK);
+            SocketChannel previous;
+            synchronized (out) {
+                if (!out.servable()) return;
+                previous = out.channel;
+                out.channel = ch;
+                out.state = TransferStatus.State.RUNNING;
+            }
+            closeChannel(previous); // a stale connection the receiver gave up on
+
+            try (FileChannel file = FileChannel.open(out.path, StandardOpenOption.READ)) {
+                int chunks = out.crcs.length, window = config.fileWindowChunks();
+                int next = first, acked = first;
+                ByteBuffer header = ByteBuffer.allocate(12);
+                ByteBuffer ack = ByteBuffer.allocate(4);
+                while (acked < chunks) {
+                    if (next < chunks && next - acked < window) {
+                        long pos = (long) next * out.chunkBytes;
+                        int len = (int) Math.min(out.chunkBytes, out.size - pos);
+                        header.clear();
+                        header.putInt(next).putInt(len).putInt(out.crcs[next]).flip();
+                        writeFully(ch, header);
+                        for (long end = pos + len; pos < end; ) {
+                            long n = file.transferTo(pos, end - pos, ch);
+                            if (n <= 0) throw new EOFException("file shrank while being sent");
+                            pos += n;
+                        }
+                        node.metrics().fileBytesOut.add(len);
+                        activity.touch();
+                        next++;
+                        continue;
+                    }
+                    ack.clear();
+                    readFully(ch, ack);
+                    int a = ack.getInt(0);
+                    activity.touch();
+                    if (a < 0) {
+                        int bad = -a - 1;
+                        if (bad < acked || bad >= next) throw new IOException("bad negative ack " + bad);
+                        next = bad; // go back and resend from the rejected chunk
+                    } else {
+                        if (a <= acked || a > next) throw new IOException("bad ack " + a);
+                        acked = a;
+                        out.doneBytes = Math.min((long) a * out.chunkBytes, out.size);
+                    }
+                }
+            }
+            if (out.finish(TransferStatus.State.DONE)) notice("Arquivo " + out.name + " enviado a " + out.peer);
+        } catch (IOException e) {
+            // the receiver reconnects to resume; until then the offer stands
+            if (out != null) {
+                synchronized (out) {
+                    if (out.state == TransferStatus.State.RUNNING && out.channel == ch) out.state = TransferStatus.State.OFFERED;
+                }
+            }
+        } finally {
+            active.remove(ch);
+        }
+    }
+
+    /** Receiver side: resumes after the verified chunks already in the part file, then moves it into place. */
+    private void receive(Incoming in) {
+        SocketChannel ch = null;
+        Activity activity = null;
+        long chunkBytes = in.offer.chunkBytes();
+        long size = in.offer.size();
+        int chunks = chunkCount(size, in.offer.chunkBytes());
+        try {
+            Files.createDirectories(in.part.toAbsolutePath().getParent());
+            try (FileChannel part = FileChannel.open(in.part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long have = part.size();
+                int next = have >= size ? chunks : (int) (have / chunkBytes);
+                part.truncate(Math.min(size, next * chunkBytes)); // a torn tail is fetched again
+                in.doneBytes = Math.min(size, next * chunkBytes);
+                if (next < chunks) {
+                    ch = SocketChannel.open();
+                    activity = track(ch);
+                    synchronized (in) {
+                        if (in.state != TransferStatus.State.RUNNING) return;
+                        in.channel = ch;
+                    }
+                    ch.socket().connect(new InetSocketAddress(in.host, in.offer.dataPort()), (int) config.connectTimeoutMillis());
+                    UUID id = UUID.fromString(in.id);
+                    ByteBuffer req = ByteBuffer.allocate(24);
+                    req.putInt(MAGIC).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).putInt(next).flip();
+                    writeFully(ch, req);
+                    ByteBuffer header = ByteBuffer.allocate(12);
+                    readFully(ch, header.limit(4));
+                    int status = header.getInt(0);
+                    if (status != OK) {
+                        if (in.finish(TransferStatus.State.FAILED)) {
+                            deletePart(in);
+                            notice("Envio de " + in.name + " por " + in.peer + (status == CHANGED
+                                    ? " cancelado: o arquivo mudou desde a oferta" : " não está mais disponível"));
+                        }
+                        return;
+                    }
+                    ByteBuffer chunk = ByteBuffer.allocateDirect(in.offer.chunkBytes());
+                    CRC32C crc = new CRC32C();
+                    while (next < chunks) {
+                        header.clear();
+                        readFully(ch, header);
+                        int index = header.getInt(0), len = header.getInt(4), sum = header.getInt(8);
+                        if (index < 0 || index >= chunks || len != Math.min(chunkBytes, size - index * chunkBytes)) {
+                            throw new IOException("bad chunk header " + index + "/" + len);
+                        }
+                        chunk.clear().limit(len);
+                        readFully(ch, chunk);
+                        activity.touch();
+                        if (index != next) continue; // sent before the sender went back to a rejected chunk
+                        chunk.flip();
+                        crc.reset();
+                        crc.update(chunk);
+                        if ((int) crc.getValue() != sum) {
+                            node.metrics().fileChunksRejected.increment();
+                            writeInt(ch, -(index + 1));
+                            continue;
+                        }
+                        chunk.flip();
+                        for (long pos = index * chunkBytes; chunk.hasRemaining(); ) pos += part.write(chunk, pos);
+                        next++;
+                        in.doneBytes += len;
+                        in.attempts = 0; // progress: a later drop gets the full retries again
+                        node.metrics().fileBytesIn.add(len);
+                        writeInt(ch, next);
+                    }
+                }
+                part.force(true);
+            }
+            synchronized (in) {
+                if (in.state != TransferStatus.State.RUNNING) return;
+                in.savedAs = moveIntoPlace(in);
+                in.state = TransferStatus.State.DONE;
+            }
+            notice("Arquivo recebido de " + in.peer + ": " + in.savedAs + " (" + TransferStatus.bytes(size) + ")");
+        } catch (IOException e) {
+            interrupted(in, e);
+        } finally {
+            if (ch != null) {
+                active.remove(ch);
+                closeChannel(ch);
+            }
+        }
+    }
+
+    /** Retries with backoff while attempts last, then leaves the transfer for {@code /accept}. */
+    private void interrupted(Incoming in, IOException e) {
+        synchronized (in) {
+            if (in.state != TransferStatus.State.RUNNING || closed) return;
+            if (in.attempts < config.fileRetries()) {
+                long delay = Math.min(BACKOFF_MAX_MILLIS, config.backoffBaseMillis() << Math.min(in.attempts, 20));
+                in.attempts++;
+                try {
+                    timer.schedule(() -> execute(() -> receive(in)), delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException shuttingDown) {
+                    // fall through
+                }
+            }
+            in.state = TransferStatus.State.INTERRUPTED;
+        }
+        notice("Recebimento de " + in.name + " interrompido em " + TransferStatus.bytes(in.doneBytes) + " ("
+                + e.getMessage() + "); /accept " + shortId(in.id) + " para retomar");
+    }
+
+    private void closeIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<SocketChannel, Activity> e : active.entrySet()) {
+            if (now - e.getValue().last > IDLE_TIMEOUT_MILLIS * 1_000_000) closeChannel(e.getKey());
+        }
+    }
+
+    private Activity track(SocketChannel ch) {
+        Activity a = new Activity();
+        active.put(ch, a);
+        return a;
+    }
+
+    private void tell(String user, ProtocolMessage msg) {
+        for (PeerConnection c : node.links()) {
+            if (user.equals(c.remoteUser()) && !c.isClosed()) {
+                c.send(msg);
+                return;
+            }
+        }
+    }
+
+    private void notice(String text) {
+        ChatMessage m = node.history().addSystem(text);
+        node.onDisplay.accept(m.format());
+    }
+
+    private static void deletePart(Incoming in) {
+        try {
+            Files.deleteIfExists(in.part);
+        } catch (IOException ignored) {
+            // left behind; harmless
+        }
+    }
+
+    /**
+     * Renames the finished part file to the offered name, or {@code name (n).ext} when that is taken.
+     * The name is claimed first with an exclusive create, since an atomic rename replaces whatever is
+     * there; the move then only ever replaces that empty placeholder.
+     */
+    private Path moveIntoPlace(Incoming in) throws IOException {
+        int dot = in.name.lastIndexOf('.');
+        String base = dot > 0 ? in.name.substring(0, dot) : in.name;
+        String ext = dot > 0 ? in.name.substring(dot) : "";
+        for (int n = 0; ; n++) {
+            Path target = in.part.resolveSibling(n == 0 ? in.name : base + " (" + n + ")" + ext);
+            try {
+                Files.createFile(target);
+            } catch (FileAlreadyExistsException taken) {
+                continue;
+            }
+            try {
+                try {
+                    return Files.move(in.part, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    return Files.move(in.part, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        }
+    }
+
+    /** Last path segment of an offered name, without characters file systems reject or a leading dot. */
+    static String safeName(String offered) {
+        String name = offered.substring(Math.max(offered.lastIndexOf('/'), offered.lastIndexOf('\\')) + 1);
+        name = name.replaceAll("[\\p{Cntrl}:*?\"<>|]", "_").strip();
+        while (name.startsWith(".")) name = name.substring(1);
+        if (name.length() > 200) name = name.substring(name.length() - 200);
+        return name.isEmpty() ? "arquivo" : name;
+    }
+
+    static int chunkCount(long size, int chunkBytes) {
+        return (int) ((size + chunkBytes - 1) / chunkBytes);
+    }
+
+    static String shortId(String id) {
+        return id.length() > 8 ? id.substring(0, 8) : id;
+    }
+
+    /** The transfer whose id starts with {@code prefix}, if exactly one does. */
+    private static <T extends Transfer> T find(Map<String, T> transfers, String prefix) {
+        T found = null;
+        for (T t : transfers.values()) {
+            if (!t.id.startsWith(prefix)) continue;
+            if (found != null) return null;
+            found = t;
+        }
+        return found;
+    }
+
+    private static void closeChannel(SocketChannel ch) {
+        if (ch == null) return;
+        try { ch.close(); } catch (IOException ignored) {}
+    }
+
+    private static void readFully(SocketChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) throw new EOFException("connection closed");
+        }
+    }
+
+    private static void writeFully(SocketChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    private static void writeInt(SocketChannel ch, int value) throws IOException {
+        writeFully(ch, ByteBuffer.allocate(4).putInt(0, value));
+    }
+
+    private static final class Activity {
+        volatile long last = System.nanoTime();
+
+        void touch() { last = System.nanoTime(); }
+    }
+
+    private abstract static class Transfer {
+        final String id;
+        final String peer;
+        final String name;
+        final long size;
+        volatile TransferStatus.State state;
+        volatile long doneBytes;
+        volatile SocketChannel channel;
+
+        Transfer(String id, String peer, String name, long size, TransferStatus.State state) {
+            this.id = id;
+            this.peer = peer;
+            this.name = name;
+            this.size = size;
+            this.state = state;
+        }
+
+        /** Moves to a final state unless already in one; true if this call did. */
+        synchronized boolean finish(TransferStatus.State end) {
+            if (state == TransferStatus.State.DONE || state == TransferStatus.State.CANCELLED
+                    || state == TransferStatus.State.FAILED) return false;
+            state = end;
+            return true;
+        }
+
+        abstract TransferStatus status();
+    }
+
+    private static final class Outgoing extends Transfer {
+        final Path path;
+        final long modified;
+        final int chunkBytes;
+        final int[] crcs;
+
+        Outgoing(String id, String peer, Path path, long size, long modified, int chunkBytes) {
+            super(id, peer, path.getFileName().toString(), size, TransferStatus.State.PREPARING);
+            this.path = path;
+            this.modified = modified;
+            this.chunkBytes = chunkBytes;
+            this.crcs = new int[chunkCount(size, chunkBytes)];
+        }
+
+        /** Checksummed and offered, and not over yet. */
+        boolean servable() {
+            TransferStatus.State s = state;
+            return s == TransferStatus.State.OFFERED || s == TransferStatus.State.RUNNING;
+        }
+
+        @Override
+        TransferStatus status() {
+            return new TransferStatus(shortId(id), true, peer, name, size, doneBytes, state);
+        }
+    }
+
+    private static final class Incoming extends Transfer {
+        final String host;
+        final ProtocolMessage.FileOffer offer;
+        final Path part;
+        /** Reconnects since the last chunk arrived. */
+        volatile int attempts;
+        volatile Path savedAs;
+
+        Incoming(String id, String peer, String host, ProtocolMessage.FileOffer offer, String name, Path part) {
+            super(id, peer, name, offer.size(), TransferStatus.State.OFFERED);
+            this.host = host;
+            this.offer = offer;
+            this.part = part;
+        }
+
+        @Override
+        TransferStatus status() {
+            return new TransferStatus(shortId(id), false, peer, savedAs != null ? savedAs.toString() : name, size, doneBytes, state);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+
+/** Counters of chat message forwarding since the node started. */
+public final class ForwardStats {
+    public final PeerConfig.ForwardMode mode;
+    /** Messages received for the first time. */
+    public final long delivered;
+    /** Copies received of messages already delivered. */
+    public final long duplicates;
+    /** Full messages sent, including own messages and GRAFT answers. */
+    public final long eagerSent;
+    /** Message ids sent in IHAVE announcements. */
+    public final long idsAnnounced;
+    public final long graftsSent;
+    public final long prunesSent;
+    public final int eagerLinks;
+    public final int lazyLinks;
+    /** Send-to-delivery time of delivered messages, from the sender's timestamp. */
+    public final double avgLatencyMillis;
+    public final long maxLatencyMillis;
+
+    ForwardStats(PeerConfig.ForwardMode mode, long delivered, long duplicates, long eagerSent, long idsAnnounced,
+                 long graftsSent, long prunesSent, int eagerLinks, int lazyLinks,
+                 double avgLatencyMillis, long maxLatencyMillis) {
+        this.mode = mode;
+        this.delivered = delivered;
+        this.duplicates = duplicates;
+        this.eagerSent = eagerSent;
+        this.idsAnnounced = idsAnnounced;
+        this.graftsSent = graftsSent;
+        this.prunesSent = prunesSent;
+        this.eagerLinks = eagerLinks;
+        this.lazyLinks = lazyLinks;
+        this.avgLatencyMillis = avgLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /** Duplicate copies per delivered message; 0 is a perfect tree, flooding tends to degree - 1. */
+    public double duplicateRatio() {
+        return delivered == 0 ? 0 : (double) duplicates / delivered;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: entregues %d, duplicadas %d (%.2f por msg), enviadas %d, ids anunciados %d, "
+                        + "grafts %d, prunes %d, links eager/lazy %d/%d, latência média %.1f ms (máx %d ms)",
+                mode, delivered, duplicates, duplicateRatio(), eagerSent, idsAnnounced, graftsSent, prunesSent,
+                eagerLinks, lazyLinks, avgLatencyMillis, maxLatencyMillis);
+    }
+}
@@ -0,0 +1,108 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Deflate for binary frames, negotiated with {@link ProtocolMessage#CAP_DEFLATE}.
+ * <p>
+ * A compressed frame is {@link #DEFLATE_MAGIC}, an int length of the rest, the int length of the
+ * original binary body and the raw-deflated body. Every frame is compressed on its own, so the
+ * result can be cached on the message and queued on every link like the plain frames; a preset
+ * {@link #DICTIONARY} of protocol and chat vocabulary stands in for the history a per-connection
+ * stream would have, so short frames still have something to match against.
+ * Deflaters are reused per thread and inflaters per connection (their native memory is released by
+ * the JDK's cleaner once the connection is gone).
+ */
+public final class FrameCompressor {
+
+    /** First byte of a deflated binary frame. */
+    static final byte DEFLATE_MAGIC = (byte) 0xB2;
+    /** magic + int length + int inflated length */
+    static final int HEADER = 9;
+
+    /**
+     * Preset dictionary shared by every node; changing it is a wire change (bump the capability).
+     * Deflate matches closer to the end more cheaply, so the most common strings come last.
+     */
+    static final byte[] DICTIONARY = (
+            "http://https://www..com.br/.org/.html?id=" +
+            "the and you that this with have for not are what but can will just when there about " +
+            "hello thanks please yes okay good morning message file peer connection " +
+            "192.168.0.10.0.0.172.16.0.:5000,:5001,:5002,:5003,:8080," +
+            "localhost:5000,localhost:5001,127.0.0.1:5000,127.0.0.1:5001,127.0.0.1:" +
+            "olá oi tudo bem bom dia boa tarde boa noite obrigado obrigada valeu beleza " +
+            "por favor mensagem arquivo conectado peer amanhã hoje agora depois também " +
+            "porque quando ainda muito mais então isso essa esse aqui onde como " +
+            "você vocês não sim está estou para pelo pela com uma que de do da dos das em no na o a e é "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<byte[]> OUT = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
+
+    private FrameCompressor() {}
+
+    /**
+     * Deflates a binary frame (magic, length, body).
+     *
+     * @return the compressed frame, or null when it would not be smaller
+     */
+    public static byte[] compress(byte[] binaryFrame) {
+        int bodyLen = binaryFrame.length - ProtocolMessage.BINARY_HEADER;
+        Deflater d = DEFLATER.get();
+        d.reset();
+        d.setDictionary(DICTIONARY);
+        d.setInput(binaryFrame, ProtocolMessage.BINARY_HEADER, bodyLen);
+        d.finish();
+
+        // only worth it if it ends up smaller than the original frame
+        int budget = binaryFrame.length - HEADER - 1;
+        if (budget <= 0) return null;
+        byte[] out = OUT.get();
+        if (out.length < budget) {
+            out = new byte[Math.min(budget, FrameDecoder.MAX_FRAME)];
+            if (out.length <= 256 * 1024) OUT.set(out);
+        }
+        int n = 0;
+        while (!d.finished() && n < budget) {
+            n += d.deflate(out, n, budget - n);
+        }
+        if (!d.finished()) return null;
+
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + n);
+        frame.put(DEFLATE_MAGIC).putInt(4 + n).putInt(bodyLen).put(out, 0, n);
+        return frame.array();
+    }
+
+    /** Per-connection inflating side; not thread-safe, like the {@link FrameDecoder} that owns it. */
+    public static final class Decompressor {
+        private final Inflater inflater = new Inflater(true);
+        private byte[] body = new byte[8 * 1024];
+
+        /**
+         * Inflates the payload of one compressed frame ({@code buf} positioned after magic and
+         * length, limited to the frame's end) into a buffer holding the original binary body.
+         */
+        public ByteBuffer inflate(ByteBuffer buf) throws DataFormatException {
+            int bodyLen = buf.getInt();
+            if (bodyLen <= 0 || bodyLen > FrameDecoder.MAX_FRAME) throw new DataFormatException("invalid inflated length " + bodyLen);
+            if (body.length < bodyLen) body = new byte[Math.max(bodyLen, Math.min(body.length * 2, FrameDecoder.MAX_FRAME))];
+
+            inflater.reset();
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(buf);
+            int n = 0;
+            while (n < bodyLen && !inflater.finished()) {
+                int k = inflater.inflate(body, n, bodyLen - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += k;
+            }
+            if (n != bodyLen) throw new DataFormatException("truncated deflate frame (" + n + "/" + bodyLen + ")");
+            return ByteBuffer.wrap(body, 0, bodyLen);
+        }
+    }
+}
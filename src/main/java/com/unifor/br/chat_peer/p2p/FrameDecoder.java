@@ -0,0 +1,118 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+
+
+/**
+ * Incremental decoder for one connection's inbound byte stream. Each frame is either a
+ * text line (legacy protocol) or a length-prefixed binary frame, told apart by its first byte.
+ * Complete frames are decoded in place from the caller's buffer; only a trailing partial
+ * frame is copied aside until the rest arrives.
+ */
+final class FrameDecoder {
+
+    static final int MAX_FRAME = 4 << 20;
+
+    private final PeerConnection conn;
+    private final byte[] scratch = new byte[8 * 1024];
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+    private FrameCompressor.Decompressor decompressor;
+
+    FrameDecoder(PeerConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Consumes all of {@code in}.
+     *
+     * @return false if the stream is corrupt (oversized frame) and the connection should be dropped
+     */
+    boolean feed(ByteBuffer in) {
+        if (pending.position() == 0) {
+            if (!drain(in)) return false;
+            if (in.hasRemaining()) stash(in);
+            return true;
+        }
+        stash(in);
+        pending.flip();
+        boolean ok = drain(pending);
+        pending.compact();
+        return ok;
+    }
+
+    private void stash(ByteBuffer in) {
+        if (pending.remaining() < in.remaining()) {
+            int needed = pending.position() + in.remaining();
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, Math.max(1024, pending.capacity() * 2)));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        pending.put(in);
+    }
+
+    /** Decodes every complete frame in {@code buf}, leaving a partial one (if any) unread. */
+    private boolean drain(ByteBuffer buf) {
+        while (buf.hasRemaining() && !conn.isClosed()) {
+            int start = buf.position();
+            byte first = buf.get(start);
+            if (first == ProtocolMessage.BINARY_MAGIC || first == FrameCompressor.DEFLATE_MAGIC) {
+                if (buf.remaining() < ProtocolMessage.BINARY_HEADER) return true;
+                int len = buf.getInt(start + 1);
+                if (len <= 0 || len > MAX_FRAME) {
+                    conn.node.metrics().parseFailures.increment();
+                    conn.node.history().addSystem("Frame inválido recebido de " + conn.remoteHost() + " (" + len + " bytes)");
+                    return false;
+                }
+                if (buf.remaining() < ProtocolMessage.BINARY_HEADER + len) return true;
+
+                int end = start + ProtocolMessage.BINARY_HEADER + len;
+                int limit = buf.limit();
+                buf.position(start + ProtocolMessage.BINARY_HEADER).limit(end);
+                ProtocolMessage msg = null;
+                try {
+                    msg = ProtocolMessage.readBinary(first == ProtocolMessage.BINARY_MAGIC ? buf : inflate(buf), scratch);
+                } catch (RuntimeException | DataFormatException e) {
+                    conn.node.metrics().parseFailures.increment();
+                    conn.node.history().addSystem("Frame inválido recebido de " + conn.remoteHost() + ": " + e.getMessage());
+                }
+                buf.limit(limit).position(end);
+                if (msg != null) conn.node.onFrame(conn, msg);
+            } else {
+                int end = start;
+                int limit = buf.limit();
+                while (end < limit && buf.get(end) != '\n') end++;
+                if (end == limit) {
+                    if (end - start > MAX_FRAME) {
+                        conn.node.history().addSystem("Linha muito longa recebida de " + conn.remoteHost() + ", encerrando conexão");
+                        return false;
+                    }
+                    return true;
+                }
+                int len = end - start;
+                if (len > 0 && buf.get(end - 1) == '\r') len--;
+                String line = decodeLine(buf, start, len);
+                buf.position(end + 1);
+                conn.node.onLine(conn, line);
+            }
+        }
+        return true;
+    }
+
+    /** Every compressed frame stands alone, so a bad one costs only that frame. */
+    private ByteBuffer inflate(ByteBuffer buf) throws DataFormatException {
+        if (decompressor == null) decompressor = new FrameCompressor.Decompressor();
+        return decompressor.inflate(buf);
+    }
+
+    private String decodeLine(ByteBuffer buf, int start, int len) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+        }
+        byte[] tmp = len <= scratch.length ? scratch : new byte[len];
+        buf.get(start, tmp, 0, len);
+        return new String(tmp, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,288 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Decides which links a chat message is pushed to.
+ * <p>
+ * {@link PeerConfig.ForwardMode#FLOOD} sends every new message on every other link.
+ * {@link PeerConfig.ForwardMode#PLUMTREE} (epidemic broadcast tree) sends the full message only on
+ * eager links and announces its id on lazy links in batched IHAVE frames. A duplicate arriving over
+ * an eager link prunes that link to lazy, so the eager links converge to a spanning tree. When an
+ * announced message does not arrive within the graft timeout, the announcing link is grafted back
+ * (GRAFT) and the message fetched from it; that is how the tree heals after a link or node fails.
+ * Links to peers that did not offer {@link ProtocolMessage#CAP_TREE} are always eager.
+ */
+final class GossipRouter {
+
+    /** Recently pushed messages kept to answer GRAFT. */
+    private static final int CACHE_MESSAGES = 4096;
+    /** Most ids per IHAVE frame. */
+    private static final int MAX_IDS_PER_IHAVE = 256;
+    /** Announced-but-missing messages tracked at once. */
+    private static final int MAX_MISSING = 4096;
+
+    private final PeerConfig.ForwardMode mode;
+    private final boolean tree;
+    private final SeenSet seen;
+    private final long graftTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<UUID, ProtocolMessage> cache = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override protected boolean removeEldestEntry(Map.Entry<UUID, ProtocolMessage> eldest) {
+            return size() > CACHE_MESSAGES;
+        }
+    };
+    private final ConcurrentMap<PeerConnection, Queue<UUID>> pendingIhave = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Missing> missing = new ConcurrentHashMap<>();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder eagerSent = new LongAdder();
+    private final LongAdder idsAnnounced = new LongAdder();
+    private final LongAdder graftsSent = new LongAdder();
+    private final LongAdder prunesSent = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+
+    /** @param forwarding whether this node relays others' messages; a pure endpoint never prunes its links */
+    GossipRouter(PeerConfig config, SeenSet seen, boolean forwarding) {
+        this.mode = config.forwardMode();
+        this.tree = forwarding && mode == PeerConfig.ForwardMode.PLUMTREE;
+        this.seen = seen;
+        this.graftTimeoutMillis = config.graftTimeoutMillis();
+        this.scheduler = tree ? config.network().newScheduler("p2p-gossip") : null;
+        if (tree) {
+            long every = config.ihaveIntervalMillis();
+            scheduler.scheduleWithFixedDelay(this::flushAnnouncements, every, every, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    boolean treeEnabled() { return tree; }
+
+    /** Every link starts eager; only tree-capable ones may later be pruned. */
+    void linkUp(PeerConnection conn, boolean peerOffersTree) {
+        conn.treeCapable = treeEnabled() && peerOffersTree;
+        conn.lazy = false;
+    }
+
+    void forget(PeerConnection conn) {
+        pendingIhave.remove(conn);
+    }
+
+    /**
+     * Pushes a message we authored or just received for the first time to every link but {@code from}.
+     * The frame is encoded once on the first send and the same bytes are queued on every eager link,
+     * on the chat stream for our own messages and on the bulk stream for relays.
+     *
+     * @return links the message was sent or announced on
+     */
+    int push(ProtocolMessage msg, PeerConnection from, Collection<PeerConnection> links) {
+        UUID id = treeEnabled() ? msg.uuid() : null;
+        if (id != null) remember(id, msg);
+        int fanOut = 0;
+        for (PeerConnection c : links) {
+            if (c == from || c.isClosed()) continue;
+            fanOut++;
+            if (id != null && c.treeCapable && c.lazy) {
+                pendingIhave.computeIfAbsent(c, k -> new ConcurrentLinkedQueue<>()).add(id);
+            } else {
+                c.send(msg, from == null ? OutboundQueue.Stream.CHAT : OutboundQueue.Stream.BULK);
+                eagerSent.increment();
+            }
+        }
+        return fanOut;
+    }
+
+    /** First copy of a message arrived over {@code from}, which becomes (or stays) our tree parent. */
+    void delivered(PeerConnection from, ProtocolMessage msg) {
+        delivered.increment();
+        if (msg.timestamp > 0) {
+            long latency = Math.max(0, System.currentTimeMillis() - msg.timestamp);
+            latencySum.add(latency);
+            latencyCount.increment();
+            latencyMax.accumulate(latency);
+        }
+        if (!treeEnabled()) return;
+        UUID id = msg.uuid();
+        if (id != null) missing.remove(id);
+        if (from != null && from.treeCapable) from.lazy = false;
+    }
+
+    /** A copy we already had: the link that carried it is redundant for the tree. */
+    void duplicate(PeerConnection from) {
+        duplicates.increment();
+        if (from.treeCapable && !from.lazy) {
+            from.lazy = true;
+            from.send(ProtocolMessage.prune());
+            prunesSent.increment();
+        }
+    }
+
+    void onIhave(PeerConnection from, ProtocolMessage ihave) {
+        if (!treeEnabled()) return;
+        for (String raw : ihave.messageIds()) {
+            UUID id;
+            try {
+                id = UUID.fromString(raw.trim());
+            } catch (IllegalArgumentException notUuid) {
+                continue;
+            }
+            if (seen.contains(id.getMostSignificantBits(), id.getLeastSignificantBits())) continue;
+            Missing m = missing.get(id);
+            if (m == null) {
+                if (missing.size() >= MAX_MISSING) continue;
+                Missing fresh = new Missing(id);
+                m = missing.putIfAbsent(id, fresh);
+                if (m == null) {
+                    fresh.announcedBy(from);
+                    schedule(() -> expire(fresh), graftTimeoutMillis);
+                    continue;
+                }
+            }
+            m.announcedBy(from);
+        }
+    }
+
+    void onGraft(PeerConnection from, ProtocolMessage graft) {
+        from.lazy = false;
+        for (String raw : graft.messageIds()) {
+            ProtocolMessage msg;
+            try {
+                UUID id = UUID.fromString(raw.trim());
+                synchronized (cache) {
+                    msg = cache.get(id);
+                }
+            } catch (IllegalArgumentException notUuid) {
+                continue;
+            }
+            if (msg != null) {
+                from.send(msg, OutboundQueue.Stream.BULK);
+                eagerSent.increment();
+            }
+        }
+    }
+
+    void onPrune(PeerConnection from) {
+        if (from.treeCapable) from.lazy = true;
+    }
+
+    ForwardStats stats(Collection<PeerConnection> links) {
+        int eager = 0, lazy = 0;
+        for (PeerConnection c : links) {
+            if (c.lazy) lazy++;
+            else eager++;
+        }
+        long n = latencyCount.sum();
+        return new ForwardStats(mode, delivered.sum(), duplicates.sum(), eagerSent.sum(), idsAnnounced.sum(),
+                graftsSent.sum(), prunesSent.sum(), eager, lazy,
+                n == 0 ? 0 : (double) latencySum.sum() / n, latencyMax.get());
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void remember(UUID id, ProtocolMessage msg) {
+        synchronized (cache) {
+            cache.put(id, msg);
+        }
+    }
+
+    /** Sends the queued lazy announcements, one IHAVE per link and batch. */
+    private void flushAnnouncements() {
+        for (Map.Entry<PeerConnection, Queue<UUID>> e : pendingIhave.entrySet()) {
+            PeerConnection c = e.getKey();
+            if (c.isClosed()) {
+                pendingIhave.remove(c, e.getValue());
+                continue;
+            }
+            Queue<UUID> q = e.getValue();
+            UUID id;
+            while ((id = q.poll()) != null) {
+                StringBuilder csv = new StringBuilder(37 * Math.min(q.size() + 1, MAX_IDS_PER_IHAVE));
+                int n = 0;
+                do {
+                    if (n++ > 0) csv.append(',');
+                    csv.append(id);
+                } while (n < MAX_IDS_PER_IHAVE && (id = q.poll()) != null);
+                c.send(ProtocolMessage.ihave(csv.toString()));
+                idsAnnounced.add(n);
+            }
+        }
+    }
+
+    /** The message did not arrive in time: graft the next link that announced it. */
+    private void expire(Missing m) {
+        if (missing.get(m.id) != m) return;
+        if (seen.contains(m.id.getMostSignificantBits(), m.id.getLeastSignificantBits())) {
+            missing.remove(m.id, m);
+            return;
+        }
+        PeerConnection next = m.nextAnnouncer();
+        if (next == null) {
+            missing.remove(m.id, m);
+            return;
+        }
+        next.lazy = false;
+        next.send(ProtocolMessage.graft(m.id.toString()));
+        graftsSent.increment();
+        // if this one fails too, try the next announcer sooner
+        schedule(() -> expire(m), Math.max(1, graftTimeoutMillis / 2));
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /** A message we have only heard about, with the links that announced it. */
+    private static final class Missing {
+        final UUID id;
+        private final ArrayDeque<PeerConnection> announcers = new ArrayDeque<>(2);
+
+        Missing(UUID id) { this.id = id; }
+
+        synchronized void announcedBy(PeerConnection c) {
+            if (!announcers.contains(c)) announcers.add(c);
+        }
+
+        /**
+         * The open announcer with the lowest smoothed RTT, so a graft is answered by the closest peer;
+         * links without an RTT yet are tried in arrival order after the measured ones.
+         */
+        synchronized PeerConnection nextAnnouncer() {
+            announcers.removeIf(PeerConnection::isClosed);
+            PeerConnection best = null;
+            double bestRtt = Double.MAX_VALUE;
+            for (PeerConnection c : announcers) {
+                double rtt = c.health.srttMillis();
+                if (rtt < 0) rtt = Double.MAX_VALUE / 2;
+                if (best == null || rtt < bestRtt) {
+                    best = c;
+                    bestRtt = rtt;
+                }
+            }
+            if (best != null) announcers.remove(best);
+            return best;
+        }
+    }
+}
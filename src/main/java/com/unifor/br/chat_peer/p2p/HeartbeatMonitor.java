@@ -0,0 +1,78 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sends a PING on every heartbeat-capable link each {@link PeerConfig#heartbeatIntervalMillis()},
+ * measures the round trip from the echoed PONG and closes links whose {@link LinkHealth#phi phi}
+ * crosses {@link PeerConfig#phiThreshold()} or that stay silent longer than
+ * {@link PeerConfig#heartbeatTimeoutMillis()}. Without it a half-open TCP connection is only
+ * noticed when a write finally fails, which can take minutes.
+ * Links to peers that did not offer {@link ProtocolMessage#CAP_HEARTBEAT} are never pinged or evicted.
+ */
+final class HeartbeatMonitor {
+
+    private final PeerNode node;
+    private final long intervalMillis;
+    private final double phiThreshold;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Network clock;
+
+    HeartbeatMonitor(PeerNode node, PeerConfig config) {
+        this.node = node;
+        this.intervalMillis = config.heartbeatIntervalMillis();
+        this.phiThreshold = config.phiThreshold();
+        this.timeoutMillis = config.heartbeatTimeoutMillis();
+        this.clock = config.network();
+        this.scheduler = enabled() ? clock.newScheduler("p2p-heartbeat") : null;
+    }
+
+    boolean enabled() { return intervalMillis > 0; }
+
+    void start() {
+        if (!enabled()) return;
+        scheduler.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Echoes the ping's timestamp so the sender can measure the round trip without keeping state. */
+    void onPing(PeerConnection from, ProtocolMessage ping) {
+        from.send(ProtocolMessage.pong(ping));
+    }
+
+    void onPong(PeerConnection link, ProtocolMessage pong) {
+        long now = clock.nanoTime();
+        long sentAt = pong.heartbeatNanos();
+        if (sentAt > 0 && sentAt <= now) link.health.rttSample((now - sentAt) / 1e6);
+        link.health.beat(now);
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = clock.nanoTime();
+            for (PeerConnection c : node.links()) {
+                if (!c.heartbeatCapable || c.isClosed()) continue;
+                double phi = c.health.phi(now);
+                long silent = c.health.silentMillis(now);
+                if (phi >= phiThreshold || silent >= timeoutMillis) {
+                    node.history().addSystem(String.format(Locale.ROOT,
+                            "Peer sem resposta desconectado: %s@%s (%d ms em silêncio, φ %.1f)",
+                            c.remoteUser(), c.remoteHost(), silent, phi));
+                    c.close();
+                    node.unregisterConnection(c);
+                    continue;
+                }
+                c.send(ProtocolMessage.ping(now));
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive; a failed tick is retried on the next one
+        }
+    }
+}
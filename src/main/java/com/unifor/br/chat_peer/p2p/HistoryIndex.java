@@ -0,0 +1,272 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.text.Normalizer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Incremental search index over a {@link MessageHistory}, built lazily by the queries.
+ * <p>
+ * Appends never touch the index, so the history's append path stays lock-free; each query first
+ * indexes, in sequence order, whatever was published since the previous one (at most a ring's
+ * worth). Postings are ascending arrays of history sequence numbers: one per sender and one per
+ * text token. A sampled {@code (time, seq)} array every {@link #TIME_STRIDE} messages acts as a
+ * skip index for time ranges. Lookups binary-search or intersect postings and touch only matching
+ * messages, so cost grows with the result, not with the history. Entries that fell out of the
+ * ring are trimmed lazily from the head of each list.
+ */
+public final class HistoryIndex {
+
+    static final int TIME_STRIDE = 64;
+    private static final int MAX_TOKENS_PER_MESSAGE = 64;
+
+    private final MessageHistory history;
+    private final Map<String, Postings> bySender = new HashMap<>();
+    private final Map<String, Postings> byToken = new HashMap<>();
+    /** Time skip index: parallel (seq, millis) samples, live in {@code [sampleStart, sampleEnd)}. */
+    private long[] sampleSeq = new long[16];
+    private long[] sampleMillis = new long[16];
+    private int sampleStart;
+    private int sampleEnd;
+    private long sinceSweep;
+    /** Every published message below this seq has been indexed (or had left the ring). */
+    private long indexed;
+
+    HistoryIndex(MessageHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Indexes what was published since the last query, stopping at the first seq whose append has
+     * not finished yet so nothing is skipped; caller holds the lock.
+     */
+    private void catchUp() {
+        long end = history.nextSeq();
+        long s = Math.max(indexed, history.firstSeq());
+        for (; s < end; s++) {
+            ChatMessage m = history.get(s);
+            if (m == null) {
+                if (s >= history.firstSeq()) break; // claimed but not published yet
+                continue; // overwritten meanwhile
+            }
+            add(m);
+        }
+        indexed = s;
+    }
+
+    private void add(ChatMessage m) {
+        bySender.computeIfAbsent(normalize(m.from), k -> new Postings()).add(m.seq);
+        for (String t : tokens(m.text)) byToken.computeIfAbsent(t, k -> new Postings()).add(m.seq);
+        if (m.seq % TIME_STRIDE == 0) addTimeSample(m.timestamp.toEpochMilli(), m.seq);
+        if (++sinceSweep >= history.capacity()) sweep();
+    }
+
+    /** The newest {@code limit} messages sent by {@code from} (case-insensitive), oldest first. */
+    public List<ChatMessage> bySender(String from, int limit) {
+        long[] seqs;
+        synchronized (this) {
+            catchUp();
+            Postings p = bySender.get(normalize(from));
+            if (p == null) return List.of();
+            seqs = p.tail(history.firstSeq(), limit);
+        }
+        return resolve(seqs);
+    }
+
+    /** The newest {@code limit} messages containing every word of {@code query}, oldest first. */
+    public List<ChatMessage> search(String query, int limit) {
+        Set<String> terms = tokens(query);
+        if (terms.isEmpty()) return List.of();
+        long[] seqs;
+        synchronized (this) {
+            catchUp();
+            long floor = history.firstSeq();
+            List<Postings> lists = new ArrayList<>(terms.size());
+            for (String t : terms) {
+                Postings p = byToken.get(t);
+                if (p == null) return List.of();
+                p.trim(floor);
+                lists.add(p);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            seqs = intersectNewest(lists, limit);
+        }
+        return resolve(seqs);
+    }
+
+    /**
+     * The newest {@code limit} messages with {@code from <= timestamp < to}, oldest first, like
+     * {@link #bySender}: the scan runs backwards from the end of the range.
+     */
+    public List<ChatMessage> between(Instant from, Instant to, int limit) {
+        long fromMillis = from.toEpochMilli(), toMillis = to.toEpochMilli();
+        long start, end;
+        synchronized (this) {
+            catchUp();
+            sampleStart = lowerBound(sampleSeq, sampleStart, sampleEnd, history.firstSeq());
+            // samples just outside the range; one stride of slack absorbs slightly unordered clocks
+            int i = lowerBound(sampleMillis, sampleStart, sampleEnd, fromMillis) - 2;
+            start = i >= sampleStart ? sampleSeq[i] : history.firstSeq();
+            int j = lowerBound(sampleMillis, sampleStart, sampleEnd, toMillis) + 1;
+            end = j < sampleEnd ? sampleSeq[j] : history.nextSeq();
+        }
+        List<ChatMessage> out = new ArrayList<>();
+        int pastStart = 0;
+        for (long s = end - 1; s >= Math.max(start, history.firstSeq()) && out.size() < limit; s--) {
+            ChatMessage m = history.get(s);
+            if (m == null) continue;
+            long t = m.timestamp.toEpochMilli();
+            if (t < fromMillis) {
+                if (++pastStart > TIME_STRIDE) break; // well before the range
+            } else if (t < toMillis) {
+                out.add(m);
+            }
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    /** Distinct senders and tokens currently indexed. */
+    public synchronized int keys() {
+        catchUp();
+        return bySender.size() + byToken.size();
+    }
+
+    private List<ChatMessage> resolve(long[] seqs) {
+        List<ChatMessage> out = new ArrayList<>(seqs.length);
+        for (long s : seqs) {
+            ChatMessage m = history.get(s);
+            if (m != null) out.add(m);
+        }
+        return out;
+    }
+
+    private void addTimeSample(long millis, long seq) {
+        if (sampleEnd == sampleSeq.length) {
+            int live = sampleEnd - sampleStart;
+            int capacity = Math.max(16, live * 2);
+            sampleSeq = Arrays.copyOfRange(sampleSeq, sampleStart, sampleStart + capacity);
+            sampleMillis = Arrays.copyOfRange(sampleMillis, sampleStart, sampleStart + capacity);
+            sampleStart = 0;
+            sampleEnd = live;
+        }
+        sampleSeq[sampleEnd] = seq;
+        sampleMillis[sampleEnd++] = millis;
+    }
+
+    /** Drops postings that no longer point into the ring. */
+    private void sweep() {
+        sinceSweep = 0;
+        long floor = history.firstSeq();
+        sweep(bySender, floor);
+        sweep(byToken, floor);
+    }
+
+    private static void sweep(Map<String, Postings> map, long floor) {
+        for (Iterator<Postings> it = map.values().iterator(); it.hasNext(); ) {
+            Postings p = it.next();
+            p.trim(floor);
+            if (p.size() == 0) it.remove();
+        }
+    }
+
+    /** Walks the shortest list from the newest entry, probing the others by binary search. */
+    private static long[] intersectNewest(List<Postings> lists, int limit) {
+        Postings shortest = lists.get(0);
+        long[] hits = new long[Math.min(limit, shortest.size())];
+        int n = 0;
+        int[] bounds = new int[lists.size()];
+        for (int k = 1; k < lists.size(); k++) bounds[k] = lists.get(k).end;
+        for (int i = shortest.end - 1; i >= shortest.start && n < hits.length; i--) {
+            long seq = shortest.seqs[i];
+            boolean all = true;
+            for (int k = 1; k < lists.size() && all; k++) {
+                Postings p = lists.get(k);
+                int j = lowerBound(p.seqs, p.start, bounds[k], seq);
+                bounds[k] = j; // later candidates are smaller, never search above this again
+                all = j < p.end && p.seqs[j] == seq;
+            }
+            if (all) hits[n++] = seq;
+        }
+        long[] out = new long[n];
+        for (int i = 0; i < n; i++) out[i] = hits[n - 1 - i];
+        return out;
+    }
+
+    /** First index in {@code [from, to)} whose value is {@code >= key}. */
+    private static int lowerBound(long[] a, int from, int to, long key) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Lower-cased, accent-free words of two or more letters or digits. */
+    static Set<String> tokens(String text) {
+        if (text == null || text.isEmpty()) return Collections.emptySet();
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD);
+        Set<String> out = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= plain.length() && out.size() < MAX_TOKENS_PER_MESSAGE; i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else {
+                if (word.length() >= 2) out.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return out;
+    }
+
+    /** Ascending sequence numbers with a moving head, compacted in place. */
+    private static final class Postings {
+        long[] seqs = new long[4];
+        int start;
+        int end;
+
+        int size() { return end - start; }
+
+        /** Seqs arrive in order, since {@link #catchUp} walks the ring in order. */
+        void add(long seq) {
+            if (end == seqs.length) compact(Math.max(4, size() * 2));
+            seqs[end++] = seq;
+        }
+
+        void compact(int capacity) {
+            int live = size();
+            seqs = Arrays.copyOfRange(seqs, start, start + capacity);
+            start = 0;
+            end = live;
+        }
+
+        void trim(long floor) {
+            if (start < end && seqs[start] < floor) start = lowerBound(seqs, start, end, floor);
+        }
+
+        /** Up to {@code limit} newest entries at or above {@code floor}, ascending. */
+        long[] tail(long floor, int limit) {
+            trim(floor);
+            int from = Math.max(start, end - limit);
+            return Arrays.copyOfRange(seqs, from, end);
+        }
+    }
+}
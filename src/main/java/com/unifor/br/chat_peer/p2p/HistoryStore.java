@@ -0,0 +1,510 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only, segmented on-disk log of {@link ChatMessage}s.
+ * <p>
+ * Records are appended by a single writer thread that drains everything queued since its last
+ * pass into one {@link FileChannel} write and one {@code force} (group commit). Segments roll at
+ * a size limit and are named after the number of their first record. Next to each segment a
+ * sparse index holds {@code (record, timestamp, position)} every {@link #INDEX_INTERVAL_BYTES},
+ * so recovery and time lookups map only the tail of the segments they need.
+ * <p>
+ * Record layout: {@code int length | int crc32 | long epochMillis | byte direction | long originSeq |
+ * from | id | origin | text}, where strings but the last are an int length (-1 for null) plus UTF-8
+ * and {@code length} and the CRC cover everything after the CRC.
+ * A torn record at the end of the last segment is truncated on open.
+ * <p>
+ * Appending never waits: when the writer falls {@value #QUEUE_CAPACITY} records behind, new records
+ * are refused and a note goes to the {@link #problems} sink, as do write failures.
+ */
+public final class HistoryStore implements AutoCloseable {
+
+    static final int INDEX_INTERVAL_BYTES = 64 * 1024;
+    private static final int INDEX_ENTRY = 24;
+    private static final int RECORD_HEADER = 8;
+    /** millis, direction, origin seq and the three string lengths */
+    private static final int FIXED_BODY = 8 + 1 + 8 + 4 + 4 + 4;
+    private static final int MAX_RECORD = 16 << 20;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final ChatMessage.Direction[] DIRECTIONS = ChatMessage.Direction.values();
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean fsync;
+
+    private final BlockingQueue<ChatMessage> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread writer;
+    private volatile Consumer<String> problems = problem -> { };
+    /** Set by the first refused append, cleared once the writer has caught up; keeps the note to one per backlog. */
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    /** Sealed segments followed by the active one; replaced (not mutated) under {@code this}. */
+    private List<Segment> segments;
+    /** Indexes of sealed segments; the active segment's index is re-read since it still grows. */
+    private final ConcurrentMap<Long, long[]> indexCache = new ConcurrentHashMap<>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    /** Records written by the writer; guarded by {@code this}. */
+    private long committed;
+
+    // writer-thread state
+    private FileChannel data;
+    private FileChannel index;
+    private long activeBytes;
+    private long lastIndexedBytes = -INDEX_INTERVAL_BYTES;
+    private long nextRecord;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+    private final ByteBuffer indexBuf = ByteBuffer.allocate(INDEX_ENTRY * 1024);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens (or creates) the log in {@code dir}, validating the tail of the newest segment.
+     *
+     * @param segmentBytes roll to a new segment once the active one reaches this size
+     * @param fsync        force every group commit to disk; otherwise only on roll and close
+     */
+    public HistoryStore(Path dir, long segmentBytes, boolean fsync) throws IOException {
+        if (segmentBytes < INDEX_INTERVAL_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be between " + INDEX_INTERVAL_BYTES + " and 2 GiB");
+        }
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                try {
+                    found.add(new Segment(Long.parseLong(name.substring(0, name.length() - 4)), p));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.firstRecord, b.firstRecord));
+        if (found.isEmpty()) found.add(new Segment(0, segmentPath(0)));
+        this.segments = Collections.unmodifiableList(found);
+
+        openActive(recoverTail(found.get(found.size() - 1)));
+        this.committed = nextRecord;
+        this.enqueued.set(nextRecord);
+
+        this.writer = new Thread(this::writeLoop, "p2p-history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Where write failures and refused appends are reported, e.g. {@link MessageHistory#addSystem}. */
+    void problems(Consumer<String> sink) { this.problems = sink; }
+
+    /**
+     * Queues a message for the next group commit without waiting.
+     *
+     * @return false if the message will not be logged: the writer is too far behind, failed or was closed
+     */
+    public boolean append(ChatMessage m) {
+        if (closed.get()) return false;
+        if (!pending.offer(m)) {
+            if (overflowing.compareAndSet(false, true)) {
+                problems.accept("Histórico em disco atrasado: mensagens novas não estão sendo gravadas em " + dir);
+            }
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    /** Blocks until everything appended so far has been written (and forced, if fsync is on). */
+    public synchronized void flush() throws InterruptedException {
+        long target = enqueued.get();
+        while (committed < target && writer.isAlive()) wait(100);
+    }
+
+    /** Number of records in the log, including ones still queued. */
+    public long size() { return enqueued.get(); }
+
+    public synchronized int segmentCount() { return segments.size(); }
+
+    /** The newest {@code limit} committed records, oldest first. */
+    public List<ChatMessage> recent(int limit) throws IOException {
+        View v = view();
+        long from = Math.max(0, v.records - limit);
+        return read(v, locate(v, from), from, Long.MIN_VALUE, limit);
+    }
+
+    /** Committed records with a timestamp at or after {@code from}, oldest first, at most {@code limit}. */
+    public List<ChatMessage> since(Instant from, int limit) throws IOException {
+        View v = view();
+        long millis = from.toEpochMilli();
+        // last segment that starts before the instant; earlier ones cannot hold later records
+        int lo = 0, hi = v.segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            long[] idx = index(v.segments.get(mid), v);
+            if (idx.length > 0 && idx[1] < millis) lo = mid;
+            else hi = mid - 1;
+        }
+        Segment seg = v.segments.get(lo);
+        long[] idx = index(seg, v);
+        int e = 0;
+        for (int i = 0; i < idx.length; i += 3) {
+            if (idx[i + 1] < millis) e = i;
+            else break;
+        }
+        // step back one entry: timestamps from concurrent senders are only roughly ordered
+        e = Math.max(0, e - 3);
+        long record = idx.length > 0 ? idx[e] : seg.firstRecord;
+        long position = idx.length > 0 ? idx[e + 2] : 0;
+        return read(v, new Cursor(lo, record, position), record, millis, limit);
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- writer ----
+
+    private void writeLoop() {
+        List<ChatMessage> batch = new ArrayList<>(4096);
+        try {
+            // not interrupted on close: an interrupt would close the FileChannel mid-write
+            while (!closed.get() || !pending.isEmpty()) {
+                ChatMessage first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                pending.drainTo(batch, 4095);
+                writeBatch(batch);
+                batch.clear();
+                if (pending.isEmpty()) overflowing.set(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            closed.set(true); // stop accepting appends nobody would drain
+            pending.clear();
+            problems.accept("Falha ao gravar histórico em " + dir + ": " + e.getMessage());
+        } finally {
+            try {
+                if (data != null) { data.force(true); data.close(); }
+                if (index != null) { index.force(true); index.close(); }
+            } catch (IOException ignored) {
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeBatch(List<ChatMessage> batch) throws IOException {
+        buf.clear();
+        indexBuf.clear();
+        for (ChatMessage m : batch) {
+            byte[] from = m.from.getBytes(StandardCharsets.UTF_8);
+            byte[] text = m.text.getBytes(StandardCharsets.UTF_8);
+            byte[] id = m.id == null ? null : m.id.getBytes(StandardCharsets.UTF_8);
+            byte[] origin = m.origin == null ? null : m.origin.getBytes(StandardCharsets.UTF_8);
+            int body = FIXED_BODY + from.length + length(id) + length(origin) + text.length;
+            int size = RECORD_HEADER + body;
+
+            if (activeBytes + buf.position() > 0 && activeBytes + buf.position() + size > segmentBytes) {
+                writeOut();
+                roll();
+            }
+            if (buf.remaining() < size || !indexBuf.hasRemaining()) {
+                writeOut();
+                if (buf.capacity() < size) buf = ByteBuffer.allocate(size);
+            }
+            long position = activeBytes + buf.position();
+            if (position - lastIndexedBytes >= INDEX_INTERVAL_BYTES) {
+                indexBuf.putLong(nextRecord).putLong(m.timestamp.toEpochMilli()).putLong(position);
+                lastIndexedBytes = position;
+            }
+
+            int start = buf.position();
+            buf.putInt(body + 4).putInt(0);
+            buf.putLong(m.timestamp.toEpochMilli()).put((byte) m.direction.ordinal()).putLong(m.originSeq);
+            putString(buf.putInt(from.length).put(from), id);
+            putString(buf, origin);
+            buf.put(text);
+            crc.reset();
+            crc.update(buf.array(), start + RECORD_HEADER, body);
+            buf.putInt(start + 4, (int) crc.getValue());
+            nextRecord++;
+        }
+        writeOut();
+        if (fsync) data.force(false);
+        synchronized (this) {
+            committed += batch.size();
+            notifyAll();
+        }
+    }
+
+    /** Writes the buffered records and index entries, then publishes the new tail to readers. */
+    private void writeOut() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) activeBytes += data.write(buf);
+        buf.clear();
+        indexBuf.flip();
+        while (indexBuf.hasRemaining()) index.write(indexBuf);
+        indexBuf.clear();
+        synchronized (this) {
+            Segment active = segments.get(segments.size() - 1);
+            active.bytes = activeBytes;
+            active.records = nextRecord - active.firstRecord;
+        }
+    }
+
+    private void roll() throws IOException {
+        data.force(true);
+        index.force(true);
+        data.close();
+        index.close();
+        Segment next = new Segment(nextRecord, segmentPath(nextRecord));
+        synchronized (this) {
+            List<Segment> grown = new ArrayList<>(segments);
+            grown.add(next);
+            segments = Collections.unmodifiableList(grown);
+        }
+        openActive(0);
+    }
+
+    private void openActive(long validBytes) throws IOException {
+        Segment active = segments.get(segments.size() - 1);
+        data = FileChannel.open(active.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        data.truncate(validBytes);
+        data.position(validBytes);
+        index = FileChannel.open(indexPath(active.path), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long entries = 0;
+        long[] idx = active.recoveredIndex;
+        if (idx != null) entries = idx.length / 3;
+        index.truncate(entries * INDEX_ENTRY);
+        index.position(entries * INDEX_ENTRY);
+        activeBytes = validBytes;
+        lastIndexedBytes = idx != null && idx.length > 0 ? idx[idx.length - 1] : -INDEX_INTERVAL_BYTES;
+        active.bytes = validBytes;
+        active.records = nextRecord - active.firstRecord;
+        active.recoveredIndex = null;
+    }
+
+    // ---- recovery and reads ----
+
+    /** Scans the newest segment from its last index entry, returning the length of its valid prefix. */
+    private long recoverTail(Segment seg) throws IOException {
+        if (!Files.exists(seg.path)) {
+            nextRecord = seg.firstRecord;
+            seg.recoveredIndex = new long[0];
+            return 0;
+        }
+        long fileBytes = Files.size(seg.path);
+        long[] idx = readIndexFile(seg.path, fileBytes);
+        CRC32 check = new CRC32();
+        try (FileChannel ch = FileChannel.open(seg.path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, fileBytes);
+            // without fsync the index may reach the disk before the data it points to
+            int last = idx.length - 3;
+            while (last >= 0) {
+                map.position((int) idx[last + 2]);
+                if (decode(map, check) != null) break;
+                last -= 3;
+            }
+            if (last + 3 < idx.length) idx = Arrays.copyOf(idx, last + 3);
+
+            long record = last >= 0 ? idx[last] : seg.firstRecord;
+            map.position(last >= 0 ? (int) idx[last + 2] : 0);
+            while (decode(map, check) != null) record++;
+            nextRecord = record;
+            seg.recoveredIndex = idx;
+            return map.position();
+        }
+    }
+
+    private synchronized View view() {
+        Segment active = segments.get(segments.size() - 1);
+        return new View(segments, active.firstRecord + active.records, active.bytes);
+    }
+
+    /** Segment and closest indexed position at or before {@code record}. */
+    private Cursor locate(View v, long record) throws IOException {
+        int lo = 0, hi = v.segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (v.segments.get(mid).firstRecord <= record) lo = mid;
+            else hi = mid - 1;
+        }
+        Segment seg = v.segments.get(lo);
+        long[] idx = index(seg, v);
+        long r = seg.firstRecord, pos = 0;
+        for (int i = 0; i < idx.length && idx[i] <= record; i += 3) {
+            r = idx[i];
+            pos = idx[i + 2];
+        }
+        return new Cursor(lo, r, pos);
+    }
+
+    /**
+     * Decodes forward from the cursor, skipping records before {@code fromRecord} or older than
+     * {@code minMillis}, until {@code limit} messages or the committed tail.
+     */
+    private List<ChatMessage> read(View v, Cursor c, long fromRecord, long minMillis, int limit) throws IOException {
+        List<ChatMessage> out = new ArrayList<>(Math.min(limit, 4096));
+        CRC32 check = new CRC32();
+        long record = c.record;
+        long position = c.position;
+        for (int s = c.segment; s < v.segments.size() && out.size() < limit && record < v.records; s++) {
+            Segment seg = v.segments.get(s);
+            long bytes = s == v.segments.size() - 1 ? v.activeBytes : Files.size(seg.path);
+            if (bytes == 0) continue;
+            try (FileChannel ch = FileChannel.open(seg.path, StandardOpenOption.READ)) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+                map.position((int) position);
+                ChatMessage m;
+                while (out.size() < limit && record < v.records && (m = decode(map, check)) != null) {
+                    if (record >= fromRecord && m.timestamp.toEpochMilli() >= minMillis) out.add(m);
+                    record++;
+                }
+            }
+            position = 0;
+        }
+        return out;
+    }
+
+    /** Index entries of a segment as a flat {@code [record, millis, position, ...]} array. */
+    private long[] index(Segment seg, View v) throws IOException {
+        if (seg == v.segments.get(v.segments.size() - 1)) return readIndexFile(seg.path, v.activeBytes);
+        long[] cached = indexCache.get(seg.firstRecord);
+        if (cached != null) return cached;
+        long[] idx = readIndexFile(seg.path, Long.MAX_VALUE);
+        indexCache.put(seg.firstRecord, idx);
+        return idx;
+    }
+
+    /** Reads a sparse index, dropping entries that point past {@code validBytes} of data. */
+    private static long[] readIndexFile(Path segment, long validBytes) throws IOException {
+        Path p = indexPath(segment);
+        if (!Files.exists(p)) return new long[0];
+        ByteBuffer raw = ByteBuffer.wrap(Files.readAllBytes(p));
+        int n = raw.remaining() / INDEX_ENTRY;
+        long[] out = new long[n * 3];
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            long record = raw.getLong(), millis = raw.getLong(), position = raw.getLong();
+            if (position >= validBytes) break;
+            out[kept++] = record;
+            out[kept++] = millis;
+            out[kept++] = position;
+        }
+        return kept == out.length ? out : Arrays.copyOf(out, kept);
+    }
+
+    /** Next valid record at the buffer's position, or null (position unchanged) at the end or a torn record. */
+    private static ChatMessage decode(ByteBuffer map, CRC32 crc) {
+        int start = map.position();
+        if (map.remaining() < RECORD_HEADER) return null;
+        int length = map.getInt(start);
+        if (length < 4 + FIXED_BODY || length > MAX_RECORD || map.remaining() < 4 + length) return null;
+        int body = length - 4;
+        byte[] bytes = new byte[body];
+        map.get(start + RECORD_HEADER, bytes);
+        crc.reset();
+        crc.update(bytes);
+        if ((int) crc.getValue() != map.getInt(start + 4)) return null;
+
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        long millis = b.getLong();
+        int dir = b.get();
+        long originSeq = b.getLong();
+        if (dir < 0 || dir >= DIRECTIONS.length) return null;
+        String from, id, origin;
+        try {
+            from = getString(b);
+            id = getString(b);
+            origin = getString(b);
+        } catch (IllegalArgumentException corrupt) {
+            return null;
+        }
+        if (from == null) return null;
+        String text = new String(bytes, b.position(), b.remaining(), StandardCharsets.UTF_8);
+        map.position(start + RECORD_HEADER + body);
+        return new ChatMessage(Instant.ofEpochMilli(millis), from, text, DIRECTIONS[dir], id, origin, originSeq);
+    }
+
+    private static int length(byte[] b) {
+        return b == null ? 0 : b.length;
+    }
+
+    /** Length-prefixed UTF-8; -1 encodes null. */
+    private static void putString(ByteBuffer buf, byte[] b) {
+        if (b == null) buf.putInt(-1);
+        else buf.putInt(b.length).put(b);
+    }
+
+    private static String getString(ByteBuffer b) {
+        int len = b.getInt();
+        if (len == -1) return null;
+        if (len < 0 || len > b.remaining()) throw new IllegalArgumentException("bad length " + len);
+        String s = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    private Path segmentPath(long firstRecord) {
+        return dir.resolve(String.format("%020d.log", firstRecord));
+    }
+
+    private static Path indexPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+    }
+
+    private static final class Segment {
+        final long firstRecord;
+        final Path path;
+        /** Size and record count of the active segment, published under the store's monitor. */
+        long bytes;
+        long records;
+        /** Index entries validated during recovery, handed to {@link #openActive}. */
+        long[] recoveredIndex;
+
+        Segment(long firstRecord, Path path) {
+            this.firstRecord = firstRecord;
+            this.path = path;
+        }
+    }
+
+    private record View(List<Segment> segments, long records, long activeBytes) {}
+
+    private record Cursor(int segment, long record, long position) {}
+}
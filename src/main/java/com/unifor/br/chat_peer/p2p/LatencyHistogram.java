@@ -0,0 +1,118 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets, in the spirit of
+ * HdrHistogram: values below 64 are exact, above that each power of two is split into 32 buckets,
+ * so any percentile is off by at most about 3%. Buckets are striped over a few arrays picked by
+ * thread id, so concurrent recorders rarely touch the same cache line; recording is one atomic add.
+ * A stripe is allocated the first time a thread lands on it, which keeps idle histograms small
+ * when hundreds of nodes share one JVM.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Values at or above 2^MAX_EXPONENT are clamped into the last bucket. */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        int n = Integer.highestOneBit(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+        stripes = new AtomicReferenceArray<>(n);
+        stripeMask = n - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        int i = (int) Thread.currentThread().threadId() & stripeMask;
+        AtomicLongArray s = stripes.get(i);
+        if (s == null) {
+            stripes.compareAndSet(i, null, new AtomicLongArray(BUCKETS));
+            s = stripes.get(i);
+        }
+        s.incrementAndGet(bucket(value));
+        max.accumulate(value);
+    }
+
+    static int bucket(long v) {
+        if (v < 2 * SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp >= MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Smallest value that falls into bucket {@code b}. */
+    static long lowerBound(int b) {
+        if (b < 2 * SUB_BUCKETS) return b;
+        int exp = b / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = b % SUB_BUCKETS;
+        return (1L << exp) | (sub << (exp - SUB_BITS));
+    }
+
+    /** Consistent-enough copy of the counts; recording continues meanwhile. */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray s = stripes.get(i);
+            if (s == null) continue;
+            for (int b = 0; b < BUCKETS; b++) counts[b] += s.get(b);
+        }
+        return new Snapshot(counts, max.get());
+    }
+
+    /** Frozen view of a histogram. */
+    public static final class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long max;
+        private final double mean;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long n = 0;
+            double sum = 0;
+            for (int b = 0; b < counts.length; b++) {
+                if (counts[b] == 0) continue;
+                n += counts[b];
+                // bucket midpoint keeps the mean within the histogram's precision
+                long lo = lowerBound(b);
+                long hi = b + 1 < counts.length ? lowerBound(b + 1) - 1 : lo;
+                sum += counts[b] * ((lo + hi) / 2.0);
+            }
+            this.count = n;
+            this.max = max;
+            this.mean = n == 0 ? 0 : sum / n;
+        }
+
+        public double mean() { return mean; }
+
+        /** Value at the given percentile (0-100), or 0 when empty. */
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return Math.min(lowerBound(b), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "n %d, média %.1f, p50 %d, p99 %d, p99.9 %d, máx %d",
+                    count, mean, percentile(50), percentile(99), percentile(99.9), max);
+        }
+    }
+}
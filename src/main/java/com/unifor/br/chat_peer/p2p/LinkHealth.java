@@ -0,0 +1,131 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+
+/**
+ * Round-trip time and liveness of one link, fed by PING/PONG heartbeats.
+ * <p>
+ * RTT and jitter are smoothed the way TCP does it (RFC 6298: gains 1/8 and 1/4). Suspicion is a
+ * phi-accrual value (Hayashibara et al.): the intervals between heartbeat replies are kept in a
+ * sliding window and phi is {@code -log10} of the probability that a live peer stays silent as
+ * long as this one has. A link is therefore declared dead after a silence that is unusual for it,
+ * not after one fixed timeout for every link.
+ * <p>
+ * Times come from the node's {@link Network} clock, so the estimate runs on simulated time as well.
+ */
+public final class LinkHealth {
+
+    /** Heartbeat intervals kept for the phi estimate. */
+    private static final int WINDOW = 100;
+
+    private final double expectedIntervalMillis;
+    /** One lost heartbeat is tolerated before suspicion starts to grow. */
+    private final double acceptablePauseMillis;
+    private final double minStdDevMillis;
+    private final Network clock;
+
+    private final double[] intervals = new double[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double sumSquares;
+
+    private long lastHeardNanos;
+    private long lastBeatNanos;
+    private double srtt = -1;
+    private double rttVar;
+    private long samples;
+
+    LinkHealth(long heartbeatIntervalMillis, Network clock) {
+        long interval = Math.max(1, heartbeatIntervalMillis);
+        this.expectedIntervalMillis = interval;
+        this.acceptablePauseMillis = interval;
+        this.minStdDevMillis = Math.max(1, interval / 10.0);
+        this.clock = clock;
+        this.lastHeardNanos = clock.nanoTime();
+    }
+
+    /** Any frame from the peer proves it is alive. */
+    synchronized void heard(long nowNanos) {
+        if (nowNanos > lastHeardNanos) lastHeardNanos = nowNanos;
+    }
+
+    /** A heartbeat reply arrived: its spacing from the previous one feeds the phi window. */
+    synchronized void beat(long nowNanos) {
+        if (lastBeatNanos != 0) {
+            double interval = (nowNanos - lastBeatNanos) / 1e6;
+            if (count == WINDOW) {
+                double old = intervals[next];
+                sum -= old;
+                sumSquares -= old * old;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumSquares += interval * interval;
+        }
+        lastBeatNanos = nowNanos;
+        heard(nowNanos);
+    }
+
+    /** Folds one round-trip measurement into the smoothed RTT and jitter. */
+    synchronized void rttSample(double millis) {
+        if (millis < 0) return;
+        if (srtt < 0) {
+            srtt = millis;
+            rttVar = millis / 2;
+        } else {
+            rttVar = 0.75 * rttVar + 0.25 * Math.abs(srtt - millis);
+            srtt = 0.875 * srtt + 0.125 * millis;
+        }
+        samples++;
+    }
+
+    /** Suspicion level after the current silence; about 1 per order of magnitude of improbability. */
+    public synchronized double phi(long nowNanos) {
+        double silence = Math.max(0, (nowNanos - lastHeardNanos) / 1e6);
+        double mean, stdDev;
+        if (count < 2) {
+            // bootstrap from the configured interval until real intervals are known
+            mean = expectedIntervalMillis;
+            stdDev = expectedIntervalMillis / 4;
+        } else {
+            mean = sum / count;
+            stdDev = Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+        }
+        return phi(silence, mean + acceptablePauseMillis, Math.max(stdDev, minStdDevMillis));
+    }
+
+    public double phi() { return phi(clock.nanoTime()); }
+
+    /** Logistic approximation of the normal CDF's tail, as used by Akka and Cassandra. */
+    static double phi(double silence, double mean, double stdDev) {
+        double y = (silence - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double p = silence > mean ? e / (1 + e) : 1 - 1 / (1 + e);
+        return Math.max(0.0, -Math.log10(Math.max(p, Double.MIN_NORMAL)));
+    }
+
+    public synchronized long silentMillis(long nowNanos) {
+        return Math.max(0, (nowNanos - lastHeardNanos) / 1_000_000);
+    }
+
+    /** Smoothed round-trip time in milliseconds, or -1 before the first heartbeat reply. */
+    public synchronized double srttMillis() { return srtt; }
+
+    /** Smoothed mean deviation of the round-trip time (RTTVAR) in milliseconds. */
+    public synchronized double jitterMillis() { return srtt < 0 ? -1 : rttVar; }
+
+    public synchronized long rttSamples() { return samples; }
+
+    @Override
+    public String toString() {
+        long now = clock.nanoTime();
+        synchronized (this) {
+            if (srtt < 0) return String.format(Locale.ROOT, "rtt ?, φ %.1f", phi(now));
+            return String.format(Locale.ROOT, "rtt %.1f ms ± %.1f, φ %.1f", srtt, rttVar, phi(now));
+        }
+    }
+}
@@ -1,38 +1,210 @@
 package com.unifor.br.chat_peer.p2p;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
-public final class MessageHistory {
+/**
+ * Bounded, lock-free history: a ring of the last {@code capacity} messages.
+ * <p>
+ * Each append claims a sequence number with one atomic increment and publishes the message into
+ * slot {@code seq % capacity}; the oldest entry is overwritten once the ring is full, but a writer
+ * that stalled for a whole lap never overwrites the newer message that took its slot. Readers
+ * check the stored message's {@link ChatMessage#seq} to skip slots that are not published yet
+ * or were already overwritten, so no lock is ever taken.
+ * <p>
+ * With a {@link HistoryStore} attached, every message is also appended to the on-disk log and
+ * the ring starts out filled with the newest persisted messages.
+ */
+public final class MessageHistory implements AutoCloseable {
 
-    private final List<ChatMessage> messages = Collections.synchronizedList(new ArrayList<>());
+    public static final int DEFAULT_CAPACITY = 8192;
 
-    public void addIn(String from, String text) {
-        messages.add(new ChatMessage(Instant.now(), from, text, ChatMessage.Direction.IN));
+    private final AtomicReferenceArray<ChatMessage> ring;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final HistoryStore store;
+    private final HistoryIndex index = new HistoryIndex(this);
+    private volatile NodeMetrics metrics;
+
+    public MessageHistory() {
+        this(DEFAULT_CAPACITY);
     }
 
-    public void addOut(String from, String text) {
-        messages.add(new ChatMessage(Instant.now(), from, text, ChatMessage.Direction.OUT));
+    /** @param capacity maximum messages kept; rounded up to a power of two */
+    public MessageHistory(int capacity) {
+        this(capacity, null);
     }
 
-    public void addSystem(String text) {
-        messages.add(new ChatMessage(Instant.now(), "SYSTEM", text, ChatMessage.Direction.SYSTEM));
+    /**
+     * @param store durable log to append to and to restore the newest messages from; may be null
+     */
+    public MessageHistory(int capacity, HistoryStore store) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.store = store;
+        if (store != null) {
+            restore(store);
+            store.problems(this::addSystem);
+        }
     }
 
-    public List<ChatMessage> snapshot() {
-        synchronized (messages) {
-            return new ArrayList<>(messages);
+    private void restore(HistoryStore store) {
+        List<ChatMessage> recent;
+        try {
+            recent = store.recent(capacity());
+        } catch (IOException e) {
+            addSystem("Falha ao recuperar histórico: " + e.getMessage());
+            return;
+        }
+        for (ChatMessage m : recent) publish(m);
+    }
+
+    /** Sender, keyword and time-range lookups over the messages still in the ring. */
+    public HistoryIndex index() { return index; }
+
+    /** The durable log behind this history, or null when it lives only in memory. */
+    public HistoryStore store() { return store; }
+
+    public ChatMessage addIn(String from, String text) {
+        return add(new ChatMessage(Instant.now(), from, text, ChatMessage.Direction.IN));
+    }
+
+    public ChatMessage addOut(String from, String text) {
+        return add(new ChatMessage(Instant.now(), from, text, ChatMessage.Direction.OUT));
+    }
+
+    public ChatMessage addSystem(String text) {
+        return add(new ChatMessage(Instant.now(), "SYSTEM", text, ChatMessage.Direction.SYSTEM));
+    }
+
+    /** Counts appends and their latency into the owning node's metrics. */
+    void metrics(NodeMetrics metrics) { this.metrics = metrics; }
+
+    /** Appends a message built elsewhere (e.g. with its protocol id and origin); its seq is reassigned. */
+    public ChatMessage add(ChatMessage message) {
+        NodeMetrics mx = metrics;
+        long t0 = mx == null ? 0 : System.nanoTime();
+        ChatMessage m = publish(message);
+        boolean logged = store == null || store.append(m);
+        if (mx != null) {
+            if (!logged) mx.historyDropped.increment();
+            mx.historyAppends.increment();
+            mx.historyAppendNanos.record(System.nanoTime() - t0);
         }
+        return m;
+    }
+
+    private ChatMessage publish(ChatMessage message) {
+        long seq = next.getAndIncrement();
+        ChatMessage m = message.withSeq(seq);
+        int slot = (int) (seq & mask);
+        ChatMessage current;
+        do {
+            current = ring.get(slot);
+            if (current != null && current.seq > seq) return m; // lapped while paused: already out of the ring
+        } while (!ring.compareAndSet(slot, current, m));
+        return m;
+    }
+
+    public int capacity() { return mask + 1; }
+
+    /** Sequence number the next message will get; also the number of messages ever appended. */
+    public long nextSeq() { return next.get(); }
+
+    /** Oldest sequence number still held by the ring. */
+    public long firstSeq() { return Math.max(0, next.get() - capacity()); }
+
+    /** Message with the given sequence number, or null if not yet published or already overwritten. */
+    public ChatMessage get(long seq) {
+        if (seq < 0) return null;
+        ChatMessage m = ring.get((int) (seq & mask));
+        return m != null && m.seq == seq ? m : null;
+    }
+
+    /** Most recently published message without copying anything, or null if empty. */
+    public ChatMessage latest() {
+        long last = next.get() - 1;
+        long floor = Math.max(0, last - capacity() + 1);
+        for (long s = last; s >= floor; s--) {
+            ChatMessage m = get(s);
+            if (m != null) return m;
+        }
+        return null;
+    }
+
+    /** One page of history starting at {@code cursor}; pass {@link Page#nextCursor} to continue. */
+    public Page page(long cursor, int limit) {
+        long from = Math.max(cursor, firstSeq());
+        long end = next.get();
+        List<ChatMessage> out = new ArrayList<>(Math.min(limit, (int) Math.max(0, end - from)));
+        long s = from;
+        for (; s < end && out.size() < limit; s++) {
+            ChatMessage m = get(s);
+            if (m != null) out.add(m);
+        }
+        return new Page(Collections.unmodifiableList(out), s, s < end);
+    }
+
+    /** Copy of every message still in the ring, oldest first. Prefer {@link #page} for large histories. */
+    public List<ChatMessage> snapshot() {
+        List<ChatMessage> out = new ArrayList<>();
+        long cursor = firstSeq();
+        Page p;
+        do {
+            p = page(cursor, 1024);
+            out.addAll(p.messages);
+            cursor = p.nextCursor;
+        } while (p.hasMore);
+        return out;
+    }
+
+    /** Writes the retained history page by page instead of building one string. */
+    public void dumpTo(Appendable out) throws IOException {
+        long cursor = firstSeq();
+        Page p;
+        do {
+            p = page(cursor, 256);
+            for (ChatMessage m : p.messages) {
+                out.append(m.format()).append(System.lineSeparator());
+            }
+            cursor = p.nextCursor;
+        } while (p.hasMore);
     }
 
     public String dump() {
         StringBuilder sb = new StringBuilder();
-        for (ChatMessage m : snapshot()) {
-            sb.append(m.format()).append(System.lineSeparator());
+        try {
+            dumpTo(sb);
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
         }
         return sb.toString();
     }
+
+    /** Flushes and closes the attached store, if any. */
+    @Override
+    public void close() {
+        if (store != null) store.close();
+    }
+
+    /** A slice of history plus the cursor to resume from. */
+    public static final class Page {
+        public final List<ChatMessage> messages;
+        public final long nextCursor;
+        public final boolean hasMore;
+
+        Page(List<ChatMessage> messages, long nextCursor, boolean hasMore) {
+            this.messages = messages;
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+
+/**
+ * The world a {@link PeerNode} runs in: which {@link Transport} it gets, where its timers run and
+ * what clock heartbeats read. {@link #TCP} is the real one; {@link SimNetwork} replaces all three
+ * with a discrete-event simulation so thousands of nodes fit in one thread.
+ * Set with {@link PeerConfig#network(Network)}.
+ */
+public interface Network {
+
+    /** Real sockets; {@link PeerConfig#transport()} chooses blocking or selector-based I/O. */
+    Network TCP = node -> node.config().transport() == PeerConfig.TransportMode.NIO
+            ? new NioTransport(node, node.config().selectorThreads())
+            : new SocketTransport(node);
+
+    Transport open(PeerNode node) throws IOException;
+
+    /** Scheduler for one component's timers (gossip, dialing, sync, heartbeats). */
+    default ScheduledExecutorService newScheduler(String threadName) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Monotonic clock for round-trip and liveness measurements. */
+    default long nanoTime() { return System.nanoTime(); }
+}
@@ -0,0 +1,136 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Non-blocking connection owned by one {@link NioTransport} selector loop.
+ * Reads and writes only ever happen on that loop's thread; {@link #send} just queues.
+ */
+public final class NioPeerConnection extends PeerConnection {
+
+    private static final int MAX_GATHER = 16;
+
+    private final NioTransport.SelectorLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String remoteHost;
+    private final int remotePort;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    // selector-thread state; inFlight holds at most MAX_GATHER frames so the bound lives in the outbound queue
+    private final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    NioPeerConnection(PeerNode node, NioTransport.SelectorLoop loop, SocketChannel channel, SelectionKey key) {
+        super(node);
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        InetSocketAddress remote = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        this.remoteHost = remote == null ? "?" : remote.getAddress().getHostAddress();
+        this.remotePort = remote == null ? -1 : remote.getPort();
+    }
+
+    @Override public String remoteHost() { return remoteHost; }
+
+    @Override public int remotePort() { return remotePort; }
+
+    @Override
+    boolean mayBlock() { return !loop.inLoop(); }
+
+    @Override
+    void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) return;
+        if (loop.inLoop()) flush();
+        else loop.execute(this::flush);
+    }
+
+    /** Selector thread: drain queued frames with gathering writes, arming OP_WRITE if the socket is full. */
+    void flush() {
+        flushScheduled.set(false);
+        if (!channel.isOpen()) return;
+
+        int frames = 0;
+        try {
+            while (true) {
+                byte[] frame;
+                while (inFlight.size() < MAX_GATHER && (frame = outbound.poll()) != null) {
+                    inFlight.addLast(ByteBuffer.wrap(frame).asReadOnlyBuffer()); // per-peer view, shared bytes
+                    frames++;
+                }
+                if (inFlight.isEmpty()) break;
+
+                int n = 0;
+                for (ByteBuffer buf : inFlight) gather[n++] = buf;
+                long written = channel.write(gather, 0, n);
+                node.metrics().bytesOut.add(written);
+                while (!inFlight.isEmpty() && !inFlight.peekFirst().hasRemaining()) inFlight.removeFirst();
+                if (written == 0 || !inFlight.isEmpty()) break; // socket buffer full, wait for OP_WRITE
+            }
+        } catch (IOException e) {
+            closeNow();
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+        if (frames > 0) node.metrics().batchFrames.record(frames);
+
+        if (closed.get() && inFlight.isEmpty() && outbound.isEmpty()) {
+            closeChannel(); // closing link fully drained
+            return;
+        }
+        if (key.isValid()) {
+            int ops = key.interestOps();
+            key.interestOps(inFlight.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /** Selector thread: consume bytes just read from the channel. */
+    void onBytes(ByteBuffer buf) {
+        node.metrics().bytesIn.add(buf.remaining());
+        if (closed.get()) return; // draining our side; nothing more is handled
+        if (!decoder.feed(buf)) closeNow();
+    }
+
+    /**
+     * Keeps writing what is already queued (e.g. BYE), with OP_WRITE armed, and closes the
+     * socket once the queue is empty or {@link SocketPeerConnection#CLOSE_FLUSH_MILLIS} passes.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (loop.inLoop()) flush();
+        else loop.execute(this::flush);
+        CompletableFuture.delayedExecutor(SocketPeerConnection.CLOSE_FLUSH_MILLIS, TimeUnit.MILLISECONDS)
+                .execute(() -> loop.execute(this::closeChannel));
+    }
+
+    /** Selector thread: closed by the node but still writing out its queue. */
+    boolean draining() {
+        return closed.get() && channel.isOpen();
+    }
+
+    /** Selector thread: close without flushing (socket already broken). */
+    void closeNow() {
+        closed.set(true);
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (!channel.isOpen()) return;
+        key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
+        node.unregisterConnection(this);
+    }
+}
@@ -0,0 +1,280 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Selector-based transport: a fixed set of selector threads multiplexes every connection,
+ * so thousands of peers cost a handful of threads instead of one thread each.
+ */
+public final class NioTransport implements Transport {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final PeerNode node;
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private ServerSocketChannel server;
+
+    public NioTransport(PeerNode node, int selectorThreads) throws IOException {
+        this.node = node;
+        this.loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new SelectorLoop(i);
+        }
+        for (SelectorLoop loop : loops) loop.thread.start();
+    }
+
+    /** Binds the listening socket and returns the actual port (useful when asked for port 0). */
+    @Override
+    public int bind(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        SelectorLoop acceptor = loops[0];
+        acceptor.execute(() -> {
+            try {
+                server.register(acceptor.selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                node.history().addSystem("Erro ao registrar servidor NIO: " + e.getMessage());
+            }
+        });
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Starts a non-blocking connect; the node is notified from a selector thread when it completes.
+     * Returns the channel so the caller can abort the attempt by closing it, or null if it failed at once.
+     */
+    @Override
+    public SocketChannel connect(PeerAddress addr) {
+        String host = addr.host;
+        int port = addr.port;
+        SocketChannel ch = null;
+        try {
+            ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = ch.connect(addr.isResolved()
+                    ? new InetSocketAddress(addr.address(), port) : new InetSocketAddress(host, port));
+            SelectorLoop loop = pickLoop();
+            SocketChannel channel = ch;
+            PendingConnect pending = new PendingConnect(host, port);
+            loop.execute(() -> {
+                try {
+                    if (connected) {
+                        loop.attach(channel, null, pending);
+                    } else {
+                        channel.register(loop.selector, SelectionKey.OP_CONNECT, pending);
+                    }
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    node.connectFailed(host, port, e);
+                }
+            });
+            return channel;
+        } catch (IOException | UnresolvedAddressException e) {
+            closeQuietly(ch);
+            node.connectFailed(host, port, e instanceof IOException io ? io : new IOException("endereço não resolvido"));
+            return null;
+        }
+    }
+
+    private SelectorLoop pickLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    private static void closeQuietly(Channel ch) {
+        if (ch == null) return;
+        try { ch.close(); } catch (IOException ignored) {}
+    }
+
+    @Override
+    public void close() {
+        if (!running.compareAndSet(true, false)) return;
+        closeQuietly(server);
+        for (SelectorLoop loop : loops) loop.selector.wakeup();
+        for (SelectorLoop loop : loops) {
+            try { loop.thread.join(SocketPeerConnection.CLOSE_FLUSH_MILLIS + 1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    @Override
+    public String toString() { return PeerConfig.TransportMode.NIO.name(); }
+
+    private record PendingConnect(String host, int port) {}
+
+    /** One selector thread with its own direct read buffer and task queue. */
+    final class SelectorLoop implements Runnable {
+
+        final Selector selector;
+        final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        SelectorLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "p2p-nio-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        boolean inLoop() { return Thread.currentThread() == thread; }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    selector.select();
+                    runTasks();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid()) dispatch(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                node.history().addSystem("Loop NIO encerrado: " + e.getMessage());
+            } finally {
+                runTasks(); // let pending flushes (e.g. BYE) go out
+                drainClosing();
+                for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        /** Gives links closed at shutdown until the close deadline to write out what they still hold. */
+        private void drainClosing() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SocketPeerConnection.CLOSE_FLUSH_MILLIS);
+            try {
+                while (anyDraining()) {
+                    long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (left <= 0) return;
+                    selector.select(left);
+                    runTasks();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid() && key.isWritable() && key.attachment() instanceof NioPeerConnection conn) {
+                            conn.flush();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException | CancelledKeyException ignored) {
+                // the remaining channels are closed below either way
+            }
+        }
+
+        private boolean anyDraining() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioPeerConnection conn && conn.draining()) return true;
+            }
+            return false;
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    node.history().addSystem("Erro no loop NIO: " + e.getMessage());
+                }
+            }
+        }
+
+        private void dispatch(SelectionKey key) {
+            try {
+                if (key.isAcceptable()) {
+                    accept((ServerSocketChannel) key.channel());
+                } else if (key.isConnectable()) {
+                    finishConnect(key);
+                } else {
+                    NioPeerConnection conn = (NioPeerConnection) key.attachment();
+                    if (key.isReadable()) read(key, conn);
+                    if (key.isValid() && key.isWritable()) conn.flush();
+                }
+            } catch (CancelledKeyException ignored) {
+                // connection closed while its events were being processed
+            }
+        }
+
+        private void accept(ServerSocketChannel srv) {
+            SocketChannel ch;
+            try {
+                while ((ch = srv.accept()) != null) {
+                    ch.configureBlocking(false);
+                    ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    SelectorLoop target = pickLoop();
+                    SocketChannel channel = ch;
+                    target.execute(() -> {
+                        try {
+                            target.attach(channel, null, null);
+                        } catch (IOException e) {
+                            closeQuietly(channel);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                if (running.get()) node.history().addSystem("Erro ao aceitar conexão: " + e.getMessage());
+            }
+        }
+
+        private void finishConnect(SelectionKey key) {
+            SocketChannel ch = (SocketChannel) key.channel();
+            PendingConnect pending = (PendingConnect) key.attachment();
+            try {
+                ch.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                attach(ch, key, pending);
+            } catch (IOException e) {
+                key.cancel();
+                closeQuietly(ch);
+                node.connectFailed(pending.host(), pending.port(), e);
+            }
+        }
+
+        /** Selector thread: start reading a connected channel and hand it to the node. */
+        void attach(SocketChannel ch, SelectionKey existing, PendingConnect outbound) throws IOException {
+            SelectionKey key = existing != null ? existing : ch.register(selector, SelectionKey.OP_READ);
+            NioPeerConnection conn = new NioPeerConnection(node, this, ch, key);
+            key.attach(conn);
+            if (outbound == null) node.attachInbound(conn);
+            else node.attachOutbound(conn, outbound.host(), outbound.port());
+        }
+
+        private void read(SelectionKey key, NioPeerConnection conn) {
+            try {
+                readBuffer.clear();
+                int n = ((SocketChannel) key.channel()).read(readBuffer);
+                if (n < 0) {
+                    conn.closeNow();
+                    return;
+                }
+                readBuffer.flip();
+                conn.onBytes(readBuffer);
+            } catch (IOException e) {
+                conn.closeNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.unifor.br.chat_peer.p2p;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters and histograms of one {@link PeerNode}. Counters are {@link LongAdder}s and histograms
+ * are striped, so the hot path only pays an uncontended add; gauges (connections, queue depths)
+ * are read from the node when a snapshot is taken. Exposed over JMX as
+ * {@code com.unifor.br.chat_peer:type=PeerNode,name="user@port"} and printed by {@code /stats}.
+ */
+public final class NodeMetrics implements NodeMetricsMBean {
+
+    final LongAdder framesIn = new LongAdder();
+    final LongAdder framesOut = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    /** Chat messages received, duplicates included. */
+    final LongAdder messagesIn = new LongAdder();
+    /** Chat messages this node authored. */
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder duplicatesDropped = new LongAdder();
+    final LongAdder parseFailures = new LongAdder();
+    /** Received messages relayed to other peers. */
+    final LongAdder forwards = new LongAdder();
+    final LongAdder queueOverflows = new LongAdder();
+    final LongAdder connectionsOpened = new LongAdder();
+    final LongAdder connectionsClosed = new LongAdder();
+    final LongAdder historyAppends = new LongAdder();
+    /** Messages the on-disk history did not take because its writer was behind or had failed. */
+    final LongAdder historyDropped = new LongAdder();
+    final LongAdder discoveryPacketsIn = new LongAdder();
+    final LongAdder discoveryPacketsOut = new LongAdder();
+    /** DMs dropped because no link was closer to the target than this node. */
+    final LongAdder directUnroutable = new LongAdder();
+    /** File data sent and received over transfer connections, which bypass the frame counters. */
+    final LongAdder fileBytesOut = new LongAdder();
+    final LongAdder fileBytesIn = new LongAdder();
+    /** Received file chunks that failed their checksum and were asked for again. */
+    final LongAdder fileChunksRejected = new LongAdder();
+
+    /** Links each pushed message went out on, eager or announced. */
+    final LatencyHistogram fanOut = new LatencyHistogram();
+    /** Author's send time to display here, in ms; includes any clock skew between hosts. */
+    final LatencyHistogram deliveryLatencyMillis = new LatencyHistogram();
+    /** Time to append one message to the history (ring and store; the index catches up at query time), in ns. */
+    final LatencyHistogram historyAppendNanos = new LatencyHistogram();
+    /** Links crossed by each DM delivered here. */
+    final LatencyHistogram directHops = new LatencyHistogram();
+    /** Frames taken from an outbound queue per wire write (per gathering flush on NIO). */
+    final LatencyHistogram batchFrames = new LatencyHistogram();
+    /** Time frames waited in outbound queues, in µs, per {@link OutboundQueue.Stream}. */
+    final LatencyHistogram[] queueWaitMicros = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+
+    private final PeerNode node;
+    private ObjectName registeredAs;
+
+    NodeMetrics(PeerNode node) {
+        this.node = node;
+    }
+
+    /** Registers the MBean on the platform server; failures are reported, never thrown. */
+    synchronized void register() {
+        if (registeredAs != null) return;
+        try {
+            ObjectName name = new ObjectName("com.unifor.br.chat_peer:type=PeerNode,name="
+                    + ObjectName.quote(node.username() + "@" + node.listenPort()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException | RuntimeException e) {
+            node.history().addSystem("Métricas JMX indisponíveis: " + e.getMessage());
+        }
+    }
+
+    synchronized void unregister() {
+        if (registeredAs == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        } catch (JMException ignored) {
+            // already gone
+        }
+        registeredAs = null;
+    }
+
+    @Override public long getFramesIn() { return framesIn.sum(); }
+    @Override public long getFramesOut() { return framesOut.sum(); }
+    @Override public long getBytesIn() { return bytesIn.sum(); }
+    @Override public long getBytesOut() { return bytesOut.sum(); }
+    @Override public long getMessagesIn() { return messagesIn.sum(); }
+    @Override public long getMessagesOut() { return messagesOut.sum(); }
+    @Override public long getDuplicatesDropped() { return duplicatesDropped.sum(); }
+    @Override public long getParseFailures() { return parseFailures.sum(); }
+    @Override public long getForwards() { return forwards.sum(); }
+    @Override public long getQueueOverflows() { return queueOverflows.sum(); }
+    @Override public long getConnectionsOpened() { return connectionsOpened.sum(); }
+    @Override public long getConnectionsClosed() { return connectionsClosed.sum(); }
+    @Override public long getHistoryAppends() { return historyAppends.sum(); }
+    @Override public long getHistoryDropped() { return historyDropped.sum(); }
+    @Override public long getDiscoveryPacketsIn() { return discoveryPacketsIn.sum(); }
+    @Override public long getDiscoveryPacketsOut() { return discoveryPacketsOut.sum(); }
+    @Override public long getDirectUnroutable() { return directUnroutable.sum(); }
+    @Override public long getFileBytesOut() { return fileBytesOut.sum(); }
+    @Override public long getFileBytesIn() { return fileBytesIn.sum(); }
+    @Override public long getFileChunksRejected() { return fileChunksRejected.sum(); }
+
+    @Override public int getConnections() { return node.connectionCount(); }
+
+    @Override
+    public int getQueuedFrames() {
+        int total = 0;
+        for (PeerConnection c : node.links()) total += c.queueDepth();
+        return total;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (PeerConnection c : node.links()) max = Math.max(max, c.queueDepth());
+        return max;
+    }
+
+    @Override public int getKnownPeers() { return node.knownPeerCount(); }
+
+    @Override public double getFanOutMean() { return fanOut.snapshot().mean(); }
+    @Override public long getDeliveryLatencyP50Millis() { return deliveryLatencyMillis.snapshot().percentile(50); }
+    @Override public long getDeliveryLatencyP99Millis() { return deliveryLatencyMillis.snapshot().percentile(99); }
+    @Override public long getDeliveryLatencyMaxMillis() { return deliveryLatencyMillis.snapshot().max; }
+    @Override public long getHistoryAppendP99Micros() { return historyAppendNanos.snapshot().percentile(99) / 1000; }
+    @Override public double getDirectHopsMean() { return directHops.snapshot().mean(); }
+    @Override public double getBatchFramesMean() { return batchFrames.snapshot().mean(); }
+    @Override public long getControlQueueWaitP99Micros() { return controlQueueWait().percentile(99); }
+    @Override public long getChatQueueWaitP99Micros() { return chatQueueWait().percentile(99); }
+    @Override public long getBulkQueueWaitP99Micros() { return bulkQueueWait().percentile(99); }
+
+    public LatencyHistogram.Snapshot fanOut() { return fanOut.snapshot(); }
+
+    public LatencyHistogram.Snapshot deliveryLatency() { return deliveryLatencyMillis.snapshot(); }
+
+    public LatencyHistogram.Snapshot historyAppend() { return historyAppendNanos.snapshot(); }
+
+    public LatencyHistogram.Snapshot directHops() { return directHops.snapshot(); }
+
+    public LatencyHistogram.Snapshot batchFrames() { return batchFrames.snapshot(); }
+
+    public LatencyHistogram.Snapshot controlQueueWait() { return queueWaitMicros[OutboundQueue.Stream.CONTROL.ordinal()].snapshot(); }
+
+    public LatencyHistogram.Snapshot chatQueueWait() { return queueWaitMicros[OutboundQueue.Stream.CHAT.ordinal()].snapshot(); }
+
+    public LatencyHistogram.Snapshot bulkQueueWait() { return queueWaitMicros[OutboundQueue.Stream.BULK.ordinal()].snapshot(); }
+
+    /** Multi-line summary for the console. */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "frames entrada/saída %d/%d (%d/%d B), mensagens recebidas %d, enviadas %d, duplicadas descartadas %d, "
+                        + "encaminhadas %d, inválidas %d%n"
+                        + "conexões %d (abertas %d, fechadas %d), peers conhecidos %d, frames na fila %d (máx %d por peer), "
+                        + "estouros de fila %d, discovery entrada/saída %d/%d%n"
+                        + "fan-out por mensagem: %s%n"
+                        + "latência envio→exibição (ms): %s%n"
+                        + "gravação no histórico (ns): %s, não gravadas em disco %d%n"
+                        + "mensagens diretas: sem rota %d, saltos até aqui: %s%n"
+                        + "espera na fila de saída (µs): controle %s; chat %s; volume %s%n"
+                        + "frames por escrita: %s%n"
+                        + "arquivos: %d B enviados, %d B recebidos, %d blocos recusados pelo checksum",
+                getFramesIn(), getFramesOut(), getBytesIn(), getBytesOut(), getMessagesIn(), getMessagesOut(),
+                getDuplicatesDropped(), getForwards(), getParseFailures(),
+                getConnections(), getConnectionsOpened(), getConnectionsClosed(), getKnownPeers(),
+                getQueuedFrames(), getMaxQueueDepth(), getQueueOverflows(),
+                getDiscoveryPacketsIn(), getDiscoveryPacketsOut(),
+                fanOut(), deliveryLatency(), historyAppend(), getHistoryDropped(), getDirectUnroutable(), directHops(),
+                controlQueueWait(), chatQueueWait(), bulkQueueWait(), batchFrames(),
+                getFileBytesOut(), getFileBytesIn(), getFileChunksRejected());
+    }
+}
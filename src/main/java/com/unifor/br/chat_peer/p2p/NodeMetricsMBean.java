@@ -0,0 +1,41 @@
+package com.unifor.br.chat_peer.p2p;
+
+/** JMX view of {@link NodeMetrics}; every attribute is read-only. */
+public interface NodeMetricsMBean {
+    long getFramesIn();
+    long getFramesOut();
+    long getBytesIn();
+    long getBytesOut();
+    long getMessagesIn();
+    long getMessagesOut();
+    long getDuplicatesDropped();
+    long getParseFailures();
+    long getForwards();
+    long getQueueOverflows();
+    long getConnectionsOpened();
+    long getConnectionsClosed();
+    long getHistoryAppends();
+    long getHistoryDropped();
+    long getDiscoveryPacketsIn();
+    long getDiscoveryPacketsOut();
+    long getDirectUnroutable();
+    long getFileBytesOut();
+    long getFileBytesIn();
+    long getFileChunksRejected();
+
+    int getConnections();
+    int getQueuedFrames();
+    int getMaxQueueDepth();
+    int getKnownPeers();
+
+    double getFanOutMean();
+    long getDeliveryLatencyP50Millis();
+    long getDeliveryLatencyP99Millis();
+    long getDeliveryLatencyMaxMillis();
+    long getHistoryAppendP99Micros();
+    double getDirectHopsMean();
+    double getBatchFramesMean();
+    long getControlQueueWaitP99Micros();
+    long getChatQueueWaitP99Micros();
+    long getBulkQueueWaitP99Micros();
+}
@@ -0,0 +1,213 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Bounded per-connection queue of encoded frames waiting for the connection's writer.
+ * <p>
+ * Frames are queued on one of three {@link Stream}s, each a FIFO of its own, and the writer takes
+ * them in deficit round robin: on its turn a stream may send up to its weight times
+ * {@link #QUANTUM_BYTES} bytes, unused credit carries over while it has frames waiting and is
+ * forfeited when it runs empty. A control frame therefore waits for at most one turn of the other
+ * streams, however much bulk traffic is queued, while bulk still gets its share when everything is
+ * busy. Frames keep their order within a stream; frames of different streams may overtake each
+ * other, so a message type must always go out on the same stream when its order matters. The
+ * capacity and the overflow policy apply to the three streams together.
+ */
+final class OutboundQueue {
+
+    /** Bytes a stream may send per turn for each unit of its weight. */
+    static final int QUANTUM_BYTES = 4096;
+
+    /** Traffic classes of a connection, in the order the scheduler visits them. */
+    enum Stream {
+        /** Handshake, heartbeats, tree and channel upkeep, requests: small and latency-bound. */
+        CONTROL,
+        /** Chat this node's user is waiting on: messages and DMs it authored, file offers. */
+        CHAT,
+        /** Relayed messages and their announcements, catch-up batches, peer lists. */
+        BULK;
+
+        /** The stream a message goes out on unless the sender picks one. */
+        static Stream of(ProtocolMessage.Type type) {
+            return switch (type) {
+                case MSG, DM, FILE_OFFER -> CHAT;
+                case PEERS_RES, SYNC_MSG, SYNC_END, IHAVE -> BULK;
+                default -> CONTROL;
+            };
+        }
+    }
+
+    private final int capacity;
+    private final PeerConfig.OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final Network clock;
+    /** Time frames spent queued, per stream, in µs; null when not measured. */
+    private final LatencyHistogram[] waits;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // guarded by lock
+    private final Lane[] lanes;
+    private int turn;
+    private boolean turnStarted;
+    /** Frame that goes out only after all others, see {@link #offerLast}. */
+    private byte[] last;
+
+    private volatile int size;
+    private volatile int highWater;
+    private final AtomicLong dropped = new AtomicLong();
+
+    OutboundQueue(PeerConfig config, NodeMetrics metrics) {
+        this.capacity = config.outboundQueueCapacity();
+        this.policy = config.overflowPolicy();
+        this.blockTimeoutMillis = config.blockTimeoutMillis();
+        this.clock = config.network();
+        this.waits = metrics == null ? null : metrics.queueWaitMicros;
+        int[] weights = config.streamWeights();
+        this.lanes = new Lane[weights.length];
+        for (int i = 0; i < lanes.length; i++) lanes[i] = new Lane(i, weights[i] * QUANTUM_BYTES);
+    }
+
+    /**
+     * Enqueues a frame on {@code stream} according to the overflow policy. DROP_OLDEST makes room
+     * by dropping the oldest frame of the lowest-priority stream that has any.
+     *
+     * @param mayBlock false when the caller must never wait (e.g. a selector thread); BLOCK then behaves like DISCONNECT
+     * @return false if the consumer is too slow and the connection should be dropped
+     */
+    boolean offer(byte[] frame, Stream stream, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (queued() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> {
+                        for (int i = lanes.length - 1; i >= 0 && queued() >= capacity; i--) {
+                            if (lanes[i].frames.poll() != null) {
+                                size--;
+                                dropped.incrementAndGet();
+                            }
+                        }
+                    }
+                    case BLOCK -> {
+                        if (mayBlock) awaitRoom();
+                    }
+                    case DISCONNECT -> { }
+                }
+                if (queued() >= capacity) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+            lanes[stream.ordinal()].frames.add(new Queued(frame, clock.nanoTime()));
+            if (++size > highWater) highWater = size;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame behind everything already queued or queued later, on every stream; for BYE,
+     * after which the peer closes the link. Never refused: there is only the one slot.
+     */
+    void offerLast(byte[] frame) {
+        lock.lock();
+        try {
+            if (last == null) size++;
+            last = frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The next frame to write as the scheduler picks it, or null when nothing is queued. */
+    byte[] poll() {
+        lock.lock();
+        try {
+            if (size == 0) return null;
+            if (size == 1 && last != null) {
+                byte[] f = last;
+                last = null;
+                size = 0;
+                return f;
+            }
+            for (;;) {
+                Lane lane = lanes[turn];
+                Queued head = lane.frames.peek();
+                if (head == null) {
+                    lane.deficit = 0;
+                    nextTurn();
+                    continue;
+                }
+                if (!turnStarted) {
+                    lane.deficit += lane.quantum;
+                    turnStarted = true;
+                }
+                if (head.frame.length > lane.deficit) {
+                    nextTurn();
+                    continue;
+                }
+                lane.frames.poll();
+                lane.deficit -= head.frame.length;
+                if (lane.frames.isEmpty()) {
+                    lane.deficit = 0;
+                    nextTurn();
+                }
+                size--;
+                notFull.signal();
+                if (waits != null) waits[lane.stream].record((clock.nanoTime() - head.at) / 1000);
+                return head.frame;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() { return size == 0; }
+
+    int size() { return size; }
+
+    int highWater() { return highWater; }
+
+    long dropped() { return dropped.get(); }
+
+    private void nextTurn() {
+        turn = (turn + 1) % lanes.length;
+        turnStarted = false;
+    }
+
+    /** Frames on the streams, without the one from {@link #offerLast}; caller holds the lock. */
+    private int queued() {
+        return last == null ? size : size - 1;
+    }
+
+    /** Waits up to the block timeout for the writer to make room; caller holds the lock. */
+    private void awaitRoom() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        try {
+            while (queued() >= capacity && nanos > 0) nanos = notFull.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Lane {
+        final ArrayDeque<Queued> frames = new ArrayDeque<>();
+        final int stream;
+        final int quantum;
+        int deficit;
+
+        Lane(int stream, int quantum) {
+            this.stream = stream;
+            this.quantum = quantum;
+        }
+    }
+
+    private record Queued(byte[] frame, long at) {}
+}
@@ -2,15 +2,43 @@ package com.unifor.br.chat_peer.p2p;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Objects;
+import java.util.Arrays;
 
+/**
+ * Immutable {@code host:port}. The host is resolved once, at construction, when it is an IP
+ * literal or already in the {@link AddressResolver} cache. Equality never depends on that cache:
+ * IP literals and {@code localhost} compare by address bytes, so {@code localhost:5000} and
+ * {@code 127.0.0.1:5000} are the same peer, and other names compare by name. Compare the
+ * {@link #canonical} forms to match a name against its address; unresolved addresses can be
+ * resolved with {@link AddressResolver#resolveAsync}.
+ */
 public final class PeerAddress {
     public final String host;
     public final int port;
+    private final InetAddress address; // null while unresolved
+    /** What equality compares: the literal's address bytes, or null to compare {@link #name}. */
+    private final byte[] key;
+    private final String name;
+    private final int hash;
 
     public PeerAddress(String host, int port) {
+        this(host, port, AddressResolver.shared().cached(host));
+    }
+
+    PeerAddress(String host, int port, InetAddress address) {
         this.host = host;
         this.port = port;
+        this.address = address;
+        this.name = AddressResolver.key(host);
+        this.key = literalBytes(name);
+        this.hash = 31 * (key != null ? Arrays.hashCode(key) : name.hashCode()) + port;
+    }
+
+    /** Address bytes of an IP literal or of {@code localhost}; null for any other name. */
+    private static byte[] literalBytes(String name) {
+        if (name.equals("localhost")) return InetAddress.getLoopbackAddress().getAddress();
+        InetAddress literal = AddressResolver.parseLiteral(name);
+        return literal == null ? null : literal.getAddress();
     }
 
     public static PeerAddress parse(String s) {
@@ -20,10 +48,28 @@ public final class PeerAddress {
         return new PeerAddress(parts[0], Integer.parseInt(parts[1]));
     }
 
+    public boolean isResolved() { return address != null; }
+
+    /** Resolved address, or null; never blocks. */
+    public InetAddress address() { return address; }
+
+    /** Same address with the host replaced by its IP text; unresolved addresses are returned as-is. */
+    public PeerAddress canonical() {
+        if (address == null) return this;
+        String ip = address.getHostAddress();
+        return ip.equals(host) ? this : new PeerAddress(ip, port, address);
+    }
+
+    public boolean isLoopback() {
+        return address != null ? address.isLoopbackAddress() || address.isAnyLocalAddress()
+                : host.equalsIgnoreCase("localhost");
+    }
+
+    /** IP text of the host; resolves through the shared cache, blocking only on a miss. */
     public String normalizeHost() {
+        if (address != null) return address.getHostAddress();
         try {
-            InetAddress addr = InetAddress.getByName(host);
-            return addr.getHostAddress();
+            return AddressResolver.shared().resolve(host).getHostAddress();
         } catch (UnknownHostException e) {
             return host;
         }
@@ -34,8 +80,9 @@ public final class PeerAddress {
     @Override public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof PeerAddress that)) return false;
-        return port == that.port && Objects.equals(normalizeHost(), that.normalizeHost());
+        if (port != that.port || hash != that.hash) return false;
+        return key != null ? Arrays.equals(key, that.key) : that.key == null && name.equals(that.name);
     }
 
-    @Override public int hashCode() { return Objects.hash(normalizeHost(), port); }
+    @Override public int hashCode() { return hash; }
 }
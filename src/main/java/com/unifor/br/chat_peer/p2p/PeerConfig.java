@@ -0,0 +1,645 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tunables for a {@link PeerNode}. The transport defaults to blocking sockets with a thread per
+ * connection; on top of it these are on unless switched off here or with their {@code -Dp2p.*}
+ * property:
+ * <ul>
+ *   <li>a bounded outbound queue per link that disconnects a peer falling behind ({@link #overflowPolicy()})</li>
+ *   <li>binary frames with peers that offer them ({@link #binaryCodec()})</li>
+ *   <li>history catch-up after every handshake ({@link #sync()})</li>
+ *   <li>PLUMTREE forwarding on relaying nodes ({@link #forwardMode()})</li>
+ *   <li>dialing known peers up to {@link #targetDegree()} links ({@link #autoConnect()})</li>
+ *   <li>a PING per second on every link, closing it after about 2.5 s of silence ({@link #heartbeatIntervalMillis()}, {@link #phiThreshold()})</li>
+ *   <li>deflate compression of frames from 128 bytes ({@link #compression()})</li>
+ *   <li>JMX registration of the node's metrics ({@link #jmx()})</li>
+ *   <li>DHT routing of direct messages, with links of its own ({@link #dht()})</li>
+ *   <li>accepted files written to {@code downloads} ({@link #filesDir()})</li>
+ *   <li>write batching once a link sends faster than every 2 ms ({@link #batchMaxDelayMillis()})</li>
+ * </ul>
+ */
+public final class PeerConfig {
+
+    public enum TransportMode { BLOCKING, NIO }
+
+    /** Which kind of thread runs accept, read, connect and discovery work. */
+    public enum ThreadMode { PLATFORM, VIRTUAL }
+
+    /** What a connection does when its outbound queue is full. */
+    public enum OverflowPolicy { DROP_OLDEST, BLOCK, DISCONNECT }
+
+    /** How a forwarding node relays messages, see {@link GossipRouter}. */
+    public enum ForwardMode { FLOOD, PLUMTREE }
+
+    private TransportMode transport = TransportMode.BLOCKING;
+    private Network network = Network.TCP;
+    private ThreadMode threads = ThreadMode.PLATFORM;
+    private int selectorThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private long blockTimeoutMillis = 2000;
+    private int[] streamWeights = {8, 4, 1};
+    private long batchMaxDelayMillis = 2;
+    private int batchMaxFrames = 32;
+    private boolean binaryCodec = true;
+    private boolean compression = true;
+    private int compressMinBytes = 128;
+    private long dedupMemoryBytes = 1 << 20;
+    private long dedupRetentionMillis = 10 * 60_000;
+    private int dedupGenerations = 4;
+    private int historyCapacity = MessageHistory.DEFAULT_CAPACITY;
+    private Path historyDir;
+    private long historySegmentBytes = 64L << 20;
+    private boolean historyFsync = true;
+    private List<String> channels = List.of();
+    private int channelHistoryCapacity = 1024;
+    private boolean sync = true;
+    private long syncRateBytesPerSecond = 256 * 1024;
+    private int syncBatchMessages = 128;
+    private ForwardMode forwardMode = ForwardMode.PLUMTREE;
+    private long graftTimeoutMillis = 250;
+    private long ihaveIntervalMillis = 25;
+    private long connectTimeoutMillis = 3000;
+    private int targetDegree = 8;
+    private long backoffBaseMillis = 1000;
+    private long backoffMaxMillis = 60_000;
+    private boolean autoConnect = true;
+    private boolean dht = true;
+    private int dhtBucketSize = 8;
+    private int dhtLinks = 24;
+    private long dhtRefreshMillis = 10_000;
+    private Path filesDir = Path.of("downloads");
+    private int filePort;
+    private int fileChunkBytes = 256 * 1024;
+    private int fileWindowChunks = 16;
+    private int fileRetries = 5;
+    private long discoveryIntervalMillis = 5000;
+    private int discoveryMaxPeers = 256;
+    private long heartbeatIntervalMillis = 1000;
+    private double phiThreshold = 8.0;
+    private long heartbeatTimeoutMillis = 10_000;
+    private boolean jmx = true;
+
+    public TransportMode transport() { return transport; }
+
+    public PeerConfig transport(TransportMode transport) {
+        this.transport = transport == null ? TransportMode.BLOCKING : transport;
+        return this;
+    }
+
+    /** Where nodes run: real sockets ({@link Network#TCP}) or a {@link SimNetwork}. */
+    public Network network() { return network; }
+
+    public PeerConfig network(Network network) {
+        this.network = network == null ? Network.TCP : network;
+        return this;
+    }
+
+    public ThreadMode threads() { return threads; }
+
+    public PeerConfig threads(ThreadMode threads) {
+        this.threads = threads == null ? ThreadMode.PLATFORM : threads;
+        return this;
+    }
+
+    /** Number of selector threads shared by every connection when running on {@link TransportMode#NIO}. */
+    public int selectorThreads() { return selectorThreads; }
+
+    public PeerConfig selectorThreads(int selectorThreads) {
+        if (selectorThreads < 1) throw new IllegalArgumentException("selectorThreads must be >= 1");
+        this.selectorThreads = selectorThreads;
+        return this;
+    }
+
+    /** Maximum frames buffered per connection before {@link #overflowPolicy()} kicks in. */
+    public int outboundQueueCapacity() { return outboundQueueCapacity; }
+
+    public PeerConfig outboundQueueCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("outboundQueueCapacity must be >= 1");
+        this.outboundQueueCapacity = capacity;
+        return this;
+    }
+
+    public OverflowPolicy overflowPolicy() { return overflowPolicy; }
+
+    public PeerConfig overflowPolicy(OverflowPolicy policy) {
+        this.overflowPolicy = policy == null ? OverflowPolicy.DISCONNECT : policy;
+        return this;
+    }
+
+    /** How long {@link OverflowPolicy#BLOCK} waits for room before giving up on the peer. */
+    public long blockTimeoutMillis() { return blockTimeoutMillis; }
+
+    public PeerConfig blockTimeoutMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("blockTimeoutMillis must be >= 0");
+        this.blockTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Shares of the control, chat and bulk streams when a connection's writer is backed up, see
+     * {@link OutboundQueue}; each unit is {@link OutboundQueue#QUANTUM_BYTES} per turn.
+     */
+    public int[] streamWeights() { return streamWeights.clone(); }
+
+    public PeerConfig streamWeights(int control, int chat, int bulk) {
+        if (control < 1 || chat < 1 || bulk < 1) throw new IllegalArgumentException("stream weights must be >= 1");
+        if ((long) Math.max(control, Math.max(chat, bulk)) * OutboundQueue.QUANTUM_BYTES > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("stream weights too large");
+        }
+        this.streamWeights = new int[]{control, chat, bulk};
+        return this;
+    }
+
+    /**
+     * Longest a chat or bulk frame is held back so a burst leaves in one write, see
+     * {@link WriteBatcher}; 0 writes every frame at once.
+     */
+    public long batchMaxDelayMillis() { return batchMaxDelayMillis; }
+
+    public PeerConfig batchMaxDelayMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("batchMaxDelayMillis must be >= 0");
+        this.batchMaxDelayMillis = millis;
+        return this;
+    }
+
+    /** Queued frames at which a held batch is written without waiting out the delay; 1 disables batching. */
+    public int batchMaxFrames() { return batchMaxFrames; }
+
+    public PeerConfig batchMaxFrames(int frames) {
+        if (frames < 1) throw new IllegalArgumentException("batchMaxFrames must be >= 1");
+        this.batchMaxFrames = frames;
+        return this;
+    }
+
+    /** Offer the length-prefixed binary framing in HELLO; peers that do not offer it keep the line protocol. */
+    public boolean binaryCodec() { return binaryCodec; }
+
+    public PeerConfig binaryCodec(boolean enabled) {
+        this.binaryCodec = enabled;
+        return this;
+    }
+
+    /** Bytes reserved for remembered message ids (16 bytes each), see {@link SeenSet}. */
+    public long dedupMemoryBytes() { return dedupMemoryBytes; }
+
+    public PeerConfig dedupMemoryBytes(long bytes) {
+        if (bytes < 1024) throw new IllegalArgumentException("dedupMemoryBytes must be >= 1024");
+        this.dedupMemoryBytes = bytes;
+        return this;
+    }
+
+    /** How long a forwarded message id is remembered, memory budget permitting. */
+    public long dedupRetentionMillis() { return dedupRetentionMillis; }
+
+    public PeerConfig dedupRetentionMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("dedupRetentionMillis must be > 0");
+        this.dedupRetentionMillis = millis;
+        return this;
+    }
+
+    public int dedupGenerations() { return dedupGenerations; }
+
+    public PeerConfig dedupGenerations(int generations) {
+        if (generations < 2) throw new IllegalArgumentException("dedupGenerations must be >= 2");
+        this.dedupGenerations = generations;
+        return this;
+    }
+
+    /** Messages kept in memory by {@link MessageHistory}; rounded up to a power of two. */
+    public int historyCapacity() { return historyCapacity; }
+
+    public PeerConfig historyCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("historyCapacity must be >= 1");
+        this.historyCapacity = capacity;
+        return this;
+    }
+
+    /** Directory of the durable {@link HistoryStore}; null (default) keeps history in memory only. */
+    public Path historyDir() { return historyDir; }
+
+    public PeerConfig historyDir(Path dir) {
+        this.historyDir = dir;
+        return this;
+    }
+
+    /** Size at which the history log rolls to a new segment file; from 64 KiB to 2 GiB. */
+    public long historySegmentBytes() { return historySegmentBytes; }
+
+    public PeerConfig historySegmentBytes(long bytes) {
+        if (bytes < HistoryStore.INDEX_INTERVAL_BYTES || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("historySegmentBytes must be between " + HistoryStore.INDEX_INTERVAL_BYTES + " and 2 GiB");
+        }
+        this.historySegmentBytes = bytes;
+        return this;
+    }
+
+    /** Force each group commit to disk; when off, the log is forced only on segment roll and close. */
+    public boolean historyFsync() { return historyFsync; }
+
+    public PeerConfig historyFsync(boolean fsync) {
+        this.historyFsync = fsync;
+        return this;
+    }
+
+    /** Channels subscribed at start; more can be joined and left at run time. */
+    public List<String> channels() { return channels; }
+
+    public PeerConfig channels(List<String> names) {
+        List<String> out = new ArrayList<>(names.size());
+        for (String n : names) out.add(ChannelRouter.normalize(n));
+        this.channels = List.copyOf(out);
+        return this;
+    }
+
+    /** Messages kept in memory per subscribed channel; rounded up to a power of two. */
+    public int channelHistoryCapacity() { return channelHistoryCapacity; }
+
+    public PeerConfig channelHistoryCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("channelHistoryCapacity must be >= 1");
+        this.channelHistoryCapacity = capacity;
+        return this;
+    }
+
+    /** Offer and answer history catch-up (SYNC_REQ) after the handshake. */
+    public boolean sync() { return sync; }
+
+    public PeerConfig sync(boolean enabled) {
+        this.sync = enabled;
+        return this;
+    }
+
+    /** Bytes per second all catch-up streams of this node may use together. */
+    public long syncRateBytesPerSecond() { return syncRateBytesPerSecond; }
+
+    public PeerConfig syncRateBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 1024) throw new IllegalArgumentException("syncRateBytesPerSecond must be >= 1024");
+        this.syncRateBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /** Messages sent per catch-up batch before yielding to other work. */
+    public int syncBatchMessages() { return syncBatchMessages; }
+
+    public PeerConfig syncBatchMessages(int messages) {
+        if (messages < 1) throw new IllegalArgumentException("syncBatchMessages must be >= 1");
+        this.syncBatchMessages = messages;
+        return this;
+    }
+
+    /** Relay strategy used when the node forwards; links to peers without tree support are always flooded. */
+    public ForwardMode forwardMode() { return forwardMode; }
+
+    public PeerConfig forwardMode(ForwardMode mode) {
+        this.forwardMode = mode == null ? ForwardMode.PLUMTREE : mode;
+        return this;
+    }
+
+    /** How long an IHAVE-announced message may be missing before its link is grafted back into the tree. */
+    public long graftTimeoutMillis() { return graftTimeoutMillis; }
+
+    public PeerConfig graftTimeoutMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("graftTimeoutMillis must be >= 1");
+        this.graftTimeoutMillis = millis;
+        return this;
+    }
+
+    /** Interval at which pending lazy announcements are batched into IHAVE frames. */
+    public long ihaveIntervalMillis() { return ihaveIntervalMillis; }
+
+    public PeerConfig ihaveIntervalMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("ihaveIntervalMillis must be >= 1");
+        this.ihaveIntervalMillis = millis;
+        return this;
+    }
+
+    /** Upper bound on one outbound dial, DNS excluded. */
+    public long connectTimeoutMillis() { return connectTimeoutMillis; }
+
+    public PeerConfig connectTimeoutMillis(long millis) {
+        if (millis < 1 || millis > Integer.MAX_VALUE) throw new IllegalArgumentException("connectTimeoutMillis out of range");
+        this.connectTimeoutMillis = millis;
+        return this;
+    }
+
+    /** Connections automatic dialing tops up to; inbound and explicit connects are not limited by it. */
+    public int targetDegree() { return targetDegree; }
+
+    public PeerConfig targetDegree(int degree) {
+        if (degree < 1) throw new IllegalArgumentException("targetDegree must be >= 1");
+        this.targetDegree = degree;
+        return this;
+    }
+
+    /** Wait before retrying an address after its first failure; doubles per failure up to {@link #backoffMaxMillis()}. */
+    public long backoffBaseMillis() { return backoffBaseMillis; }
+
+    public PeerConfig backoffBaseMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("backoffBaseMillis must be >= 1");
+        this.backoffBaseMillis = millis;
+        return this;
+    }
+
+    public long backoffMaxMillis() { return backoffMaxMillis; }
+
+    public PeerConfig backoffMaxMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("backoffMaxMillis must be >= 1");
+        this.backoffMaxMillis = millis;
+        return this;
+    }
+
+    /** Dial peers learned from discovery and peer exchange on our own; off, only explicit connects are made. */
+    public boolean autoConnect() { return autoConnect; }
+
+    public PeerConfig autoConnect(boolean enabled) {
+        this.autoConnect = enabled;
+        return this;
+    }
+
+    /** Relay DMs and keep routing-table links (see {@link DirectRouter}); off, DMs reach direct neighbours only. */
+    public boolean dht() { return dht; }
+
+    public PeerConfig dht(boolean enabled) {
+        this.dht = enabled;
+        return this;
+    }
+
+    /** Contacts kept per routing-table bucket (Kademlia's k); also how many closest contacts a PEERS_RES lists. */
+    public int dhtBucketSize() { return dhtBucketSize; }
+
+    public PeerConfig dhtBucketSize(int contacts) {
+        if (contacts < 1) throw new IllegalArgumentException("dhtBucketSize must be >= 1");
+        this.dhtBucketSize = contacts;
+        return this;
+    }
+
+    /** Outbound connections up to which automatic dialing opens links into buckets that have none; 0 = never. */
+    public int dhtLinks() { return dhtLinks; }
+
+    public PeerConfig dhtLinks(int links) {
+        if (links < 0) throw new IllegalArgumentException("dhtLinks must be >= 0");
+        this.dhtLinks = links;
+        return this;
+    }
+
+    /** How often the node asks a routing link for peers and dials into empty buckets. */
+    public long dhtRefreshMillis() { return dhtRefreshMillis; }
+
+    public PeerConfig dhtRefreshMillis(long millis) {
+        if (millis < 2) throw new IllegalArgumentException("dhtRefreshMillis must be >= 2");
+        this.dhtRefreshMillis = millis;
+        return this;
+    }
+
+    /** Where accepted files are written, as {@code name.part} until complete; created on first use. */
+    public Path filesDir() { return filesDir; }
+
+    public PeerConfig filesDir(Path dir) {
+        this.filesDir = dir == null ? Path.of("downloads") : dir;
+        return this;
+    }
+
+    /** Port the file data listener binds when the first file is offered; 0 = any free port. */
+    public int filePort() { return filePort; }
+
+    public PeerConfig filePort(int port) {
+        if (port < 0 || port > 65535) throw new IllegalArgumentException("filePort must be 0..65535");
+        this.filePort = port;
+        return this;
+    }
+
+    /** Size of the checksummed chunks a file is sent in; also what is redone after a corrupt chunk. */
+    public int fileChunkBytes() { return fileChunkBytes; }
+
+    public PeerConfig fileChunkBytes(int bytes) {
+        if (bytes < FileTransfers.MIN_CHUNK_BYTES || bytes > FileTransfers.MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("fileChunkBytes must be within "
+                    + FileTransfers.MIN_CHUNK_BYTES + ".." + FileTransfers.MAX_CHUNK_BYTES);
+        }
+        this.fileChunkBytes = bytes;
+        return this;
+    }
+
+    /** Chunks a sender may have out before the receiver confirms the oldest one written. */
+    public int fileWindowChunks() { return fileWindowChunks; }
+
+    public PeerConfig fileWindowChunks(int chunks) {
+        if (chunks < 1) throw new IllegalArgumentException("fileWindowChunks must be >= 1");
+        this.fileWindowChunks = chunks;
+        return this;
+    }
+
+    /** Reconnects a receiver tries, with backoff, after the data connection drops; then it waits for {@code /accept}. */
+    public int fileRetries() { return fileRetries; }
+
+    public PeerConfig fileRetries(int attempts) {
+        if (attempts < 0) throw new IllegalArgumentException("fileRetries must be >= 0");
+        this.fileRetries = attempts;
+        return this;
+    }
+
+    /** Shortest interval between this node's discovery beacons; it stretches on large segments. */
+    public long discoveryIntervalMillis() { return discoveryIntervalMillis; }
+
+    public PeerConfig discoveryIntervalMillis(long millis) {
+        if (millis < 100) throw new IllegalArgumentException("discoveryIntervalMillis must be >= 100");
+        this.discoveryIntervalMillis = millis;
+        return this;
+    }
+
+    /** Size of the discovery liveness table; peers beyond it are ignored until others expire. */
+    public int discoveryMaxPeers() { return discoveryMaxPeers; }
+
+    public PeerConfig discoveryMaxPeers(int peers) {
+        if (peers < 1) throw new IllegalArgumentException("discoveryMaxPeers must be >= 1");
+        this.discoveryMaxPeers = peers;
+        return this;
+    }
+
+    /** PING period on each link; 0 disables heartbeats and failure detection. */
+    public long heartbeatIntervalMillis() { return heartbeatIntervalMillis; }
+
+    public PeerConfig heartbeatIntervalMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("heartbeatIntervalMillis must be >= 0");
+        this.heartbeatIntervalMillis = millis;
+        return this;
+    }
+
+    /** Suspicion level at which a silent link is closed; 8 means about a 1e-8 chance the peer is still alive. */
+    public double phiThreshold() { return phiThreshold; }
+
+    public PeerConfig phiThreshold(double phi) {
+        if (!(phi > 0)) throw new IllegalArgumentException("phiThreshold must be > 0");
+        this.phiThreshold = phi;
+        return this;
+    }
+
+    /** Silence after which a heartbeat-capable link is closed whatever its phi. */
+    public long heartbeatTimeoutMillis() { return heartbeatTimeoutMillis; }
+
+    public PeerConfig heartbeatTimeoutMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("heartbeatTimeoutMillis must be >= 1");
+        this.heartbeatTimeoutMillis = millis;
+        return this;
+    }
+
+    /** Offer deflated frames in HELLO; used only on links that also negotiated the binary codec. */
+    public boolean compression() { return compression; }
+
+    public PeerConfig compression(boolean enabled) {
+        this.compression = enabled;
+        return this;
+    }
+
+    /** Frames shorter than this go out uncompressed, since deflate rarely pays off on them. */
+    public int compressMinBytes() { return compressMinBytes; }
+
+    public PeerConfig compressMinBytes(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("compressMinBytes must be >= 0");
+        this.compressMinBytes = bytes;
+        return this;
+    }
+
+    /** Register the node's {@link NodeMetrics} as an MBean on the platform MBean server. */
+    public boolean jmx() { return jmx; }
+
+    public PeerConfig jmx(boolean enabled) {
+        this.jmx = enabled;
+        return this;
+    }
+
+    /** Builds a config from {@code -Dp2p.*} system properties, e.g. {@code -Dp2p.transport=nio}. */
+    public static PeerConfig fromSystemProperties() {
+        PeerConfig cfg = new PeerConfig();
+        String transport = System.getProperty("p2p.transport");
+        if (transport != null && !transport.isBlank()) {
+            cfg.transport(TransportMode.valueOf(transport.trim().toUpperCase(Locale.ROOT)));
+        }
+        Integer selectors = Integer.getInteger("p2p.selectorThreads");
+        if (selectors != null) cfg.selectorThreads(selectors);
+        String threads = System.getProperty("p2p.threads");
+        if (threads != null && !threads.isBlank()) {
+            cfg.threads(ThreadMode.valueOf(threads.trim().toUpperCase(Locale.ROOT)));
+        }
+        Integer capacity = Integer.getInteger("p2p.queue.capacity");
+        if (capacity != null) cfg.outboundQueueCapacity(capacity);
+        String overflow = System.getProperty("p2p.queue.overflow");
+        if (overflow != null && !overflow.isBlank()) {
+            cfg.overflowPolicy(OverflowPolicy.valueOf(overflow.trim().toUpperCase(Locale.ROOT)));
+        }
+        Long blockTimeout = Long.getLong("p2p.queue.blockTimeoutMs");
+        if (blockTimeout != null) cfg.blockTimeoutMillis(blockTimeout);
+        String weights = System.getProperty("p2p.queue.weights");
+        if (weights != null && !weights.isBlank()) {
+            String[] w = weights.trim().split("\\s*,\\s*");
+            if (w.length != 3) throw new IllegalArgumentException("p2p.queue.weights needs control,chat,bulk: " + weights);
+            cfg.streamWeights(Integer.parseInt(w[0]), Integer.parseInt(w[1]), Integer.parseInt(w[2]));
+        }
+        Long batchDelay = Long.getLong("p2p.batch.maxDelayMs");
+        if (batchDelay != null) cfg.batchMaxDelayMillis(batchDelay);
+        Integer batchFrames = Integer.getInteger("p2p.batch.maxFrames");
+        if (batchFrames != null) cfg.batchMaxFrames(batchFrames);
+        String binary = System.getProperty("p2p.binary");
+        if (binary != null && !binary.isBlank()) cfg.binaryCodec(Boolean.parseBoolean(binary.trim()));
+        String compress = System.getProperty("p2p.compress");
+        if (compress != null && !compress.isBlank()) cfg.compression(Boolean.parseBoolean(compress.trim()));
+        Integer compressMin = Integer.getInteger("p2p.compress.minBytes");
+        if (compressMin != null) cfg.compressMinBytes(compressMin);
+        Long dedupBytes = Long.getLong("p2p.dedup.memoryBytes");
+        if (dedupBytes != null) cfg.dedupMemoryBytes(dedupBytes);
+        Long dedupRetention = Long.getLong("p2p.dedup.retentionMs");
+        if (dedupRetention != null) cfg.dedupRetentionMillis(dedupRetention);
+        Integer historyCapacity = Integer.getInteger("p2p.history.capacity");
+        if (historyCapacity != null) cfg.historyCapacity(historyCapacity);
+        String historyDir = System.getProperty("p2p.history.dir");
+        if (historyDir != null && !historyDir.isBlank()) cfg.historyDir(Path.of(historyDir.trim()));
+        Long segmentBytes = Long.getLong("p2p.history.segmentBytes");
+        if (segmentBytes != null) cfg.historySegmentBytes(segmentBytes);
+        String fsync = System.getProperty("p2p.history.fsync");
+        if (fsync != null && !fsync.isBlank()) cfg.historyFsync(Boolean.parseBoolean(fsync.trim()));
+        String channels = System.getProperty("p2p.channels");
+        if (channels != null && !channels.isBlank()) cfg.channels(List.of(channels.trim().split("\\s*,\\s*")));
+        Integer channelCapacity = Integer.getInteger("p2p.channels.historyCapacity");
+        if (channelCapacity != null) cfg.channelHistoryCapacity(channelCapacity);
+        String sync = System.getProperty("p2p.sync");
+        if (sync != null && !sync.isBlank()) cfg.sync(Boolean.parseBoolean(sync.trim()));
+        Long syncRate = Long.getLong("p2p.sync.rateBytes");
+        if (syncRate != null) cfg.syncRateBytesPerSecond(syncRate);
+        Integer syncBatch = Integer.getInteger("p2p.sync.batch");
+        if (syncBatch != null) cfg.syncBatchMessages(syncBatch);
+        String forward = System.getProperty("p2p.forward");
+        if (forward != null && !forward.isBlank()) {
+            cfg.forwardMode(ForwardMode.valueOf(forward.trim().toUpperCase(Locale.ROOT)));
+        }
+        Long graftTimeout = Long.getLong("p2p.tree.graftTimeoutMs");
+        if (graftTimeout != null) cfg.graftTimeoutMillis(graftTimeout);
+        Long ihaveInterval = Long.getLong("p2p.tree.ihaveIntervalMs");
+        if (ihaveInterval != null) cfg.ihaveIntervalMillis(ihaveInterval);
+        Long connectTimeout = Long.getLong("p2p.connect.timeoutMs");
+        if (connectTimeout != null) cfg.connectTimeoutMillis(connectTimeout);
+        Integer degree = Integer.getInteger("p2p.connect.degree");
+        if (degree != null) cfg.targetDegree(degree);
+        Long backoff = Long.getLong("p2p.connect.backoffMs");
+        if (backoff != null) cfg.backoffBaseMillis(backoff);
+        Long backoffMax = Long.getLong("p2p.connect.backoffMaxMs");
+        if (backoffMax != null) cfg.backoffMaxMillis(backoffMax);
+        String auto = System.getProperty("p2p.connect.auto");
+        if (auto != null && !auto.isBlank()) cfg.autoConnect(Boolean.parseBoolean(auto.trim()));
+        String dht = System.getProperty("p2p.dht");
+        if (dht != null && !dht.isBlank()) cfg.dht(Boolean.parseBoolean(dht.trim()));
+        Integer bucketSize = Integer.getInteger("p2p.dht.bucketSize");
+        if (bucketSize != null) cfg.dhtBucketSize(bucketSize);
+        Integer dhtLinks = Integer.getInteger("p2p.dht.links");
+        if (dhtLinks != null) cfg.dhtLinks(dhtLinks);
+        Long dhtRefresh = Long.getLong("p2p.dht.refreshMs");
+        if (dhtRefresh != null) cfg.dhtRefreshMillis(dhtRefresh);
+        String filesDir = System.getProperty("p2p.files.dir");
+        if (filesDir != null && !filesDir.isBlank()) cfg.filesDir(Path.of(filesDir.trim()));
+        Integer filePort = Integer.getInteger("p2p.files.port");
+        if (filePort != null) cfg.filePort(filePort);
+        Integer chunkBytes = Integer.getInteger("p2p.files.chunkBytes");
+        if (chunkBytes != null) cfg.fileChunkBytes(chunkBytes);
+        Integer window = Integer.getInteger("p2p.files.window");
+        if (window != null) cfg.fileWindowChunks(window);
+        Integer retries = Integer.getInteger("p2p.files.retries");
+        if (retries != null) cfg.fileRetries(retries);
+        Long discoveryInterval = Long.getLong("p2p.discovery.intervalMs");
+        if (discoveryInterval != null) cfg.discoveryIntervalMillis(discoveryInterval);
+        Integer discoveryPeers = Integer.getInteger("p2p.discovery.maxPeers");
+        if (discoveryPeers != null) cfg.discoveryMaxPeers(discoveryPeers);
+        Long heartbeat = Long.getLong("p2p.heartbeat.intervalMs");
+        if (heartbeat != null) cfg.heartbeatIntervalMillis(heartbeat);
+        String phi = System.getProperty("p2p.heartbeat.phi");
+        if (phi != null && !phi.isBlank()) cfg.phiThreshold(Double.parseDouble(phi.trim()));
+        Long heartbeatTimeout = Long.getLong("p2p.heartbeat.timeoutMs");
+        if (heartbeatTimeout != null) cfg.heartbeatTimeoutMillis(heartbeatTimeout);
+        String jmx = System.getProperty("p2p.jmx");
+        if (jmx != null && !jmx.isBlank()) cfg.jmx(Boolean.parseBoolean(jmx.trim()));
+        return cfg;
+    }
+
+    /**
+     * Unbounded executor for I/O-bound tasks: a daemon cached pool in {@link ThreadMode#PLATFORM},
+     * one virtual thread per task in {@link ThreadMode#VIRTUAL}.
+     */
+    ExecutorService newIoExecutor(String namePrefix) {
+        if (threads == ThreadMode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName(namePrefix + seq.getAndIncrement());
+            return t;
+        });
+    }
+}
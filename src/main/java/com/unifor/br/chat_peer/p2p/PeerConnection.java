@@ -1,30 +1,72 @@
 package com.unifor.br.chat_peer.p2p;
 
-import java.io.*;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.io.Closeable;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
-public final class PeerConnection implements Closeable {
-
-    private final Socket socket;
-    private final BufferedReader in;
-    private final PrintWriter out;
-    private final AtomicBoolean closed = new AtomicBoolean(false);
+/**
+ * A live link to a remote peer, independent of the underlying transport.
+ * {@link #send} never writes on the caller's thread: frames go to a bounded {@link OutboundQueue}
+ * that the transport's writer drains and flushes in batches, control traffic ahead of chat and
+ * chat ahead of bulk as the queue's scheduler weighs them.
+ */
+public abstract class PeerConnection implements Closeable {
+
+    final PeerNode node;
+    final OutboundQueue outbound;
+    final FrameDecoder decoder = new FrameDecoder(this);
+    protected final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /** Set once both sides advertised {@link ProtocolMessage#CAP_BINARY} in HELLO. */
+    private volatile boolean binaryWire;
+    /** Set once both sides also advertised {@link ProtocolMessage#CAP_DEFLATE}. */
+    private volatile boolean compressWire;
+    /** The peer offered history catch-up in its HELLO. */
+    volatile boolean syncCapable;
+    /** The peer forwards along a broadcast tree, so this link can be pruned to lazy (see {@link GossipRouter}). */
+    volatile boolean treeCapable;
+    /** Pruned link: only IHAVE announcements go out here until a GRAFT. */
+    volatile boolean lazy;
+    /** The peer answers PING, so {@link HeartbeatMonitor} may evict this link when it goes silent. */
+    volatile boolean heartbeatCapable;
+    /** The peer routes channel messages by subscription, see {@link ChannelRouter}. */
+    volatile boolean channelCapable;
+    /** Channels with a subscriber on the peer's side of this link, as it last told us. */
+    volatile Set<String> channelInterest = Set.of();
+    // the peer's channel tree offer and whether it made us its parent; guarded by the ChannelRouter
+    String channelRoot = "";
+    int channelRootDistance;
+    boolean channelChild;
+    /** Channel state we last sent on this link; guarded by the {@link ChannelRouter}. */
+    String channelsAdvertised = "";
+    /** The peer's node id from its HELLO, see {@link DirectRouter}; meaningful once {@link #nodeIdKnown}. */
+    volatile long nodeId;
+    volatile boolean nodeIdKnown;
+    /** The peer relays DMs toward their target. */
+    volatile boolean dhtCapable;
+    /** We opened this connection; routing-table dials count only these against {@link PeerConfig#dhtLinks()}. */
+    volatile boolean dialed;
+    /** The peer takes file offers (see {@link FileTransfers}). */
+    volatile boolean filesCapable;
+    final LinkHealth health;
+    final WriteBatcher.Link batch;
 
     private volatile String remoteUser = "desconhecido";
     private volatile int remoteListenPort = -1;
 
-    public PeerConnection(Socket socket) throws IOException {
-        this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    PeerConnection(PeerNode node) {
+        this.node = node;
+        PeerConfig cfg = node.config();
+        this.outbound = new OutboundQueue(cfg, node.metrics());
+        this.health = new LinkHealth(cfg.heartbeatIntervalMillis(), cfg.network());
+        this.batch = new WriteBatcher.Link(this, cfg);
     }
 
-    public Socket socket() { return socket; }
+    public abstract String remoteHost();
 
-    public String remoteHost() { return socket.getInetAddress().getHostAddress(); }
+    /** Port of the remote end of the socket (ephemeral for inbound connections). */
+    public abstract int remotePort();
 
     public void setRemoteHello(String username, int listenPort) {
         this.remoteUser = username == null || username.isBlank() ? "desconhecido" : username;
@@ -35,22 +77,64 @@ public final class PeerConnection implements Closeable {
 
     public int remoteListenPort() { return remoteListenPort; }
 
-    public PeerAddress remoteAddress() { return new PeerAddress(remoteHost(), remoteListenPort > 0 ? remoteListenPort : socket.getPort()); }
+    public PeerAddress remoteAddress() { return new PeerAddress(remoteHost(), remoteListenPort > 0 ? remoteListenPort : remotePort()); }
+
+    /** Switches our outbound framing to binary; the peer's decoder accepts both framings at any time. */
+    void enableBinaryWire() { this.binaryWire = true; }
+
+    public boolean binaryWire() { return binaryWire; }
+
+    /** Deflates outbound binary frames above {@link PeerConfig#compressMinBytes()}; requires the binary wire. */
+    void enableCompression() { this.compressWire = binaryWire; }
+
+    public boolean compressWire() { return compressWire; }
 
     public void send(ProtocolMessage msg) {
+        send(msg, OutboundQueue.Stream.of(msg.type));
+    }
+
+    /** Queues {@code msg} on the given stream, e.g. a relayed MSG as bulk rather than chat. */
+    void send(ProtocolMessage msg, OutboundQueue.Stream stream) {
         if (closed.get()) return;
-        out.println(msg.toLine());
+        if (msg.type == ProtocolMessage.Type.BYE) {
+            // the peer closes on BYE, so it must not overtake anything still queued
+            outbound.offerLast(encode(msg));
+            stream = OutboundQueue.Stream.CONTROL;
+        } else if (!outbound.offer(encode(msg), stream, mayBlock())) {
+            node.metrics().queueOverflows.increment();
+            node.history().addSystem("Peer lento desconectado: " + remoteUser + "@" + remoteHost() + " (fila de saída cheia)");
+            close();
+            return;
+        }
+        node.metrics().framesOut.increment();
+        node.batcher().queued(this, stream);
     }
 
-    public String readLine() throws IOException { return in.readLine(); }
+    /** The message's shared, cached frame; must never be written to. */
+    byte[] encode(ProtocolMessage msg) {
+        return compressWire ? msg.compressedFrame(node.config().compressMinBytes()) : msg.frame(binaryWire);
+    }
 
-    public boolean isClosed() { return closed.get() || socket.isClosed(); }
+    /** Whether the current thread may wait on a full queue (never true for selector threads). */
+    boolean mayBlock() { return true; }
+
+    /** Makes sure the writer will drain {@link #outbound}; called by the {@link WriteBatcher} after an enqueue. */
+    abstract void scheduleFlush();
+
+    /** Round-trip time, jitter and suspicion level measured by heartbeats. */
+    public LinkHealth health() { return health; }
+
+    /** Frames currently waiting to be written. */
+    public int queueDepth() { return outbound.size(); }
+
+    /** Largest queue depth observed on this connection. */
+    public int queueHighWater() { return outbound.highWater(); }
+
+    /** Frames discarded by the overflow policy. */
+    public long droppedFrames() { return outbound.dropped(); }
+
+    public boolean isClosed() { return closed.get(); }
 
     @Override
-    public void close() {
-        if (!closed.compareAndSet(false, true)) return;
-        try { socket.close(); } catch (IOException ignored) {}
-        try { in.close(); } catch (IOException ignored) {}
-        out.close();
-    }
+    public abstract void close();
 }
@@ -1,135 +1,371 @@
 package com.unifor.br.chat_peer.p2p;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public final class PeerNode implements AutoCloseable {
 
     private final String username;
-    private final int listenPort;
+    private volatile int listenPort;
+    private final PeerConfig config;
 
-    private final MessageHistory history = new MessageHistory();
+    private final MessageHistory history;
 
     private final AtomicBoolean running = new AtomicBoolean(false);
 
-    private ServerSocket serverSocket;
+    private Transport transport;
 
     /** Active connections keyed by remoteHost:remoteListenPort when available. */
     private final ConcurrentMap<String, PeerConnection> connections = new ConcurrentHashMap<>();
 
     /** Known peers (from exchange or UDP discovery) */
     private final Set<PeerAddress> knownPeers = ConcurrentHashMap.newKeySet();
+    private final AddressResolver resolver = AddressResolver.shared();
 
     /** Used to prevent broadcast loops on multi-hop forwarding */
-    private final Deque<String> seenMessageIds = new ArrayDeque<>();
-    private final Set<String> seenMessageSet = new HashSet<>();
-    private final int seenMax = 2000;
+    private final SeenSet seen;
 
-    private final ExecutorService ioPool = Executors.newCachedThreadPool(r -> {
-        Thread t = new Thread(r);
-        t.setDaemon(true);
-        t.setName("p2p-io-" + t.getId());
-        return t;
-    });
+    /** Accept, read and connect work; platform or virtual threads depending on {@link PeerConfig#threads()}. */
+    private final ExecutorService ioPool;
 
     private final boolean forwardEnabled;
 
+    /** Identifies this run of the node as the author of its messages; a restart is a new origin. */
+    private final String origin = Long.toHexString(new Random().nextLong() | 1L << 63);
+    private final AtomicLong originSeq = new AtomicLong();
+    private final CatchUpSync sync;
+    private final GossipRouter router;
+    private final ConnectionManager dialer;
+    private final HeartbeatMonitor heartbeat;
+    private final ChannelRouter channels;
+    private final DirectRouter directs;
+    /** DMs sent and received; in memory only and never offered to catch-up. */
+    private final MessageHistory directHistory;
+    private final FileTransfers files;
+    private final WriteBatcher batcher;
+    private final NodeMetrics metrics;
+
     public PeerNode(String username, int listenPort, boolean forwardEnabled) {
+        this(username, listenPort, forwardEnabled, new PeerConfig());
+    }
+
+    public PeerNode(String username, int listenPort, boolean forwardEnabled, PeerConfig config) {
         this.username = Objects.requireNonNull(username);
         this.listenPort = listenPort;
         this.forwardEnabled = forwardEnabled;
+        this.config = Objects.requireNonNull(config);
+        this.ioPool = config.newIoExecutor("p2p-io-");
+        this.metrics = new NodeMetrics(this);
+        this.batcher = new WriteBatcher(config);
+        this.history = openHistory(config);
+        history.metrics(metrics);
+        this.sync = new CatchUpSync(this, history, config);
+        this.seen = new SeenSet(config.dedupMemoryBytes(), config.dedupRetentionMillis(), config.dedupGenerations());
+        this.router = new GossipRouter(config, seen, forwardEnabled);
+        this.dialer = new ConnectionManager(this, config);
+        this.heartbeat = new HeartbeatMonitor(this, config);
+        this.channels = new ChannelRouter(this, config, forwardEnabled);
+        for (String ch : config.channels()) channels.join(ch);
+        this.directs = new DirectRouter(this, config);
+        this.directHistory = new MessageHistory(config.historyCapacity());
+        this.files = new FileTransfers(this, config);
+    }
+
+    /** In-memory ring, backed by a {@link HistoryStore} when a history directory is configured. */
+    private static MessageHistory openHistory(PeerConfig config) {
+        if (config.historyDir() == null) return new MessageHistory(config.historyCapacity());
+        try {
+            HistoryStore store = new HistoryStore(config.historyDir(), config.historySegmentBytes(), config.historyFsync());
+            return new MessageHistory(config.historyCapacity(), store);
+        } catch (IOException e) {
+            MessageHistory memoryOnly = new MessageHistory(config.historyCapacity());
+            memoryOnly.addSystem("Histórico persistente indisponível (" + config.historyDir() + "): " + e.getMessage());
+            return memoryOnly;
+        }
     }
 
     public String username() { return username; }
     public int listenPort() { return listenPort; }
+
+    /** Where a node in the same process reaches this one; null before {@link #start()}. */
+    public PeerAddress localAddress() {
+        Transport t = transport;
+        return t == null ? null : new PeerAddress(t.localHost(), listenPort);
+    }
     public MessageHistory history() { return history; }
+    public PeerConfig config() { return config; }
+    public String origin() { return origin; }
+    public SyncStats syncStats() { return sync.stats(); }
+    public ForwardStats forwardStats() { return router.stats(connections.values()); }
+    public NodeMetrics metrics() { return metrics; }
+
+    WriteBatcher batcher() { return batcher; }
+
+    /** Channels this node subscribes to. */
+    public Set<String> channels() { return channels.subscriptions(); }
+
+    /** The history partition of a subscribed channel, or null when not subscribed. */
+    public MessageHistory channelHistory(String channel) {
+        return channels.history(ChannelRouter.normalize(channel));
+    }
+
+    /**
+     * Subscribes to a channel (name without '#', case-insensitive); peers learn it at once and start
+     * routing its messages here. False if already subscribed.
+     *
+     * @throws IllegalArgumentException for an invalid name
+     */
+    public boolean join(String channel) {
+        String ch = ChannelRouter.normalize(channel);
+        if (!channels.join(ch)) return false;
+        history.addSystem("Inscrito no canal #" + ch);
+        return true;
+    }
+
+    /** Drops a subscription and its history; false if not subscribed. */
+    public boolean leave(String channel) {
+        String ch = ChannelRouter.normalize(channel);
+        if (!channels.leave(ch)) return false;
+        history.addSystem("Saiu do canal #" + ch);
+        return true;
+    }
+
+    /** Channels with a subscriber behind each connected peer, as far as our messages would go. */
+    public Map<PeerAddress, Set<String>> channelInterest() {
+        Map<PeerAddress, Set<String>> out = new LinkedHashMap<>();
+        for (Map.Entry<PeerConnection, Set<String>> e : channels.reachable().entrySet()) {
+            out.put(e.getKey().remoteAddress(), e.getValue());
+        }
+        return out;
+    }
+
+    /** SUBSCRIBE frames sent so far, i.e. how much interest churn cost. */
+    public long subscriptionUpdatesSent() { return channels.updatesSent(); }
+
+    /** DMs this node sent and received. */
+    public MessageHistory directHistory() { return directHistory; }
+
+    public RoutingStats routingStats() { return directs.stats(); }
+
+    /**
+     * The node id of a user, for {@link #sendDirect}: a connected peer's, otherwise the author of their
+     * newest message in the history; null when unknown.
+     */
+    public String originOf(String user) {
+        for (PeerConnection c : connections.values()) {
+            if (c.nodeIdKnown && user.equalsIgnoreCase(c.remoteUser())) return Long.toHexString(c.nodeId);
+        }
+        for (MessageHistory h : List.of(directHistory, history)) {
+            List<ChatMessage> last = h.index().bySender(user, 1);
+            if (!last.isEmpty() && last.get(0).origin != null) return last.get(0).origin;
+        }
+        return null;
+    }
+
+    /**
+     * Sends a DM to the node whose {@link #origin()} is {@code nodeId}. It goes out on the one link
+     * closest to the target by XOR distance and is relayed the same way until it arrives (see
+     * {@link DirectRouter}). Returns the entry stored in {@link #directHistory()}, which carries the
+     * message id, or null when no link leads closer to the target.
+     *
+     * @throws IllegalArgumentException if {@code nodeId} is not a node id
+     */
+    public ChatMessage sendDirect(String nodeId, String text) {
+        long target = DirectRouter.parseId(nodeId);
+        PeerConnection next = target == directs.self() ? null : directs.nextHop(target);
+        if (next == null) {
+            metrics.directUnroutable.increment();
+            return null;
+        }
+        Instant now = Instant.now();
+        ProtocolMessage msg = ProtocolMessage.direct(username, text, origin, Long.toHexString(target), now.toEpochMilli());
+        firstSighting(msg);
+        next.send(msg);
+        metrics.messagesOut.increment();
+        return directHistory.add(new ChatMessage(now, username, msg.text, ChatMessage.Direction.OUT, msg.id, origin, 0));
+    }
+
+    /**
+     * Offers a file to a connected peer. The file is checksummed in the background and the offer goes
+     * out when that is done; the peer then fetches it over a separate connection (see {@link FileTransfers}).
+     * Returns null when no connected peer of that name takes files.
+     *
+     * @throws IOException if the file cannot be read or the data listener cannot bind
+     * @throws IllegalStateException on a {@link SimNetwork}, which carries no files
+     */
+    public TransferStatus offerFile(String user, Path file) throws IOException {
+        for (PeerConnection c : connections.values()) {
+            if (c.filesCapable && !c.isClosed() && user.equalsIgnoreCase(c.remoteUser())) return files.offer(c, file);
+        }
+        return null;
+    }
+
+    /** Accepts, or resumes, the file offer whose id starts with {@code idPrefix}; null when there is none to take. */
+    public TransferStatus acceptFile(String idPrefix) { return files.accept(idPrefix); }
+
+    /** Declines an offer or aborts a transfer, either direction; null when no transfer matches. */
+    public TransferStatus cancelFile(String idPrefix) { return files.cancel(idPrefix); }
+
+    public List<TransferStatus> fileTransfers() { return files.list(); }
+
+    /** Asks every connected peer that supports it for the messages we are missing. */
+    public void requestSync() {
+        for (PeerConnection c : connections.values()) {
+            if (c.syncCapable && !c.isClosed()) sync.requestFrom(c);
+        }
+    }
 
     public List<PeerAddress> connectedPeersSnapshot() {
         List<PeerAddress> out = new ArrayList<>();
         for (PeerConnection c : connections.values()) {
-            int port = c.remoteListenPort() > 0 ? c.remoteListenPort() : c.socket().getPort();
+            int port = c.remoteListenPort() > 0 ? c.remoteListenPort() : c.remotePort();
             out.add(new PeerAddress(c.remoteHost(), port));
         }
         return out;
     }
 
+    /** Heartbeat figures (RTT, jitter, phi) per connected peer. */
+    public Map<PeerAddress, LinkHealth> linkHealth() {
+        Map<PeerAddress, LinkHealth> out = new LinkedHashMap<>();
+        for (PeerConnection c : connections.values()) {
+            out.put(c.remoteAddress(), c.health);
+        }
+        return out;
+    }
+
+    /** Outbound queue depth per connected peer, for monitoring slow consumers. */
+    public Map<PeerAddress, Integer> outboundQueueDepths() {
+        Map<PeerAddress, Integer> out = new LinkedHashMap<>();
+        for (PeerConnection c : connections.values()) {
+            out.put(c.remoteAddress(), c.queueDepth());
+        }
+        return out;
+    }
+
     public void start() throws IOException {
         if (!running.compareAndSet(false, true)) return;
 
-        serverSocket = new ServerSocket(listenPort);
-        history.addSystem("Peer '" + username + "' ouvindo na porta " + listenPort);
-
-        ioPool.submit(this::acceptLoop);
+        transport = config.network().open(this);
+        listenPort = transport.bind(listenPort);
+        heartbeat.start();
+        directs.start();
+        if (config.jmx()) metrics.register();
+        history.addSystem("Peer '" + username + "' ouvindo na porta " + listenPort + " (" + transport + ", " + config.threads() + ")");
 
         // Shutdown hook (safe close)
         Runtime.getRuntime().addShutdownHook(new Thread(this::safeClose, "p2p-shutdown"));
     }
 
-    private void acceptLoop() {
-        while (running.get()) {
-            try {
-                Socket s = serverSocket.accept();
-                PeerConnection conn = new PeerConnection(s);
-                registerConnection(conn);
-                ioPool.submit(() -> handleConnection(conn));
-            } catch (SocketException se) {
-                // happens when serverSocket is closed during shutdown
-                break;
-            } catch (IOException e) {
-                history.addSystem("Erro ao aceitar conexão: " + e.getMessage());
-            }
-        }
-    }
-
-    /** Outgoing connect */
+    /** Outgoing connect; returns at once, the result shows up as a system message. */
     public void connectTo(String host, int port) {
         if (!running.get()) throw new IllegalStateException("PeerNode not started");
         PeerAddress addr = new PeerAddress(host, port);
-        if (isSelf(addr)) return;
-        if (isAlreadyConnected(addr)) return;
+        if (addr.isResolved()) {
+            connectResolved(addr);
+            return;
+        }
+        // a name the cache does not know yet: look it up off this thread, connect from the I/O pool
+        resolver.resolveAsync(addr).whenCompleteAsync((resolved, err) -> {
+            if (err != null) history.addSystem("Falha ao conectar em " + host + ":" + port + " (endereço não resolvido)");
+            else if (running.get()) connectResolved(resolved);
+        }, ioPool);
+    }
 
-        try {
-            Socket socket = new Socket(host, port);
-            PeerConnection conn = new PeerConnection(socket);
-            registerConnection(conn);
+    private void connectResolved(PeerAddress addr) {
+        dialer.dial(addr);
+    }
 
-            // handshake
-            conn.send(ProtocolMessage.hello(username, listenPort));
-            conn.send(ProtocolMessage.peersReq());
+    /** Starts the transport-level connect for a dial of the {@link ConnectionManager}; never blocks. */
+    void openConnection(PeerAddress addr, ConnectionManager.Attempt attempt) {
+        Transport t = transport;
+        if (t != null) attempt.handle(t.connect(addr));
+    }
 
-            ioPool.submit(() -> handleConnection(conn));
-            history.addSystem("Conectado a " + host + ":" + port);
-        } catch (IOException e) {
+    /** Inbound connection accepted by any transport: register and announce ourselves. */
+    void attachInbound(PeerConnection conn) {
+        registerConnection(conn);
+        conn.send(helloMessage(conn));
+    }
+
+    /** Outbound connection established by any transport: register and run the handshake. */
+    void attachOutbound(PeerConnection conn, String host, int port) {
+        conn.dialed = true;
+        registerConnection(conn);
+        conn.send(helloMessage(conn));
+        conn.send(ProtocolMessage.peersReq());
+        dialer.connected(new PeerAddress(host, port));
+        history.addSystem("Conectado a " + host + ":" + port);
+    }
+
+    void connectFailed(String host, int port, IOException e) {
+        directs.unreachable(new PeerAddress(host, port));
+        if (dialer.failed(new PeerAddress(host, port))) {
             history.addSystem("Falha ao conectar em " + host + ":" + port + " (" + e.getMessage() + ")");
         }
     }
 
+    boolean isRunning() { return running.get(); }
+
+    /** Accept, read and connect work of the blocking transport. */
+    ExecutorService ioPool() { return ioPool; }
+
+    int connectionCount() { return connections.size(); }
+
+    int knownPeerCount() { return knownPeers.size(); }
+
+    /** Registered connections this node opened itself. */
+    int dialedCount() {
+        int n = 0;
+        for (PeerConnection c : connections.values()) {
+            if (c.dialed) n++;
+        }
+        return n;
+    }
+
+    /** Registered connections, one per peer. */
+    Collection<PeerConnection> links() { return connections.values(); }
+
+    /** Not ourselves and not connected yet. */
+    boolean isDialable(PeerAddress addr) {
+        return !isSelf(addr) && !isAlreadyConnected(addr);
+    }
+
     private boolean isSelf(PeerAddress addr) {
-        String norm = addr.normalizeHost();
-        return addr.port == listenPort && (norm.equals("127.0.0.1") || norm.equals("0:0:0:0:0:0:0:1") || norm.equalsIgnoreCase("localhost"));
+        Transport t = transport;
+        return addr.port == listenPort && (t != null ? t.isLocal(addr) : addr.isLoopback());
     }
 
     private boolean isAlreadyConnected(PeerAddress addr) {
-        String key1 = addr.normalizeHost() + ":" + addr.port;
-        return connections.containsKey(key1);
+        return connections.containsKey(addr.canonical().toString());
     }
 
     private void registerConnection(PeerConnection conn) {
         // temporarily register by socket's remote host + remote port
-        String key = conn.remoteHost() + ":" + conn.socket().getPort();
+        String key = conn.remoteHost() + ":" + conn.remotePort();
         connections.put(key, conn);
+        metrics.connectionsOpened.increment();
+    }
+
+    /**
+     * The registered connection to the same peer. When two peers dial each other at once both sockets
+     * stay open but only one is kept in {@link #connections}; tree state must live on that one, the
+     * one we push on, or a PRUNE received on the other socket would not stop anything.
+     */
+    private PeerConnection linkFor(PeerConnection conn) {
+        if (conn.remoteListenPort() <= 0) return conn;
+        PeerConnection registered = connections.get(conn.remoteHost() + ":" + conn.remoteListenPort());
+        return registered != null ? registered : conn;
     }
 
     private void promoteKeyIfPossible(PeerConnection conn) {
         if (conn.remoteListenPort() <= 0) return;
-        String oldKey = conn.remoteHost() + ":" + conn.socket().getPort();
+        String oldKey = conn.remoteHost() + ":" + conn.remotePort();
         String newKey = conn.remoteHost() + ":" + conn.remoteListenPort();
 
         if (!oldKey.equals(newKey)) {
@@ -138,88 +374,173 @@ public final class PeerNode implements AutoCloseable {
         }
     }
 
-    /** Broadcast local user text to all connected peers */
-    public void broadcastUserText(String text) {
-        ProtocolMessage msg = ProtocolMessage.msg(username, text);
-        markSeen(msg.id);
+    /** Broadcast local user text to all connected peers; returns the history entry, which carries the message id. */
+    public ChatMessage broadcastUserText(String text) {
+        Instant now = Instant.now();
+        long seq = originSeq.incrementAndGet();
+        ProtocolMessage msg = ProtocolMessage.msg(username, text, origin, seq, now.toEpochMilli());
+        firstSighting(msg);
+        sync.tracker.record(origin, seq);
+
+        ChatMessage sent = history.add(new ChatMessage(now, username, text, ChatMessage.Direction.OUT, msg.id, origin, seq));
+        metrics.messagesOut.increment();
+        metrics.fanOut.record(router.push(msg, null, connections.values()));
+        return sent;
+    }
 
-        history.addOut(username, text);
-        broadcastRaw(msg, null);
+    /**
+     * Publishes local user text on a channel. It goes out only on links with a subscriber behind
+     * them and is stored in the channel's history when we subscribe ourselves; returns the entry,
+     * which carries the message id.
+     *
+     * @throws IllegalArgumentException for an invalid channel name
+     */
+    public ChatMessage publish(String channel, String text) {
+        String ch = ChannelRouter.normalize(channel);
+        Instant now = Instant.now();
+        ProtocolMessage msg = ProtocolMessage.channelMsg(ch, username, text, origin, now.toEpochMilli());
+        firstSighting(msg);
+
+        ChatMessage entry = new ChatMessage(now, username, msg.text, ChatMessage.Direction.OUT, msg.id, origin, 0);
+        MessageHistory h = channels.history(ch);
+        ChatMessage sent = h != null ? h.add(entry) : entry;
+        metrics.messagesOut.increment();
+        metrics.fanOut.record(router.push(msg, null, channels.targets(ch)));
+        return sent;
     }
 
     /** Called by discovery (UDP) or peer exchange */
     public void addKnownPeer(PeerAddress addr) {
         if (addr == null) return;
+        if (!addr.isResolved()) {
+            resolver.resolveAsync(addr).thenAccept(this::addKnownPeer); // names that fail to resolve are dropped
+            return;
+        }
         if (isSelf(addr)) return;
-        knownPeers.add(new PeerAddress(addr.normalizeHost(), addr.port));
+        knownPeers.add(addr.canonical());
     }
 
-    /** Try connect to some known peers (best-effort) */
+    /** Forgets a peer that went away (e.g. expired from discovery); an open connection to it is kept. */
+    public void removeKnownPeer(PeerAddress addr) {
+        if (addr != null) knownPeers.remove(addr.canonical());
+    }
+
+    /**
+     * Dials known peers until {@link PeerConfig#targetDegree()} connections are up or being set up.
+     * Never blocks, so read and discovery loops can call it directly.
+     */
     public void connectKnownPeers() {
-        for (PeerAddress p : new ArrayList<>(knownPeers)) {
-            if (!isAlreadyConnected(p)) connectTo(p.host, p.port);
-        }
+        dialer.fill(knownPeers);
+        if (config.dht()) dialer.fillBuckets(directs.wanted());
     }
 
-    private void handleConnection(PeerConnection conn) {
+    /** Entry point for every received text line, whichever thread/transport read it. */
+    void onLine(PeerConnection conn, String line) {
+        ProtocolMessage msg;
         try {
-            // For inbound connections, we still announce ourselves so the other side can identify us.
-            conn.send(ProtocolMessage.hello(username, listenPort));
-
-            String line;
-            while (running.get() && (line = conn.readLine()) != null) {
-                ProtocolMessage msg;
-                try {
-                    msg = ProtocolMessage.parse(line);
-                } catch (Exception parseErr) {
-                    history.addSystem("Linha inválida recebida de " + conn.remoteHost() + ": " + parseErr.getMessage());
-                    continue;
-                }
-
-                onMessage(conn, msg);
-            }
-        } catch (IOException e) {
-            // read loop error
-        } finally {
-            unregisterConnection(conn);
-            conn.close();
+            msg = ProtocolMessage.parse(line);
+        } catch (Exception parseErr) {
+            metrics.parseFailures.increment();
+            history.addSystem("Linha inválida recebida de " + conn.remoteHost() + ": " + parseErr.getMessage());
+            return;
         }
+
+        onMessage(conn, msg);
+    }
+
+    /** Entry point for every decoded binary frame. */
+    void onFrame(PeerConnection conn, ProtocolMessage msg) {
+        onMessage(conn, msg);
+    }
+
+    private ProtocolMessage helloMessage(PeerConnection conn) {
+        List<String> caps = new ArrayList<>(8);
+        if (config.binaryCodec()) caps.add(ProtocolMessage.CAP_BINARY);
+        if (config.binaryCodec() && config.compression()) caps.add(ProtocolMessage.CAP_DEFLATE);
+        if (config.sync()) caps.add(ProtocolMessage.CAP_SYNC);
+        if (router.treeEnabled()) caps.add(ProtocolMessage.CAP_TREE);
+        if (heartbeat.enabled()) caps.add(ProtocolMessage.CAP_HEARTBEAT);
+        caps.add(ProtocolMessage.CAP_CHANNELS);
+        if (config.dht()) caps.add(ProtocolMessage.CAP_DHT);
+        if (files.enabled()) caps.add(ProtocolMessage.CAP_FILES);
+        return ProtocolMessage.hello(username, listenPort, String.join(",", caps), channels.helloInterest(conn), origin);
     }
 
-    private void unregisterConnection(PeerConnection conn) {
-        connections.values().removeIf(c -> c == conn);
+    void unregisterConnection(PeerConnection conn) {
+        sync.forget(conn);
+        router.forget(conn);
+        channels.forget(conn);
+        if (!connections.values().removeIf(c -> c == conn)) return;
+        metrics.connectionsClosed.increment();
         history.addSystem("Conexão encerrada com " + conn.remoteHost());
+        connectKnownPeers(); // replace the lost link
     }
 
     private void onMessage(PeerConnection conn, ProtocolMessage msg) {
+        linkFor(conn).health.heard(config.network().nanoTime());
+        metrics.framesIn.increment();
         switch (msg.type) {
             case HELLO -> {
                 conn.setRemoteHello(msg.username, msg.listenPort == null ? -1 : msg.listenPort);
                 promoteKeyIfPossible(conn);
 
+                // Our HELLO already went out as a line, so from here on the peer can read binary frames.
+                if (config.binaryCodec() && msg.hasCapability(ProtocolMessage.CAP_BINARY)) {
+                    conn.enableBinaryWire();
+                    if (config.compression() && msg.hasCapability(ProtocolMessage.CAP_DEFLATE)) conn.enableCompression();
+                }
+                router.linkUp(conn, msg.hasCapability(ProtocolMessage.CAP_TREE));
+                conn.heartbeatCapable = heartbeat.enabled() && msg.hasCapability(ProtocolMessage.CAP_HEARTBEAT);
+                channels.linkUp(linkFor(conn), msg.hasCapability(ProtocolMessage.CAP_CHANNELS), msg.interest());
+                directs.linkUp(linkFor(conn), msg.origin, msg.hasCapability(ProtocolMessage.CAP_DHT));
+                linkFor(conn).filesCapable = files.enabled() && msg.hasCapability(ProtocolMessage.CAP_FILES);
+
                 // Track as known peer
                 if (msg.listenPort != null && msg.listenPort > 0) {
                     addKnownPeer(new PeerAddress(conn.remoteHost(), msg.listenPort));
                 }
                 history.addSystem("Handshake com " + conn.remoteUser() + "@" + conn.remoteHost() + ":" + conn.remoteListenPort());
+
+                if (config.sync() && msg.hasCapability(ProtocolMessage.CAP_SYNC)) {
+                    conn.syncCapable = true;
+                    sync.requestFrom(conn);
+                }
             }
             case MSG -> {
-                if (isSeen(msg.id)) return;
-                markSeen(msg.id);
+                PeerConnection link = linkFor(conn);
+                metrics.messagesIn.increment();
+                if (!firstSighting(msg)) {
+                    metrics.duplicatesDropped.increment();
+                    router.duplicate(link);
+                    return;
+                }
+                router.delivered(link, msg);
+                if (msg.channel != null) {
+                    onChannelMessage(conn, link, msg);
+                    return;
+                }
+
+                if (msg.origin != null) sync.tracker.record(msg.origin, msg.originSeq);
 
                 String from = (msg.from == null || msg.from.isBlank()) ? conn.remoteUser() : msg.from;
-                history.addIn(from, msg.text);
+                ChatMessage received = history.add(new ChatMessage(Instant.now(), from, msg.text,
+                        ChatMessage.Direction.IN, msg.id, msg.origin, msg.originSeq));
 
                 // Print-friendly hook for console UI
-                onDisplay.accept(history.snapshot().get(history.snapshot().size()-1).format());
+                onDisplay.accept(received.format());
+                onDeliver.delivered(received);
+                if (msg.timestamp > 0) metrics.deliveryLatencyMillis.record(System.currentTimeMillis() - msg.timestamp);
 
                 if (forwardEnabled) {
-                    // Forward to all other peers except the one we received from
-                    broadcastRaw(msg, conn);
+                    // Forward to the other peers, eagerly or as an IHAVE depending on the link
+                    metrics.forwards.increment();
+                    metrics.fanOut.record(router.push(msg, link, connections.values()));
                 }
             }
             case PEERS_REQ -> {
-                String csv = buildPeersCsv();
+                PeerConnection link = linkFor(conn);
+                // peers that route get contacts with their ids, picked for their table
+                String csv = link.dhtCapable ? String.join(",", directs.peersFor(link.nodeId)) : buildPeersCsv();
                 conn.send(ProtocolMessage.peersRes(msg.id, csv));
             }
             case PEERS_RES -> {
@@ -227,12 +548,15 @@ public final class PeerNode implements AutoCloseable {
                     String[] peers = msg.peersCsv.split(",");
                     for (String p : peers) {
                         try {
-                            PeerAddress addr = PeerAddress.parse(p.trim());
+                            // "id@host:port" from peers that route DMs, plain "host:port" otherwise
+                            int at = p.indexOf('@');
+                            PeerAddress addr = PeerAddress.parse(p.substring(at + 1).trim());
                             // when peers are shared, host may be "self" from remote; prefer the remote host
                             if (addr.host.equalsIgnoreCase("localhost") || addr.host.equals("127.0.0.1")) {
                                 addr = new PeerAddress(conn.remoteHost(), addr.port);
                             }
                             addKnownPeer(addr);
+                            if (at > 0 && !isSelf(addr)) directs.learn(p.substring(0, at).trim(), addr);
                         } catch (Exception ignored) {}
                     }
                 }
@@ -243,9 +567,85 @@ public final class PeerNode implements AutoCloseable {
                 history.addSystem("Peer saiu: " + msg.username);
                 conn.close();
             }
+            case SYNC_REQ -> {
+                if (config.sync()) sync.onRequest(conn, msg);
+            }
+            case SYNC_MSG -> {
+                ChatMessage caughtUp = sync.onMessage(conn, msg);
+                if (caughtUp != null) onDeliver.delivered(caughtUp);
+            }
+            case IHAVE -> router.onIhave(linkFor(conn), msg);
+            case GRAFT -> router.onGraft(linkFor(conn), msg);
+            case PRUNE -> router.onPrune(linkFor(conn));
+            case PING -> heartbeat.onPing(conn, msg);
+            case PONG -> heartbeat.onPong(linkFor(conn), msg);
+            case SUBSCRIBE -> channels.onSubscribe(linkFor(conn), msg);
+            case DM -> onDirect(conn, msg);
+            case FILE_OFFER -> files.onOffer(linkFor(conn), msg);
+            case FILE_CANCEL -> files.onCancel(linkFor(conn), msg);
+            case SYNC_END -> {
+                long n = sync.onEnd(conn, msg);
+                if (n > 0) {
+                    ChatMessage notice = history.addSystem("Sincronizadas " + n + " mensagens de " + conn.remoteUser());
+                    onDisplay.accept(notice.format());
+                }
+            }
+        }
+    }
+
+    /** A new channel message: stored and shown if we subscribe, relayed toward the other subscribers. */
+    private void onChannelMessage(PeerConnection conn, PeerConnection link, ProtocolMessage msg) {
+        MessageHistory h = channels.history(msg.channel);
+        if (h != null) {
+            String from = (msg.from == null || msg.from.isBlank()) ? conn.remoteUser() : msg.from;
+            ChatMessage received = h.add(new ChatMessage(Instant.now(), from, msg.text,
+                    ChatMessage.Direction.IN, msg.id, msg.origin, 0));
+            onDisplay.accept("#" + msg.channel + " " + received.format());
+            onDeliver.delivered(received);
+            if (msg.timestamp > 0) metrics.deliveryLatencyMillis.record(System.currentTimeMillis() - msg.timestamp);
+        }
+        if (forwardEnabled) {
+            // a leaf of the channel tree has nobody further to pass it to
+            int fanOut = router.push(msg, link, channels.targets(msg.channel));
+            if (fanOut > 0) metrics.forwards.increment();
+            metrics.fanOut.record(fanOut);
         }
     }
 
+    /** A DM: kept and shown if it is for us, otherwise passed on one hop closer to its target. */
+    private void onDirect(PeerConnection conn, ProtocolMessage msg) {
+        metrics.messagesIn.increment();
+        if (!firstSighting(msg)) {
+            metrics.duplicatesDropped.increment();
+            return;
+        }
+        long target;
+        try {
+            target = DirectRouter.parseId(msg.target);
+        } catch (NumberFormatException e) {
+            metrics.parseFailures.increment();
+            return;
+        }
+        if (target == directs.self()) {
+            String from = (msg.from == null || msg.from.isBlank()) ? conn.remoteUser() : msg.from;
+            ChatMessage received = directHistory.add(new ChatMessage(Instant.now(), from, msg.text,
+                    ChatMessage.Direction.IN, msg.id, msg.origin, 0));
+            onDisplay.accept("[DM] " + received.format());
+            onDeliver.delivered(received);
+            metrics.directHops.record(msg.hops + 1);
+            if (msg.timestamp > 0) metrics.deliveryLatencyMillis.record(System.currentTimeMillis() - msg.timestamp);
+            return;
+        }
+        if (!config.dht()) return; // we never offered to relay
+        PeerConnection next = directs.nextHop(target);
+        if (next == null) {
+            metrics.directUnroutable.increment();
+            return;
+        }
+        next.send(msg.relayed(), OutboundQueue.Stream.BULK);
+        metrics.forwards.increment();
+    }
+
     private String buildPeersCsv() {
         // Share only what we know (including ourselves), but without duplicates
         Set<String> out = new LinkedHashSet<>();
@@ -255,36 +655,22 @@ public final class PeerNode implements AutoCloseable {
         return String.join(",", out);
     }
 
-    private void broadcastRaw(ProtocolMessage msg, PeerConnection except) {
-        for (PeerConnection c : connections.values()) {
-            if (c == except) continue;
-            if (c.isClosed()) continue;
-            c.send(msg);
-        }
-    }
-
-    private boolean isSeen(String id) {
-        synchronized (seenMessageIds) {
-            return seenMessageSet.contains(id);
-        }
+    /** Atomically checks and records a message id; false means it is a duplicate. */
+    boolean firstSighting(ProtocolMessage msg) {
+        UUID id = msg.uuid();
+        return id != null ? seen.markIfAbsent(id) : seen.markIfAbsent(msg.id);
     }
 
-    private void markSeen(String id) {
-        synchronized (seenMessageIds) {
-            if (seenMessageSet.contains(id)) return;
-            seenMessageIds.addLast(id);
-            seenMessageSet.add(id);
-            while (seenMessageIds.size() > seenMax) {
-                String old = seenMessageIds.removeFirst();
-                seenMessageSet.remove(old);
-            }
-        }
-    }
+    public SeenSet seenSet() { return seen; }
 
     // Simple display callback for the UI (console/GUI) to plug-in.
     public interface DisplaySink { void accept(String line); }
     public DisplaySink onDisplay = line -> {}; // default no-op
 
+    /** Every chat message stored here for the first time, live or through catch-up; runs on the reading thread. */
+    public interface DeliveryListener { void delivered(ChatMessage message); }
+    public DeliveryListener onDeliver = message -> {};
+
     /** Safe shutdown required by spec */
     public void safeClose() {
         if (!running.compareAndSet(true, false)) return;
@@ -295,8 +681,20 @@ public final class PeerNode implements AutoCloseable {
             }
             connections.clear();
         } finally {
-            try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignored) {}
-            ioPool.shutdownNow();
+            if (transport != null) transport.close();
+            // not shutdownNow: closing links' writers still have their BYE to flush; readers end with their sockets
+            ioPool.shutdown();
+            sync.close();
+            router.close();
+            dialer.close();
+            heartbeat.close();
+            batcher.close();
+            channels.close();
+            directs.close();
+            directHistory.close();
+            files.close();
+            metrics.unregister();
+            history.close();
         }
     }
 
@@ -1,66 +1,403 @@
 package com.unifor.br.chat_peer.p2p;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 import java.util.UUID;
 
 public final class ProtocolMessage {
 
-    public enum Type { HELLO, MSG, PEERS_REQ, PEERS_RES, BYE }
+    public enum Type {
+        HELLO(1), MSG(2), PEERS_REQ(3), PEERS_RES(4), BYE(5),
+        /** Catch-up request carrying the sender's per-origin high-water marks. */
+        SYNC_REQ(6),
+        /** One historical message streamed in answer to SYNC_REQ; stored but never forwarded. */
+        SYNC_MSG(7),
+        /** End of a catch-up stream, echoing the SYNC_REQ id. */
+        SYNC_END(8),
+        /** Lazy-push announcement: ids of messages the sender has, comma-separated. */
+        IHAVE(9),
+        /** Asks for the listed messages and turns the link back into a tree (eager) link. */
+        GRAFT(10),
+        /** Turns the link into a lazy link: send IHAVE instead of full messages. */
+        PRUNE(11),
+        /** Heartbeat carrying the sender's clock reading, only meaningful to the sender. */
+        PING(12),
+        /** Answer to PING echoing its id and clock reading, so the sender can compute the round trip. */
+        PONG(13),
+        /** The sender's channel interest as seen from this link, replacing what it sent before (see {@link ChannelRouter}). */
+        SUBSCRIBE(14),
+        /** Message for one node, relayed hop by hop toward its target id (see {@link DirectRouter}). */
+        DM(15),
+        /** A file the sender offers to this peer; the bytes come over a separate connection (see {@link FileTransfers}). */
+        FILE_OFFER(16),
+        /** Withdraws or declines the file offer with this id; the text is a short reason code. */
+        FILE_CANCEL(17);
+
+        /** Type byte used by the binary framing. */
+        final byte code;
+
+        Type(int code) { this.code = (byte) code; }
+
+        private static final Type[] BY_CODE = new Type[256];
+        static {
+            for (Type t : values()) BY_CODE[t.code & 0xFF] = t;
+        }
+
+        static Type fromCode(byte code) {
+            Type t = BY_CODE[code & 0xFF];
+            if (t == null) throw new IllegalArgumentException("Unknown frame type: " + (code & 0xFF));
+            return t;
+        }
+    }
+
+    /**
+     * First byte of a binary frame (version 1). Text lines always start with an ASCII type name,
+     * so a decoder can tell both framings apart frame by frame.
+     */
+    static final byte BINARY_MAGIC = (byte) 0xB1;
+    /** Capability advertised in HELLO by peers that understand {@link #BINARY_MAGIC} frames. */
+    static final String CAP_BINARY = "bin1";
+    /** Capability advertised in HELLO by peers that answer SYNC_REQ. */
+    static final String CAP_SYNC = "sync1";
+    /** Capability advertised in HELLO by peers that forward along a broadcast tree (IHAVE/GRAFT/PRUNE). */
+    static final String CAP_TREE = "tree1";
+    /** Capability advertised in HELLO by peers that answer PING, which makes the link subject to failure detection. */
+    static final String CAP_HEARTBEAT = "hb1";
+    /** Capability advertised in HELLO by peers that accept deflated binary frames (see {@link FrameCompressor}). */
+    static final String CAP_DEFLATE = "deflate1";
+    /** Capability advertised in HELLO by peers that route channel messages by subscription (see {@link ChannelRouter}). */
+    static final String CAP_CHANNELS = "chan1";
+    /** Capability advertised in HELLO by peers that relay DMs and share node ids in PEERS_RES (see {@link DirectRouter}). */
+    static final String CAP_DHT = "dht1";
+    /** Capability advertised in HELLO by peers that take FILE_OFFER and serve files (see {@link FileTransfers}). */
+    static final String CAP_FILES = "file1";
+    /** magic + int length */
+    static final int BINARY_HEADER = 5;
 
     public final Type type;
     public final String id;
 
     public final String username;
     public final Integer listenPort;
+    /** Comma-separated features offered in HELLO; empty for peers predating negotiation. */
+    public final String capabilities;
 
     public final String from;
     public final String text;
 
     public final String peersCsv;
 
-    private ProtocolMessage(Type type, String id, String username, Integer listenPort, String from, String text, String peersCsv) {
+    /**
+     * Author run and its per-origin sequence for MSG/SYNC_MSG (null/0 from older peers), and the
+     * send time in epoch millis (0 when unknown). In HELLO the origin is the sender's node id.
+     */
+    public final String origin;
+    public final long originSeq;
+    public final long timestamp;
+    /** Channel of a MSG, or null for the global conversation every node receives. */
+    public final String channel;
+    /** Node id a DM is addressed to, and the links it has crossed so far. */
+    public final String target;
+    public final int hops;
+
+    private UUID uuid; // lazily parsed from id, benign race
+
+    // Encoded once and shared by every connection the message is fanned out to; never mutated.
+    private volatile byte[] lineFrame;
+    private volatile byte[] binaryFrame;
+    /** Deflated binary frame, or the plain one when compression did not pay off. */
+    private volatile byte[] deflatedFrame;
+
+    private ProtocolMessage(Type type, String id, String username, Integer listenPort, String capabilities,
+                            String from, String text, String peersCsv) {
+        this(type, id, username, listenPort, capabilities, from, text, peersCsv, null, 0, 0, null);
+    }
+
+    private ProtocolMessage(Type type, String id, String username, Integer listenPort, String capabilities,
+                            String from, String text, String peersCsv, String origin, long originSeq, long timestamp,
+                            String channel) {
+        this(type, id, username, listenPort, capabilities, from, text, peersCsv, origin, originSeq, timestamp, channel, null, 0);
+    }
+
+    private ProtocolMessage(Type type, String id, String username, Integer listenPort, String capabilities,
+                            String from, String text, String peersCsv, String origin, long originSeq, long timestamp,
+                            String channel, String target, int hops) {
         this.type = type;
         this.id = id;
         this.username = username;
         this.listenPort = listenPort;
+        this.capabilities = capabilities;
         this.from = from;
         this.text = text;
         this.peersCsv = peersCsv;
+        this.origin = origin;
+        this.originSeq = originSeq;
+        this.timestamp = timestamp;
+        this.channel = channel;
+        this.target = target;
+        this.hops = hops;
     }
 
     public static ProtocolMessage hello(String username, int listenPort) {
-        return new ProtocolMessage(Type.HELLO, UUID.randomUUID().toString(), username, listenPort, null, null, null);
+        return hello(username, listenPort, "");
+    }
+
+    public static ProtocolMessage hello(String username, int listenPort, String capabilities) {
+        return hello(username, listenPort, capabilities, "");
+    }
+
+    /** @param interest the channel interest offered to this peer, see {@link #interest()} */
+    public static ProtocolMessage hello(String username, int listenPort, String capabilities, String interest) {
+        return hello(username, listenPort, capabilities, interest, null);
+    }
+
+    /** @param nodeId the sender's {@link PeerNode#origin()}, which DMs are addressed to */
+    public static ProtocolMessage hello(String username, int listenPort, String capabilities, String interest, String nodeId) {
+        return new ProtocolMessage(Type.HELLO, UUID.randomUUID().toString(), username, listenPort, capabilities, null,
+                isEmpty(interest) ? null : interest, null, isEmpty(nodeId) ? null : nodeId, 0, 0, null);
     }
 
     public static ProtocolMessage msg(String from, String text) {
-        return new ProtocolMessage(Type.MSG, UUID.randomUUID().toString(), null, null, from, escape(text), null);
+        return new ProtocolMessage(Type.MSG, UUID.randomUUID().toString(), null, null, null, from, text == null ? "" : text, null);
+    }
+
+    /** Chat message stamped with its author run, per-origin sequence and send time, for catch-up. */
+    public static ProtocolMessage msg(String from, String text, String origin, long originSeq, long timestamp) {
+        return new ProtocolMessage(Type.MSG, UUID.randomUUID().toString(), null, null, null, from,
+                text == null ? "" : text, null, origin, originSeq, timestamp, null);
+    }
+
+    /**
+     * Chat message on a named channel. It is relayed only toward subscribers and is not part of the
+     * per-origin sequence, so catch-up does not replay it.
+     */
+    public static ProtocolMessage channelMsg(String channel, String from, String text, String origin, long timestamp) {
+        return new ProtocolMessage(Type.MSG, UUID.randomUUID().toString(), null, null, null, from,
+                text == null ? "" : text, null, origin, 0, timestamp, Objects.requireNonNull(channel));
+    }
+
+    /** Message for the node whose origin is {@code target}; like channel messages it has no per-origin sequence. */
+    public static ProtocolMessage direct(String from, String text, String origin, String target, long timestamp) {
+        return new ProtocolMessage(Type.DM, UUID.randomUUID().toString(), null, null, null, from,
+                text == null ? "" : text, null, origin, 0, timestamp, null, Objects.requireNonNull(target), 0);
+    }
+
+    /** The same DM, one hop further; encoded anew since the hop count is on the wire. */
+    public ProtocolMessage relayed() {
+        if (type != Type.DM) throw new IllegalStateException("only a DM is relayed hop by hop");
+        ProtocolMessage next = new ProtocolMessage(type, id, null, null, null, from, text, null, origin, 0, timestamp,
+                null, target, hops + 1);
+        next.uuid = uuid;
+        return next;
+    }
+
+    /**
+     * Offer of a file to one peer, whose id is also the transfer's. Size, chunk size and the port
+     * the sender serves the data on ride in the text field, see {@link #fileOffer()}.
+     */
+    public static ProtocolMessage fileOffer(String offerId, String from, String name, long size, int chunkBytes, int dataPort) {
+        return new ProtocolMessage(Type.FILE_OFFER, offerId, null, null, null, from,
+                size + "," + chunkBytes + "," + dataPort + "," + name, null);
+    }
+
+    /** @param reason short code such as {@code declined} or {@code cancelled} */
+    public static ProtocolMessage fileCancel(String offerId, String reason) {
+        return new ProtocolMessage(Type.FILE_CANCEL, offerId, null, null, null, null, reason == null ? "" : reason, null);
+    }
+
+    /** @param interest {@code root:distance:parentFlag} and the channels behind the sender, see {@link ChannelRouter} */
+    public static ProtocolMessage subscribe(String interest) {
+        return new ProtocolMessage(Type.SUBSCRIBE, UUID.randomUUID().toString(), null, null, null, null,
+                interest == null ? "" : interest, null);
+    }
+
+    /** @param marks comma-separated {@code origin:seq} pairs, see {@link #syncMarks()} */
+    public static ProtocolMessage syncReq(String marks) {
+        return new ProtocolMessage(Type.SYNC_REQ, UUID.randomUUID().toString(), null, null, null, null,
+                marks == null ? "" : marks, null);
+    }
+
+    public static ProtocolMessage syncMsg(ChatMessage m) {
+        return new ProtocolMessage(Type.SYNC_MSG, m.id, null, null, null, m.from, m.text, null,
+                m.origin, m.originSeq, m.timestamp.toEpochMilli(), null);
+    }
+
+    public static ProtocolMessage syncEnd(String requestId) {
+        return new ProtocolMessage(Type.SYNC_END, requestId, null, null, null, null, null, null);
+    }
+
+    /** @param idsCsv comma-separated message ids, see {@link #messageIds()} */
+    public static ProtocolMessage ihave(String idsCsv) {
+        return new ProtocolMessage(Type.IHAVE, UUID.randomUUID().toString(), null, null, null, null, idsCsv, null);
+    }
+
+    public static ProtocolMessage graft(String idsCsv) {
+        return new ProtocolMessage(Type.GRAFT, UUID.randomUUID().toString(), null, null, null, null, idsCsv, null);
+    }
+
+    public static ProtocolMessage prune() {
+        return new ProtocolMessage(Type.PRUNE, UUID.randomUUID().toString(), null, null, null, null, null, null);
+    }
+
+    /** @param nanos the sender's {@link System#nanoTime()}, echoed back in the PONG */
+    public static ProtocolMessage ping(long nanos) {
+        return new ProtocolMessage(Type.PING, UUID.randomUUID().toString(), null, null, null, null, Long.toString(nanos), null);
+    }
+
+    public static ProtocolMessage pong(ProtocolMessage ping) {
+        return new ProtocolMessage(Type.PONG, ping.id, null, null, null, null, ping.text, null);
     }
 
     public static ProtocolMessage peersReq() {
-        return new ProtocolMessage(Type.PEERS_REQ, UUID.randomUUID().toString(), null, null, null, null, null);
+        return new ProtocolMessage(Type.PEERS_REQ, UUID.randomUUID().toString(), null, null, null, null, null, null);
     }
 
     public static ProtocolMessage peersRes(String requestId, String peersCsv) {
-        return new ProtocolMessage(Type.PEERS_RES, requestId, null, null, null, null, peersCsv == null ? "" : peersCsv);
+        return new ProtocolMessage(Type.PEERS_RES, requestId, null, null, null, null, null, peersCsv == null ? "" : peersCsv);
     }
 
     public static ProtocolMessage bye(String username) {
-        return new ProtocolMessage(Type.BYE, UUID.randomUUID().toString(), username, null, null, null, null);
+        return new ProtocolMessage(Type.BYE, UUID.randomUUID().toString(), username, null, null, null, null, null);
+    }
+
+    /** The high-water marks of a SYNC_REQ (carried in the text field). */
+    public String syncMarks() {
+        return type == Type.SYNC_REQ ? text : null;
+    }
+
+    /** The channel interest of a HELLO or SUBSCRIBE (carried in the text field), or "" when it has none. */
+    public String interest() {
+        return (type == Type.HELLO || type == Type.SUBSCRIBE) && text != null ? text : "";
+    }
+
+    /** The message ids listed by IHAVE or GRAFT (carried in the text field); empty for other types. */
+    public String[] messageIds() {
+        if ((type != Type.IHAVE && type != Type.GRAFT) || isEmpty(text)) return new String[0];
+        return text.split(",");
+    }
+
+    /** The clock reading of a PING or PONG, or -1 when absent or not a number. */
+    public long heartbeatNanos() {
+        if ((type != Type.PING && type != Type.PONG) || isEmpty(text)) return -1;
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** What a FILE_OFFER offers, or null for other types and malformed offers. */
+    public FileOffer fileOffer() {
+        if (type != Type.FILE_OFFER || isEmpty(text)) return null;
+        String[] f = text.split(",", 4);
+        if (f.length < 4 || f[3].isEmpty()) return null;
+        try {
+            return new FileOffer(Long.parseLong(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]), f[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Fields of a FILE_OFFER; the name is the sender's, not yet checked for path tricks. */
+    public record FileOffer(long size, int chunkBytes, int dataPort, String name) {}
+
+    public boolean hasCapability(String cap) {
+        if (capabilities == null || capabilities.isEmpty()) return false;
+        for (String c : capabilities.split(",")) {
+            if (c.trim().equals(cap)) return true;
+        }
+        return false;
+    }
+
+    /** The id as a UUID, or null when a peer sent something that is not one. */
+    public UUID uuid() {
+        UUID u = uuid;
+        if (u == null && id != null) {
+            try {
+                u = UUID.fromString(id);
+            } catch (IllegalArgumentException notUuid) {
+                return null;
+            }
+            uuid = u;
+        }
+        return u;
+    }
+
+    /**
+     * The wire frame for this message, encoded on first use and then reused, so a broadcast or
+     * forward to N peers serializes once. Falls back to the line frame when binary is not possible.
+     */
+    byte[] frame(boolean binary) {
+        if (binary) {
+            byte[] f = binaryFrame;
+            if (f == null) {
+                f = toBinary();
+                if (f != null) binaryFrame = f;
+            }
+            if (f != null) return f;
+        }
+        byte[] f = lineFrame;
+        if (f == null) {
+            f = (toLine() + "\n").getBytes(StandardCharsets.UTF_8);
+            lineFrame = f;
+        }
+        return f;
+    }
+
+    /**
+     * The binary frame deflated when it is at least {@code minBytes} long and gets smaller, otherwise
+     * the plain frame. Cached like {@link #frame}, so a message is compressed once however many links
+     * it goes out on.
+     */
+    byte[] compressedFrame(int minBytes) {
+        byte[] plain = frame(true);
+        if (plain[0] != BINARY_MAGIC || plain.length < minBytes) return plain;
+        byte[] f = deflatedFrame;
+        if (f == null) {
+            f = FrameCompressor.compress(plain);
+            if (f == null) f = plain;
+            deflatedFrame = f;
+        }
+        return f;
     }
 
     public String toLine() {
         return switch (type) {
-            case HELLO -> "HELLO|" + id + "|" + safe(username) + "|" + listenPort;
-            case MSG -> "MSG|" + id + "|" + safe(from) + "|" + safe(text);
+            case HELLO -> "HELLO|" + id + "|" + safe(username) + "|" + listenPort
+                    + (isEmpty(capabilities) && isEmpty(text) && origin == null ? "" : "|" + safe(capabilities))
+                    + (isEmpty(text) && origin == null ? "" : "|" + safe(text))
+                    + (origin == null ? "" : "|" + origin);
+            case MSG -> "MSG|" + id + "|" + safe(from) + "|" + escape(text)
+                    + (origin == null && channel == null ? "" : originFields())
+                    + (channel == null ? "" : "|" + channel);
             case PEERS_REQ -> "PEERS_REQ|" + id;
             case PEERS_RES -> "PEERS_RES|" + id + "|" + safe(peersCsv);
             case BYE -> "BYE|" + id + "|" + safe(username);
+            case SYNC_REQ -> "SYNC_REQ|" + id + "|" + safe(text);
+            case SYNC_MSG -> "SYNC_MSG|" + id + "|" + safe(from) + "|" + escape(text) + originFields();
+            case SYNC_END -> "SYNC_END|" + id;
+            case IHAVE -> "IHAVE|" + id + "|" + safe(text);
+            case GRAFT -> "GRAFT|" + id + "|" + safe(text);
+            case PRUNE -> "PRUNE|" + id;
+            case PING -> "PING|" + id + "|" + safe(text);
+            case PONG -> "PONG|" + id + "|" + safe(text);
+            case SUBSCRIBE -> "SUBSCRIBE|" + id + "|" + safe(text);
+            case DM -> "DM|" + id + "|" + safe(from) + "|" + escape(text) + "|" + safe(origin) + "|" + safe(target)
+                    + "|" + timestamp + "|" + hops;
+            case FILE_OFFER -> "FILE_OFFER|" + id + "|" + safe(from) + "|" + escape(text);
+            case FILE_CANCEL -> "FILE_CANCEL|" + id + "|" + safe(text);
         };
     }
 
+    /** Trailing fields; peers that predate them ignore extra fields. */
+    private String originFields() {
+        return "|" + safe(origin) + "|" + originSeq + "|" + timestamp;
+    }
+
     public static ProtocolMessage parse(String line) {
         if (line == null || line.isBlank()) throw new IllegalArgumentException("Empty protocol line");
-        String[] parts = line.split("\\|", -1);
+        String[] parts = splitFields(line);
         String rawType = parts[0].trim();
         Type type = Type.valueOf(rawType);
 
@@ -70,48 +407,297 @@ public final class ProtocolMessage {
                 String id = parts[1];
                 String username = parts[2];
                 int port = Integer.parseInt(parts[3]);
-                yield new ProtocolMessage(Type.HELLO, id, username, port, null, null, null);
+                String caps = parts.length > 4 ? parts[4] : "";
+                String interest = parts.length > 5 && !parts[5].isEmpty() ? parts[5] : null;
+                String nodeId = parts.length > 6 && !parts[6].isEmpty() ? parts[6] : null;
+                yield new ProtocolMessage(Type.HELLO, id, username, port, caps, null, interest, null, nodeId, 0, 0, null);
             }
-            case MSG -> {
-                if (parts.length < 4) throw new IllegalArgumentException("Invalid MSG: " + line);
+            case MSG, SYNC_MSG -> {
+                if (parts.length < (type == Type.MSG ? 4 : 7)) throw new IllegalArgumentException("Invalid " + type + ": " + line);
                 String id = parts[1];
                 String from = parts[2];
                 String text = unescape(parts[3]);
-                yield new ProtocolMessage(Type.MSG, id, null, null, from, text, null);
+                if (parts.length < 7) yield new ProtocolMessage(Type.MSG, id, null, null, null, from, text, null);
+                String origin = parts[4].isEmpty() ? null : parts[4];
+                String channel = type == Type.MSG && parts.length > 7 && !parts[7].isEmpty() ? parts[7] : null;
+                yield new ProtocolMessage(type, id, null, null, null, from, text, null,
+                        origin, Long.parseLong(parts[5]), Long.parseLong(parts[6]), channel);
             }
             case PEERS_REQ -> {
                 if (parts.length < 2) throw new IllegalArgumentException("Invalid PEERS_REQ: " + line);
-                yield new ProtocolMessage(Type.PEERS_REQ, parts[1], null, null, null, null, null);
+                yield new ProtocolMessage(Type.PEERS_REQ, parts[1], null, null, null, null, null, null);
             }
             case PEERS_RES -> {
                 if (parts.length < 3) throw new IllegalArgumentException("Invalid PEERS_RES: " + line);
-                yield new ProtocolMessage(Type.PEERS_RES, parts[1], null, null, null, null, parts[2]);
+                yield new ProtocolMessage(Type.PEERS_RES, parts[1], null, null, null, null, null, parts[2]);
             }
             case BYE -> {
                 if (parts.length < 3) throw new IllegalArgumentException("Invalid BYE: " + line);
-                yield new ProtocolMessage(Type.BYE, parts[1], parts[2], null, null, null, null);
+                yield new ProtocolMessage(Type.BYE, parts[1], parts[2], null, null, null, null, null);
+            }
+            case SYNC_REQ -> {
+                if (parts.length < 3) throw new IllegalArgumentException("Invalid SYNC_REQ: " + line);
+                yield new ProtocolMessage(Type.SYNC_REQ, parts[1], null, null, null, null, parts[2], null);
+            }
+            case SYNC_END -> {
+                if (parts.length < 2) throw new IllegalArgumentException("Invalid SYNC_END: " + line);
+                yield new ProtocolMessage(Type.SYNC_END, parts[1], null, null, null, null, null, null);
+            }
+            case IHAVE, GRAFT, PING, PONG, SUBSCRIBE -> {
+                if (parts.length < 3) throw new IllegalArgumentException("Invalid " + type + ": " + line);
+                yield new ProtocolMessage(type, parts[1], null, null, null, null, parts[2], null);
+            }
+            case PRUNE -> {
+                if (parts.length < 2) throw new IllegalArgumentException("Invalid PRUNE: " + line);
+                yield new ProtocolMessage(Type.PRUNE, parts[1], null, null, null, null, null, null);
+            }
+            case DM -> {
+                if (parts.length < 8 || parts[5].isEmpty()) throw new IllegalArgumentException("Invalid DM: " + line);
+                yield new ProtocolMessage(Type.DM, parts[1], null, null, null, parts[2], unescape(parts[3]), null,
+                        parts[4].isEmpty() ? null : parts[4], 0, Long.parseLong(parts[6]), null, parts[5], Integer.parseInt(parts[7]));
+            }
+            case FILE_OFFER -> {
+                if (parts.length < 4) throw new IllegalArgumentException("Invalid FILE_OFFER: " + line);
+                yield new ProtocolMessage(Type.FILE_OFFER, parts[1], null, null, null, parts[2], unescape(parts[3]), null);
+            }
+            case FILE_CANCEL -> {
+                if (parts.length < 3) throw new IllegalArgumentException("Invalid FILE_CANCEL: " + line);
+                yield new ProtocolMessage(Type.FILE_CANCEL, parts[1], null, null, null, null, parts[2], null);
             }
         };
     }
 
+    /**
+     * Binary frame: magic, int length of the rest, type byte, 16-byte id, then type-specific
+     * fields where strings are an int byte count followed by UTF-8.
+     *
+     * @return the encoded frame, or null if the id is not a UUID (the line form must be used then)
+     */
+    public byte[] toBinary() {
+        UUID u = uuid();
+        if (u == null) return null;
+
+        byte[] f1 = null, f2 = null, f3 = null, f4 = null;
+        int extra = 0;
+        boolean trailer = (origin != null || channel != null) && (type == Type.MSG || type == Type.SYNC_MSG);
+        switch (type) {
+            case HELLO -> {
+                f1 = utf8(username);
+                f2 = utf8(capabilities);
+                f3 = utf8(text);
+                f4 = utf8(origin);
+                // the interest goes out, empty if need be, whenever the node id follows it
+                extra = 4 + (f3 == null && f4 == null ? 0 : sized(f3)) + (f4 == null ? 0 : sized(f4));
+            }
+            case MSG, SYNC_MSG -> {
+                f1 = utf8(from);
+                f2 = utf8(text);
+                if (trailer) {
+                    f3 = utf8(origin);
+                    f4 = utf8(channel);
+                    extra = 16 + (f4 == null ? 0 : sized(f4)); // seq + timestamp, then the channel if any
+                }
+            }
+            case DM -> {
+                f1 = utf8(from);
+                f2 = utf8(text);
+                f3 = utf8(origin);
+                f4 = utf8(target);
+                extra = sized(f3) + sized(f4) + 12; // timestamp + hops
+            }
+            case FILE_OFFER -> {
+                f1 = utf8(from);
+                f2 = utf8(text);
+            }
+            case PEERS_RES -> f1 = utf8(peersCsv);
+            case BYE -> f1 = utf8(username);
+            case SYNC_REQ, IHAVE, GRAFT, PING, PONG, SUBSCRIBE, FILE_CANCEL -> f1 = utf8(text);
+            case PEERS_REQ, SYNC_END, PRUNE -> { }
+        }
+
+        int body = 1 + 16 + extra + sized(f1) + sized(f2) + (trailer ? sized(f3) : 0);
+        ByteBuffer buf = ByteBuffer.allocate(BINARY_HEADER + body);
+        buf.put(BINARY_MAGIC).putInt(body);
+        buf.put(type.code).putLong(u.getMostSignificantBits()).putLong(u.getLeastSignificantBits());
+        switch (type) {
+            case HELLO -> {
+                putString(buf, f1);
+                buf.putInt(listenPort == null ? -1 : listenPort);
+                putString(buf, f2);
+                if (f3 != null || f4 != null) putString(buf, f3);
+                if (f4 != null) putString(buf, f4);
+            }
+            case FILE_OFFER -> {
+                putString(buf, f1);
+                putString(buf, f2);
+            }
+            case MSG, SYNC_MSG -> {
+                putString(buf, f1);
+                putString(buf, f2);
+                // optional trailer; decoders that predate it stop at the end of the text
+                if (trailer) {
+                    putString(buf, f3);
+                    buf.putLong(originSeq).putLong(timestamp);
+                    if (f4 != null) putString(buf, f4);
+                }
+            }
+            case DM -> {
+                putString(buf, f1);
+                putString(buf, f2);
+                putString(buf, f3);
+                putString(buf, f4);
+                buf.putLong(timestamp).putInt(hops);
+            }
+            case PEERS_RES, BYE, SYNC_REQ, IHAVE, GRAFT, PING, PONG, SUBSCRIBE, FILE_CANCEL -> putString(buf, f1);
+            case PEERS_REQ, SYNC_END, PRUNE -> { }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Decodes the body of one binary frame (everything after magic and length).
+     * Strings are built straight from {@code frame}'s backing array when it has one, otherwise via {@code scratch}.
+     */
+    static ProtocolMessage readBinary(ByteBuffer frame, byte[] scratch) {
+        Type type = Type.fromCode(frame.get());
+        UUID u = new UUID(frame.getLong(), frame.getLong());
+        String id = u.toString();
+
+        ProtocolMessage msg = switch (type) {
+            case HELLO -> {
+                String username = getString(frame, scratch);
+                int port = frame.getInt();
+                String caps = getString(frame, scratch);
+                String interest = frame.hasRemaining() ? getString(frame, scratch) : "";
+                String nodeId = frame.hasRemaining() ? getString(frame, scratch) : "";
+                yield new ProtocolMessage(type, id, username, port, caps, null, interest.isEmpty() ? null : interest, null,
+                        nodeId.isEmpty() ? null : nodeId, 0, 0, null);
+            }
+            case MSG, SYNC_MSG -> {
+                String from = getString(frame, scratch);
+                String text = getString(frame, scratch);
+                if (!frame.hasRemaining()) {
+                    if (type == Type.SYNC_MSG) throw new IllegalArgumentException("SYNC_MSG without origin");
+                    yield new ProtocolMessage(type, id, null, null, null, from, text, null);
+                }
+                String origin = getString(frame, scratch);
+                long seq = frame.getLong();
+                long timestamp = frame.getLong();
+                String channel = type == Type.MSG && frame.hasRemaining() ? getString(frame, scratch) : "";
+                yield new ProtocolMessage(type, id, null, null, null, from, text, null,
+                        origin.isEmpty() ? null : origin, seq, timestamp, channel.isEmpty() ? null : channel);
+            }
+            case PEERS_REQ -> new ProtocolMessage(type, id, null, null, null, null, null, null);
+            case PEERS_RES -> new ProtocolMessage(type, id, null, null, null, null, null, getString(frame, scratch));
+            case BYE -> new ProtocolMessage(type, id, getString(frame, scratch), null, null, null, null, null);
+            case SYNC_REQ, IHAVE, GRAFT, PING, PONG, SUBSCRIBE, FILE_CANCEL -> new ProtocolMessage(type, id, null, null, null, null, getString(frame, scratch), null);
+            case FILE_OFFER -> {
+                String from = getString(frame, scratch);
+                yield new ProtocolMessage(type, id, null, null, null, from, getString(frame, scratch), null);
+            }
+            case SYNC_END, PRUNE -> new ProtocolMessage(type, id, null, null, null, null, null, null);
+            case DM -> {
+                String from = getString(frame, scratch);
+                String text = getString(frame, scratch);
+                String origin = getString(frame, scratch);
+                String target = getString(frame, scratch);
+                if (target.isEmpty()) throw new IllegalArgumentException("DM without target");
+                yield new ProtocolMessage(type, id, null, null, null, from, text, null, origin.isEmpty() ? null : origin, 0,
+                        frame.getLong(), null, target, frame.getInt());
+            }
+        };
+        msg.uuid = u;
+        return msg;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null || s.isEmpty() ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sized(byte[] b) {
+        return 4 + (b == null ? 0 : b.length);
+    }
+
+    private static void putString(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putInt(0);
+        } else {
+            buf.putInt(b.length).put(b);
+        }
+    }
+
+    private static String getString(ByteBuffer buf, byte[] scratch) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new IllegalArgumentException("Invalid string length: " + len);
+        if (len == 0) return "";
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+        } else {
+            byte[] tmp = len <= scratch.length ? scratch : new byte[len];
+            buf.get(tmp, 0, len);
+            s = new String(tmp, 0, len, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    /** Splits on '|' that is not escaped by a backslash; escapes are kept for {@link #unescape}. */
+    private static String[] splitFields(String line) {
+        int count = 1;
+        boolean escaping = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (escaping) escaping = false;
+            else if (c == '\\') escaping = true;
+            else if (c == '|') count++;
+        }
+
+        String[] out = new String[count];
+        int field = 0;
+        int start = 0;
+        escaping = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (escaping) escaping = false;
+            else if (c == '\\') escaping = true;
+            else if (c == '|') {
+                out[field++] = line.substring(start, i);
+                start = i + 1;
+            }
+        }
+        out[field] = line.substring(start);
+        return out;
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    /** Unescaped fields; a line break from a binary frame must not end the line early. */
     private static String safe(String s) {
-        return s == null ? "" : s;
+        if (s == null) return "";
+        if (s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+        return s.replace('\n', ' ').replace('\r', ' ');
     }
 
+    /** Backslash, pipe and line breaks; text from binary frames may hold any of them. */
     private static String escape(String s) {
         if (s == null) return "";
-        // Escape backslash first, then pipe
-        return s.replace("\\", "\\\\").replace("|", "\\|");
+        if (s.indexOf('\\') < 0 && s.indexOf('|') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+        // Escape backslash first, then pipe and line breaks
+        return s.replace("\\", "\\\\").replace("|", "\\|").replace("\n", "\\n").replace("\r", "\\r");
     }
 
     private static String unescape(String s) {
         if (s == null) return "";
-        StringBuilder out = new StringBuilder();
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder out = new StringBuilder(s.length());
         boolean escaping = false;
         for (int i = 0; i < s.length(); i++) {
             char c = s.charAt(i);
             if (escaping) {
-                out.append(c);
+                out.append(c == 'n' ? '\n' : c == 'r' ? '\r' : c);
                 escaping = false;
             } else if (c == '\\') {
                 escaping = true;
@@ -0,0 +1,30 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+
+/** State of the DM routing table, see {@link DirectRouter}. */
+public final class RoutingStats {
+    /** This node's id, which DMs are addressed to. */
+    public final String nodeId;
+    public final int contacts;
+    /** Buckets with a contact or a link. */
+    public final int buckets;
+    /** Buckets reachable over a link of their own; greedy routing needs every populated one. */
+    public final int linkedBuckets;
+    /** Connected peers that relay DMs. */
+    public final int routingLinks;
+
+    RoutingStats(String nodeId, int contacts, int buckets, int linkedBuckets, int routingLinks) {
+        this.nodeId = nodeId;
+        this.contacts = contacts;
+        this.buckets = buckets;
+        this.linkedBuckets = linkedBuckets;
+        this.routingLinks = routingLinks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "id %s: %d contatos em %d buckets, %d buckets com link, %d links de roteamento",
+                nodeId, contacts, buckets, linkedBuckets, routingLinks);
+    }
+}
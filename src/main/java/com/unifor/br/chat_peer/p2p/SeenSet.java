@@ -0,0 +1,182 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free duplicate filter for 128-bit message ids, stored as two primitive longs.
+ * <p>
+ * Ids live in a small ring of time-bucketed generations; each generation is an open-addressing
+ * table filled with CAS, so concurrent readers never share a lock. The newest generation takes
+ * inserts, older ones are only probed, and the oldest is dropped wholesale when the ring rotates
+ * (every {@code retention / generations} ms, or early when the newest table is too full). An
+ * insert that finds its generation demoted by a rotation meanwhile is repeated in the new head,
+ * where it meets any concurrent insert of the same id, so exactly one of them reports it new.
+ * Memory is fixed up front by the byte budget. The value 0 is reserved as "empty"; random UUIDs
+ * never have a zero half, and other ids are remapped.
+ */
+public final class SeenSet {
+
+    private static final int MAX_PROBES = 32;
+
+    private final long generationMillis;
+    private final int slotsPerGeneration;
+    private final AtomicReference<Generation[]> ring;
+
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder earlyRotations = new LongAdder();
+
+    /**
+     * @param memoryBudgetBytes total bytes for all id slots (16 bytes per slot)
+     * @param retentionMillis   how long an id is remembered at least, memory permitting
+     * @param generations       number of time buckets; more buckets expire more smoothly
+     */
+    public SeenSet(long memoryBudgetBytes, long retentionMillis, int generations) {
+        if (generations < 2) throw new IllegalArgumentException("generations must be >= 2");
+        if (retentionMillis <= 0) throw new IllegalArgumentException("retentionMillis must be > 0");
+        long perGeneration = Math.max(64, memoryBudgetBytes / 16 / generations);
+        this.slotsPerGeneration = Integer.highestOneBit((int) Math.min(1 << 30, perGeneration));
+        this.generationMillis = Math.max(1, retentionMillis / generations);
+
+        Generation[] initial = new Generation[generations];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < generations; i++) initial[i] = new Generation(slotsPerGeneration, now);
+        this.ring = new AtomicReference<>(initial);
+    }
+
+    /** Records the id and returns true if it was not seen within the retention window. */
+    public boolean markIfAbsent(long msb, long lsb) {
+        long hi = msb == 0 ? Long.MIN_VALUE : msb;
+        long lo = lsb == 0 ? Long.MIN_VALUE : lsb;
+        int hash = spread(hi, lo);
+
+        Generation[] gens = current();
+        for (int g = 1; g < gens.length; g++) {
+            if (gens[g].contains(hi, lo, hash)) return false;
+        }
+        for (;;) {
+            Generation head = gens[0];
+            int r = head.insert(hi, lo, hash);
+            if (r == Generation.PRESENT) return false;
+            if (r == Generation.FULL) {
+                earlyRotations.increment();
+                gens = rotate(gens, System.currentTimeMillis());
+                continue;
+            }
+            // a reader that probed the rotated ring before our insert landed went on to the new head
+            gens = ring.get();
+            if (gens[0] == head) return true;
+        }
+    }
+
+    public boolean markIfAbsent(UUID id) {
+        return markIfAbsent(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /** For ids that are not UUIDs: hashed into 128 bits first. */
+    public boolean markIfAbsent(String id) {
+        return markIfAbsent(UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public boolean contains(long msb, long lsb) {
+        long hi = msb == 0 ? Long.MIN_VALUE : msb;
+        long lo = lsb == 0 ? Long.MIN_VALUE : lsb;
+        int hash = spread(hi, lo);
+        for (Generation g : current()) {
+            if (g.contains(hi, lo, hash)) return true;
+        }
+        return false;
+    }
+
+    /** Id slots across all generations. */
+    public int capacity() { return slotsPerGeneration * ring.get().length; }
+
+    public long rotations() { return rotations.sum(); }
+
+    /** Rotations forced by a full table rather than by time: a sign the budget is too small for the traffic. */
+    public long earlyRotations() { return earlyRotations.sum(); }
+
+    private Generation[] current() {
+        Generation[] gens = ring.get();
+        long now = System.currentTimeMillis();
+        if (now - gens[0].startMillis >= generationMillis) {
+            gens = rotate(gens, now);
+        }
+        return gens;
+    }
+
+    /** Pushes a fresh generation in front and drops the oldest; losers of the CAS adopt the winner's ring. */
+    private Generation[] rotate(Generation[] expected, long now) {
+        Generation[] next = new Generation[expected.length];
+        next[0] = new Generation(slotsPerGeneration, now);
+        System.arraycopy(expected, 0, next, 1, expected.length - 1);
+        if (ring.compareAndSet(expected, next)) {
+            rotations.increment();
+            return next;
+        }
+        return ring.get();
+    }
+
+    private static int spread(long hi, long lo) {
+        long h = hi ^ (lo * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /** One time bucket: linear-probing table of (hi, lo) pairs interleaved in one array, insert-only. */
+    private static final class Generation {
+        static final int INSERTED = 0, PRESENT = 1, FULL = 2;
+
+        final long startMillis;
+        final int mask;
+        /** slot i holds hi at 2i and lo at 2i+1, so a probe touches a single cache line */
+        final AtomicLongArray slots;
+
+        Generation(int slots, long startMillis) {
+            this.startMillis = startMillis;
+            this.mask = slots - 1;
+            this.slots = new AtomicLongArray(slots * 2);
+        }
+
+        int insert(long hi, long lo, int hash) {
+            for (int p = 0; p < MAX_PROBES; p++) {
+                int i = ((hash + p) & mask) << 1;
+                long cur = slots.get(i);
+                if (cur == 0) {
+                    if (slots.compareAndSet(i, 0, hi)) {
+                        slots.set(i + 1, lo);
+                        return INSERTED;
+                    }
+                    cur = slots.get(i);
+                }
+                if (cur == hi && lowMatches(i + 1, lo)) return PRESENT;
+            }
+            return FULL;
+        }
+
+        boolean contains(long hi, long lo, int hash) {
+            for (int p = 0; p < MAX_PROBES; p++) {
+                int i = ((hash + p) & mask) << 1;
+                long cur = slots.get(i);
+                if (cur == 0) return false;
+                if (cur == hi && lowMatches(i + 1, lo)) return true;
+            }
+            return false;
+        }
+
+        /** The low half is published right after the CAS on the high half; wait out that tiny window. */
+        private boolean lowMatches(int i, long lo) {
+            long l;
+            for (int spins = 0; (l = slots.get(i)) == 0; spins++) {
+                if (spins < 64) Thread.onSpinWait();
+                else Thread.yield(); // writer got descheduled between the two stores
+            }
+            return l == lo;
+        }
+    }
+}
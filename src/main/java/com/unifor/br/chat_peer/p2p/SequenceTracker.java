@@ -0,0 +1,141 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Which per-origin sequence numbers this node holds: for every origin a contiguous prefix
+ * {@code 1..mark} plus the few numbers received above it out of order. The marks are what a
+ * SYNC_REQ advertises, so a catch-up resumes from whatever was applied before a disconnect.
+ * <p>
+ * Every node run is a new origin and peers may name any origin they like, so at most
+ * {@link #MAX_ORIGINS} are tracked: past that the ones that have been idle longest are forgotten,
+ * and a SYNC_REQ carries the marks of the {@link #MAX_MARKS} most recently active ones. A forgotten
+ * origin's messages may be streamed again; they are then dropped as duplicates by id.
+ */
+final class SequenceTracker {
+
+    /** Out-of-order numbers kept per origin before the oldest gap is given up on. */
+    private static final int MAX_AHEAD = 4096;
+    static final int MAX_ORIGINS = 4096;
+    static final int MAX_MARKS = 1024;
+
+    private final ConcurrentMap<String, Origin> origins = new ConcurrentHashMap<>();
+    /** Logical clock of records, for telling which origins have been idle longest. */
+    private final AtomicLong ticks = new AtomicLong();
+
+    /** Records {@code (origin, seq)}; false if it was already held. */
+    boolean record(String origin, long seq) {
+        if (origin == null || seq <= 0) return true;
+        Origin o = origins.get(origin);
+        if (o == null) {
+            o = origins.computeIfAbsent(origin, k -> new Origin());
+            if (origins.size() > MAX_ORIGINS) evictIdle();
+        }
+        o.touched = ticks.incrementAndGet();
+        return o.record(seq);
+    }
+
+    long mark(String origin) {
+        Origin o = origins.get(origin);
+        return o == null ? 0 : o.mark();
+    }
+
+    int origins() { return origins.size(); }
+
+    /**
+     * Called once peers finished streaming everything they had of {@code origin}, up to
+     * {@code upTo} at most: gaps at or below it cannot be filled from there, so the mark jumps
+     * over them instead of asking again forever.
+     */
+    void settle(String origin, long upTo) {
+        Origin o = origins.get(origin);
+        if (o != null) o.settle(upTo);
+    }
+
+    /** {@code origin:mark} pairs of the most recently active origins, comma-separated. */
+    String marksCsv() {
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (Activity a : byActivity(true)) {
+            long mark = a.origin.mark();
+            if (mark == 0) continue;
+            if (n++ == MAX_MARKS) break;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(a.name).append(':').append(mark);
+        }
+        return sb.toString();
+    }
+
+    /** Forgets the longest-idle origins down to 7/8 of the cap, so the scan is paid once per many new ones. */
+    private synchronized void evictIdle() {
+        if (origins.size() <= MAX_ORIGINS) return;
+        List<Activity> idle = byActivity(false);
+        for (int i = 0; i < idle.size() && origins.size() > MAX_ORIGINS - MAX_ORIGINS / 8; i++) {
+            origins.remove(idle.get(i).name, idle.get(i).origin);
+        }
+    }
+
+    /** Origins ordered by when they were last recorded, as of the call. */
+    private List<Activity> byActivity(boolean newestFirst) {
+        List<Activity> all = new ArrayList<>(origins.size());
+        for (Map.Entry<String, Origin> e : origins.entrySet()) {
+            all.add(new Activity(e.getKey(), e.getValue(), e.getValue().touched));
+        }
+        Comparator<Activity> order = Comparator.comparingLong(Activity::touched);
+        all.sort(newestFirst ? order.reversed() : order);
+        return all;
+    }
+
+    private record Activity(String name, Origin origin, long touched) {}
+
+    static Map<String, Long> parseMarks(String csv) {
+        Map<String, Long> out = new HashMap<>();
+        if (csv == null || csv.isBlank()) return out;
+        for (String pair : csv.split(",")) {
+            int colon = pair.lastIndexOf(':');
+            if (colon <= 0) continue;
+            try {
+                out.put(pair.substring(0, colon).trim(), Long.parseLong(pair.substring(colon + 1).trim()));
+            } catch (NumberFormatException ignored) {
+                // skip the malformed pair, keep the rest
+            }
+        }
+        return out;
+    }
+
+    private static final class Origin {
+        volatile long touched;
+        private long contiguous;
+        private final TreeSet<Long> ahead = new TreeSet<>();
+
+        synchronized long mark() { return contiguous; }
+
+        synchronized boolean record(long seq) {
+            if (seq <= contiguous || !ahead.add(seq)) return false;
+            if (ahead.size() > MAX_AHEAD) contiguous = ahead.first() - 1;
+            drain();
+            return true;
+        }
+
+        synchronized void settle(long upTo) {
+            contiguous = Math.max(contiguous, upTo);
+            ahead.headSet(contiguous, true).clear();
+            drain();
+        }
+
+        private void drain() {
+            while (!ahead.isEmpty() && ahead.first() <= contiguous + 1) {
+                contiguous = Math.max(contiguous, ahead.pollFirst());
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Deterministic discrete-event network for running thousands of {@link PeerNode}s in one thread.
+ * <p>
+ * Every node started with {@code config.network(sim)} gets a virtual host ({@code 10.x.y.z}) and
+ * a {@link SimTransport}; frames, connects and closes become events on one virtual clock, and so
+ * do the nodes' timers (gossip, dialing, sync, heartbeats), which run through {@link #newScheduler}.
+ * Nothing happens until the caller advances time with {@link #runFor} or {@link #runUntil}; events
+ * then run on the calling thread in (time, insertion) order. Links behave like TCP: frames arrive
+ * in order after {@link #latencyMillis} plus up to {@link #jitterMillis}, a "lost" frame is
+ * retransmitted {@link #retransmitMillis} later (holding back the ones behind it), and each host's
+ * uplink serializes what it sends at {@link #bandwidthBytesPerSecond}.
+ * <p>
+ * The network draws all its randomness from the seed, so a run repeats exactly as long as the
+ * nodes do too: explicit connects and {@link PeerConfig.ForwardMode#FLOOD} replay exactly (under a
+ * bandwidth cap only up to compressed frame sizes, which follow the random message ids), while
+ * auto-connect shuffles candidates and the broadcast tree iterates identity-keyed maps on its own.
+ * Wall-clock state (message timestamps, dedup retention) is untouched; multicast discovery is not
+ * simulated, peer exchange is.
+ */
+public final class SimNetwork implements Network {
+
+    /** Virtual time starts here rather than at 0, which some callers treat as "unset". */
+    private static final long EPOCH_NANOS = 1_000_000_000L;
+
+    private final Random rnd;
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private final Map<PeerAddress, SimTransport> listeners = new ConcurrentHashMap<>();
+    private long seq;
+    private int hosts;
+    private volatile long now = EPOCH_NANOS;
+
+    private long latencyNanos = 5_000_000;
+    private long jitterNanos;
+    private double loss;
+    private long retransmitNanos = 200_000_000;
+    private long bandwidth;
+
+    private long events;
+    private long framesDelivered;
+    private long bytesDelivered;
+    private long retransmits;
+    private long taskFailures;
+
+    public SimNetwork(long seed) {
+        this.rnd = new Random(seed);
+    }
+
+    /** One-way delay of every frame. */
+    public SimNetwork latencyMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("latency must be >= 0");
+        this.latencyNanos = millis * 1_000_000;
+        return this;
+    }
+
+    /** Extra delay drawn uniformly from {@code [0, millis]} per frame; order per link is kept. */
+    public SimNetwork jitterMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("jitter must be >= 0");
+        this.jitterNanos = millis * 1_000_000;
+        return this;
+    }
+
+    /** Probability that a frame is lost once and arrives only after a retransmission. */
+    public SimNetwork loss(double probability) {
+        if (probability < 0 || probability >= 1) throw new IllegalArgumentException("loss must be in [0, 1)");
+        this.loss = probability;
+        return this;
+    }
+
+    public SimNetwork retransmitMillis(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("retransmit must be >= 1");
+        this.retransmitNanos = millis * 1_000_000;
+        return this;
+    }
+
+    /** Uplink capacity of every host; 0 = unlimited. */
+    public SimNetwork bandwidthBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("bandwidth must be >= 0");
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    @Override
+    public Transport open(PeerNode node) {
+        int id;
+        synchronized (this) {
+            id = ++hosts;
+        }
+        String host = "10." + (id >>> 16 & 0xFF) + "." + (id >>> 8 & 0xFF) + "." + (id & 0xFF);
+        return new SimTransport(this, node, host);
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduler(String threadName) {
+        return new Scheduler();
+    }
+
+    @Override
+    public long nanoTime() { return now; }
+
+    /** Virtual milliseconds elapsed since the network was created. */
+    public long nowMillis() { return (now - EPOCH_NANOS) / 1_000_000; }
+
+    /** Runs every event due within the next {@code millis} of virtual time. */
+    public void runFor(long millis) {
+        advanceTo(now + millis * 1_000_000);
+    }
+
+    /** Runs every event due up to the virtual instant {@code nanoTime} (as read from {@link #nanoTime()}). */
+    public void advanceTo(long nanoTime) {
+        while (step(nanoTime)) {
+            // next event
+        }
+        now = Math.max(now, nanoTime);
+    }
+
+    /**
+     * Runs events until {@code done} holds (checked after each one) or {@code maxMillis} of
+     * virtual time have passed; returns whether the condition was met.
+     */
+    public boolean runUntil(BooleanSupplier done, long maxMillis) {
+        long until = now + maxMillis * 1_000_000;
+        if (done.getAsBoolean()) return true;
+        while (step(until)) {
+            if (done.getAsBoolean()) return true;
+        }
+        now = Math.max(now, until);
+        return done.getAsBoolean();
+    }
+
+    private boolean step(long until) {
+        Event e;
+        synchronized (this) {
+            e = queue.peek();
+            if (e == null || e.time > until) return false;
+            queue.poll();
+        }
+        if (e.isCancelled()) return true;
+        now = e.time;
+        events++;
+        e.fire();
+        return true;
+    }
+
+    public long eventsProcessed() { return events; }
+
+    public long framesDelivered() { return framesDelivered; }
+
+    public long bytesDelivered() { return bytesDelivered; }
+
+    /** Frames that were "lost" and arrived a retransmission timeout late. */
+    public long retransmits() { return retransmits; }
+
+    /** Timer tasks that threw; the simulation keeps going. */
+    public long taskFailures() { return taskFailures; }
+
+    /** Events waiting, timers included. */
+    public synchronized int pendingEvents() { return queue.size(); }
+
+    synchronized Event schedule(long delayNanos, Runnable task) {
+        return enqueue(new Event(now + Math.max(0, delayNanos), Executors.callable(task), 0, null));
+    }
+
+    private synchronized Event enqueue(Event e) {
+        e.seq = seq++;
+        queue.add(e);
+        return e;
+    }
+
+    long latencyNanos() { return latencyNanos; }
+
+    void listen(PeerAddress addr, SimTransport transport) {
+        if (listeners.putIfAbsent(addr, transport) != null) throw new IllegalStateException("address in use: " + addr);
+    }
+
+    void unlisten(PeerAddress addr, SimTransport transport) {
+        listeners.remove(addr, transport);
+    }
+
+    SimTransport listener(PeerAddress addr) {
+        return listeners.get(addr);
+    }
+
+    /**
+     * Puts one frame on the wire from {@code from}'s host and returns when it is fully received:
+     * uplink serialization, then propagation delay, never before the link's previous frame.
+     */
+    long arrival(SimTransport from, SimPeerConnection link, int bytes) {
+        long start = Math.max(now, from.uplinkFreeAt);
+        long sent = bandwidth == 0 ? start : start + bytes * 1_000_000_000L / bandwidth;
+        from.uplinkFreeAt = sent;
+        long at = sent + latencyNanos;
+        synchronized (this) {
+            if (jitterNanos > 0) at += (long) (rnd.nextDouble() * jitterNanos);
+            if (loss > 0 && rnd.nextDouble() < loss) {
+                at += retransmitNanos;
+                retransmits++;
+            }
+        }
+        at = Math.max(at, link.lastArrival);
+        link.lastArrival = at;
+        return at;
+    }
+
+    void delivered(int bytes) {
+        framesDelivered++;
+        bytesDelivered += bytes;
+    }
+
+    /**
+     * A timer task or frame delivery; also the {@link ScheduledFuture} handed out by the schedulers.
+     * As in the JDK scheduler, a positive period repeats at a fixed rate and a negative one with a
+     * fixed delay.
+     */
+    final class Event implements ScheduledFuture<Object> {
+        long time;
+        long seq;
+        private final Callable<?> task;
+        private final long periodNanos;
+        private final Scheduler owner;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Object result;
+        private volatile Exception failure;
+
+        Event(long time, Callable<?> task, long periodNanos, Scheduler owner) {
+            this.time = time;
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.owner = owner;
+        }
+
+        void fire() {
+            if (owner != null && owner.shutdown) {
+                cancelled = true;
+                return;
+            }
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                taskFailures++;
+                failure = e;
+                done = true; // a periodic task that throws is not run again, as with the JDK scheduler
+                return;
+            }
+            if (periodNanos != 0 && !cancelled) {
+                // fixed rate counts from when this run was due, fixed delay from when it ended
+                time = periodNanos > 0 ? time + periodNanos : now - periodNanos;
+                enqueue(this);
+            } else {
+                done = true;
+            }
+        }
+
+        @Override public long getDelay(TimeUnit unit) { return unit.convert(time - now, TimeUnit.NANOSECONDS); }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Event e = (Event) o;
+            int c = Long.compare(time, e.time);
+            return c != 0 ? c : Long.compare(seq, e.seq);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) return false;
+            cancelled = true;
+            return true;
+        }
+
+        @Override public boolean isCancelled() { return cancelled; }
+
+        @Override public boolean isDone() { return done || cancelled; }
+
+        /**
+         * The simulation never blocks: only a finished task has a result, and asking earlier throws
+         * {@link IllegalStateException} instead of waiting for time that only the caller can advance.
+         */
+        @Override
+        public Object get() throws ExecutionException {
+            if (cancelled) throw new CancellationException();
+            if (!done) throw new IllegalStateException("task has not run yet; advance the simulation");
+            if (failure != null) throw new ExecutionException(failure);
+            return result;
+        }
+
+        @Override public Object get(long timeout, TimeUnit unit) throws ExecutionException { return get(); }
+    }
+
+    /**
+     * One component's timers on the virtual clock; shutting it down drops its pending tasks. Every
+     * {@link ScheduledExecutorService} method works, but the futures' {@code get} never waits, see
+     * {@link Event#get()}.
+     */
+    private final class Scheduler extends AbstractExecutorService implements ScheduledExecutorService {
+        private volatile boolean shutdown;
+
+        private Event add(long delayNanos, Callable<?> task, long periodNanos) {
+            if (shutdown) throw new RejectedExecutionException("scheduler shut down");
+            return enqueue(new Event(now + Math.max(0, delayNanos), task, periodNanos, this));
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return add(unit.toNanos(delay), Executors.callable(command), 0);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return (ScheduledFuture<V>) (ScheduledFuture<?>) add(unit.toNanos(delay), callable, 0);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0) throw new IllegalArgumentException("period must be > 0");
+            return add(unit.toNanos(initialDelay), Executors.callable(command), unit.toNanos(period));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            if (delay <= 0) throw new IllegalArgumentException("delay must be > 0");
+            return add(unit.toNanos(initialDelay), Executors.callable(command), -unit.toNanos(delay));
+        }
+
+        @Override public void execute(Runnable command) { add(0, Executors.callable(command), 0); }
+
+        @Override public void shutdown() { shutdown = true; }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>();
+        }
+
+        @Override public boolean isShutdown() { return shutdown; }
+
+        @Override public boolean isTerminated() { return shutdown; }
+
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) { return shutdown; }
+    }
+}
@@ -0,0 +1,78 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * One end of a {@link SimNetwork} link. Sending drains the outbound queue straight onto the
+ * virtual wire; each frame becomes a delivery event on {@link #peer}, whose decoder then runs on
+ * the simulation thread exactly as a socket reader would.
+ */
+final class SimPeerConnection extends PeerConnection {
+
+    private final SimTransport transport;
+    private final String remoteHost;
+    private final int remotePort;
+
+    /** The other end; set once both exist. */
+    SimPeerConnection peer;
+    /** Arrival time of the last frame sent on this link, so later frames never overtake it. */
+    long lastArrival;
+
+    SimPeerConnection(PeerNode node, SimTransport transport, String remoteHost, int remotePort) {
+        super(node);
+        this.transport = transport;
+        this.remoteHost = remoteHost;
+        this.remotePort = remotePort;
+    }
+
+    @Override public String remoteHost() { return remoteHost; }
+
+    @Override public int remotePort() { return remotePort; }
+
+    /** Everything runs on the simulation thread, which must never wait. */
+    @Override
+    boolean mayBlock() { return false; }
+
+    @Override
+    void scheduleFlush() {
+        SimNetwork net = transport.network();
+        byte[] frame;
+        int frames = 0;
+        while ((frame = outbound.poll()) != null) {
+            node.metrics().bytesOut.add(frame.length);
+            byte[] f = frame;
+            SimPeerConnection to = peer;
+            net.schedule(net.arrival(transport, this, f.length) - net.nanoTime(), () -> to.receive(f));
+            frames++;
+        }
+        if (frames > 0) node.metrics().batchFrames.record(frames);
+    }
+
+    private void receive(byte[] frame) {
+        if (closed.get()) return;
+        transport.network().delivered(frame.length);
+        node.metrics().bytesIn.add(frame.length);
+        if (!decoder.feed(ByteBuffer.wrap(frame).asReadOnlyBuffer())) {
+            close();
+        }
+    }
+
+    /** Frames still held for a batch go on the wire first; the FIN follows them. */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        scheduleFlush();
+        SimNetwork net = transport.network();
+        SimPeerConnection to = peer;
+        long at = Math.max(lastArrival, net.nanoTime() + net.latencyNanos());
+        lastArrival = at;
+        net.schedule(at - net.nanoTime(), to::remoteClosed);
+        node.unregisterConnection(this);
+    }
+
+    private void remoteClosed() {
+        if (!closed.compareAndSet(false, true)) return;
+        node.unregisterConnection(this);
+    }
+}
@@ -0,0 +1,104 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.Closeable;
+import java.net.ConnectException;
+
+
+/**
+ * One node's virtual host on a {@link SimNetwork}. A connect reaches the listener one latency
+ * later (or comes back refused), and the dialer learns it is connected one round trip after it
+ * started, like a TCP handshake.
+ */
+final class SimTransport implements Transport {
+
+    private final SimNetwork net;
+    private final PeerNode node;
+    private final String host;
+    private PeerAddress listening;
+    private int nextEphemeralPort = 49152;
+    private volatile boolean closed;
+
+    /** When this host's uplink finishes sending what it has queued, in virtual nanos. */
+    long uplinkFreeAt;
+
+    SimTransport(SimNetwork net, PeerNode node, String host) {
+        this.net = net;
+        this.node = node;
+        this.host = host;
+    }
+
+    @Override
+    public String localHost() { return host; }
+
+    SimNetwork network() { return net; }
+
+    PeerNode node() { return node; }
+
+    /** Every virtual host has its own port space; port 0 picks 5000. */
+    @Override
+    public int bind(int port) {
+        int p = port == 0 ? 5000 : port;
+        PeerAddress addr = new PeerAddress(host, p);
+        net.listen(addr, this);
+        listening = addr;
+        return p;
+    }
+
+    @Override
+    public Closeable connect(PeerAddress addr) {
+        Dial dial = new Dial();
+        int localPort = nextEphemeralPort();
+        long latency = net.latencyNanos();
+        net.schedule(latency, () -> {
+            if (dial.aborted || closed) return;
+            SimTransport target = net.listener(addr.canonical());
+            if (target == null || target.closed) {
+                net.schedule(latency, () -> {
+                    if (!dial.aborted) node.connectFailed(addr.host, addr.port, new ConnectException("Connection refused"));
+                });
+                return;
+            }
+            SimPeerConnection client = new SimPeerConnection(node, this, target.host, addr.port);
+            SimPeerConnection server = new SimPeerConnection(target.node, target, host, localPort);
+            client.peer = server;
+            server.peer = client;
+            // scheduled before the server's HELLO goes out, so the dialer is attached when it arrives
+            net.schedule(latency, () -> {
+                if (dial.aborted || closed || !node.isRunning()) {
+                    client.close();
+                    return;
+                }
+                node.attachOutbound(client, addr.host, addr.port);
+            });
+            target.node.attachInbound(server);
+        });
+        return dial;
+    }
+
+    private synchronized int nextEphemeralPort() {
+        int p = nextEphemeralPort++;
+        if (nextEphemeralPort > 65535) nextEphemeralPort = 49152;
+        return p;
+    }
+
+    @Override
+    public boolean isLocal(PeerAddress addr) {
+        return addr.isLoopback() || addr.canonical().host.equals(host);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (listening != null) net.unlisten(listening, this);
+    }
+
+    @Override
+    public String toString() { return "SIM " + host; }
+
+    /** Handle the dialer closes to abandon a connect (timeout or shutdown). */
+    private static final class Dial implements Closeable {
+        volatile boolean aborted;
+
+        @Override public void close() { aborted = true; }
+    }
+}
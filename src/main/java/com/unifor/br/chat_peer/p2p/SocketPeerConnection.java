@@ -0,0 +1,129 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Blocking connection: one {@link Socket}, read by a dedicated thread through the {@link FrameDecoder}.
+ * Writes are done by a short-lived writer task that drains the outbound queue and flushes once.
+ * Closing hands the last flush to that writer too, which then closes the socket.
+ */
+public final class SocketPeerConnection extends PeerConnection {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    /** How long a closing link may spend flushing what is queued before the socket is closed anyway. */
+    static final long CLOSE_FLUSH_MILLIS = 2000;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Executor writerPool;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    SocketPeerConnection(PeerNode node, Socket socket, Executor writerPool) throws IOException {
+        super(node);
+        this.socket = socket;
+        this.writerPool = writerPool;
+        this.in = socket.getInputStream();
+        this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+    }
+
+    public Socket socket() { return socket; }
+
+    @Override public String remoteHost() { return socket.getInetAddress().getHostAddress(); }
+
+    @Override public int remotePort() { return socket.getPort(); }
+
+    @Override
+    void scheduleFlush() {
+        if (!writing.compareAndSet(false, true)) return;
+        try {
+            writerPool.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            writing.set(false);
+        }
+    }
+
+    /**
+     * Writer task: coalesce everything queued into one flush, then exit until the next enqueue.
+     * Once the link is closed it closes the socket behind the last flush.
+     */
+    private void drain() {
+        try {
+            do {
+                writeQueued();
+                writing.set(false);
+            } while (!outbound.isEmpty() && writing.compareAndSet(false, true));
+        } catch (IOException e) {
+            writing.set(false);
+            closed.set(true);
+            closeSocket();
+            return;
+        }
+        if (closed.get()) closeSocket();
+    }
+
+    private void writeQueued() throws IOException {
+        byte[] frame;
+        int frames = 0;
+        long bytes = 0;
+        while ((frame = outbound.poll()) != null) {
+            out.write(frame);
+            bytes += frame.length;
+            frames++;
+        }
+        node.metrics().bytesOut.add(bytes);
+        if (frames > 0) {
+            out.flush();
+            node.metrics().batchFrames.record(frames);
+        }
+    }
+
+    /** Blocks reading and dispatching frames until EOF, a corrupt stream, or close. */
+    void readLoop() throws IOException {
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(buf);
+        int n;
+        while (!closed.get() && (n = in.read(buf)) >= 0) {
+            node.metrics().bytesIn.add(n);
+            view.clear().limit(n);
+            if (!decoder.feed(view)) return;
+        }
+    }
+
+    @Override public boolean isClosed() { return closed.get() || socket.isClosed(); }
+
+    /**
+     * Never writes on the caller's thread: a writer pushes out what is queued (e.g. BYE) and closes
+     * the socket, a busy one as soon as it finishes. A peer that stopped reading could stall that
+     * flush, so the socket is closed after {@link #CLOSE_FLUSH_MILLIS} regardless.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (writing.compareAndSet(false, true)) {
+            try {
+                writerPool.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                writing.set(false);
+                closeSocket();
+                return;
+            }
+        }
+        CompletableFuture.delayedExecutor(CLOSE_FLUSH_MILLIS, TimeUnit.MILLISECONDS).execute(this::closeSocket);
+    }
+
+    private void closeSocket() {
+        if (socket.isClosed()) return;
+        try { socket.close(); } catch (IOException ignored) {}
+        try { in.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,90 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/** Blocking transport: an accept loop plus one reading thread per {@link SocketPeerConnection}. */
+final class SocketTransport implements Transport {
+
+    private final PeerNode node;
+    private final ExecutorService ioPool;
+    private ServerSocket serverSocket;
+
+    SocketTransport(PeerNode node) {
+        this.node = node;
+        this.ioPool = node.ioPool();
+    }
+
+    @Override
+    public int bind(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        ioPool.submit(this::acceptLoop);
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (node.isRunning()) {
+            try {
+                Socket s = serverSocket.accept();
+                SocketPeerConnection conn = new SocketPeerConnection(node, s, ioPool);
+                node.attachInbound(conn);
+                ioPool.submit(() -> handleConnection(conn));
+            } catch (SocketException se) {
+                // happens when serverSocket is closed during shutdown
+                break;
+            } catch (IOException e) {
+                node.history().addSystem("Erro ao aceitar conexão: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Closeable connect(PeerAddress addr) {
+        Socket socket = new Socket();
+        try {
+            ioPool.execute(() -> {
+                SocketPeerConnection conn;
+                try {
+                    socket.connect(new InetSocketAddress(addr.address(), addr.port), (int) node.config().connectTimeoutMillis());
+                    conn = new SocketPeerConnection(node, socket, ioPool);
+                } catch (IOException e) {
+                    try { socket.close(); } catch (IOException ignored) {}
+                    node.connectFailed(addr.host, addr.port, e);
+                    return;
+                }
+                node.attachOutbound(conn, addr.host, addr.port);
+                handleConnection(conn);
+            });
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+        return socket;
+    }
+
+    /** Blocking read loop, one thread per connection. */
+    private void handleConnection(SocketPeerConnection conn) {
+        try {
+            conn.readLoop();
+        } catch (IOException e) {
+            // read loop error
+        } finally {
+            node.unregisterConnection(conn);
+            conn.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignored) {}
+    }
+
+    @Override
+    public String toString() { return PeerConfig.TransportMode.BLOCKING.name(); }
+}
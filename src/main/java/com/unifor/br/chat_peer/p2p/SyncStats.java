@@ -0,0 +1,32 @@
+package com.unifor.br.chat_peer.p2p;
+
+/** Counters of the history catch-up protocol since the node started. */
+public final class SyncStats {
+    public final long bytesSent;
+    public final long bytesReceived;
+    public final long messagesSent;
+    public final long messagesReceived;
+    /** SYNC_REQs answered, including ones still streaming. */
+    public final long sessionsServed;
+    public final int activeSessions;
+    /** Distinct author runs whose sequence numbers are tracked. */
+    public final int origins;
+
+    SyncStats(long bytesSent, long bytesReceived, long messagesSent, long messagesReceived,
+              long sessionsServed, int activeSessions, int origins) {
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.messagesSent = messagesSent;
+        this.messagesReceived = messagesReceived;
+        this.sessionsServed = sessionsServed;
+        this.activeSessions = activeSessions;
+        this.origins = origins;
+    }
+
+    @Override
+    public String toString() {
+        return "enviadas " + messagesSent + " msgs (" + bytesSent + " B), recebidas " + messagesReceived
+                + " msgs (" + bytesReceived + " B), sessões " + sessionsServed + " (" + activeSessions
+                + " ativas), origens " + origins;
+    }
+}
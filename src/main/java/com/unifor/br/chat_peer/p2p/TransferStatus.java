@@ -0,0 +1,63 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.Locale;
+
+/** One file transfer as seen by this node, see {@link FileTransfers}. */
+public final class TransferStatus {
+
+    public enum State {
+        /** The sender is still checksumming the file. */
+        PREPARING,
+        /** Offered and waiting for the receiver to accept. */
+        OFFERED,
+        RUNNING,
+        /** The receiver gave up reconnecting; {@code /accept} resumes. */
+        INTERRUPTED,
+        DONE,
+        CANCELLED,
+        FAILED
+    }
+
+    /** Short form of the offer id, which {@code /accept} and {@code /decline} take. */
+    public final String id;
+    public final boolean outgoing;
+    public final String peer;
+    /** The file's name, or where it was saved once received. */
+    public final String name;
+    public final long size;
+    /** Bytes written and confirmed so far. */
+    public final long doneBytes;
+    public final State state;
+
+    TransferStatus(String id, boolean outgoing, String peer, String name, long size, long doneBytes, State state) {
+        this.id = id;
+        this.outgoing = outgoing;
+        this.peer = peer;
+        this.name = name;
+        this.size = size;
+        this.doneBytes = doneBytes;
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        String label = switch (state) {
+            case PREPARING -> "calculando checksums";
+            case OFFERED -> "aguardando aceite";
+            case RUNNING -> "em andamento";
+            case INTERRUPTED -> "interrompida, /accept " + id + " retoma";
+            case DONE -> "concluída";
+            case CANCELLED -> "cancelada";
+            case FAILED -> "falhou";
+        };
+        return String.format(Locale.ROOT, "[%s] %s %s %s: %s de %s (%d%%), %s", id, name, outgoing ? "para" : "de", peer,
+                bytes(doneBytes), bytes(size), size == 0 ? 100 : doneBytes * 100 / size, label);
+    }
+
+    static String bytes(long n) {
+        if (n < 1024) return n + " B";
+        if (n < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KiB", n / 1024.0);
+        if (n < 1024L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f MiB", n / (1024.0 * 1024));
+        return String.format(Locale.ROOT, "%.2f GiB", n / (1024.0 * 1024 * 1024));
+    }
+}
@@ -0,0 +1,33 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * How one {@link PeerNode} accepts and opens links. Implementations hand established links to the
+ * node through {@link PeerNode#attachInbound} / {@link PeerNode#attachOutbound}, report failed dials
+ * through {@link PeerNode#connectFailed} and feed received bytes to each connection's
+ * {@link FrameDecoder}; everything above that (handshake, routing, heartbeats) is transport-agnostic.
+ * Created by the node's {@link Network} when it starts.
+ */
+public interface Transport extends Closeable {
+
+    /** Starts listening and returns the actual port (useful when asked for port 0). */
+    int bind(int port) throws IOException;
+
+    /**
+     * Starts a connect and returns at once; the outcome reaches the node as described above.
+     * Returns what to close to abort the attempt, or null if it failed immediately.
+     */
+    Closeable connect(PeerAddress addr);
+
+    /** Host other nodes on the same machine (or simulation) dial to reach this one. */
+    default String localHost() { return "127.0.0.1"; }
+
+    /** Whether {@code addr} names this node's own host (so it is not dialed as a peer). */
+    default boolean isLocal(PeerAddress addr) { return addr.isLoopback(); }
+
+    @Override
+    void close();
+}
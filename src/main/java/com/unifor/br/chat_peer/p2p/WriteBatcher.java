@@ -0,0 +1,85 @@
+package com.unifor.br.chat_peer.p2p;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Adaptive write batching: after every enqueue it decides whether the link's writer runs now or a
+ * little later. While chat and bulk frames for a link arrive further apart than
+ * {@link PeerConfig#batchMaxDelayMillis()} on average, each one is written as soon as it is queued.
+ * Once they come faster, the writer waits until {@link PeerConfig#batchMaxFrames()} frames are
+ * queued or the first of them has waited the maximum delay, so a burst leaves as one write and one
+ * flush instead of one per message. Control frames never wait, and they take whatever is pending
+ * along. The frames per wire write end up in {@link NodeMetrics#batchFrames}.
+ */
+final class WriteBatcher {
+
+    /** The newest gap weighs 1/8 in the running mean. */
+    private static final int GAP_SHIFT = 3;
+
+    private final long maxDelayNanos;
+    private final int maxFrames;
+    private final Network clock;
+    private final ScheduledExecutorService scheduler;
+
+    WriteBatcher(PeerConfig config) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.batchMaxDelayMillis());
+        this.maxFrames = config.batchMaxFrames();
+        this.clock = config.network();
+        this.scheduler = enabled() ? clock.newScheduler("p2p-batch") : null;
+    }
+
+    boolean enabled() { return maxDelayNanos > 0 && maxFrames > 1; }
+
+    /** A frame went into {@code link}'s queue on {@code stream}: start the writer or leave it to the batch timer. */
+    void queued(PeerConnection link, OutboundQueue.Stream stream) {
+        if (!enabled() || stream == OutboundQueue.Stream.CONTROL || !hold(link.batch)) link.scheduleFlush();
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    /** Whether the frame just queued may wait; arms the timer for the link if none is pending. */
+    private boolean hold(Link b) {
+        long now = clock.nanoTime();
+        synchronized (b) {
+            // a long silence counts as twice the delay, so the next burst is recognised within a few frames
+            long gap = b.last == 0 ? 2 * maxDelayNanos : Math.min(now - b.last, 2 * maxDelayNanos);
+            b.meanGap += (gap - b.meanGap) >> GAP_SHIFT;
+            b.last = now;
+            if (b.meanGap >= maxDelayNanos || b.conn.queueDepth() >= maxFrames) return false;
+            if (!b.armed) {
+                try {
+                    scheduler.schedule(() -> fire(b), maxDelayNanos, TimeUnit.NANOSECONDS);
+                    b.armed = true;
+                } catch (RejectedExecutionException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static void fire(Link b) {
+        synchronized (b) {
+            b.armed = false;
+        }
+        b.conn.scheduleFlush();
+    }
+
+    /** Batching state of one link; guarded by itself. */
+    static final class Link {
+        final PeerConnection conn;
+        long last;
+        long meanGap;
+        boolean armed;
+
+        Link(PeerConnection conn, PeerConfig config) {
+            this.conn = conn;
+            this.meanGap = 2 * TimeUnit.MILLISECONDS.toNanos(config.batchMaxDelayMillis());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+import com.unifor.br.chat_peer.p2p.SyncStats;
+
+/**
+ * Catch-up cost: one node holds a history, a fresh node connects and pulls it through SYNC_REQ.
+ * Reports time to completion, bytes on the wire per message and the achieved rate against the
+ * configured limit, while live messages keep flowing.
+ * Run with {@code ... CatchUpBenchmark [messages] [bytesPerSecond]}, e.g. {@code 8000 1048576}.
+ */
+public final class CatchUpBenchmark {
+
+    private static final String TEXT = "mensagem de teste com algum texto razoável para o chat | 123";
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        long rate = args.length > 1 ? Long.parseLong(args[1]) : 1 << 20;
+
+        PeerConfig config = new PeerConfig()
+                .transport(PeerConfig.TransportMode.NIO)
+                .historyCapacity(messages * 2)
+                .syncRateBytesPerSecond(rate);
+        PeerNode holder = new PeerNode("holder", 0, false, config);
+        PeerNode joiner = new PeerNode("joiner", 0, false, config);
+        holder.start();
+        joiner.start();
+        try {
+            for (int i = 0; i < messages; i++) holder.broadcastUserText(TEXT + " " + i);
+
+            long t0 = System.nanoTime();
+            joiner.connectTo("127.0.0.1", holder.listenPort());
+            int live = 0;
+            while (joiner.syncStats().messagesReceived < messages) {
+                holder.broadcastUserText("ao vivo " + live++);
+                Thread.sleep(10);
+            }
+            double seconds = (System.nanoTime() - t0) / 1e9;
+
+            SyncStats sent = holder.syncStats();
+            System.out.printf("%,d msgs caught up in %.2f s (%d live msgs sent meanwhile)%n", messages, seconds, live);
+            System.out.printf("wire: %,d B total, %.1f B/msg, %,.0f B/s achieved vs %,d B/s limit%n",
+                    sent.bytesSent, (double) sent.bytesSent / sent.messagesSent, sent.bytesSent / seconds, rate);
+        } finally {
+            joiner.safeClose();
+            holder.safeClose();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.FrameCompressor;
+import com.unifor.br.chat_peer.p2p.ProtocolMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.zip.Deflater;
+
+/**
+ * Bytes on the wire and CPU cost of frame compression for several message-size distributions:
+ * plain binary frames vs. deflate with the preset dictionary (what peers negotiate) vs. plain
+ * deflate without it, plus what the size threshold sends raw.
+ * Run with {@code ... CompressionBenchmark [frames per distribution] [minBytes]}, e.g. {@code 20000 128}.
+ */
+public final class CompressionBenchmark {
+
+    private static final String[] WORDS = ("olá oi tudo bem bom dia boa noite obrigado você não sim está para com uma que "
+            + "mensagem arquivo amanhã hoje agora reunião projeto código servidor peer teste funciona erro ok "
+            + "the and you hello thanks meeting build deploy").split(" ");
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int minBytes = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        Random rnd = new Random(7);
+
+        System.out.printf("%-22s %10s %10s %10s %10s %9s %9s%n",
+                "distribuição", "B/frame", "dict", "sem dict", "limiar", "comp ns", "infl ns");
+        run("chat curto (5-80)", chat(rnd, frames, 5, 80), minBytes);
+        run("chat médio (80-600)", chat(rnd, frames, 80, 600), minBytes);
+        run("texto longo (2-16 KiB)", chat(rnd, frames / 10, 2048, 16384), minBytes);
+        run("misto 90/9/1", mixed(rnd, frames), minBytes);
+        run("PEERS_RES 10", peers(rnd, frames / 10, 10), minBytes);
+        run("PEERS_RES 200", peers(rnd, frames / 50, 200), minBytes);
+    }
+
+    private static void run(String name, List<ProtocolMessage> msgs, int minBytes) throws Exception {
+        List<byte[]> plain = new ArrayList<>(msgs.size());
+        for (ProtocolMessage m : msgs) plain.add(m.toBinary());
+
+        // warm up so the JIT and the thread-local deflater are settled
+        for (int i = 0; i < 3; i++) for (byte[] f : plain) FrameCompressor.compress(f);
+
+        long raw = 0, dict = 0, noDict = 0, thresholded = 0;
+        List<byte[]> compressed = new ArrayList<>(plain.size());
+        long t0 = System.nanoTime();
+        for (byte[] f : plain) {
+            byte[] c = FrameCompressor.compress(f);
+            compressed.add(c);
+        }
+        long compressNanos = System.nanoTime() - t0;
+
+        Deflater plainDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] out = new byte[64 * 1024];
+        for (int i = 0; i < plain.size(); i++) {
+            byte[] f = plain.get(i);
+            byte[] c = compressed.get(i);
+            raw += f.length;
+            dict += c == null ? f.length : c.length;
+            thresholded += c == null || f.length < minBytes ? f.length : c.length;
+
+            plainDeflater.reset();
+            plainDeflater.setInput(f, 5, f.length - 5);
+            plainDeflater.finish();
+            int n = 0;
+            while (!plainDeflater.finished()) n += plainDeflater.deflate(out, 0, out.length);
+            noDict += Math.min(f.length, 9 + n);
+        }
+        plainDeflater.end();
+
+        FrameCompressor.Decompressor inflater = new FrameCompressor.Decompressor();
+        int inflated = 0;
+        for (int i = 0; i < 3; i++) for (byte[] c : compressed) if (c != null) inflate(inflater, c);
+        t0 = System.nanoTime();
+        for (byte[] c : compressed) {
+            if (c == null) continue;
+            inflate(inflater, c);
+            inflated++;
+        }
+        long inflateNanos = System.nanoTime() - t0;
+
+        int count = plain.size();
+        System.out.printf("%-22s %10.0f %9.1f%% %9.1f%% %9.1f%% %9d %9d%n", name, (double) raw / count,
+                100.0 * dict / raw, 100.0 * noDict / raw, 100.0 * thresholded / raw,
+                compressNanos / count, inflated == 0 ? 0 : inflateNanos / inflated);
+    }
+
+    private static void inflate(FrameCompressor.Decompressor inflater, byte[] c) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(c);
+        buf.position(5);
+        inflater.inflate(buf);
+    }
+
+    private static List<ProtocolMessage> chat(Random rnd, int n, int minChars, int maxChars) {
+        List<ProtocolMessage> out = new ArrayList<>(n);
+        String origin = Long.toHexString(rnd.nextLong() | 1L << 63);
+        for (int i = 0; i < n; i++) {
+            out.add(ProtocolMessage.msg("usuario" + rnd.nextInt(20), sentence(rnd, minChars + rnd.nextInt(maxChars - minChars + 1)),
+                    origin, i + 1, System.currentTimeMillis()));
+        }
+        return out;
+    }
+
+    /** 90% short chat, 9% medium, 1% long pastes: closer to a real room than any single size. */
+    private static List<ProtocolMessage> mixed(Random rnd, int n) {
+        List<ProtocolMessage> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int r = rnd.nextInt(100);
+            out.addAll(r < 90 ? chat(rnd, 1, 5, 80) : r < 99 ? chat(rnd, 1, 80, 600) : chat(rnd, 1, 2048, 16384));
+        }
+        return out;
+    }
+
+    private static List<ProtocolMessage> peers(Random rnd, int n, int peers) {
+        List<ProtocolMessage> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StringJoiner csv = new StringJoiner(",");
+            csv.add("localhost:" + (5000 + rnd.nextInt(100)));
+            for (int p = 0; p < peers; p++) csv.add("192.168." + rnd.nextInt(4) + "." + rnd.nextInt(255) + ":" + (5000 + rnd.nextInt(100)));
+            out.add(ProtocolMessage.peersRes(java.util.UUID.randomUUID().toString(), csv.toString()));
+        }
+        return out;
+    }
+
+    private static String sentence(Random rnd, int chars) {
+        StringBuilder sb = new StringBuilder(chars + 16);
+        while (sb.length() < chars) {
+            if (!sb.isEmpty()) sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.substring(0, chars);
+    }
+}
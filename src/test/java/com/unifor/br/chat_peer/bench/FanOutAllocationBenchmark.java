@@ -0,0 +1,126 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+import com.unifor.br.chat_peer.p2p.ProtocolMessage;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytes allocated on the broadcasting thread per {@link PeerNode#broadcastUserText} against peer count,
+ * next to a naive baseline that serializes the message once per peer.
+ * <p>
+ * Peers are raw loopback sockets drained by a single selector thread, so the node's queues never fill.
+ * Run with {@code ... FanOutAllocationBenchmark 1,10,100,500}.
+ */
+public final class FanOutAllocationBenchmark {
+
+    private static final int WARMUP = 2_000;
+    private static final int ROUNDS = 5_000;
+    private static final String TEXT = "mensagem de teste com algum texto razoável para o chat | 123";
+
+    /** Keeps the baseline's results alive so the JIT cannot drop the work. */
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        int[] peerCounts = args.length > 0 ? parse(args[0]) : new int[] {1, 10, 100, 500};
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%6s %22s %22s%n", "peers", "broadcast(B/msg)", "per-peer-encode(B/msg)");
+        for (int peers : peerCounts) {
+            PeerNode node = new PeerNode("bench", 0, false, new PeerConfig()
+                    .transport(PeerConfig.TransportMode.NIO)
+                    .outboundQueueCapacity(64 * 1024));
+            node.start();
+            Drainer drainer = new Drainer(node.listenPort(), peers);
+            try {
+                while (node.connectedPeersSnapshot().size() < peers) Thread.sleep(10);
+
+                for (int i = 0; i < WARMUP; i++) node.broadcastUserText(TEXT);
+                long before = threads.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < ROUNDS; i++) node.broadcastUserText(TEXT);
+                long shared = (threads.getCurrentThreadAllocatedBytes() - before) / ROUNDS;
+
+                long sink = 0;
+                for (int i = 0; i < WARMUP; i++) sink += naive(peers);
+                before = threads.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < ROUNDS; i++) sink += naive(peers);
+                long naive = (threads.getCurrentThreadAllocatedBytes() - before) / ROUNDS;
+
+                blackhole = sink;
+                System.out.printf("%6d %22d %22d%n", peers, shared, naive);
+            } finally {
+                node.safeClose();
+                drainer.close();
+            }
+        }
+    }
+
+    /** What the fan-out cost before: one toLine() + UTF-8 encode per connection. */
+    private static long naive(int peers) {
+        ProtocolMessage msg = ProtocolMessage.msg("bench", TEXT);
+        long total = 0;
+        for (int p = 0; p < peers; p++) {
+            total += (msg.toLine() + "\n").getBytes(StandardCharsets.UTF_8).length;
+        }
+        return total;
+    }
+
+    private static int[] parse(String csv) {
+        String[] parts = csv.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+
+    /** N client sockets read and discarded by one selector thread. */
+    private static final class Drainer implements AutoCloseable {
+        private final Selector selector = Selector.open();
+        private final List<SocketChannel> channels = new ArrayList<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Drainer(int port, int peers) throws Exception {
+            for (int i = 0; i < peers; i++) {
+                SocketChannel ch = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                ch.configureBlocking(false);
+                ch.register(selector, SelectionKey.OP_READ);
+                channels.add(ch);
+            }
+            thread = new Thread(this::loop, "bench-drainer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void loop() {
+            ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (running) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        buf.clear();
+                        if (((SocketChannel) key.channel()).read(buf) < 0) key.cancel();
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (Exception ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            running = false;
+            thread.join(1000);
+            for (SocketChannel ch : channels) ch.close();
+            selector.close();
+        }
+    }
+}
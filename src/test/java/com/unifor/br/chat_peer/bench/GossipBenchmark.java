@@ -0,0 +1,112 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.ChatMessage;
+import com.unifor.br.chat_peer.p2p.ForwardStats;
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Flooding vs. broadcast tree on a mesh of local forwarding nodes: duplicate copies per delivered
+ * message, frames sent, delivery completeness and end-to-end latency percentiles. Halfway through,
+ * one node is killed to show the tree repairing itself through GRAFT.
+ * Run with {@code ... GossipBenchmark [nodes] [degree] [messages] [intervalMs]}, e.g. {@code 24 4 400 20}.
+ */
+public final class GossipBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int degree = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        long interval = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        for (PeerConfig.ForwardMode mode : PeerConfig.ForwardMode.values()) {
+            run(mode, nodes, degree, messages, interval);
+        }
+    }
+
+    private static void run(PeerConfig.ForwardMode mode, int n, int degree, int messages, long interval) throws Exception {
+        Random rnd = new Random(42);
+        PeerConfig config = new PeerConfig()
+                .transport(PeerConfig.TransportMode.NIO)
+                .selectorThreads(1)
+                .sync(false)
+                .autoConnect(false)
+                .jmx(false)
+                .forwardMode(mode);
+        List<PeerNode> mesh = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            PeerNode node = new PeerNode("n" + i, 0, true, config);
+            node.start();
+            mesh.add(node);
+        }
+        try {
+            // ring for connectivity plus random chords up to the target degree
+            for (int i = 0; i < n; i++) {
+                mesh.get(i).connectTo("127.0.0.1", mesh.get((i + 1) % n).listenPort());
+                for (int k = 2; k < degree; k += 2) {
+                    mesh.get(i).connectTo("127.0.0.1", mesh.get(rnd.nextInt(n)).listenPort());
+                }
+            }
+            Thread.sleep(1000);
+            int links = 0;
+            for (PeerNode node : mesh) links += node.connectedPeersSnapshot().size();
+
+            PeerNode victim = mesh.get(n / 2);
+            for (int i = 0; i < messages; i++) {
+                if (i == messages / 2) victim.safeClose();
+                PeerNode sender;
+                do {
+                    sender = mesh.get(rnd.nextInt(n));
+                } while (sender == victim);
+                sender.broadcastUserText("msg " + i);
+                Thread.sleep(interval);
+            }
+            Thread.sleep(2000);
+
+            Map<String, Long> sentAt = new HashMap<>();
+            for (PeerNode node : mesh) {
+                for (ChatMessage m : node.history().snapshot()) {
+                    if (m.direction == ChatMessage.Direction.OUT) sentAt.put(m.id, m.timestamp.toEpochMilli());
+                }
+            }
+            long[] latencies = new long[messages * n];
+            int received = 0, expected = 0;
+            long duplicates = 0, delivered = 0, eagerSent = 0, ids = 0, grafts = 0, prunes = 0;
+            for (PeerNode node : mesh) {
+                if (node == victim) continue;
+                ForwardStats s = node.forwardStats();
+                duplicates += s.duplicates;
+                delivered += s.delivered;
+                eagerSent += s.eagerSent;
+                ids += s.idsAnnounced;
+                grafts += s.graftsSent;
+                prunes += s.prunesSent;
+                for (ChatMessage m : node.history().snapshot()) {
+                    Long t0 = m.direction == ChatMessage.Direction.IN ? sentAt.get(m.id) : null;
+                    if (t0 != null) latencies[received++] = m.timestamp.toEpochMilli() - t0;
+                }
+            }
+            for (String id : sentAt.keySet()) expected += n - 2; // every survivor but the sender
+            Arrays.sort(latencies, 0, received);
+
+            System.out.printf("%-8s %d nodes, %d links: delivered %,d/%,d, duplicates %.2f per msg, full sends %,d, ids announced %,d, grafts %d, prunes %d%n",
+                    mode, n, links / 2, received, expected, delivered == 0 ? 0 : (double) duplicates / delivered,
+                    eagerSent, ids, grafts, prunes);
+            System.out.printf("         latency p50 %d ms, p99 %d ms, max %d ms%n",
+                    pct(latencies, received, 0.50), pct(latencies, received, 0.99), received == 0 ? 0 : latencies[received - 1]);
+        } finally {
+            for (PeerNode node : mesh) node.safeClose();
+        }
+    }
+
+    private static long pct(long[] sorted, int size, double p) {
+        return size == 0 ? 0 : sorted[Math.min(size - 1, (int) (p * size))];
+    }
+}
@@ -0,0 +1,70 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.ChatMessage;
+import com.unifor.br.chat_peer.p2p.HistoryStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Write throughput and recovery time of {@link HistoryStore} for a log of millions of messages.
+ * Recovery is what a restarting node pays: reopen the log and load the newest 8192 messages.
+ * Run with {@code ... HistoryStoreBenchmark [messages] [fsync] [dir]}, e.g. {@code 2000000 true}.
+ */
+public final class HistoryStoreBenchmark {
+
+    private static final String TEXT = "mensagem de teste com algum texto razoável para o chat | 123";
+    private static final int RECENT = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        boolean fsync = args.length > 1 && Boolean.parseBoolean(args[1]);
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("history-bench");
+        try {
+            Instant base = Instant.now();
+            long t0 = System.nanoTime();
+            long bytes;
+            try (HistoryStore store = new HistoryStore(dir, 64L << 20, fsync)) {
+                for (int i = 0; i < messages; i++) {
+                    ChatMessage m = new ChatMessage(base.plusMillis(i), "bench", TEXT, ChatMessage.Direction.IN);
+                    // append never waits; spin while the writer catches up to measure its throughput
+                    while (!store.append(m)) Thread.onSpinWait();
+                }
+                store.flush();
+            }
+            double writeSeconds = (System.nanoTime() - t0) / 1e9;
+            try (Stream<Path> files = Files.list(dir)) {
+                bytes = files.mapToLong(p -> p.toFile().length()).sum();
+            }
+            System.out.printf("write:    %,d msgs in %.2f s = %,.0f msgs/s, %.1f MB/s (fsync=%s)%n",
+                    messages, writeSeconds, messages / writeSeconds, bytes / writeSeconds / 1e6, fsync);
+
+            t0 = System.nanoTime();
+            List<ChatMessage> recent;
+            int segments;
+            try (HistoryStore store = new HistoryStore(dir, 64L << 20, fsync)) {
+                recent = store.recent(RECENT);
+                segments = store.segmentCount();
+            }
+            System.out.printf("recover:  %d msgs from %d segments (%.1f MB) in %.1f ms%n",
+                    recent.size(), segments, bytes / 1e6, (System.nanoTime() - t0) / 1e6);
+
+            try (HistoryStore store = new HistoryStore(dir, 64L << 20, fsync)) {
+                t0 = System.nanoTime();
+                List<ChatMessage> slice = store.since(base.plusMillis(messages / 2), 1000);
+                System.out.printf("since():  %d msgs from the middle of the log in %.1f ms%n",
+                        slice.size(), (System.nanoTime() - t0) / 1e6);
+            }
+        } finally {
+            if (args.length <= 2) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+    }
+}
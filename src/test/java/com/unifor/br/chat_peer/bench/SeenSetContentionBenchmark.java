@@ -0,0 +1,132 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.SeenSet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Duplicate-suppression throughput under contention: the previous global {@code synchronized}
+ * deque + string set against {@link SeenSet}. Every id is offered by two threads, like a message
+ * arriving over two links of a mesh, the second copy {@link #LAG} ids later. Besides throughput it
+ * reports how many second copies were wrongly accepted as new.
+ * Run with {@code ... SeenSetContentionBenchmark 1,2,4,8}.
+ */
+public final class SeenSetContentionBenchmark {
+
+    private static final int IDS_PER_THREAD = 200_000;
+    private static final int RUNS = 3;
+    /** How many ids later the duplicate copy shows up; larger than the old 2000-entry cap. */
+    private static final int LAG = 10_000;
+
+    interface Dedup { boolean firstSighting(UUID id); }
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = args.length > 0 ? parse(args[0]) : new int[] {1, 2, 4, 8};
+
+        System.out.printf("%8s %16s %14s %16s %14s%n", "threads", "legacy(Mops/s)", "legacy-leaks", "SeenSet(Mops/s)", "SeenSet-leaks");
+        for (int threads : threadCounts) {
+            UUID[][] work = workload(threads);
+            Result legacy = null, seenSet = null;
+            for (int r = 0; r < RUNS; r++) {
+                legacy = best(legacy, run(new LegacyDedup(), work));
+                seenSet = best(seenSet, run(new SeenSetDedup(), work));
+            }
+            System.out.printf("%8d %16.2f %14d %16.2f %14d%n", threads, legacy.mops, legacy.leaks, seenSet.mops, seenSet.leaks);
+        }
+    }
+
+    private record Result(double mops, long leaks) {}
+
+    private static Result best(Result a, Result b) {
+        return a == null || b.mops > a.mops ? b : a;
+    }
+
+    /** Thread i offers its own ids interleaved with the ids of thread i+1, LAG positions behind. */
+    private static UUID[][] workload(int threads) {
+        UUID[][] own = new UUID[threads][IDS_PER_THREAD];
+        for (UUID[] ids : own) {
+            for (int i = 0; i < ids.length; i++) ids[i] = UUID.randomUUID();
+        }
+        UUID[][] work = new UUID[threads][IDS_PER_THREAD * 2];
+        for (int t = 0; t < threads; t++) {
+            UUID[] other = own[(t + 1) % threads];
+            for (int i = 0; i < IDS_PER_THREAD; i++) {
+                work[t][2 * i] = own[t][i];
+                work[t][2 * i + 1] = other[(i + IDS_PER_THREAD - LAG) % IDS_PER_THREAD];
+            }
+        }
+        return work;
+    }
+
+    private static Result run(Dedup dedup, UUID[][] work) throws Exception {
+        int threads = work.length;
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        CyclicBarrier end = new CyclicBarrier(threads + 1);
+        LongAdder firsts = new LongAdder();
+        for (int t = 0; t < threads; t++) {
+            UUID[] ids = work[t];
+            Thread th = new Thread(() -> {
+                try {
+                    start.await();
+                    long local = 0;
+                    for (UUID id : ids) {
+                        if (dedup.firstSighting(id)) local++;
+                    }
+                    firsts.add(local);
+                    end.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            th.setDaemon(true);
+            th.start();
+        }
+        start.await();
+        long t0 = System.nanoTime();
+        end.await();
+        long elapsed = System.nanoTime() - t0;
+        long unique = (long) threads * IDS_PER_THREAD;
+        long ops = unique * 2;
+        return new Result(ops / (elapsed / 1e9) / 1e6, firsts.sum() - unique);
+    }
+
+    /** Copy of the structure PeerNode used before: global lock, string ids, 2000-entry cap. */
+    private static final class LegacyDedup implements Dedup {
+        private final Deque<String> ids = new ArrayDeque<>();
+        private final Set<String> set = new HashSet<>();
+
+        @Override
+        public boolean firstSighting(UUID uuid) {
+            String id = uuid.toString();
+            synchronized (ids) {
+                if (set.contains(id)) return false;
+                ids.addLast(id);
+                set.add(id);
+                while (ids.size() > 2000) set.remove(ids.removeFirst());
+                return true;
+            }
+        }
+    }
+
+    private static final class SeenSetDedup implements Dedup {
+        private final SeenSet seen = new SeenSet(4 << 20, 600_000, 4);
+
+        @Override
+        public boolean firstSighting(UUID id) {
+            return seen.markIfAbsent(id);
+        }
+    }
+
+    private static int[] parse(String csv) {
+        String[] parts = csv.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+}
@@ -0,0 +1,75 @@
+package com.unifor.br.chat_peer.bench;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection count versus heap and live platform threads for each execution mode.
+ * <p>
+ * Opens N raw loopback sockets against a single node and samples the JVM after each step.
+ * Run with, e.g.:
+ * {@code java -cp target/classes:target/test-classes com.unifor.br.chat_peer.bench.ThreadModeBenchmark 100,500,1000,2000}
+ */
+public final class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] steps = args.length > 0 ? parseSteps(args[0]) : new int[] {100, 500, 1000, 2000};
+
+        System.out.printf("%-22s %8s %12s %16s%n", "mode", "conns", "heap(MiB)", "platformThreads");
+        run("blocking/platform", new PeerConfig(), steps);
+        run("blocking/virtual", new PeerConfig().threads(PeerConfig.ThreadMode.VIRTUAL), steps);
+        run("nio/platform", new PeerConfig().transport(PeerConfig.TransportMode.NIO), steps);
+    }
+
+    private static void run(String label, PeerConfig config, int[] steps) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        PeerNode node = new PeerNode("bench", 0, false, config);
+        node.start();
+        List<Socket> clients = new ArrayList<>();
+        try {
+            sample(label, 0, memory, threads);
+            for (int target : steps) {
+                while (clients.size() < target) {
+                    clients.add(new Socket("127.0.0.1", node.listenPort()));
+                }
+                waitFor(node, target);
+                sample(label, target, memory, threads);
+            }
+        } finally {
+            for (Socket s : clients) {
+                try { s.close(); } catch (Exception ignored) {}
+            }
+            node.safeClose();
+            Thread.sleep(500); // let closed connections drain before the next mode is measured
+        }
+    }
+
+    private static void waitFor(PeerNode node, int connections) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (node.connectedPeersSnapshot().size() < connections && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static void sample(String label, int conns, MemoryMXBean memory, ThreadMXBean threads) {
+        System.gc();
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        System.out.printf("%-22s %8d %12.1f %16d%n", label, conns, heap / (1024.0 * 1024.0), threads.getThreadCount());
+    }
+
+    private static int[] parseSteps(String csv) {
+        String[] parts = csv.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+}
@@ -0,0 +1,370 @@
+package com.unifor.br.chat_peer.harness;
+
+import com.unifor.br.chat_peer.p2p.ChatMessage;
+import com.unifor.br.chat_peer.p2p.LatencyHistogram;
+import com.unifor.br.chat_peer.p2p.Network;
+import com.unifor.br.chat_peer.p2p.NodeMetrics;
+import com.unifor.br.chat_peer.p2p.PeerAddress;
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+import com.unifor.br.chat_peer.p2p.RoutingStats;
+import com.unifor.br.chat_peer.p2p.SimNetwork;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * N {@link PeerNode}s in this JVM on loopback ports, wired by explicit connects along a
+ * {@link Topology} (auto-connect, discovery and JMX stay off, so nothing but the chosen edges
+ * exists). {@link #drive} sends chat messages from random nodes at a fixed rate and follows every
+ * copy through {@link PeerNode#onDeliver}; each message carries its scheduled send time, so
+ * latency is measured open-loop and includes any backlog of the sender. After {@link #subscribe},
+ * {@link #driveChannels} does the same with channel traffic that only subscribers should get, and
+ * {@link #driveDirect} with DMs, which need a mesh built with auto-connect kept on so the nodes can
+ * fill their routing tables (see {@link #awaitRouting}).
+ * <p>
+ * With a {@link SimNetwork} in the config the same code runs on virtual time: waiting advances the
+ * simulation instead of sleeping, and latencies are virtual.
+ */
+public final class Mesh implements AutoCloseable {
+
+    private final List<PeerNode> nodes = new ArrayList<>();
+    private final List<int[]> edges;
+    private final int[] degree;
+    private final List<Set<Integer>> neighbours = new ArrayList<>();
+    /** Subscribers of channel {@code c<i>} at index i, see {@link #subscribe}. */
+    private final List<List<Integer>> members = new ArrayList<>();
+    private final boolean forward;
+    private final PeerConfig config;
+    private final Network clock;
+    private final SimNetwork sim;
+
+    private final Map<String, AtomicInteger> copies = new ConcurrentHashMap<>();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAccumulator lastDelivery = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private volatile LatencyHistogram latencyMicros = new LatencyHistogram();
+
+    /** Takes {@code config} over like {@link #Mesh(int, Topology, int, boolean, PeerConfig, Random, boolean)}. */
+    public Mesh(int n, Topology topology, int avgDegree, boolean forward, PeerConfig config, Random rnd) throws IOException {
+        this(n, topology, avgDegree, forward, config, rnd, false);
+    }
+
+    /**
+     * The mesh takes {@code config} over: it turns JMX off and sets auto-connect to {@code dialing}
+     * on that same instance, which all its nodes share, so pass one no other node or mesh uses.
+     *
+     * @param dialing keep auto-connect on, so nodes also open links of their own beyond the topology,
+     *                which is then only where they start; needed for {@link #driveDirect}
+     */
+    public Mesh(int n, Topology topology, int avgDegree, boolean forward, PeerConfig config, Random rnd,
+                boolean dialing) throws IOException {
+        if (n < 2) throw new IllegalArgumentException("a mesh needs at least 2 nodes");
+        this.forward = forward;
+        this.config = config;
+        this.clock = config.network();
+        this.sim = clock instanceof SimNetwork s ? s : null;
+        this.edges = topology.edges(n, avgDegree, rnd);
+        this.degree = new int[n];
+        for (int i = 0; i < n; i++) neighbours.add(new HashSet<>());
+        for (int[] e : edges) {
+            degree[e[0]]++;
+            degree[e[1]]++;
+            neighbours.get(e[0]).add(e[1]);
+            neighbours.get(e[1]).add(e[0]);
+        }
+        PeerConfig nodeConfig = config.autoConnect(dialing).jmx(false);
+        try {
+            for (int i = 0; i < n; i++) {
+                PeerNode node = new PeerNode("n" + i, 0, forward, nodeConfig);
+                node.onDeliver = this::delivered;
+                node.start();
+                nodes.add(node);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Dials every edge (one direction only) and waits until each node sees all its neighbours. */
+    public boolean connect(long timeoutMillis) throws InterruptedException {
+        for (int[] e : edges) {
+            PeerAddress to = nodes.get(e[1]).localAddress();
+            nodes.get(e[0]).connectTo(to.host, to.port);
+        }
+        long deadline = clock.nanoTime() + timeoutMillis * 1_000_000;
+        while (clock.nanoTime() < deadline) {
+            pause(50);
+            if (linksUp() >= edges.size() && allNeighboursUp()) return true;
+        }
+        return false;
+    }
+
+    /** Sleeps, or lets the simulation run for that long. */
+    private void pause(long millis) throws InterruptedException {
+        if (sim != null) sim.runFor(millis);
+        else Thread.sleep(millis);
+    }
+
+    private boolean allNeighboursUp() {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).connectedPeersSnapshot().size() < degree[i]) return false;
+        }
+        return true;
+    }
+
+    /** Links established, counted once per pair. */
+    public int linksUp() {
+        int ends = 0;
+        for (PeerNode node : nodes) ends += node.connectedPeersSnapshot().size();
+        return ends / 2;
+    }
+
+    /**
+     * Subscribes every node to each of {@code channels} channels ({@code c0}, {@code c1}, ...) with
+     * probability {@code fraction}, at least one node per channel, then waits until no node has sent
+     * a SUBSCRIBE for a while; returns whether that happened within the timeout.
+     */
+    public boolean subscribe(int channels, double fraction, Random rnd, long timeoutMillis) throws InterruptedException {
+        for (int c = 0; c < channels; c++) {
+            List<Integer> subs = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (rnd.nextDouble() < fraction) subs.add(i);
+            }
+            if (subs.isEmpty()) subs.add(rnd.nextInt(nodes.size()));
+            for (int i : subs) nodes.get(i).join("c" + c);
+            members.add(subs);
+        }
+        long deadline = clock.nanoTime() + timeoutMillis * 1_000_000;
+        long last = -1;
+        int quiet = 0;
+        while (clock.nanoTime() < deadline) {
+            pause(100);
+            long sent = subscriptionUpdates();
+            quiet = sent == last ? quiet + 1 : 0;
+            if (quiet >= 3) return true;
+            last = sent;
+        }
+        return false;
+    }
+
+    /**
+     * Waits until no node's DM routing table gained a linked bucket or a routing link over three
+     * refresh periods; returns whether that happened within the timeout.
+     */
+    public boolean awaitRouting(long timeoutMillis) throws InterruptedException {
+        long deadline = clock.nanoTime() + timeoutMillis * 1_000_000;
+        long last = -1;
+        int quiet = 0;
+        while (clock.nanoTime() < deadline) {
+            pause(config.dhtRefreshMillis());
+            long state = 0;
+            for (PeerNode node : nodes) {
+                RoutingStats r = node.routingStats();
+                state += r.linkedBuckets + (long) r.routingLinks * nodes.size();
+            }
+            quiet = state == last ? quiet + 1 : 0;
+            if (quiet >= 3) return true;
+            last = state;
+        }
+        return false;
+    }
+
+    /** SUBSCRIBE frames sent by all nodes so far. */
+    public long subscriptionUpdates() {
+        long sum = 0;
+        for (PeerNode node : nodes) sum += node.subscriptionUpdatesSent();
+        return sum;
+    }
+
+    /** Subscribers per channel, in channel order. */
+    public List<List<Integer>> members() { return members; }
+
+    public int size() { return nodes.size(); }
+
+    public int plannedLinks() { return edges.size(); }
+
+    public List<PeerNode> nodes() { return nodes; }
+
+    private void delivered(ChatMessage m) {
+        long now = clock.nanoTime();
+        int sp = m.text.indexOf(' ');
+        if (sp <= 0) return;
+        long due;
+        try {
+            due = Long.parseLong(m.text, 0, sp, 10);
+        } catch (NumberFormatException e) {
+            return; // not one of ours
+        }
+        latencyMicros.record((now - due) / 1000);
+        copies.computeIfAbsent(m.id, k -> new AtomicInteger()).incrementAndGet();
+        delivered.increment();
+        lastDelivery.accumulate(now);
+    }
+
+    /**
+     * Sends {@code ratePerSecond} messages of about {@code sizeBytes} from random nodes for
+     * {@code durationMillis}, then waits until every copy arrived or nothing arrived for
+     * {@code drainMillis}.
+     */
+    public Report drive(double ratePerSecond, long durationMillis, int sizeBytes, long drainMillis, Random rnd)
+            throws InterruptedException {
+        return drive(ratePerSecond, durationMillis, sizeBytes, drainMillis, rnd, Traffic.BROADCAST);
+    }
+
+    /**
+     * Like {@link #drive}, but every message goes to a random channel from {@link #subscribe}, sent by
+     * a random subscriber of it, and is expected at the other subscribers only.
+     */
+    public Report driveChannels(double ratePerSecond, long durationMillis, int sizeBytes, long drainMillis, Random rnd)
+            throws InterruptedException {
+        if (members.isEmpty()) throw new IllegalStateException("subscribe first");
+        return drive(ratePerSecond, durationMillis, sizeBytes, drainMillis, rnd, Traffic.CHANNELS);
+    }
+
+    /**
+     * Like {@link #drive}, but every message is a DM from a random node to another random node and
+     * is expected there only; a DM the sender has no route for counts as sent and never delivered.
+     * The report's forwards are the relays, so hops per DM are {@code 1 + forwards / delivered}.
+     */
+    public Report driveDirect(double ratePerSecond, long durationMillis, int sizeBytes, long drainMillis, Random rnd)
+            throws InterruptedException {
+        return drive(ratePerSecond, durationMillis, sizeBytes, drainMillis, rnd, Traffic.DIRECT);
+    }
+
+    private enum Traffic { BROADCAST, CHANNELS, DIRECT }
+
+    private Report drive(double ratePerSecond, long durationMillis, int sizeBytes, long drainMillis, Random rnd,
+                         Traffic traffic) throws InterruptedException {
+        copies.clear();
+        delivered.reset();
+        lastDelivery.reset();
+        latencyMicros = new LatencyHistogram();
+        long[] before = totals();
+
+        String padding = " " + "x".repeat(Math.max(0, sizeBytes - 20));
+        long period = (long) (1e9 / ratePerSecond);
+        long start = clock.nanoTime();
+        long end = start + durationMillis * 1_000_000;
+        long sent = 0, expected = 0;
+        List<String> ids = new ArrayList<>();
+        List<Integer> wanted = new ArrayList<>();
+        for (long due = start; due < end; due = start + ++sent * period) {
+            long wait = due - clock.nanoTime();
+            if (sim != null) sim.advanceTo(due);
+            else if (wait > 0) LockSupport.parkNanos(wait);
+            ChatMessage m;
+            int want;
+            if (traffic == Traffic.CHANNELS) {
+                int channel = rnd.nextInt(members.size());
+                List<Integer> subs = members.get(channel);
+                int from = subs.get(rnd.nextInt(subs.size()));
+                m = nodes.get(from).publish("c" + channel, due + padding);
+                want = subs.size() - 1;
+                if (!forward) {
+                    want = 0;
+                    for (int s : subs) {
+                        if (neighbours.get(from).contains(s)) want++;
+                    }
+                }
+            } else if (traffic == Traffic.DIRECT) {
+                int from = rnd.nextInt(nodes.size());
+                int to = (from + 1 + rnd.nextInt(nodes.size() - 1)) % nodes.size();
+                m = nodes.get(from).sendDirect(nodes.get(to).origin(), due + padding);
+                want = 1;
+            } else {
+                int from = rnd.nextInt(nodes.size());
+                m = nodes.get(from).broadcastUserText(due + padding);
+                want = forward ? nodes.size() - 1 : degree[from];
+            }
+            ids.add(m == null ? null : m.id);
+            wanted.add(want);
+            expected += want;
+        }
+        long sendNanos = clock.nanoTime() - start;
+
+        long seen = -1, quietSince = clock.nanoTime();
+        while (delivered.sum() < expected) {
+            long now = delivered.sum();
+            if (now != seen) {
+                seen = now;
+                quietSince = clock.nanoTime();
+            } else if (clock.nanoTime() - quietSince > drainMillis * 1_000_000) {
+                break;
+            }
+            pause(20);
+        }
+
+        long complete = 0, over = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            AtomicInteger c = ids.get(i) == null ? null : copies.get(ids.get(i));
+            int got = c == null ? 0 : c.get();
+            if (got >= wanted.get(i)) complete++;
+            if (got > wanted.get(i)) over++; // a node handed the same message up twice
+        }
+        long[] after = totals();
+        long last = lastDelivery.get();
+        double spanSeconds = last == Long.MIN_VALUE ? 0 : (last - start) / 1e9;
+        return new Report(nodes.size(), linksUp(), forward, sent, sendNanos / 1e9, spanSeconds, expected,
+                delivered.sum(), complete, over,
+                after[0] - before[0], after[1] - before[1], after[2] - before[2], after[3] - before[3],
+                latencyMicros.snapshot());
+    }
+
+    /** Duplicates dropped, frames out, bytes out and forwards over every node. */
+    private long[] totals() {
+        long[] t = new long[4];
+        for (PeerNode node : nodes) {
+            NodeMetrics m = node.metrics();
+            t[0] += m.getDuplicatesDropped();
+            t[1] += m.getFramesOut();
+            t[2] += m.getBytesOut();
+            t[3] += m.getForwards();
+        }
+        return t;
+    }
+
+    @Override
+    public void close() {
+        nodes.parallelStream().forEach(PeerNode::safeClose);
+    }
+
+    /** Outcome of one {@link #drive} run. */
+    public record Report(int nodes, int links, boolean forward, long messages, double sendSeconds, double spanSeconds,
+                         long expectedCopies, long deliveredCopies, long fullyDelivered, long overDelivered,
+                         long duplicatesDropped, long framesOut, long bytesOut, long forwards,
+                         LatencyHistogram.Snapshot latencyMicros) {
+
+        /** Delivered copies over expected copies, 0..1. */
+        public double completeness() {
+            return expectedCopies == 0 ? 1 : (double) deliveredCopies / expectedCopies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d nós, %d links, forward %s: %,d mensagens em %.1f s (%.0f msg/s enviadas), %,d entregas/s%n"
+                            + "  completude %.2f%% (%,d/%,d cópias, %,d/%,d mensagens completas), duplicadas descartadas %,d (%.2f por entrega), "
+                            + "encaminhamentos %,d, frames %,d (%.1f por entrega), %,d KiB%n"
+                            + "  latência (µs) p50 %,d, p99 %,d, p99.9 %,d, máx %,d",
+                    nodes, links, forward ? "on" : "off", messages, sendSeconds, messages / Math.max(sendSeconds, 1e-9),
+                    spanSeconds == 0 ? 0 : (long) (deliveredCopies / spanSeconds),
+                    100 * completeness(), deliveredCopies, expectedCopies,
+                    fullyDelivered, messages,
+                    duplicatesDropped, deliveredCopies == 0 ? 0 : (double) duplicatesDropped / deliveredCopies,
+                    forwards, framesOut, deliveredCopies == 0 ? 0 : (double) framesOut / deliveredCopies, bytesOut / 1024,
+                    latencyMicros.percentile(50), latencyMicros.percentile(99), latencyMicros.percentile(99.9), latencyMicros.max);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.unifor.br.chat_peer.harness;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.SimNetwork;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeshConvergenceTest {
+
+    private static PeerConfig config() {
+        return new PeerConfig().transport(PeerConfig.TransportMode.NIO).selectorThreads(1).sync(false).heartbeatIntervalMillis(0);
+    }
+
+    @Test
+    void forwardingRingDeliversEveryMessageToEveryNode() throws Exception {
+        try (Mesh mesh = new Mesh(12, Topology.RING, 2, true, config(), new Random(1))) {
+            assertTrue(mesh.connect(10_000), "ring wired");
+            Mesh.Report r = mesh.drive(100, 1000, 64, 3000, new Random(2));
+            assertEquals(r.expectedCopies(), r.deliveredCopies(), r.toString());
+            assertEquals(r.messages(), r.fullyDelivered());
+            assertEquals(0, r.overDelivered());
+        }
+    }
+
+    @Test
+    void withoutForwardingOnlyNeighboursHearTheSender() throws Exception {
+        try (Mesh mesh = new Mesh(8, Topology.LINE, 2, false, config(), new Random(1))) {
+            assertTrue(mesh.connect(10_000), "line wired");
+            Mesh.Report r = mesh.drive(100, 500, 64, 1000, new Random(2));
+            assertTrue(r.expectedCopies() < r.messages() * 7L, "neighbours only");
+            assertEquals(r.expectedCopies(), r.deliveredCopies(), r.toString());
+            assertEquals(0, r.forwards());
+        }
+    }
+
+    @Test
+    void channelTrafficReachesEverySubscriberForLessThanBroadcast() throws Exception {
+        PeerConfig config = config().network(new SimNetwork(1)).forwardMode(PeerConfig.ForwardMode.FLOOD);
+        Random rnd = new Random(1);
+        try (Mesh mesh = new Mesh(40, Topology.RANDOM, 4, true, config, rnd)) {
+            assertTrue(mesh.connect(10_000), "mesh wired");
+            assertTrue(mesh.subscribe(3, 0.2, rnd, 10_000), "subscriptions settled");
+            Mesh.Report scoped = mesh.driveChannels(50, 1000, 64, 3000, new Random(2));
+            assertEquals(scoped.expectedCopies(), scoped.deliveredCopies(), scoped.toString());
+            assertEquals(0, scoped.overDelivered());
+            Mesh.Report global = mesh.drive(50, 1000, 64, 3000, new Random(2));
+            assertTrue(scoped.bytesOut() < global.bytesOut() / 2, scoped.bytesOut() + " vs " + global.bytesOut());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.unifor.br.chat_peer.harness;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+import com.unifor.br.chat_peer.p2p.SimNetwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless load generator for a {@link Mesh} of local nodes: for every topology and forwarding
+ * setting asked for, starts the mesh, wires it, drives it at the given rate and prints throughput,
+ * delivery latency, completeness and duplicates. Loopback only, no multicast.
+ * Run with {@code ... MeshHarness key=value ...}, e.g.
+ * {@code nodes=100 topology=random degree=4 forward=both rate=200 duration=10}. Keys:
+ * <ul>
+ *   <li>{@code nodes} (50), {@code topology} line|ring|random|full|all (ring,random),
+ *       {@code degree} average degree of random graphs (4)</li>
+ *   <li>{@code forward} on|off|both (both), {@code mode} flood|plumtree (plumtree)</li>
+ *   <li>{@code rate} messages/s over the whole mesh (100), {@code duration} seconds (10),
+ *       {@code size} bytes of text (64), {@code drain} seconds without progress before giving up (5)</li>
+ *   <li>{@code transport} nio|blocking (nio), {@code heartbeat} interval ms, 0 = off (1000),
+ *       {@code sync} true|false (false), {@code seed} (42)</li>
+ *   <li>{@code network} tcp|sim (tcp); on {@code sim} the run is a {@link SimNetwork} on virtual
+ *       time with {@code latency} ms (5), {@code jitter} ms (0), {@code loss} probability (0) and
+ *       {@code bandwidth} bytes/s per host (0 = unlimited), and nodes get lean buffers so 10,000 fit</li>
+ *   <li>{@code channels} (0): when above 0, every node subscribes to each of that many channels with
+ *       probability {@code subscribe} (0.2); the run then sends channel traffic and the same load as
+ *       global broadcast, and prints how many bytes and frames the subscription routing saved</li>
+ *   <li>{@code direct} true|false (false): nodes keep auto-connect, build their DM routing tables
+ *       from the topology on, with a refresh every {@code refresh} ms (1000), and the run sends DMs
+ *       between random pairs instead of broadcasts; prints hops per DM and links per node</li>
+ * </ul>
+ * Large meshes need file descriptors: every link is two sockets in this process, so a 500-node
+ * full mesh is far beyond a default {@code ulimit -n}.
+ */
+public final class MeshHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("expected key=value, got " + a);
+            opt.put(a.substring(0, eq).toLowerCase(Locale.ROOT), a.substring(eq + 1).toLowerCase(Locale.ROOT));
+        }
+        int nodes = Integer.parseInt(opt.getOrDefault("nodes", "50"));
+        int degree = Integer.parseInt(opt.getOrDefault("degree", "4"));
+        double rate = Double.parseDouble(opt.getOrDefault("rate", "100"));
+        long duration = (long) (Double.parseDouble(opt.getOrDefault("duration", "10")) * 1000);
+        int size = Integer.parseInt(opt.getOrDefault("size", "64"));
+        long drain = (long) (Double.parseDouble(opt.getOrDefault("drain", "5")) * 1000);
+        long seed = Long.parseLong(opt.getOrDefault("seed", "42"));
+        int channels = Integer.parseInt(opt.getOrDefault("channels", "0"));
+        double subscribe = Double.parseDouble(opt.getOrDefault("subscribe", "0.2"));
+        boolean direct = Boolean.parseBoolean(opt.getOrDefault("direct", "false"));
+
+        List<Topology> topologies = new ArrayList<>();
+        String topology = opt.getOrDefault("topology", "ring,random");
+        for (String t : (topology.equals("all") ? "line,ring,random,full" : topology).split(",")) {
+            topologies.add(Topology.valueOf(t.trim().toUpperCase(Locale.ROOT)));
+        }
+        String forward = opt.getOrDefault("forward", "both");
+        boolean[] forwards = switch (forward) {
+            case "on", "true" -> new boolean[]{true};
+            case "off", "false" -> new boolean[]{false};
+            case "both" -> new boolean[]{true, false};
+            default -> throw new IllegalArgumentException("forward must be on, off or both");
+        };
+
+        boolean simulated = opt.getOrDefault("network", "tcp").equals("sim");
+        for (Topology t : topologies) {
+            for (boolean fwd : forwards) {
+                PeerConfig config = new PeerConfig()
+                        .transport(PeerConfig.TransportMode.valueOf(opt.getOrDefault("transport", "nio").toUpperCase(Locale.ROOT)))
+                        .forwardMode(PeerConfig.ForwardMode.valueOf(opt.getOrDefault("mode", "plumtree").toUpperCase(Locale.ROOT)))
+                        .selectorThreads(1)
+                        .heartbeatIntervalMillis(Long.parseLong(opt.getOrDefault("heartbeat", "1000")))
+                        .sync(Boolean.parseBoolean(opt.getOrDefault("sync", "false")))
+                        .dhtRefreshMillis(Long.parseLong(opt.getOrDefault("refresh", "1000")));
+                if (simulated) {
+                    config.network(new SimNetwork(seed)
+                                    .latencyMillis(Long.parseLong(opt.getOrDefault("latency", "5")))
+                                    .jitterMillis(Long.parseLong(opt.getOrDefault("jitter", "0")))
+                                    .loss(Double.parseDouble(opt.getOrDefault("loss", "0")))
+                                    .bandwidthBytesPerSecond(Long.parseLong(opt.getOrDefault("bandwidth", "0"))))
+                            .outboundQueueCapacity(64)
+                            .historyCapacity(256)
+                            .dedupMemoryBytes(64 << 10);
+                }
+                run(t, fwd, nodes, degree, config, rate, duration, size, drain, seed, channels, subscribe, direct);
+            }
+        }
+    }
+
+    private static void run(Topology topology, boolean forward, int nodes, int degree, PeerConfig config,
+                            double rate, long duration, int size, long drain, long seed,
+                            int channels, double subscribe, boolean direct) throws Exception {
+        Random rnd = new Random(seed);
+        System.out.printf(Locale.ROOT, "== %s, %d nós, forward %s, %s, %.0f msg/s por %d s%n",
+                topology, nodes, forward ? "on" : "off", config.forwardMode(), rate, duration / 1000);
+        long t0 = System.nanoTime();
+        try (Mesh mesh = new Mesh(nodes, topology, degree, forward, config, rnd, direct)) {
+            boolean wired = mesh.connect(30_000 + nodes * 50L);
+            System.out.printf(Locale.ROOT, "   %d/%d links em %d ms%s%n", mesh.linksUp(), mesh.plannedLinks(),
+                    (System.nanoTime() - t0) / 1_000_000, wired ? "" : " (incompleto, seguindo assim mesmo)");
+            if (direct) {
+                long t1 = System.nanoTime();
+                boolean settled = mesh.awaitRouting(60_000 + nodes * 50L);
+                System.out.printf(Locale.ROOT, "   tabelas de roteamento em %d ms%s, %d links%n",
+                        (System.nanoTime() - t1) / 1_000_000, settled ? "" : " (sem convergir)", mesh.linksUp());
+                Mesh.Report report = mesh.driveDirect(rate, duration, size, drain, rnd);
+                System.out.println(report.toString().indent(3).stripTrailing());
+                long maxHops = 0;
+                int[] links = new int[nodes];
+                for (int i = 0; i < nodes; i++) {
+                    PeerNode node = mesh.nodes().get(i);
+                    maxHops = Math.max(maxHops, node.metrics().directHops().max);
+                    links[i] = node.connectedPeersSnapshot().size();
+                }
+                Arrays.sort(links);
+                System.out.printf(Locale.ROOT, "   saltos por DM: média %.2f, máx %d (log2 N = %.1f); links por nó p50 %d, p99 %d, máx %d%n",
+                        1 + (double) report.forwards() / Math.max(1, report.deliveredCopies()), maxHops,
+                        Math.log(nodes) / Math.log(2), links[nodes / 2], links[nodes * 99 / 100], links[nodes - 1]);
+            } else if (channels > 0) {
+                long t1 = System.nanoTime();
+                boolean settled = mesh.subscribe(channels, subscribe, rnd, 30_000 + nodes * 50L);
+                int memberships = 0;
+                for (var subs : mesh.members()) memberships += subs.size();
+                System.out.printf(Locale.ROOT, "   %d canais, %.1f inscritos por canal, %,d SUBSCRIBE em %d ms%s%n",
+                        channels, (double) memberships / channels, mesh.subscriptionUpdates(),
+                        (System.nanoTime() - t1) / 1_000_000, settled ? "" : " (sem convergir)");
+                Mesh.Report scoped = mesh.driveChannels(rate, duration, size, drain, new Random(seed + 1));
+                System.out.println("   por canal:");
+                System.out.println(scoped.toString().indent(5).stripTrailing());
+                Mesh.Report global = mesh.drive(rate, duration, size, drain, new Random(seed + 1));
+                System.out.println("   mesma carga em difusão global:");
+                System.out.println(global.toString().indent(5).stripTrailing());
+                System.out.printf(Locale.ROOT, "   economia com canais: %.1f%% dos bytes (%,d contra %,d KiB), %.1f%% dos frames%n",
+                        100 - 100.0 * scoped.bytesOut() / Math.max(1, global.bytesOut()),
+                        scoped.bytesOut() / 1024, global.bytesOut() / 1024,
+                        100 - 100.0 * scoped.framesOut() / Math.max(1, global.framesOut()));
+            } else {
+                Mesh.Report report = mesh.drive(rate, duration, size, drain, rnd);
+                System.out.println(report.toString().indent(3).stripTrailing());
+            }
+            if (config.network() instanceof SimNetwork sim) {
+                System.out.printf(Locale.ROOT, "   simulação: %,d eventos, %,d frames entregues, %,d retransmissões, %.1f s virtuais em %.1f s reais%n",
+                        sim.eventsProcessed(), sim.framesDelivered(), sim.retransmits(), sim.nowMillis() / 1000.0,
+                        (System.nanoTime() - t0) / 1e9);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.unifor.br.chat_peer.harness;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** Shapes a {@link Mesh} can be wired in; every one of them is connected. */
+public enum Topology {
+    /** 0-1-2-...-(n-1): the worst diameter, every message crosses n-1 hops. */
+    LINE,
+    /** A line closed on itself. */
+    RING,
+    /** Random spanning tree plus random chords until the average degree is reached. */
+    RANDOM,
+    /** Every pair linked; n(n-1)/2 connections, two sockets each. */
+    FULL;
+
+    /** Undirected edges as {@code {a, b}} with {@code a < b}, no duplicates. */
+    public List<int[]> edges(int n, int degree, Random rnd) {
+        List<int[]> out = new ArrayList<>();
+        switch (this) {
+            case LINE -> {
+                for (int i = 1; i < n; i++) out.add(new int[]{i - 1, i});
+            }
+            case RING -> {
+                for (int i = 1; i < n; i++) out.add(new int[]{i - 1, i});
+                if (n > 2) out.add(new int[]{0, n - 1});
+            }
+            case FULL -> {
+                for (int a = 0; a < n; a++) {
+                    for (int b = a + 1; b < n; b++) out.add(new int[]{a, b});
+                }
+            }
+            case RANDOM -> {
+                Set<Long> taken = new HashSet<>();
+                // each node hooks onto a random earlier one: connected with n-1 edges
+                for (int i = 1; i < n; i++) add(out, taken, rnd.nextInt(i), i);
+                long target = Math.min((long) n * (n - 1) / 2, (long) n * degree / 2);
+                while (out.size() < target) {
+                    int a = rnd.nextInt(n), b = rnd.nextInt(n);
+                    if (a != b) add(out, taken, Math.min(a, b), Math.max(a, b));
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void add(List<int[]> out, Set<Long> taken, int a, int b) {
+        if (taken.add((long) a << 32 | b)) out.add(new int[]{a, b});
+    }
+}
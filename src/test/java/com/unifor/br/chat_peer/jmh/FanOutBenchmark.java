@@ -0,0 +1,69 @@
+package com.unifor.br.chat_peer.jmh;
+
+import com.unifor.br.chat_peer.p2p.PeerConfig;
+import com.unifor.br.chat_peer.p2p.PeerNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost on the caller's thread of broadcasting one message to N peers over loopback: id and
+ * sequence, history append, one encode and an enqueue per link. Writes happen on the selector
+ * threads; the queues are large and drop the oldest frame so a slow drain never disconnects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "50"})
+    int peers;
+
+    @Param({"true", "false"})
+    boolean binary;
+
+    private PeerNode sender;
+    private final List<PeerNode> receivers = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        PeerConfig config = new PeerConfig()
+                .transport(PeerConfig.TransportMode.NIO)
+                .binaryCodec(binary)
+                .outboundQueueCapacity(1 << 16)
+                .overflowPolicy(PeerConfig.OverflowPolicy.DROP_OLDEST)
+                .targetDegree(peers)
+                .sync(false)
+                .jmx(false)
+                .heartbeatIntervalMillis(0);
+        sender = new PeerNode("bench", 0, false, config);
+        sender.start();
+        for (int i = 0; i < peers; i++) {
+            PeerNode r = new PeerNode("r" + i, 0, false, config);
+            r.start();
+            r.connectTo("127.0.0.1", sender.listenPort());
+            receivers.add(r);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sender.connectedPeersSnapshot().size() < peers && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (sender.connectedPeersSnapshot().size() < peers) throw new IllegalStateException("peers did not connect");
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.safeClose();
+        for (PeerNode r : receivers) r.safeClose();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        sender.broadcastUserText("mensagem de teste para todos os peers conectados");
+    }
+}
@@ -0,0 +1,54 @@
+package com.unifor.br.chat_peer.jmh;
+
+import com.unifor.br.chat_peer.p2p.ChatMessage;
+import com.unifor.br.chat_peer.p2p.MessageHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory history: one append (ring slot plus sender/token/time index) and a full snapshot
+ * of a ring that is already full, the operation behind {@code /history}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageHistoryBenchmark {
+
+    @Param({"1024", "8192"})
+    int capacity;
+
+    private MessageHistory history;
+    private ChatMessage template;
+
+    @Setup
+    public void setup() {
+        history = new MessageHistory(capacity);
+        template = new ChatMessage(Instant.now(), "ana", "bom dia pessoal, tudo certo para a reunião de hoje?",
+                ChatMessage.Direction.IN, "id", "8000000000000001", 1);
+        for (int i = 0; i < capacity; i++) history.add(template);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ChatMessage append() {
+        return history.add(template);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ChatMessage appendContended() {
+        return history.add(template);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<ChatMessage> snapshot() {
+        return history.snapshot();
+    }
+}
@@ -0,0 +1,57 @@
+package com.unifor.br.chat_peer.jmh;
+
+import com.unifor.br.chat_peer.p2p.PeerAddress;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peer address identity, paid on every known-peer and connection lookup: construction from a
+ * literal (goes through the resolver cache), hashing, and a hash-set probe.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeerAddressBenchmark {
+
+    @Param({"256"})
+    int peers;
+
+    private final Set<PeerAddress> known = new HashSet<>();
+    private PeerAddress[] probes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        probes = new PeerAddress[peers * 2];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = new PeerAddress("192.168." + (i / 250) + "." + (i % 250 + 1), 5000 + i % 7);
+            if (i % 2 == 0) known.add(probes[i]);
+        }
+    }
+
+    private PeerAddress nextProbe() {
+        next = next + 1 == probes.length ? 0 : next + 1;
+        return probes[next];
+    }
+
+    @Benchmark
+    public PeerAddress construct() {
+        return new PeerAddress("192.168.0." + (next = (next + 1) & 127), 5000);
+    }
+
+    @Benchmark
+    public int hash() {
+        return nextProbe().hashCode();
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        return known.contains(nextProbe());
+    }
+}
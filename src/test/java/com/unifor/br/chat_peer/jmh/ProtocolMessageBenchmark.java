@@ -0,0 +1,57 @@
+package com.unifor.br.chat_peer.jmh;
+
+import com.unifor.br.chat_peer.p2p.ProtocolMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line codec costs: {@code toLine} (escaping included) and {@code parse} (field splitting and
+ * unescaping) of a chat message, for plain text and for text full of pipes and backslashes,
+ * plus the binary frame for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolMessageBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int length;
+
+    /** Share of characters that must be escaped on the line protocol. */
+    @Param({"0", "10"})
+    int escapePercent;
+
+    private String text;
+    private String line;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (escapePercent > 0 && i % (100 / escapePercent) == 0) sb.append(i % 2 == 0 ? '|' : '\\');
+            else sb.append((char) ('a' + i % 26));
+        }
+        text = sb.toString();
+        line = ProtocolMessage.msg("ana", text, "8000000000000001", 42, 1_700_000_000_000L).toLine();
+    }
+
+    @Benchmark
+    public String toLine() {
+        // a fresh message every time: toLine is not cached, frames are
+        return ProtocolMessage.msg("ana", text, "8000000000000001", 42, 1_700_000_000_000L).toLine();
+    }
+
+    @Benchmark
+    public ProtocolMessage parse() {
+        return ProtocolMessage.parse(line);
+    }
+
+    @Benchmark
+    public byte[] toBinary() {
+        return ProtocolMessage.msg("ana", text, "8000000000000001", 42, 1_700_000_000_000L).toBinary();
+    }
+}
@@ -0,0 +1,75 @@
+package com.unifor.br.chat_peer.jmh;
+
+import com.unifor.br.chat_peer.p2p.SeenSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate suppression under contention, the check every forwarded message goes through
+ * ({@code PeerNode.firstSighting}). Writers mark ids (after the first pass nearly all are
+ * duplicates, as when a message arrives over several links) while readers probe membership the
+ * way GossipRouter does for IHAVE announcements.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SeenSetBenchmark {
+
+    private static final int IDS = 1 << 16;
+
+    private SeenSet seen;
+    private long[] msb;
+    private long[] lsb;
+
+    @Setup
+    public void setup() {
+        seen = new SeenSet(1 << 20, 10 * 60_000, 4);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        msb = new long[IDS];
+        lsb = new long[IDS];
+        for (int i = 0; i < IDS; i++) {
+            msb[i] = rnd.nextLong();
+            lsb[i] = rnd.nextLong();
+            if (i % 2 == 0) seen.markIfAbsent(msb[i], lsb[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt(IDS);
+
+        int advance() {
+            next = (next + 1) & (IDS - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean markIfAbsent(Cursor c) {
+        int i = c.advance();
+        return seen.markIfAbsent(msb[i], lsb[i]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean contains(Cursor c) {
+        int i = c.advance();
+        return seen.contains(msb[i], lsb[i]);
+    }
+
+    @Benchmark
+    @Group("writers")
+    @GroupThreads(4)
+    public boolean markOnly(Cursor c) {
+        int i = c.advance();
+        return seen.markIfAbsent(msb[i], lsb[i]);
+    }
+}
@@ -0,0 +1,64 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectRoutingTest {
+
+    @Test
+    void dmsReachTheirTargetInLogarithmicHopsWithBoundedDialing() throws Exception {
+        int n = 1000;
+        SimNetwork sim = new SimNetwork(3).latencyMillis(5).jitterMillis(2);
+        PeerConfig config = new PeerConfig().network(sim).jmx(false).sync(false).heartbeatIntervalMillis(0)
+                .historyCapacity(64).dedupMemoryBytes(16 << 10).outboundQueueCapacity(64)
+                .targetDegree(4).dhtRefreshMillis(1000);
+        List<PeerNode> nodes = new ArrayList<>();
+        Random rnd = new Random(3);
+        // every node joins through one random node already there and builds its table from there
+        for (int i = 0; i < n; i++) {
+            PeerNode node = new PeerNode("n" + i, 0, false, config);
+            node.start();
+            if (i > 0) {
+                PeerAddress via = nodes.get(rnd.nextInt(i)).localAddress();
+                node.connectTo(via.host, via.port);
+            }
+            nodes.add(node);
+            if (i % 100 == 99) sim.runFor(100);
+        }
+        sim.runFor(15_000);
+
+        AtomicLong delivered = new AtomicLong();
+        for (PeerNode node : nodes) node.onDeliver = m -> delivered.incrementAndGet();
+        int sent = 0;
+        while (sent < 300) {
+            int from = rnd.nextInt(n), to = rnd.nextInt(n);
+            if (from == to) continue;
+            assertNotNull(nodes.get(from).sendDirect(nodes.get(to).origin(), "oi " + sent), "route out of n" + from);
+            sent++;
+            sim.runFor(5);
+        }
+        sim.runFor(2000);
+        assertEquals(sent, delivered.get());
+
+        long hops = 0, maxHops = 0, forwards = 0;
+        for (PeerNode node : nodes) {
+            LatencyHistogram.Snapshot h = node.metrics().directHops();
+            hops += Math.round(h.mean() * h.count);
+            maxHops = Math.max(maxHops, h.max);
+            forwards += node.metrics().getForwards();
+            assertEquals(0, node.metrics().getDirectUnroutable());
+            assertTrue(node.dialedCount() <= Math.max(config.targetDegree(), config.dhtLinks()), "dials bounded");
+        }
+        double log2n = Math.log(n) / Math.log(2);
+        assertEquals(hops, forwards + sent, "every hop but the first is a relay");
+        assertTrue(hops < sent * log2n / 2, "mean hops " + (double) hops / sent);
+        assertTrue(maxHops <= log2n, "max hops " + maxHops);
+        nodes.forEach(PeerNode::safeClose);
+    }
+}
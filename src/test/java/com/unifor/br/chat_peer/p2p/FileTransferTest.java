@@ -0,0 +1,128 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferTest {
+
+    private static final int CHUNK = 64 * 1024;
+
+    @Test
+    void acceptedFileArrivesIntactAndResumesAfterTheVerifiedChunks() throws Exception {
+        Path src = Files.createTempDirectory("files-src");
+        Path dst = Files.createTempDirectory("files-dst");
+        byte[] data = new byte[3 * 1024 * 1024 + 123];
+        new Random(7).nextBytes(data);
+        Path file = Files.write(src.resolve("dados.bin"), data);
+
+        PeerNode ana = node("ana", src), bia = node("bia", dst);
+        try {
+            TransferStatus offered = offerOnceConnected(ana, bia, file);
+            assertTrue(offered.outgoing);
+            await(() -> !bia.fileTransfers().isEmpty(), "offer arrives");
+            TransferStatus incoming = bia.fileTransfers().get(0);
+            assertEquals(TransferStatus.State.OFFERED, incoming.state);
+            assertEquals(data.length, incoming.size);
+
+            // an earlier attempt got 10 chunks and a torn piece of the 11th to disk
+            Files.write(dst.resolve("dados.bin." + incoming.id + ".part"), Arrays.copyOf(data, 10 * CHUNK + 500));
+            assertNotNull(bia.acceptFile(incoming.id));
+            await(() -> bia.fileTransfers().get(0).state == TransferStatus.State.DONE, "file received");
+            await(() -> ana.fileTransfers().get(0).state == TransferStatus.State.DONE, "sender sees the last ack");
+
+            assertArrayEquals(data, Files.readAllBytes(dst.resolve("dados.bin")));
+            assertEquals(data.length - 10L * CHUNK, bia.metrics().getFileBytesIn());
+            assertEquals(data.length - 10L * CHUNK, ana.metrics().getFileBytesOut());
+            assertEquals(0, bia.metrics().getFileChunksRejected());
+            assertFalse(Files.exists(dst.resolve("dados.bin." + incoming.id + ".part")));
+        } finally {
+            ana.safeClose();
+            bia.safeClose();
+        }
+    }
+
+    @Test
+    void declinedOfferIsCancelledOnBothSides() throws Exception {
+        Path src = Files.createTempDirectory("files-src");
+        Path file = Files.write(src.resolve("x.txt"), new byte[]{1, 2, 3});
+        PeerNode ana = node("ana", src), bia = node("bia", Files.createTempDirectory("files-dst"));
+        try {
+            offerOnceConnected(ana, bia, file);
+            await(() -> !bia.fileTransfers().isEmpty(), "offer arrives");
+            String id = bia.fileTransfers().get(0).id;
+            assertEquals(TransferStatus.State.CANCELLED, bia.cancelFile(id).state);
+            await(() -> ana.fileTransfers().get(0).state == TransferStatus.State.CANCELLED, "sender told");
+            assertNull(bia.acceptFile(id));
+        } finally {
+            ana.safeClose();
+            bia.safeClose();
+        }
+    }
+
+    @Test
+    void offersBeyondThePendingCapAreDeclinedAndExistingFilesAreKept() throws Exception {
+        Path src = Files.createTempDirectory("files-src");
+        Path dst = Files.createTempDirectory("files-dst");
+        Path file = Files.write(src.resolve("x.txt"), new byte[]{1, 2, 3});
+        Files.write(dst.resolve("x.txt"), new byte[]{9});
+        PeerNode ana = node("ana", src), bia = node("bia", dst);
+        try {
+            offerOnceConnected(ana, bia, file);
+            for (int i = 1; i <= FileTransfers.MAX_PENDING_OFFERS; i++) ana.offerFile("bia", file);
+            await(() -> ana.fileTransfers().stream().anyMatch(t -> t.state == TransferStatus.State.CANCELLED),
+                    "extra offer declined");
+            await(() -> bia.fileTransfers().size() == FileTransfers.MAX_PENDING_OFFERS, "offers arrive");
+
+            String id = bia.fileTransfers().get(0).id;
+            assertNotNull(bia.acceptFile(id));
+            await(() -> bia.fileTransfers().stream().anyMatch(t -> t.state == TransferStatus.State.DONE), "file received");
+            assertArrayEquals(new byte[]{9}, Files.readAllBytes(dst.resolve("x.txt")));
+            assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(dst.resolve("x (1).txt")));
+        } finally {
+            ana.safeClose();
+            bia.safeClose();
+        }
+    }
+
+    @Test
+    void offeredNamesCannotLeaveTheDownloadDirectory() {
+        assertEquals("passwd", FileTransfers.safeName("../../etc/passwd"));
+        assertEquals("a_b.txt", FileTransfers.safeName("C:\\tmp\\..\\a:b.txt"));
+        assertEquals("bashrc", FileTransfers.safeName("..bashrc"));
+        assertEquals("arquivo", FileTransfers.safeName(".."));
+    }
+
+    private static PeerNode node(String name, Path filesDir) throws Exception {
+        PeerConfig config = new PeerConfig().jmx(false).autoConnect(false).sync(false).heartbeatIntervalMillis(0)
+                .filesDir(filesDir).fileChunkBytes(CHUNK).fileWindowChunks(4);
+        PeerNode node = new PeerNode(name, 0, false, config);
+        node.start();
+        return node;
+    }
+
+    private static TransferStatus offerOnceConnected(PeerNode from, PeerNode to, Path file) throws Exception {
+        from.connectTo("127.0.0.1", to.listenPort());
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            TransferStatus t = from.offerFile(to.username(), file);
+            if (t != null) return t;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("handshake");
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("timed out: " + what);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryIndexTest {
+
+    @Test
+    void findsBySenderAndByAllTerms() {
+        MessageHistory history = new MessageHistory(64);
+        history.addIn("Ana", "Você viu o deploy de hoje?");
+        history.addIn("bruno", "deploy quebrou o build");
+        history.addOut("carla", "vou olhar o build agora");
+        history.addIn("ana", "o build do deploy voltou");
+
+        List<ChatMessage> fromAna = history.index().bySender("ANA", 10);
+        assertEquals(2, fromAna.size());
+        assertEquals("o build do deploy voltou", fromAna.get(1).text);
+
+        List<ChatMessage> both = history.index().search("Deploy BUILD", 10);
+        assertEquals(2, both.size());
+        assertEquals("bruno", both.get(0).from);
+
+        assertEquals(1, history.index().search("voce", 10).size()); // accents and case are folded
+        assertTrue(history.index().search("inexistente", 10).isEmpty());
+    }
+
+    @Test
+    void evictedMessagesLeaveTheIndex() {
+        MessageHistory history = new MessageHistory(8);
+        history.addIn("velho", "palavra rara");
+        for (int i = 0; i < 40; i++) history.addIn("novo", "msg " + i);
+
+        assertTrue(history.index().bySender("velho", 10).isEmpty());
+        assertTrue(history.index().search("rara", 10).isEmpty());
+        assertEquals(8, history.index().bySender("novo", 100).size());
+    }
+
+    @Test
+    void betweenUsesTheTimeSkipIndex() {
+        MessageHistory history = new MessageHistory(1024);
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        for (int i = 0; i < 500; i++) history.add(new ChatMessage(start.plusMillis(i), "x", "m" + i, ChatMessage.Direction.IN));
+        Instant mid = start.plusSeconds(1);
+        for (int i = 0; i < 10; i++) history.add(new ChatMessage(mid.plusMillis(i), "y", "late" + i, ChatMessage.Direction.IN));
+
+        List<ChatMessage> late = history.index().between(mid, mid.plusSeconds(60), 100);
+        assertEquals(10, late.size());
+        assertEquals("late0", late.get(0).text);
+        assertEquals(510, history.index().between(start, mid.plusSeconds(60), 1000).size());
+
+        // a limit keeps the newest matches, oldest first
+        List<ChatMessage> newest = history.index().between(start, mid, 3);
+        assertEquals(List.of("m497", "m498", "m499"), newest.stream().map(m -> m.text).toList());
+        assertEquals("m100", history.index().between(start.plusMillis(100), start.plusMillis(101), 10).get(0).text);
+    }
+}
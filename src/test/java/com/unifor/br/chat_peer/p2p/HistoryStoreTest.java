@@ -0,0 +1,69 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryStoreTest {
+
+    @Test
+    void recentMessagesSurviveReopenAcrossSegments() throws Exception {
+        Path dir = Files.createTempDirectory("history-store");
+        try (HistoryStore store = new HistoryStore(dir, HistoryStore.INDEX_INTERVAL_BYTES, false)) {
+            for (int i = 0; i < 5000; i++) store.append(message(i, "msg " + i));
+            store.flush();
+            assertTrue(store.segmentCount() > 1);
+        }
+
+        try (HistoryStore store = new HistoryStore(dir, HistoryStore.INDEX_INTERVAL_BYTES, false)) {
+            assertEquals(5000L, store.size());
+            List<ChatMessage> recent = store.recent(3);
+            assertEquals(3, recent.size());
+            assertEquals("msg 4997", recent.get(0).text);
+            assertEquals("msg 4999", recent.get(2).text);
+
+            List<ChatMessage> since = store.since(Instant.ofEpochMilli(4990), 100);
+            assertEquals(10, since.size());
+            assertEquals("msg 4990", since.get(0).text);
+        }
+    }
+
+    @Test
+    void tornTailIsTruncatedOnOpen() throws Exception {
+        Path dir = Files.createTempDirectory("history-store");
+        try (HistoryStore store = new HistoryStore(dir, 1 << 20, true)) {
+            store.append(message(1, "primeira"));
+            store.append(message(2, "segunda"));
+            store.flush();
+        }
+        chopLastBytes(dir.resolve(String.format("%020d.log", 0)), 3);
+
+        try (HistoryStore store = new HistoryStore(dir, 1 << 20, true)) {
+            assertEquals(1L, store.size());
+            store.append(message(3, "terceira"));
+            store.flush();
+            List<ChatMessage> all = store.recent(10);
+            assertEquals(2, all.size());
+            assertEquals("primeira", all.get(0).text);
+            assertEquals("terceira", all.get(1).text);
+        }
+    }
+
+    private static ChatMessage message(long millis, String text) {
+        return new ChatMessage(Instant.ofEpochMilli(millis), "ana", text, ChatMessage.Direction.IN);
+    }
+
+    private static void chopLastBytes(Path file, int n) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - n);
+        }
+    }
+}
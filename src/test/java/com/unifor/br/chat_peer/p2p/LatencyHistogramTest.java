@@ -0,0 +1,42 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverEveryValueInOrder() {
+        int previous = -1;
+        for (long v = 0; v < 1 << 20; v += 1 + v / 50) {
+            int b = LatencyHistogram.bucket(v);
+            assertTrue(b >= previous, "bucket order at " + v);
+            assertTrue(LatencyHistogram.lowerBound(b) <= v, "lower bound at " + v);
+            previous = b;
+        }
+        assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.bucket(1L << 50));
+    }
+
+    @Test
+    void percentilesAreWithinThreePercent() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100_000; v++) h.record(v);
+        LatencyHistogram.Snapshot s = h.snapshot();
+
+        assertEquals(100_000, s.count);
+        assertEquals(100_000, s.max);
+        assertEquals(50_000, s.percentile(50), 50_000 * 0.03);
+        assertEquals(99_000, s.percentile(99), 99_000 * 0.03);
+        assertEquals(50_000, s.mean(), 50_000 * 0.03);
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) h.record(7);
+        h.record(-3); // clamped to zero
+        assertEquals(7, h.snapshot().percentile(50));
+        assertEquals(0, h.snapshot().percentile(1));
+    }
+}
@@ -0,0 +1,60 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkHealthTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void phiGrowsWithSilenceBeyondTheUsualInterval() {
+        SimNetwork sim = new SimNetwork(1);
+        LinkHealth h = new LinkHealth(1000, sim);
+        long t = sim.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            t += 1000 * MS + (i % 3) * 10 * MS;
+            h.beat(t);
+        }
+        assertTrue(h.phi(t + 500 * MS) < 1, "right after a heartbeat");
+        assertTrue(h.phi(t + 1900 * MS) < 8, "one late heartbeat is tolerated");
+        assertTrue(h.phi(t + 3000 * MS) > 8, "three intervals of silence");
+        assertTrue(h.phi(t + 3000 * MS) > h.phi(t + 2500 * MS));
+    }
+
+    @Test
+    void anyFrameResetsTheSilence() {
+        SimNetwork sim = new SimNetwork(1);
+        LinkHealth h = new LinkHealth(1000, sim);
+        long t = sim.nanoTime() + 10_000 * MS;
+        h.heard(t);
+        assertEquals(0, h.silentMillis(t));
+        assertTrue(h.phi(t + 100 * MS) < 1);
+    }
+
+    @Test
+    void silenceIsMeasuredOnTheNetworkClock() {
+        SimNetwork sim = new SimNetwork(1);
+        LinkHealth h = new LinkHealth(1000, sim);
+        assertTrue(h.phi() < 1, "just opened");
+        sim.runFor(5000);
+        assertTrue(h.phi() > 8, "five simulated seconds of silence");
+        assertTrue(h.toString().contains("φ"));
+    }
+
+    @Test
+    void rttIsSmoothedAndJitterTracksVariation() {
+        LinkHealth h = new LinkHealth(1000, new SimNetwork(1));
+        assertEquals(-1.0, h.srttMillis());
+        h.rttSample(10);
+        assertEquals(10, h.srttMillis(), 1e-9);
+        for (int i = 0; i < 50; i++) h.rttSample(20);
+        assertEquals(20, h.srttMillis(), 0.2);
+        assertTrue(h.jitterMillis() < 0.5);
+
+        h.rttSample(100);
+        assertTrue(h.srttMillis() < 35, "one outlier moves the estimate by 1/8");
+        assertTrue(h.jitterMillis() > 15);
+    }
+}
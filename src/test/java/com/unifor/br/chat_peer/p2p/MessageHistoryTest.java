@@ -0,0 +1,69 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageHistoryTest {
+
+    @Test
+    void appendReturnsTheStoredMessage() {
+        MessageHistory history = new MessageHistory(8);
+        assertNull(history.latest());
+
+        ChatMessage m = history.addIn("ana", "oi");
+        assertSame(m, history.latest());
+        assertSame(m, history.get(m.seq));
+        assertEquals(0L, m.seq);
+    }
+
+    @Test
+    void ringKeepsOnlyTheNewestMessages() {
+        MessageHistory history = new MessageHistory(5); // rounded up to 8
+        assertEquals(8, history.capacity());
+        for (int i = 0; i < 20; i++) history.addOut("me", "m" + i);
+
+        List<ChatMessage> kept = history.snapshot();
+        assertEquals(8, kept.size());
+        assertEquals("m12", kept.get(0).text);
+        assertEquals("m19", kept.get(7).text);
+        assertNull(history.get(3));
+    }
+
+    @Test
+    void concurrentWritersNeverLoseTheNewestMessages() throws Exception {
+        // a single slot: every writer racing for it laps the others
+        MessageHistory history = new MessageHistory(1);
+        List<Callable<ChatMessage>> burst = Collections.nCopies(4, () -> history.addIn("w", "x"));
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 5000; round++) {
+                writers.invokeAll(burst);
+                assertNotNull(history.get(history.nextSeq() - 1), "newest message lost in round " + round);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+    @Test
+    void pagesResumeFromTheCursor() {
+        MessageHistory history = new MessageHistory(64);
+        for (int i = 0; i < 10; i++) history.addSystem("s" + i);
+
+        MessageHistory.Page first = history.page(0, 4);
+        assertEquals(4, first.messages.size());
+        assertTrue(first.hasMore);
+
+        MessageHistory.Page rest = history.page(first.nextCursor, 100);
+        assertEquals(6, rest.messages.size());
+        assertEquals("s4", rest.messages.get(0).text);
+        assertFalse(rest.hasMore);
+    }
+}
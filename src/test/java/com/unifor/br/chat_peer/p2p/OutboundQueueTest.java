@@ -0,0 +1,82 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import static com.unifor.br.chat_peer.p2p.OutboundQueue.Stream.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    private static final int KIB = 1024;
+
+    @Test
+    void controlFrameWaitsForOneTurnNotForTheBacklog() {
+        OutboundQueue q = queue(PeerConfig.OverflowPolicy.DISCONNECT, 10_000);
+        for (int i = 0; i < 2000; i++) assertTrue(q.offer(frame(KIB, i), BULK, true));
+        for (int i = 0; i < 500; i++) assertTrue(q.offer(frame(KIB, i), CHAT, true));
+        for (int i = 0; i < 7; i++) assertNotNull(q.poll());
+
+        byte[] ping = frame(32, 0);
+        assertTrue(q.offer(ping, CONTROL, true));
+        int polls = 1;
+        while (q.poll() != ping) polls++;
+        // the rest of the chat turn and one bulk turn at the default 8,4,1 weights, not 2493 frames
+        assertTrue(polls <= 4 * 4 + 4 + 1, "polls until the control frame: " + polls);
+    }
+
+    @Test
+    void streamsKeepTheirOrderAndShareByWeight() {
+        OutboundQueue q = queue(PeerConfig.OverflowPolicy.DISCONNECT, 10_000);
+        for (int i = 0; i < 1000; i++) {
+            for (OutboundQueue.Stream s : OutboundQueue.Stream.values()) q.offer(frame(KIB, i, s.ordinal()), s, true);
+        }
+        int[] next = new int[3];
+        int[] taken = new int[3];
+        for (int n = 0; n < 13 * 40; n++) {
+            byte[] f = q.poll();
+            int stream = f[1];
+            assertEquals(next[stream]++, f[0] & 0xff | (f[2] & 0xff) << 8, "order within stream " + stream);
+            taken[stream]++;
+        }
+        assertEquals(320, taken[0]);
+        assertEquals(160, taken[1]);
+        assertEquals(40, taken[2]);
+    }
+
+    @Test
+    void overflowDropsBulkFirstAndByeGoesOutLast() {
+        OutboundQueue q = queue(PeerConfig.OverflowPolicy.DROP_OLDEST, 3);
+        byte[] hello = frame(16, 0), relay = frame(16, 1), chat = frame(16, 2), pong = frame(16, 3), bye = frame(16, 4);
+        q.offer(hello, CONTROL, false);
+        q.offer(relay, BULK, false);
+        q.offer(chat, CHAT, false);
+        q.offerLast(bye);
+        assertTrue(q.offer(pong, CONTROL, false));
+        assertEquals(1, q.dropped());
+        assertEquals(4, q.size());
+
+        assertSame(hello, q.poll());
+        assertSame(pong, q.poll());
+        assertSame(chat, q.poll());
+        assertSame(bye, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    private static OutboundQueue queue(PeerConfig.OverflowPolicy policy, int capacity) {
+        return new OutboundQueue(new PeerConfig().overflowPolicy(policy).outboundQueueCapacity(capacity), null);
+    }
+
+    private static byte[] frame(int length, int index) {
+        return frame(length, index, 0);
+    }
+
+    /** A frame whose first bytes hold its index and a marker, for telling frames apart. */
+    private static byte[] frame(int length, int index, int marker) {
+        byte[] f = new byte[length];
+        f[0] = (byte) index;
+        f[1] = (byte) marker;
+        f[2] = (byte) (index >> 8);
+        return f;
+    }
+}
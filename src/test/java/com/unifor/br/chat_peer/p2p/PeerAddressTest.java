@@ -0,0 +1,61 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeerAddressTest {
+
+    @Test
+    void literalsAreResolvedWithoutDnsAndCompareByAddress() {
+        PeerAddress a = new PeerAddress("::1", 5000);
+        PeerAddress b = new PeerAddress("[0:0:0:0:0:0:0:1]", 5000);
+        assertTrue(a.isResolved());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, new PeerAddress("::1", 5001));
+        assertTrue(a.isLoopback());
+    }
+
+    @Test
+    void namesResolveOnceAndThenComeFromTheCache() {
+        AddressResolver resolver = new AddressResolver(60_000, 10_000);
+        assertNull(resolver.cached("localhost"));
+
+        PeerAddress resolved = resolver.resolveAsync(new PeerAddress("localhost", 5000, null)).join();
+        assertTrue(resolved.isResolved());
+        assertNotNull(resolver.cached("LOCALHOST"));
+        resolver.resolveAsync("localhost").join();
+        assertEquals(1L, resolver.dnsQueries());
+        assertEquals(resolved, new PeerAddress(resolved.address().getHostAddress(), 5000));
+    }
+
+    @Test
+    void onlyWellFormedLiteralsSkipDnsAndTheCacheStaysBounded() {
+        assertTrue(AddressResolver.isLiteral("10.0.0.255"));
+        assertTrue(AddressResolver.isLiteral("fe80::1%eth0"));
+        assertFalse(AddressResolver.isLiteral("999.1.1.1"));
+        assertFalse(AddressResolver.isLiteral("1..2.3"));
+        assertFalse(AddressResolver.isLiteral("peer:x"));
+
+        AddressResolver resolver = new AddressResolver(60_000, 10_000);
+        assertNull(resolver.cached("999.1.1.1"));
+        for (int i = 0; i < AddressResolver.MAX_ENTRIES * 2; i++) {
+            assertNotNull(resolver.cached("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff)));
+        }
+        assertTrue(resolver.size() <= AddressResolver.MAX_ENTRIES);
+        assertEquals(0L, resolver.dnsQueries());
+    }
+
+    @Test
+    void equalityDoesNotDependOnWhatTheCacheKnew() throws Exception {
+        PeerAddress cold = new PeerAddress("peer.example", 5000, null);
+        PeerAddress warm = new PeerAddress("Peer.Example", 5000, InetAddress.getByName("10.0.0.7"));
+        assertEquals(cold, warm);
+        assertEquals(cold.hashCode(), warm.hashCode());
+        assertNotEquals(warm, new PeerAddress("10.0.0.7", 5000));
+        assertEquals(warm.canonical(), new PeerAddress("10.0.0.7", 5000));
+    }
+}
@@ -0,0 +1,210 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtocolMessageTest {
+
+    @Test
+    void lineRoundTripKeepsPipesAndBackslashes() {
+        ProtocolMessage msg = ProtocolMessage.msg("ana", "a|b \\ c");
+        ProtocolMessage back = ProtocolMessage.parse(msg.toLine());
+
+        assertEquals(ProtocolMessage.Type.MSG, back.type);
+        assertEquals(msg.id, back.id);
+        assertEquals("ana", back.from);
+        assertEquals("a|b \\ c", back.text);
+        // forwarding a parsed message must escape again
+        assertEquals(msg.toLine(), back.toLine());
+    }
+
+    @Test
+    void lineBreaksFromBinaryPeersCannotStartANewLine() {
+        ProtocolMessage msg = ProtocolMessage.msg("ana\nBYE", "a\nBYE|x\r\nPEERS_RES|y");
+        String line = msg.toLine();
+        assertEquals(-1, line.indexOf('\n'));
+        assertEquals(-1, line.indexOf('\r'));
+
+        ProtocolMessage back = ProtocolMessage.parse(line);
+        assertEquals(ProtocolMessage.Type.MSG, back.type);
+        assertEquals("a\nBYE|x\r\nPEERS_RES|y", back.text);
+        assertEquals(line, back.toLine());
+    }
+
+    @Test
+    void helloCarriesCapabilitiesAndStaysReadableWithoutThem() {
+        ProtocolMessage hello = ProtocolMessage.parse(ProtocolMessage.hello("bob", 5000, ProtocolMessage.CAP_BINARY).toLine());
+        assertTrue(hello.hasCapability(ProtocolMessage.CAP_BINARY));
+        assertEquals(5000, hello.listenPort);
+
+        ProtocolMessage legacy = ProtocolMessage.parse("HELLO|x|bob|5000");
+        assertFalse(legacy.hasCapability(ProtocolMessage.CAP_BINARY));
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        ProtocolMessage msg = ProtocolMessage.msg("ana", "olá | mundo");
+        byte[] frame = msg.toBinary();
+        assertNotNull(frame);
+        assertEquals(ProtocolMessage.BINARY_MAGIC, frame[0]);
+
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - ProtocolMessage.BINARY_HEADER, buf.getInt(1));
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage back = ProtocolMessage.readBinary(buf, new byte[16]);
+
+        assertEquals(msg, back);
+        assertEquals("ana", back.from);
+        assertEquals("olá | mundo", back.text);
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void originFieldsSurviveBothFramingsAndOldReadersIgnoreThem() {
+        ProtocolMessage msg = ProtocolMessage.msg("ana", "oi|tudo", "abc123", 42, 1_700_000_000_000L);
+
+        ProtocolMessage line = ProtocolMessage.parse(msg.toLine());
+        assertEquals("abc123", line.origin);
+        assertEquals(42L, line.originSeq);
+        assertEquals(1_700_000_000_000L, line.timestamp);
+        assertEquals("oi|tudo", line.text);
+
+        ByteBuffer buf = ByteBuffer.wrap(msg.toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage bin = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals("abc123", bin.origin);
+        assertEquals(42L, bin.originSeq);
+
+        // the trailing fields sit after the text, where a pre-sync parser stops reading
+        assertEquals("oi\\|tudo", msg.toLine().split("(?<!\\\\)\\|", -1)[3]);
+    }
+
+    @Test
+    void syncRequestCarriesMarks() {
+        ProtocolMessage req = ProtocolMessage.parse(ProtocolMessage.syncReq("aa:3,bb:10").toLine());
+        assertEquals(ProtocolMessage.Type.SYNC_REQ, req.type);
+        assertEquals(10L, SequenceTracker.parseMarks(req.syncMarks()).get("bb"));
+    }
+
+    @Test
+    void treeControlFramesRoundTrip() {
+        String ids = java.util.UUID.randomUUID() + "," + java.util.UUID.randomUUID();
+        ProtocolMessage line = ProtocolMessage.parse(ProtocolMessage.ihave(ids).toLine());
+        assertEquals(ProtocolMessage.Type.IHAVE, line.type);
+        assertEquals(2, line.messageIds().length);
+
+        ByteBuffer buf = ByteBuffer.wrap(ProtocolMessage.graft(ids).toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage graft = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals(ProtocolMessage.Type.GRAFT, graft.type);
+        assertEquals(ids, String.join(",", graft.messageIds()));
+
+        assertEquals(ProtocolMessage.Type.PRUNE, ProtocolMessage.parse(ProtocolMessage.prune().toLine()).type);
+    }
+
+    @Test
+    void pongEchoesThePingClock() {
+        ProtocolMessage ping = ProtocolMessage.parse(ProtocolMessage.ping(123456789L).toLine());
+        assertEquals(123456789L, ping.heartbeatNanos());
+
+        ByteBuffer buf = ByteBuffer.wrap(ProtocolMessage.pong(ping).toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage pong = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals(ProtocolMessage.Type.PONG, pong.type);
+        assertEquals(ping.id, pong.id);
+        assertEquals(123456789L, pong.heartbeatNanos());
+    }
+
+    @Test
+    void largeFramesAreDeflatedAndSmallOnesSentPlain() throws Exception {
+        ProtocolMessage small = ProtocolMessage.msg("ana", "oi", "abc", 1, 1);
+        assertEquals(ProtocolMessage.BINARY_MAGIC, small.compressedFrame(256)[0]);
+
+        String text = "bom dia, tudo bem? ".repeat(100);
+        ProtocolMessage big = ProtocolMessage.msg("ana", text, "abc", 2, 2);
+        byte[] frame = big.compressedFrame(256);
+        assertEquals(FrameCompressor.DEFLATE_MAGIC, frame[0]);
+        assertTrue(frame.length < big.frame(true).length / 5);
+        assertSame(frame, big.compressedFrame(256), "compressed once per message");
+
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - ProtocolMessage.BINARY_HEADER, buf.getInt(1));
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage back = ProtocolMessage.readBinary(new FrameCompressor.Decompressor().inflate(buf), new byte[16]);
+        assertEquals(big.id, back.id);
+        assertEquals(text, back.text);
+        assertEquals(2, back.originSeq);
+    }
+
+    @Test
+    void channelMessagesAndSubscriptionsRoundTrip() {
+        ProtocolMessage msg = ProtocolMessage.channelMsg("dev", "ana", "oi", "abc", 7);
+        ProtocolMessage line = ProtocolMessage.parse(msg.toLine());
+        assertEquals("dev", line.channel);
+        assertEquals("abc", line.origin);
+        assertEquals(0, line.originSeq);
+
+        ByteBuffer buf = ByteBuffer.wrap(msg.toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage bin = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals("dev", bin.channel);
+        assertEquals("oi", bin.text);
+        assertNull(ProtocolMessage.parse(ProtocolMessage.msg("ana", "oi", "abc", 1, 1).toLine()).channel);
+
+        ProtocolMessage sub = ProtocolMessage.parse(ProtocolMessage.subscribe("r:2:1,dev,ops").toLine());
+        assertEquals(ProtocolMessage.Type.SUBSCRIBE, sub.type);
+        assertEquals("r:2:1,dev,ops", sub.interest());
+    }
+
+    @Test
+    void dmsAndHelloNodeIdsRoundTrip() {
+        ProtocolMessage dm = ProtocolMessage.direct("ana", "oi | tudo bem?", "abc", "8f00ff", 7).relayed();
+        ProtocolMessage line = ProtocolMessage.parse(dm.toLine());
+        assertEquals("8f00ff", line.target);
+        assertEquals(1, line.hops);
+        assertEquals("oi | tudo bem?", line.text);
+
+        ByteBuffer buf = ByteBuffer.wrap(dm.toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage bin = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals(dm.id, bin.id);
+        assertEquals("abc", bin.origin);
+        assertEquals(7, bin.timestamp);
+        assertEquals(1, bin.relayed().hops - 1);
+
+        ProtocolMessage hello = ProtocolMessage.hello("ana", 5000, "bin1,dht1", "", "8f00ff");
+        assertEquals("8f00ff", ProtocolMessage.parse(hello.toLine()).origin);
+        buf = ByteBuffer.wrap(hello.toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage helloBin = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals("8f00ff", helloBin.origin);
+        assertEquals("", helloBin.interest());
+    }
+
+    @Test
+    void fileOffersRoundTrip() {
+        String id = java.util.UUID.randomUUID().toString();
+        ProtocolMessage offer = ProtocolMessage.fileOffer(id, "ana", "notas, v2 | final.txt", 5_000_000_000L, 262144, 40123);
+        ProtocolMessage.FileOffer expected = new ProtocolMessage.FileOffer(5_000_000_000L, 262144, 40123, "notas, v2 | final.txt");
+        assertEquals(expected, ProtocolMessage.parse(offer.toLine()).fileOffer());
+
+        ByteBuffer buf = ByteBuffer.wrap(offer.toBinary());
+        buf.position(ProtocolMessage.BINARY_HEADER);
+        ProtocolMessage bin = ProtocolMessage.readBinary(buf, new byte[16]);
+        assertEquals(id, bin.id);
+        assertEquals("ana", bin.from);
+        assertEquals(expected, bin.fileOffer());
+
+        assertEquals("declined", ProtocolMessage.parse(ProtocolMessage.fileCancel(id, "declined").toLine()).text);
+        assertNull(ProtocolMessage.parse("FILE_OFFER|" + id + "|ana|x,1,2").fileOffer());
+    }
+
+    @Test
+    void nonUuidIdsFallBackToLines() {
+        ProtocolMessage legacy = ProtocolMessage.parse("MSG|not-a-uuid|ana|oi");
+        assertNull(legacy.toBinary());
+    }
+}
@@ -0,0 +1,92 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeenSetTest {
+
+    @Test
+    void secondSightingIsADuplicate() {
+        SeenSet seen = new SeenSet(64 * 1024, 60_000, 4);
+        UUID id = UUID.randomUUID();
+
+        assertTrue(seen.markIfAbsent(id));
+        assertFalse(seen.markIfAbsent(id));
+        assertTrue(seen.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        assertTrue(seen.markIfAbsent(UUID.randomUUID()));
+    }
+
+    @Test
+    void zeroHalvesAndStringIdsAreAccepted() {
+        SeenSet seen = new SeenSet(64 * 1024, 60_000, 4);
+        assertTrue(seen.markIfAbsent(0L, 0L));
+        assertFalse(seen.markIfAbsent(0L, 0L));
+        assertTrue(seen.markIfAbsent("legacy-id"));
+        assertFalse(seen.markIfAbsent("legacy-id"));
+    }
+
+    @Test
+    void idsExpireAfterTheRetentionWindow() throws InterruptedException {
+        SeenSet seen = new SeenSet(64 * 1024, 40, 2);
+        UUID id = UUID.randomUUID();
+        assertTrue(seen.markIfAbsent(id));
+
+        Thread.sleep(60); // two generations of 20 ms
+        seen.markIfAbsent(UUID.randomUUID()); // rotates
+        Thread.sleep(30);
+        seen.markIfAbsent(UUID.randomUUID()); // rotates again, dropping the first generation
+
+        assertTrue(seen.markIfAbsent(id));
+    }
+
+    @Test
+    void concurrentSightingsAcrossRotationsReportAnIdNewOnce() throws Exception {
+        SeenSet seen = new SeenSet(4 * 1024, 60_000, 4); // 64 slots per generation: a rotation every few rounds
+        int threads = 4, rounds = 2000, perRound = 8;
+        UUID[] ids = new UUID[rounds * perRound];
+        for (int i = 0; i < ids.length; i++) ids[i] = UUID.randomUUID();
+        AtomicIntegerArray fresh = new AtomicIntegerArray(ids.length);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        barrier.await();
+                        for (int k = 0; k < perRound; k++) {
+                            int i = r * perRound + (k + offset) % perRound;
+                            if (seen.markIfAbsent(ids[i])) fresh.incrementAndGet(i);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+
+        assertTrue(seen.earlyRotations() > 100);
+        for (int i = 0; i < ids.length; i++) assertEquals(1, fresh.get(i), "id " + i);
+    }
+
+    @Test
+    void fullGenerationRotatesEarlyInsteadOfForgettingEverything() {
+        SeenSet seen = new SeenSet(4 * 1024, 60_000, 4); // 64 slots per generation
+        UUID[] ids = new UUID[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            assertTrue(seen.markIfAbsent(ids[i]));
+        }
+        assertTrue(seen.earlyRotations() > 0);
+        // the most recent ids are still remembered
+        assertFalse(seen.markIfAbsent(ids[ids.length - 1]));
+    }
+}
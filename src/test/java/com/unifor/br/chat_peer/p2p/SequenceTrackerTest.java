@@ -0,0 +1,52 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceTrackerTest {
+
+    @Test
+    void markIsTheContiguousPrefix() {
+        SequenceTracker t = new SequenceTracker();
+        assertTrue(t.record("a", 1));
+        assertTrue(t.record("a", 3));
+        assertFalse(t.record("a", 3));
+        assertEquals(1L, t.mark("a"));
+
+        assertTrue(t.record("a", 2));
+        assertEquals(3L, t.mark("a"));
+        assertFalse(t.record("a", 2));
+    }
+
+    @Test
+    void idleOriginsAreForgottenAndRequestsStayBounded() {
+        SequenceTracker t = new SequenceTracker();
+        t.record("keep", 1);
+        for (int i = 0; i < 2 * SequenceTracker.MAX_ORIGINS; i++) {
+            t.record("o" + i, 1);
+            if (i % 100 == 0) t.record("keep", i + 2);
+        }
+        assertTrue(t.origins() <= SequenceTracker.MAX_ORIGINS);
+        assertEquals(0L, t.mark("o0"), "the longest idle origin is gone");
+        assertTrue(t.mark("keep") > 0, "an active one stays");
+        assertEquals(SequenceTracker.MAX_MARKS, SequenceTracker.parseMarks(t.marksCsv()).size());
+        assertTrue(SequenceTracker.parseMarks(t.marksCsv()).containsKey("o" + (2 * SequenceTracker.MAX_ORIGINS - 1)));
+    }
+
+    @Test
+    void settleSkipsGapsNobodyCanFill() {
+        SequenceTracker t = new SequenceTracker();
+        t.record("a", 500);
+        t.record("a", 501);
+        t.record("a", 700);
+        t.record("b", 9);
+        assertEquals(0L, t.mark("a"));
+
+        t.settle("a", 501);
+        assertEquals(501L, t.mark("a"));
+        assertEquals(0L, t.mark("b"), "only the streamed origin settles");
+        assertTrue(t.record("a", 699), "gaps above what was streamed stay open");
+        assertFalse(t.record("a", 700));
+    }
+}
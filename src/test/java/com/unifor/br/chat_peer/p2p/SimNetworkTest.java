@@ -0,0 +1,150 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimNetworkTest {
+
+    private static PeerConfig config(SimNetwork sim) {
+        return new PeerConfig().network(sim).jmx(false).autoConnect(false).sync(false)
+                .forwardMode(PeerConfig.ForwardMode.FLOOD)
+                .historyCapacity(256).dedupMemoryBytes(64 << 10).outboundQueueCapacity(64);
+    }
+
+    private static List<PeerNode> start(int n, PeerConfig config) throws Exception {
+        List<PeerNode> nodes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            PeerNode node = new PeerNode("n" + i, 0, true, config);
+            node.start();
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static void connect(PeerNode from, PeerNode to) {
+        PeerAddress addr = to.localAddress();
+        from.connectTo(addr.host, addr.port);
+    }
+
+    @Test
+    void framesArriveOneLatencyLaterOnVirtualTime() throws Exception {
+        SimNetwork sim = new SimNetwork(1).latencyMillis(40);
+        List<PeerNode> nodes = start(2, config(sim));
+        AtomicLong deliveredAt = new AtomicLong();
+        nodes.get(1).onDeliver = m -> deliveredAt.set(sim.nanoTime());
+        connect(nodes.get(0), nodes.get(1));
+        assertTrue(sim.runUntil(() -> nodes.get(0).connectionCount() == 1 && nodes.get(1).connectionCount() == 1, 1000));
+
+        sim.runFor(500);
+        long sentAt = sim.nanoTime();
+        nodes.get(0).broadcastUserText("olá");
+        sim.runFor(1000);
+        assertEquals(40_000_000, deliveredAt.get() - sentAt);
+        nodes.forEach(PeerNode::safeClose);
+    }
+
+    @Test
+    void schedulersRunCallablesAndFixedDelayTasksOnVirtualTime() throws Exception {
+        SimNetwork sim = new SimNetwork(1);
+        ScheduledExecutorService timer = sim.newScheduler("test");
+        ScheduledFuture<String> answer = timer.schedule(() -> "pronto", 5, TimeUnit.MILLISECONDS);
+        assertThrows(IllegalStateException.class, answer::get, "the simulation never waits");
+
+        List<Long> runs = new ArrayList<>();
+        long start = sim.nanoTime();
+        timer.scheduleWithFixedDelay(() -> runs.add((sim.nanoTime() - start) / 1_000_000), 10, 10, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> failing = timer.scheduleAtFixedRate(() -> { throw new IllegalStateException(); }, 1, 1, TimeUnit.MILLISECONDS);
+        sim.runFor(35);
+
+        assertEquals("pronto", answer.get());
+        assertEquals(List.of(10L, 20L, 30L), runs);
+        assertThrows(ExecutionException.class, failing::get, "a periodic task that throws stops");
+        assertEquals(1, sim.taskFailures());
+        timer.shutdownNow();
+    }
+
+    @Test
+    void broadcastTreeRepairsItselfAroundAKilledNode() throws Exception {
+        SimNetwork sim = new SimNetwork(3).latencyMillis(5).jitterMillis(2);
+        List<PeerNode> nodes = start(40, config(sim).forwardMode(PeerConfig.ForwardMode.PLUMTREE));
+        Random rnd = new Random(3);
+        for (int i = 0; i < nodes.size(); i++) {
+            connect(nodes.get(i), nodes.get((i + 1) % nodes.size()));
+            connect(nodes.get(i), nodes.get(rnd.nextInt(nodes.size())));
+        }
+        sim.runFor(2000);
+        for (int i = 0; i < 10; i++) {
+            nodes.get(rnd.nextInt(nodes.size())).broadcastUserText("aquecimento " + i);
+            sim.runFor(100);
+        }
+
+        // the busiest tree node: its eager links are the ones the others must graft around
+        PeerNode victim = nodes.get(0);
+        for (PeerNode node : nodes) {
+            if (node.forwardStats().eagerLinks > victim.forwardStats().eagerLinks) victim = node;
+        }
+        victim.safeClose();
+        List<PeerNode> survivors = new ArrayList<>(nodes);
+        survivors.remove(victim);
+        sim.runFor(500);
+
+        AtomicLong deliveries = new AtomicLong();
+        for (PeerNode node : survivors) node.onDeliver = m -> deliveries.incrementAndGet();
+        for (int i = 0; i < 20; i++) {
+            survivors.get(rnd.nextInt(survivors.size())).broadcastUserText("depois " + i);
+            sim.runFor(100);
+        }
+        sim.runFor(3000);
+
+        long grafts = 0;
+        for (PeerNode node : survivors) grafts += node.forwardStats().graftsSent;
+        survivors.forEach(PeerNode::safeClose);
+        assertEquals(20L * (survivors.size() - 1), deliveries.get(), "every survivor got every message");
+        assertTrue(grafts > 0, "the tree was repaired through GRAFT");
+    }
+
+    @Test
+    void sameSeedReplaysTheSameRun() throws Exception {
+        long[] a = floodRun(7), b = floodRun(7);
+        assertArrayEquals(a, b);
+        assertEquals(299L * 20, a[0], "every node got every message");
+        assertTrue(a[3] > 0, "some frames were retransmitted");
+    }
+
+    /** 300 nodes on a ring with random chords, jitter and loss; returns deliveries, their time sum, events and retransmits. */
+    private static long[] floodRun(long seed) throws Exception {
+        SimNetwork sim = new SimNetwork(seed).latencyMillis(5).jitterMillis(3).loss(0.02);
+        List<PeerNode> nodes = start(300, config(sim));
+        Random rnd = new Random(seed);
+        for (int i = 0; i < nodes.size(); i++) {
+            connect(nodes.get(i), nodes.get((i + 1) % nodes.size()));
+            connect(nodes.get(i), nodes.get(rnd.nextInt(nodes.size())));
+        }
+        sim.runFor(2000);
+
+        AtomicLong deliveries = new AtomicLong(), timeSum = new AtomicLong();
+        for (PeerNode node : nodes) {
+            node.onDeliver = m -> {
+                deliveries.incrementAndGet();
+                timeSum.addAndGet(sim.nanoTime());
+            };
+        }
+        for (int i = 0; i < 20; i++) {
+            nodes.get(rnd.nextInt(nodes.size())).broadcastUserText("mensagem " + i);
+            sim.runFor(50);
+        }
+        sim.runFor(3000);
+        nodes.forEach(PeerNode::safeClose);
+        return new long[]{deliveries.get(), timeSum.get(), sim.eventsProcessed(), sim.retransmits()};
+    }
+}
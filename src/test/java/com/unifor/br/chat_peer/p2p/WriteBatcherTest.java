@@ -0,0 +1,66 @@
+package com.unifor.br.chat_peer.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBatcherTest {
+
+    private static final long LATENCY_MILLIS = 10;
+
+    @Test
+    void burstLeavesInFewWritesWithinTheMaximumDelay() throws Exception {
+        SimNetwork sim = new SimNetwork(3).latencyMillis(LATENCY_MILLIS);
+        PeerNode[] pair = pair(sim);
+        List<Long> arrivals = new ArrayList<>();
+        pair[1].onDeliver = m -> arrivals.add(sim.nanoTime());
+
+        long writesBefore = pair[0].metrics().batchFrames().count;
+        long sentAt = sim.nanoTime();
+        for (int i = 0; i < 200; i++) pair[0].broadcastUserText("bot " + i);
+        sim.runFor(1000);
+
+        assertEquals(200, arrivals.size());
+        long writes = pair[0].metrics().batchFrames().count - writesBefore;
+        assertTrue(writes <= 200 / 8, "writes for 200 messages: " + writes);
+        assertEquals(32, pair[0].metrics().batchFrames().max);
+        for (long at : arrivals) assertTrue(at - sentAt <= (LATENCY_MILLIS + 2) * 1_000_000, "held too long");
+        close(pair);
+    }
+
+    @Test
+    void lightTrafficIsNeverHeldBack() throws Exception {
+        SimNetwork sim = new SimNetwork(3).latencyMillis(LATENCY_MILLIS);
+        PeerNode[] pair = pair(sim);
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            long sentAt = sim.nanoTime();
+            pair[1].onDeliver = m -> delays.add(sim.nanoTime() - sentAt);
+            pair[0].broadcastUserText("oi " + i);
+            sim.runFor(50);
+        }
+        assertEquals(20, delays.size());
+        for (long d : delays) assertEquals(LATENCY_MILLIS * 1_000_000, d);
+        close(pair);
+    }
+
+    private static PeerNode[] pair(SimNetwork sim) throws Exception {
+        PeerConfig config = new PeerConfig().network(sim).jmx(false).autoConnect(false).sync(false)
+                .historyCapacity(1024).dedupMemoryBytes(64 << 10).batchMaxDelayMillis(2).batchMaxFrames(32);
+        PeerNode a = new PeerNode("a", 0, true, config), b = new PeerNode("b", 0, true, config);
+        a.start();
+        b.start();
+        PeerAddress addr = b.localAddress();
+        a.connectTo(addr.host, addr.port);
+        assertTrue(sim.runUntil(() -> a.connectionCount() == 1 && b.connectionCount() == 1, 1000));
+        sim.runFor(500);
+        return new PeerNode[]{a, b};
+    }
+
+    private static void close(PeerNode[] nodes) {
+        for (PeerNode n : nodes) n.safeClose();
+    }
+}